@@ -28,6 +28,11 @@ public class StateActionKey {
         return state_ == key.state_ && action_ == key.action_;
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(state_) + (action_ == null ? 0 : action_.ordinal());
+    }
+
     public Types.ACTIONS getAction() {
         return action_;
     }
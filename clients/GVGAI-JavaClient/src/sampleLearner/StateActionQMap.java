@@ -3,7 +3,9 @@ package sampleLearner;
 import serialization.Types;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Set;
 
@@ -21,25 +23,56 @@ public class StateActionQMap {
     public static int NSteps = 10;
     public static double MIN_NEGATIVE = -1000;
 
-    HashMap<StateActionKey, Double> state_action_q_;
+    private static final Types.ACTIONS[] ACTIONS = Types.ACTIONS.values();
+
+    /**
+     * Q-values of the actions of a state, indexed by action ordinal.
+     */
+    private static class Entry {
+        final double[] q = new double[ACTIONS.length];
+        final StateActionKey[] keys = new StateActionKey[ACTIONS.length];
+    }
+
+    /**
+     * Entries by state. States are compared by identity, as in StateActionKey.
+     */
+    IdentityHashMap<State, Entry> q_by_state_;
+
+    /**
+     * Keys of the table by action ordinal, in insertion order.
+     */
+    ArrayList<StateActionKey>[] keys_by_action_;
+
     public LinkedList<Double> fifo_rewards_;
     public LinkedList<State> last_n_states_;
 
+    @SuppressWarnings("unchecked")
     public StateActionQMap() {
-        state_action_q_ = new HashMap<>();
+        q_by_state_ = new IdentityHashMap<>();
+        keys_by_action_ = (ArrayList<StateActionKey>[]) new ArrayList<?>[ACTIONS.length];
+        for (int i = 0; i < ACTIONS.length; i++) {
+            keys_by_action_[i] = new ArrayList<>();
+        }
         this.fifo_rewards_ = new LinkedList<>();
         this.last_n_states_ = new LinkedList<>();
     }
 
     public Set<StateActionKey> getPairedKeys() {
-        return state_action_q_.keySet();
+        Set<StateActionKey> keys = new HashSet<>();
+        for (ArrayList<StateActionKey> action_keys : keys_by_action_) {
+            keys.addAll(action_keys);
+        }
+        return keys;
     }
 
     public ArrayList<Types.ACTIONS> getActionsByStates(State state) {
         ArrayList<Types.ACTIONS> actions = new ArrayList<>();
-        for (StateActionKey key: state_action_q_.keySet()) {
-            if (key.getState() == state) {
-                actions.add(key.getAction());
+        Entry entry = q_by_state_.get(state);
+        if (entry != null) {
+            for (int a = 0; a < ACTIONS.length; a++) {
+                if (entry.keys[a] != null) {
+                    actions.add(ACTIONS[a]);
+                }
             }
         }
         return actions;
@@ -48,16 +81,12 @@ public class StateActionQMap {
     public double calculateOptimalQForState(State state) {
         double optimal_q = 0;
         boolean first = true;
-        for (StateActionKey key: state_action_q_.keySet()) {
-            if (key.getState() == state) {
-                if (first) {
-                    optimal_q = state_action_q_.get(key);
+        Entry entry = q_by_state_.get(state);
+        if (entry != null) {
+            for (int a = 0; a < ACTIONS.length; a++) {
+                if (entry.keys[a] != null && (first || entry.q[a] > optimal_q)) {
+                    optimal_q = entry.q[a];
                     first = false;
-                } else {
-                    double tmp_qvalue = state_action_q_.get(key);
-                    if (tmp_qvalue > optimal_q) {
-                        optimal_q = tmp_qvalue;
-                    }
                 }
             }
         }
@@ -66,48 +95,30 @@ public class StateActionQMap {
 
     public ArrayList<State> getStatesByAction(Types.ACTIONS action) {
         ArrayList<State> states = new ArrayList<>();
-        for (StateActionKey key: state_action_q_.keySet()) {
-            if (key.getAction() == action) {
-                states.add(key.getState());
-            }
+        for (StateActionKey key: keys_by_action_[action.ordinal()]) {
+            states.add(key.getState());
         }
         return states;
     }
 
     public ArrayList<StateActionKey> getKeysByAction(Types.ACTIONS action) {
-        ArrayList<StateActionKey> state_action = new ArrayList<>();
-        for (StateActionKey key: state_action_q_.keySet()) {
-            if (key.getAction() == action) {
-                state_action.add(key);
-            }
-        }
-        return state_action;
+        return new ArrayList<>(keys_by_action_[action.ordinal()]);
     }
 
     public StateActionKey getKeyByStateAction(State state, Types.ACTIONS action) {
-        for (StateActionKey key: state_action_q_.keySet()) {
-            if (key.getAction() == action || key.getState() == state) {
-                return key;
-            }
-        }
-        return null;
+        Entry entry = q_by_state_.get(state);
+        return entry == null ? null : entry.keys[action.ordinal()];
     }
 
     public Types.ACTIONS pickOptimalAction(State state) {
         double optimal_q = 0;
-        boolean first = true;
         Types.ACTIONS optimal_action = null;
-        for (StateActionKey key: state_action_q_.keySet()) {
-            if (key.getState() == state) {
-                if (first) {
-                    optimal_q = state_action_q_.get(key);
-                    optimal_action = key.getAction();
-                } else {
-                    double tmp_q = state_action_q_.get(key);
-                    if (tmp_q > optimal_q) {
-                        optimal_q = tmp_q;
-                        optimal_action = key.getAction();
-                    }
+        Entry entry = q_by_state_.get(state);
+        if (entry != null) {
+            for (int a = 0; a < ACTIONS.length; a++) {
+                if (entry.keys[a] != null && (optimal_action == null || entry.q[a] > optimal_q)) {
+                    optimal_q = entry.q[a];
+                    optimal_action = ACTIONS[a];
                 }
             }
         }
@@ -118,23 +129,31 @@ public class StateActionQMap {
     }
 
     public double getQByStateAction(State state, Types.ACTIONS action) {
-        for (StateActionKey key: state_action_q_.keySet()) {
-            if (key.getAction() == action || key.getState() == state) {
-                return state_action_q_.get(key);
-            }
+        Entry entry = q_by_state_.get(state);
+        if (entry == null || entry.keys[action.ordinal()] == null) {
+            return 0;
         }
-        return 0;
+        return entry.q[action.ordinal()];
     }
 
     public void put(State state, Types.ACTIONS action, double qvalue) {
-        state_action_q_.put(new StateActionKey(state, action), qvalue);
+        Entry entry = q_by_state_.get(state);
+        if (entry == null) {
+            entry = new Entry();
+            q_by_state_.put(state, entry);
+        }
+        int a = action.ordinal();
+        if (entry.keys[a] == null) {
+            entry.keys[a] = new StateActionKey(state, action);
+            keys_by_action_[a].add(entry.keys[a]);
+        }
+        entry.q[a] = qvalue;
     }
 
     public void update(State state, Types.ACTIONS action, double qvalue) {
-        for (StateActionKey key: state_action_q_.keySet()) {
-            if (key.getAction() == action || key.getState() == state) {
-                state_action_q_.put(key, qvalue);
-            }
+        Entry entry = q_by_state_.get(state);
+        if (entry != null && entry.keys[action.ordinal()] != null) {
+            entry.q[action.ordinal()] = qvalue;
         }
     }
 
@@ -143,36 +162,26 @@ public class StateActionQMap {
     }
 
     public void putEntry(State state, Types.ACTIONS action, double qvalue) {
-        StateActionKey key = getKeyByStateAction(state,action);
-        if (key == null) {
-            put(state,action,qvalue);
-        } else {
-            state_action_q_.put(key, qvalue);
-        }
+        put(state, action, qvalue);
     }
 
     public void updateQValue(State state, State last_state, Types.ACTIONS last_action, double reward) {
-        StateActionKey key = getKeyByStateAction(last_state, last_action);
-        if (key == null) {
+        if (last_action == null) {
+            return;
+        }
+        Entry entry = q_by_state_.get(last_state);
+        int a = last_action.ordinal();
+        if (entry == null || entry.keys[a] == null) {
             put(last_state, last_action, reward);
         } else {
-            double qvalue = getQByStateAction(last_state, last_action);
-            qvalue = qvalue +
+            double qvalue = entry.q[a];
+            entry.q[a] = qvalue +
                 learningRate * (reward + discountFactor * calculateOptimalQForState(state) - qvalue);
-            update(last_state, last_action, qvalue);
         }
     }
 
     public void updateQValueTDLambda(State state, State last_state, Types.ACTIONS last_action, double reward) {
-        StateActionKey key = getKeyByStateAction(last_state, last_action);
-        if (key == null) {
-            put(last_state, last_action, reward);
-        } else {
-            double qvalue = getQByStateAction(last_state, last_action);
-            qvalue = qvalue +
-                learningRate * (reward + discountFactor * calculateOptimalQForState(state) - qvalue);
-            update(last_state, last_action, qvalue);
-        }
+        updateQValue(state, last_state, last_action, reward);
     }
 
     public void updateQValueTD() {
@@ -215,8 +224,11 @@ public class StateActionQMap {
             System.err.println("n > NSteps.");
         }
         double n_step_return = 0.0;
+        double discount = 1.0;
+        Iterator<Double> rewards = fifo_rewards_.iterator();
         for (int i=0; i<n; i++) {
-            n_step_return += Math.pow(StateActionQMap.discountFactor, i) * fifo_rewards_.get(i);
+            n_step_return += discount * rewards.next();
+            discount *= StateActionQMap.discountFactor;
         }
         return n_step_return;
     }
@@ -226,11 +238,7 @@ public class StateActionQMap {
      * @return
      */
     public double calculateNStepsReturn() {
-        double n_step_return = 0.0;
-        for (int i=0; i<fifo_rewards_.size(); i++) {
-            n_step_return += Math.pow(StateActionQMap.discountFactor, i) * fifo_rewards_.get(i);
-        }
-        return n_step_return;
+        return calculateNStepsReturn(fifo_rewards_.size());
     }
 
     /**
@@ -239,18 +247,18 @@ public class StateActionQMap {
      */
     public double calculateNStepsReturn(double reward) {
         updateHistoryRewards(reward);
-        double n_step_return = 0.0;
-        for (int i=0; i<fifo_rewards_.size(); i++) {
-            n_step_return += Math.pow(StateActionQMap.discountFactor, i) * fifo_rewards_.get(i);
-        }
-        return n_step_return;
+        return calculateNStepsReturn(fifo_rewards_.size());
     }
 
     public String toString() {
         String str = "";
         int id = 0;
-        for (StateActionKey key: state_action_q_.keySet()) {
-            str += "state-action " + id + " " + key.getAction() + ", "+ this.state_action_q_.get(key) + "\n";
+        for (Entry entry : q_by_state_.values()) {
+            for (int a = 0; a < ACTIONS.length; a++) {
+                if (entry.keys[a] != null) {
+                    str += "state-action " + id + " " + ACTIONS[a] + ", "+ entry.q[a] + "\n";
+                }
+            }
         }
         return str;
     }
@@ -67,6 +67,7 @@ public class SerializableStateObservation {
      * Observations of the world.
      */
     public Observation[][][] observationGrid;
+    public byte[] observationTensor;
     public Observation[][] NPCPositions;
     public Observation[][] immovablePositions;
     public Observation[][] movablePositions;
@@ -98,6 +99,7 @@ public class SerializableStateObservation {
         this.availableActions = null;
         this.avatarResources = null;
         this.observationGrid = null;
+        this.observationTensor = null;
         this.NPCPositions = null;
         this.immovablePositions = null;
         this.movablePositions = null;
@@ -347,6 +349,16 @@ public class SerializableStateObservation {
         return observationGrid;
     }
 
+    /**
+     * Returns the dense occupancy tensor of the observation grid, if the server sends it.
+     * For each cell (x,y) and sprite type t, the number of sprites of type t in that cell
+     * is at ((x * gridHeight) + y) * numSpriteTypes + t.
+     * @return the occupancy tensor, or null if not sent.
+     */
+    public byte[] getObservationTensor() {
+        return observationTensor;
+    }
+
     /**
      * Returns a list of observations of NPC in the game. As there can be
      * NPCs of different type, each entry in the array corresponds to a sprite type.
@@ -42,6 +42,7 @@ class SerializableStateObservation:
         self.avatarResources = {}
 
         self.observationGrid = []
+        self.observationTensor = []
         self.NPCPositionsNum = 0
         self.NPCPositionsMaxRow = 0
         self.NPCPositions = []
@@ -2,6 +2,7 @@ import java.util.Random;
 import java.util.TreeSet;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 
@@ -10,14 +11,18 @@ import core.game.Game;
 import core.game.Observation;
 import core.game.StateObservation;
 import ontology.Types;
+import tools.ResultCache;
+import tools.ResultWriter;
+import tools.TrajectoryRecorder;
 import tools.Vector2d;
 import tracks.ArcadeMachine;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 public class PlayVGDL {
 
+    /**
+     * Result of a game, as it was serialized with Gson. The results are now written with a
+     * ResultWriter, whose output (with all fields) is the same.
+     */
     public static class VGDLResultCompatible {
         public int npcs;
         public double gameScore;
@@ -39,7 +44,108 @@ public class PlayVGDL {
 
     }
 
+    /**
+     * Cache of results of previous games, null when disabled.
+     */
+    private static ResultCache resultCache;
+
+    /**
+     * Writer of the results returned as strings.
+     */
+    private static final ResultWriter resultWriter = new ResultWriter();
+
+    /**
+     * Enables the cache of results: a game played again with the same game, level, agent and
+     * seed returns the stored result without running. Only exact with deterministic agents.
+     * @param filename file where results are stored (it is created if it does not exist).
+     * @param maxEntries maximum number of results kept.
+     */
+    public static void enableResultCache(String filename, int maxEntries) throws IOException {
+        if (resultCache != null)
+            resultCache.close();
+        resultCache = new ResultCache(filename, maxEntries);
+    }
+
+    /**
+     * Disables the cache of results.
+     */
+    public static void disableResultCache() {
+        if (resultCache != null)
+            resultCache.close();
+        resultCache = null;
+    }
+
+    /**
+     * Enables the recording of the trajectories of the games played (actions, rewards, avatar
+     * positions and events of every tick) in a binary file, read with tools.TrajectoryReader.
+     * Games whose result comes from the cache are not played, so they are not recorded.
+     * @param filename file where trajectories are appended (it is created if it does not exist).
+     * @param observations true to also record the observation grid of every tick.
+     */
+    public static void enableTrajectoryRecording(String filename, boolean observations) throws IOException {
+        disableTrajectoryRecording();
+        ArcadeMachine.trajectoryRecorder = new TrajectoryRecorder(filename, observations);
+    }
+
+    /**
+     * Disables the recording of trajectories.
+     */
+    public static void disableTrajectoryRecording() {
+        if (ArcadeMachine.trajectoryRecorder != null)
+            ArcadeMachine.trajectoryRecorder.close();
+        ArcadeMachine.trajectoryRecorder = null;
+    }
+
     public static String PlayVGDL(String vgdl, String level, int agent) {
+        return PlayVGDL(vgdl, level, agent, new Random().nextInt());
+    }
+
+    public static String PlayVGDL(String vgdl, String level, int agent, int seed) {
+        String desiredAgent = agentName(agent);
+
+        String key = null;
+        if (resultCache != null) {
+            key = ResultCache.key("PlayVGDL", vgdl, level, desiredAgent, String.valueOf(seed));
+            String cached = resultCache.get(key);
+            if (cached != null) {
+                System.out.println("Game finished with JSON result (cached): " + cached);
+                return cached;
+            }
+        }
+
+        String recordActionsFile = null;
+        var genGame = ArcadeMachine.runOneGameStr(vgdl, level, false, desiredAgent, recordActionsFile, seed, 0);
+        String jsonResult = resultWriter.toJson(genGame.getObservation(), genGame);
+        if (key != null)
+            resultCache.put(key, jsonResult);
+
+        System.out.print("Game finished with JSON result: ");
+        System.out.println(jsonResult);
+        return jsonResult;
+    }
+
+    /**
+     * Plays a game and writes its result to a stream, without building it in memory. The
+     * results written this way are not cached.
+     * @param vgdl game description.
+     * @param level level description.
+     * @param agent sample agent that plays (see PlayVGDL(String, String, int, int)).
+     * @param seed seed of the game.
+     * @param out where the result is written (it is not closed).
+     * @param writer writer of the result, with the fields, truncation and compression wanted.
+     */
+    public static void PlayVGDL(String vgdl, String level, int agent, int seed, OutputStream out,
+                                ResultWriter writer) throws IOException {
+        String recordActionsFile = null;
+        var genGame = ArcadeMachine.runOneGameStr(vgdl, level, false, agentName(agent), recordActionsFile, seed, 0);
+        writer.write(genGame.getObservation(), genGame, out);
+    }
+
+    /**
+     * @param agent index of a sample agent.
+     * @return the class of the agent (sampleRandom if the index is unknown).
+     */
+    private static String agentName(int agent) {
         String sampleRandomController = "tracks.singlePlayer.simple.sampleRandom.Agent";
         String doNothingController = "tracks.singlePlayer.simple.doNothing.Agent";
         String sampleOneStepController = "tracks.singlePlayer.simple.sampleonesteplookahead.Agent";
@@ -62,44 +168,35 @@ public class PlayVGDL {
             case 7: desiredAgent = sampleOLETSController; break;
             default: desiredAgent = sampleRandomController; break;
         }
-
-        int seed = new Random().nextInt();
-
-        String recordActionsFile = null;
-        var genGame = ArcadeMachine.runOneGameStr(vgdl, level, false, desiredAgent, recordActionsFile, seed, 0);
-        var obs = genGame.getObservation();
-
-        Gson gson = new GsonBuilder()
-                .serializeSpecialFloatingPointValues()
-                .create();
-
-        var result = new VGDLResultCompatible(obs, genGame);
-        String jsonResult = gson.toJson(result);
-
-        System.out.println("Game finished with JSON result: " + jsonResult);
-        // System.out.println(result.toString());
-        return jsonResult;
+        return desiredAgent;
     }
 
 
 
     public static String SelfDefineAgentPlay(String vgdl, String level, String agentCode) throws IOException {
+        return SelfDefineAgentPlay(vgdl, level, agentCode, new Random().nextInt());
+    }
+
+    public static String SelfDefineAgentPlay(String vgdl, String level, String agentCode, int seed) throws IOException {
         try{
-            int seed = new Random().nextInt();
+            String key = null;
+            if (resultCache != null) {
+                key = ResultCache.key("SelfDefineAgentPlay", vgdl, level, agentCode, String.valueOf(seed));
+                String cached = resultCache.get(key);
+                if (cached != null) {
+                    System.out.println("Game finished with JSON result (cached): " + cached);
+                    return cached;
+                }
+            }
 
             String recordActionsFile = null;
             var genGame = ArcadeMachine.runOneGameStrWithAgent(vgdl, level, false, agentCode, recordActionsFile, seed, 0);
-            var obs = genGame.getObservation();
+            String jsonResult = resultWriter.toJson(genGame.getObservation(), genGame);
+            if (key != null)
+                resultCache.put(key, jsonResult);
 
-            Gson gson = new GsonBuilder()
-                    .serializeSpecialFloatingPointValues()
-                    .create();
-
-            var result = new VGDLResultCompatible(obs, genGame);
-            String jsonResult = gson.toJson(result);
-
-            System.out.println("Game finished with JSON result: " + jsonResult);
-            // System.out.println(result.toString());
+            System.out.print("Game finished with JSON result: ");
+            System.out.println(jsonResult);
             return jsonResult;
 
         }catch (Exception e){
@@ -107,6 +204,23 @@ public class PlayVGDL {
         }
     }
 
+    /**
+     * Plays a game with an agent given as source code and writes its result to a stream, without
+     * building it in memory. The results written this way are not cached.
+     * @param vgdl game description.
+     * @param level level description.
+     * @param agentCode source code of the agent.
+     * @param seed seed of the game.
+     * @param out where the result is written (it is not closed).
+     * @param writer writer of the result, with the fields, truncation and compression wanted.
+     */
+    public static void SelfDefineAgentPlay(String vgdl, String level, String agentCode, int seed, OutputStream out,
+                                           ResultWriter writer) throws IOException {
+        String recordActionsFile = null;
+        var genGame = ArcadeMachine.runOneGameStrWithAgent(vgdl, level, false, agentCode, recordActionsFile, seed, 0);
+        writer.write(genGame.getObservation(), genGame, out);
+    }
+
     public static void main(String[] args) throws IOException {
 
         String vgdl = """
@@ -29,6 +29,18 @@ public class CompetitionParameters
      */
     public static final int TEAR_DOWN_TIME = 100;
 
+    /**
+     * Run the constructor, act() and result() of the controllers on threads of their own (see
+     * AgentWatchdog), so a controller that loops or stalls can not hold the game.
+     */
+    public static boolean AGENT_WATCHDOG = true;
+
+    /**
+     * Milliseconds (wall time) the game waits for a controller call beyond the time that would
+     * disqualify the controller. After this, the controller is disqualified without waiting more.
+     */
+    public static int WATCHDOG_MARGIN = 1000;
+
     /**
      * Milliseconds allowed for the level generator to generate a level
      */
@@ -81,6 +93,25 @@ public class CompetitionParameters
      */
     public static final int SOCKET_PORT = 8080;
 
+    /**
+     * Bytes that a learning session of the comm server (CommServer) may have waiting to be sent to its
+     * client, or received and not read yet. Over this limit, the session stops sending (or reading) until
+     * the client catches up, without affecting the other sessions.
+     */
+    public static int COMM_BUFFER_LIMIT = 4 * 1024 * 1024;
+
+    /**
+     * Milliseconds a session of the comm server waits for a message from its client.
+     */
+    public static int COMM_RECV_TIMEOUT = 60000;
+
+    /**
+     * Rollout worker processes launched on this machine, when the first game is run, for the sample
+     * agents that can use them (see tools.rollout.RolloutCoordinator). 0 to not use workers. It can
+     * also be set with -Dgvgai.rolloutWorkers=N.
+     */
+    public static int ROLLOUT_WORKERS = Integer.getInteger("gvgai.rolloutWorkers", 0);
+
     /**
      * Indicates if the overspend should be taken into account or not.
      *  Time limits are WALL TIME on Windows, because CPU TIME is not accurate enough
@@ -97,6 +128,11 @@ public class CompetitionParameters
      * Max number of warning then the system consider the game unplayable.
      */
     public static final int MAX_ALLOWED_WARNINGS = 25;
+
+    /**
+     * Max number of different messages kept by a logger (core.logging.Logger). Older ones are discarded.
+     */
+    public static int MAX_LOGGED_MESSAGES = 256;
     
     /**
      * Path to sprite images.
@@ -157,5 +193,25 @@ public class CompetitionParameters
     public static double MAX_WINDOW_SIZE = 800.0;
     public static int LEARNING_BLOCK_SIZE = 10;
     public static boolean IS_LEARNING = false;
+    public static boolean LEARNING_OBSERVATION_TENSOR = false;
     public static final int validation_times = 10;
+
+    /**
+     * Version of the engine. Cached results (see tools.ResultCache) are indexed by it and by a
+     * hash of the engine classes. It must be bumped by hand whenever the engine changes in a way
+     * that can change the result of a game, since the hash is not available when the classes
+     * can't be read (see ResultCache.engineVersion()).
+     */
+    public static final String ENGINE_VERSION = "gvgai-2";
+
+    /**
+     * Number of agents submitted as source code whose compiled classes are kept in memory.
+     */
+    public static int AGENT_CACHE_SIZE = 32;
+
+    /**
+     * Profiles the engine in all games created (see core.game.EngineProfiler). Games can also be
+     * profiled one by one, with Game.enableProfiling().
+     */
+    public static boolean ENGINE_PROFILING = false;
 }
@@ -1,5 +1,8 @@
 package core.competition;
 
+import java.io.IOException;
+
+import core.game.Replay;
 import tracks.ArcadeMachine;
 
 /**
@@ -11,6 +14,8 @@ public class GVGReplayer {
     public static String level;
     public static String actionFile;
     public static int delay;
+    public static boolean verify;
+    public static String trajectoryFile;
 
     public static void printHelp()
     {
@@ -27,7 +32,14 @@ public class GVGReplayer {
         System.out.println("\t-d Delay.\n" +
                 "\t\t[Optional]\n" +
                 "\t\t[Default: 0ms (no delay)]\n" +
-                "\t\t[Ex: -d 15]\n");
+                "\t\t[Ex: -d 15]");
+        System.out.println("\t-v Verify the action file without showing it (1), replaying it headless.\n" +
+                "\t\t[Optional]\n" +
+                "\t\t[Default: 0]\n" +
+                "\t\t[Ex: -v 1]");
+        System.out.println("\t-t Trajectory file whose episodes are all verified headless (no other parameters needed).\n" +
+                "\t\t[Optional]\n" +
+                "\t\t[Ex: -t trajectories.bin]\n");
         System.out.printf("\tComplete example:\n" +
                 "\t\tjava GVGReplayer -g examples/gridphysics/aliens.txt -l examples/gridphysics/aliens_lvl0.txt -a actionsFile_aliens_lvl0.txt -d 10");
 
@@ -43,11 +55,15 @@ public class GVGReplayer {
             actionFile = arg2;
         else if(arg1.equalsIgnoreCase("-d"))
             delay = Integer.parseInt(arg2);
+        else if(arg1.equalsIgnoreCase("-v"))
+            verify = arg2.equals("1");
+        else if(arg1.equalsIgnoreCase("-t"))
+            trajectoryFile = arg2;
     }
 
-    public static void main(String args[])
+    public static void main(String args[]) throws IOException
     {
-        if(args.length < 6 || (args.length % 2 != 0))
+        if(args.length < 2 || (args.length % 2 != 0))
         {
             printHelp();
             return;
@@ -57,6 +73,23 @@ public class GVGReplayer {
         for(int i = 0; i < args.length; i+=2)
             parseParameter(args[i], args[i+1]);
 
+        if(trajectoryFile != null)
+        {
+            System.exit(Replay.verifyTrajectories(trajectoryFile) == 0 ? 0 : 1);
+        }
+        if(game == null || level == null || actionFile == null)
+        {
+            printHelp();
+            return;
+        }
+
+        if(verify)
+        {
+            boolean ok = Replay.fromActionFile(game, level, actionFile, Integer.MAX_VALUE).verify();
+            System.out.println(ok ? "Replay verified." : "ERROR: Game Replay Failed.");
+            System.exit(ok ? 0 : 1);
+        }
+
         CompetitionParameters.LONG_DELAY = delay; //This is a bit of a hack, admittedly.
         ArcadeMachine.replayGame(game, level, true, actionFile);
     }
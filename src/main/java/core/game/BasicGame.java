@@ -2,6 +2,8 @@ package core.game;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 
 import core.competition.CompetitionParameters;
@@ -39,6 +41,21 @@ public class BasicGame extends Game {
 	// List of IDs of the sprites should not be traversable for the pathfinder.
 	private ArrayList<Integer> obstacles;
 
+	/**
+	 * Levels built by this game, compiled, by their text. Least recently used
+	 * levels are discarded when there are more than LEVEL_CACHE_SIZE.
+	 */
+	private LinkedHashMap<String, LevelLayout> levelLayouts = new LinkedHashMap<String, LevelLayout>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, LevelLayout> eldest) {
+			return size() > LEVEL_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Maximum number of compiled levels kept by a game.
+	 */
+	public static int LEVEL_CACHE_SIZE = 16;
+
 	/**
 	 * Default constructor for a basic game.
 	 *
@@ -163,77 +180,31 @@ public class BasicGame extends Game {
 			}
 		}
 
-		ArrayList<VGDLSprite> avatars = new ArrayList<VGDLSprite>();
-		// All sprites are created and placed here:
-		for (int i = 0; i < size.height; ++i) {
-			String line = desc_lines[i];
-
-			// For each character
-			for (int j = 0; j < size.width; ++j) {
-				Character c = line.charAt(j);
-
-				// If this character is defined in the array of mappings.
-				if (charMapping.containsKey(c)) {
-					for (String obj : charMapping.get(c)) {
-						int similarTiles = 0;
-						for (int x = -1; x <= 1; x++) {
-							for (int y = -1; y <= 1; y++) {
-								if (Math.abs(x) != Math.abs(y)
-										&& (j + x >= 0 && j + x < size.width && i + y >= 0 && i + y < size.height)) {
-									if (charMapping.containsKey(desc_lines[i + y].charAt(j + x))) {
-										ArrayList<String> neighborTiles = charMapping
-												.get(desc_lines[i + y].charAt(j + x));
-										if (neighborTiles.contains(obj)) {
-											similarTiles += Math.floor(Math.abs(x) * (x + 3) / 2)
-													+ Math.abs(y) * (y + 3) * 2;
-										}
-									}
-								}
-							}
-						}
-
-						// Get its position and add it to the game.
-						Vector2d position = new Vector2d(j * block_size, i * block_size);
-						VGDLSprite s = addSpriteIn(obj, position);
-						if(s == null){
-							continue;
-						}
-						if (s.is_avatar) {
-							avatars.add(s);
-						}
-						if (s.autotiling) {
-
-							ArrayList<Image> images = s.images.get("NONE");
-							if(images.size() > 0)
-								s.image = images.get(similarTiles);
-						}
-						if (s.randomtiling >= 0) {
-							Random random = new Random(randomSeed);
-							ArrayList<Image> allImages = s.images.get("NONE");
-							if (random.nextDouble() > s.randomtiling && allImages.size() > 0) {
-								s.image = allImages.get(random.nextInt(allImages.size()));
-							}
-						}
-					}
-				}
-				else if(c != ' '){
-					Logger.getInstance().addMessage(new Message(Message.WARNING, "\"" + c + "\" is not defined in the level mapping."));
-				}
-			}
+		// Levels are compiled once, and built again from the snapshot of their first build.
+		String levelKey = String.join("\n", desc_lines);
+		LevelLayout layout = levelLayouts.get(levelKey);
+		if (layout == null || layout.charMapping != charMapping) {
+			layout = LevelLayout.compile(desc_lines, charMapping);
+			levelLayouts.put(levelKey, layout);
 		}
 
-		if (avatars.size() > no_players) {
-			Logger.getInstance().addMessage(new Message(Message.WARNING,
-					"No more than " + no_players + " avatar(s) allowed (Others are destroyed)."));
-			for(int i=0; i<this.spriteGroups.length; i++){
-				for(int j=no_players; j<avatars.size(); j++){
-					this.spriteGroups[i].removeSprite(avatars.get(j));
-				}
-			}
+		if (layout.canRestore(this, randomSeed)) {
+			layout.restore(this);
+		} else {
+			boolean empty = (num_sprites == 0);
+			int firstID = nextSpriteID;
+			Logger.getInstance().startRecording();
+			logger.startRecording();
+			boolean seedDependent = placeSprites(layout, randomSeed);
+			ArrayList<Message> gameMessages = logger.stopRecording();
+			ArrayList<Message> allMessages = Logger.getInstance().stopRecording();
+			if (empty)
+				layout.takeSnapshot(this, firstID, allMessages, gameMessages, randomSeed, seedDependent);
 		}
 
 		// Nobody has been killed... yet!
 		kill_list = new ArrayList<VGDLSprite>();
+		computeStochastic();
 
 		// Generate the initial state observation.
 		this.createAvatars(-1);
@@ -266,6 +237,61 @@ public class BasicGame extends Game {
 		return false;
 	}
 
+	/**
+	 * Creates and places all the sprites of a compiled level.
+	 *
+	 * @param layout
+	 *            compiled level.
+	 * @param randomSeed
+	 *            seed for the random tiling of sprites.
+	 * @return true if any sprite has random tiling, so the level depends on the seed.
+	 */
+	private boolean placeSprites(LevelLayout layout, int randomSeed) {
+		boolean seedDependent = false;
+		ArrayList<VGDLSprite> avatars = new ArrayList<VGDLSprite>();
+		for (int k = 0; k < layout.size; ++k) {
+			int itype = layout.itypes[k];
+			if (itype == -1) {
+				logger.addMessage(Message.WARNING, "\"%c\" is not defined in the level mapping.", layout.undefined[k]);
+				continue;
+			}
+
+			// Get its position and add it to the game.
+			Vector2d position = new Vector2d(layout.xs[k] * block_size, layout.ys[k] * block_size);
+			VGDLSprite s = addSprite(itype, position);
+			if (s == null) {
+				continue;
+			}
+			if (s.is_avatar) {
+				avatars.add(s);
+			}
+			if (s.autotiling) {
+
+				ArrayList<Image> images = s.images.get("NONE");
+				if (images.size() > 0)
+					s.image = images.get(layout.similarTiles[k]);
+			}
+			if (s.randomtiling >= 0) {
+				seedDependent = true;
+				Random random = new Random(randomSeed);
+				ArrayList<Image> allImages = s.images.get("NONE");
+				if (random.nextDouble() > s.randomtiling && allImages.size() > 0) {
+					s.image = allImages.get(random.nextInt(allImages.size()));
+				}
+			}
+		}
+
+		if (avatars.size() > no_players) {
+			logger.addMessage(Message.WARNING, "No more than %d avatar(s) allowed (Others are destroyed).", no_players);
+			for (int i = 0; i < this.spriteGroups.length; i++) {
+				for (int j = no_players; j < avatars.size(); j++) {
+					this.spriteGroups[i].removeSprite(avatars.get(j));
+				}
+			}
+		}
+		return seedDependent;
+	}
+
 	/**
 	 * Adds one sprites in the position indicated.
 	 *
@@ -0,0 +1,354 @@
+package core.game;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import ontology.effects.Effect;
+import core.vgdl.VGDLSprite;
+
+/**
+ * Measures where the engine spends its time. Each game cycle (Game) and each advance of a forward
+ * model is split in phases, and the wall time and the memory allocated by each phase are added up.
+ * It also counts and times the executions of each class of effect and the update calls of each
+ * class of sprite.
+ *
+ * A game only profiles when it has a profiler (see Game.enableProfiling() and
+ * CompetitionParameters.ENGINE_PROFILING); otherwise the engine only checks a null field. The
+ * forward models of a game share its profiler, also when they are copied by the agents.
+ *
+ * Phases are also committed as JFR events (gvgai.EnginePhase) when a flight recording is running.
+ */
+public class EngineProfiler
+{
+    /**
+     * Phases of a game cycle or an advance, in the order they run.
+     */
+    public static final int AVATARS = 0;
+    public static final int SPRITES = 1;
+    public static final int TIME_EFFECTS = 2;
+    public static final int EOS_EFFECTS = 3;
+    public static final int COLLISIONS = 4;
+    public static final int CLEAR = 5;
+    public static final int TERMINATION = 6;
+    public static final int OBSERVATION = 7;
+    public static final String[] PHASE_NAMES = {"avatars", "sprites", "timeEffects", "eosEffects",
+            "collisions", "clearAll", "termination", "observation"};
+
+    /**
+     * Sources of the phases: the real game or its forward models.
+     */
+    public static final int GAME = 0;
+    public static final int FORWARD_MODEL = 1;
+    public static final String[] SOURCE_NAMES = {"game", "forwardModel"};
+
+    /**
+     * Time (ns), allocated bytes and number of runs of each phase, by source.
+     */
+    private long[][] phaseNanos = new long[2][PHASE_NAMES.length];
+    private long[][] phaseBytes = new long[2][PHASE_NAMES.length];
+    private long[][] phaseCount = new long[2][PHASE_NAMES.length];
+
+    /**
+     * Game cycles and forward model advances profiled.
+     */
+    private long[] cycles = new long[2];
+
+    /**
+     * Executions and time (ns) of each class of effect, and updates and time of each class of sprite.
+     */
+    private HashMap<Class<?>, long[]> effects = new HashMap<Class<?>, long[]>();
+    private HashMap<Class<?>, long[]> spriteUpdates = new HashMap<Class<?>, long[]>();
+
+    /**
+     * Cycles running in each thread. Forward models are advanced (by the agents) in the middle of
+     * a game cycle, so cycles nest: each one keeps its own mark.
+     */
+    private ThreadLocal<Marks> marks = ThreadLocal.withInitial(Marks::new);
+
+    /**
+     * Allocation counter of the threads, or null if the JVM doesn't provide it.
+     */
+    private static final com.sun.management.ThreadMXBean threadBean = allocationBean();
+
+    /**
+     * Starts a game cycle or a forward model advance in the current thread. It must be finished
+     * with endCycle().
+     * @param source GAME or FORWARD_MODEL.
+     */
+    public void beginCycle(int source)
+    {
+        Marks mark = marks.get();
+        //A game cycle is never nested: anything left is from a cycle that did not finish.
+        if (source == GAME)
+            mark.depth = 0;
+        mark.push(System.nanoTime(), allocatedBytes());
+        synchronized (this)
+        {
+            cycles[source]++;
+        }
+    }
+
+    /**
+     * Finishes the innermost cycle running in the current thread, so its phases are no longer
+     * measured and an enclosing cycle (if any) continues from its own last mark.
+     */
+    public void endCycle()
+    {
+        marks.get().pop();
+    }
+
+    /**
+     * Finishes a phase of the cycle running in the current thread. The phase takes everything since
+     * the previous phase (or the start of the cycle). Time and allocations of the cycles nested in
+     * it are included.
+     * @param source GAME or FORWARD_MODEL.
+     * @param phase phase finished.
+     * @param gameTick game tick of the cycle, for the JFR event.
+     */
+    public void endPhase(int source, int phase, int gameTick)
+    {
+        Marks mark = marks.get();
+        if (mark.depth == 0)
+            return;
+        int top = mark.depth - 1;
+        long now = System.nanoTime();
+        long bytes = allocatedBytes();
+        long nanos = now - mark.nanos[top];
+        long allocated = bytes - mark.bytes[top];
+        mark.nanos[top] = now;
+        mark.bytes[top] = bytes;
+
+        synchronized (this)
+        {
+            phaseNanos[source][phase] += nanos;
+            phaseBytes[source][phase] += allocated;
+            phaseCount[source][phase]++;
+        }
+
+        EnginePhaseEvent event = new EnginePhaseEvent();
+        if (event.isEnabled())
+        {
+            event.phase = PHASE_NAMES[phase];
+            event.source = SOURCE_NAMES[source];
+            event.gameTick = gameTick;
+            event.elapsed = nanos;
+            event.allocated = allocated;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records the execution of an effect.
+     * @param ef effect executed.
+     * @param start System.nanoTime() before executing it.
+     */
+    public void effectExecuted(Effect ef, long start)
+    {
+        add(effects, ef.getClass(), System.nanoTime() - start);
+    }
+
+    /**
+     * Records the update of a sprite.
+     * @param sp sprite updated.
+     * @param start System.nanoTime() before updating it.
+     */
+    public void spriteUpdated(VGDLSprite sp, long start)
+    {
+        add(spriteUpdates, sp.getClass(), System.nanoTime() - start);
+    }
+
+    private synchronized void add(HashMap<Class<?>, long[]> stats, Class<?> c, long nanos)
+    {
+        long[] s = stats.get(c);
+        if (s == null)
+        {
+            s = new long[2];
+            stats.put(c, s);
+        }
+        s[0]++;
+        s[1] += nanos;
+    }
+
+    /**
+     * Takes a copy of the measures so far.
+     * @return the metrics.
+     */
+    public synchronized Metrics snapshot()
+    {
+        Metrics m = new Metrics();
+        m.allocationSupported = threadBean != null;
+        for (int s = 0; s < 2; ++s)
+        {
+            m.cycles[s] = cycles[s];
+            m.phaseNanos[s] = phaseNanos[s].clone();
+            m.phaseBytes[s] = phaseBytes[s].clone();
+            m.phaseCount[s] = phaseCount[s].clone();
+        }
+        for (Map.Entry<Class<?>, long[]> e : effects.entrySet())
+            m.effects.put(e.getKey().getSimpleName(), e.getValue().clone());
+        for (Map.Entry<Class<?>, long[]> e : spriteUpdates.entrySet())
+            m.spriteUpdates.put(e.getKey().getSimpleName(), e.getValue().clone());
+        return m;
+    }
+
+    /**
+     * Discards all measures.
+     */
+    public synchronized void reset()
+    {
+        phaseNanos = new long[2][PHASE_NAMES.length];
+        phaseBytes = new long[2][PHASE_NAMES.length];
+        phaseCount = new long[2][PHASE_NAMES.length];
+        cycles = new long[2];
+        effects.clear();
+        spriteUpdates.clear();
+    }
+
+    private static long allocatedBytes()
+    {
+        return threadBean == null ? 0 : threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean()
+    {
+        try
+        {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean)
+            {
+                com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+                if (sunBean.isThreadAllocatedMemorySupported())
+                {
+                    sunBean.setThreadAllocatedMemoryEnabled(true);
+                    return sunBean;
+                }
+            }
+        } catch (UnsupportedOperationException e)
+        {
+        }
+        return null;
+    }
+
+    /**
+     * Stack of the cycles running in a thread: time and allocated bytes of the thread when the last
+     * phase of each one finished.
+     */
+    private static class Marks
+    {
+        long[] nanos = new long[4];
+        long[] bytes = new long[4];
+        int depth;
+
+        void push(long now, long allocated)
+        {
+            if (depth == nanos.length)
+            {
+                nanos = Arrays.copyOf(nanos, depth * 2);
+                bytes = Arrays.copyOf(bytes, depth * 2);
+            }
+            nanos[depth] = now;
+            bytes[depth] = allocated;
+            depth++;
+        }
+
+        void pop()
+        {
+            if (depth > 0)
+                depth--;
+        }
+    }
+
+    /**
+     * Measures taken by a profiler. Times are in nanoseconds.
+     */
+    public static class Metrics
+    {
+        /**
+         * False if the JVM can't measure allocations (all bytes are 0).
+         */
+        public boolean allocationSupported;
+
+        /**
+         * Game cycles and forward model advances measured, indexed by GAME and FORWARD_MODEL.
+         */
+        public long[] cycles = new long[2];
+
+        /**
+         * Time, allocated bytes and runs of each phase, indexed by source and phase.
+         */
+        public long[][] phaseNanos = new long[2][];
+        public long[][] phaseBytes = new long[2][];
+        public long[][] phaseCount = new long[2][];
+
+        /**
+         * {executions, time} of each class of effect, by class name.
+         */
+        public TreeMap<String, long[]> effects = new TreeMap<String, long[]>();
+
+        /**
+         * {update calls, time} of each class of sprite, by class name.
+         */
+        public TreeMap<String, long[]> spriteUpdates = new TreeMap<String, long[]>();
+
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder();
+            for (int s = 0; s < 2; ++s)
+            {
+                if (cycles[s] == 0)
+                    continue;
+                sb.append(SOURCE_NAMES[s]).append(" (").append(cycles[s]).append(" cycles)\n");
+                for (int p = 0; p < PHASE_NAMES.length; ++p)
+                    sb.append(String.format("  %-12s %10.3f ms %12d bytes %8d runs%n", PHASE_NAMES[p],
+                            phaseNanos[s][p] / 1e6, phaseBytes[s][p], phaseCount[s][p]));
+            }
+            appendStats(sb, "effects", effects);
+            appendStats(sb, "sprite updates", spriteUpdates);
+            return sb.toString();
+        }
+
+        private static void appendStats(StringBuilder sb, String title, TreeMap<String, long[]> stats)
+        {
+            if (stats.isEmpty())
+                return;
+            sb.append(title).append('\n');
+            for (Map.Entry<String, long[]> e : stats.entrySet())
+                sb.append(String.format("  %-24s %10d calls %10.3f ms%n", e.getKey(), e.getValue()[0],
+                        e.getValue()[1] / 1e6));
+        }
+    }
+
+    /**
+     * JFR event for a phase of a game cycle or forward model advance.
+     */
+    @Name("gvgai.EnginePhase")
+    @Label("Engine Phase")
+    @Category("GVGAI")
+    @Description("A phase of a game cycle or forward model advance")
+    public static class EnginePhaseEvent extends jdk.jfr.Event
+    {
+        @Label("Phase")
+        public String phase;
+
+        @Label("Source")
+        public String source;
+
+        @Label("Game Tick")
+        public int gameTick;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        public long elapsed;
+
+        @Label("Allocated Bytes")
+        public long allocated;
+    }
+}
@@ -93,13 +93,19 @@ public class ForwardModel extends Game
     /**
      * List of (persistent) observations for all sprites, indexed by sprite ID.
      */
-    private HashMap<Integer, Observation> observations;
+    private IntHashMap<Observation> observations;
 
     /**
      * Observation grid
      */
     private ArrayList<Observation>[][] observationGrid;
 
+    /**
+     * Dense occupancy tensor of the observation grid, or null if it is not maintained.
+     * Holds the number of sprites of type t in cell (x,y) at ((x * gridHeight) + y) * numSpriteTypes + t.
+     */
+    private byte[] observationTensor;
+
     /**
      * Constructor for ForwardModel. Initializes everything
      * @param a_gameState
@@ -125,9 +131,10 @@ public class ForwardModel extends Game
     final public void update(Game a_gameState)
     {
         int numSpriteTypes = a_gameState.spriteGroups.length;
+        profiler = a_gameState.profiler;
+        logger = a_gameState.logger;
         kill_list = new ArrayList<VGDLSprite>();
         bucketList = new Bucket[numSpriteTypes];
-        historicEvents = new TreeSet<Event>();
         shieldedEffects = new ArrayList[numSpriteTypes];
 
         //Copy of sprites from the game.
@@ -151,19 +158,7 @@ public class ForwardModel extends Game
                 VGDLSprite spCopy = sp.copy();
 
                 spriteGroups[i].addSprite(spCopy.spriteID, spCopy);
-
-                String hidden = "False";
-                if (spCopy.hidden != null) {
-                    String[] split = spCopy.hidden.split(",");
-                    if (playerID > split.length - 1)
-                        hidden = split[split.length - 1];
-                    else
-                        hidden = split[playerID];
-                }
-                if(!Boolean.parseBoolean(hidden)) {
-                    checkSpriteFeatures(spCopy, i);
-                    updateObservation(spCopy);
-                }
+                observeSprite(spCopy, i);
             }
 
             int nSprites = spriteGroups[i].numSprites();
@@ -175,19 +170,26 @@ public class ForwardModel extends Game
                 shieldedEffects[i].add(p.copy());
         }
 
-        //events:
-        for (Event historicEvent : a_gameState.historicEvents) {
-            historicEvents.add(historicEvent.copy());
-        }
+        //events: only copied when recording the full history, shared (read only) otherwise.
+        eventRecording = a_gameState.eventRecording;
+        eventCounts = a_gameState.eventCounts == null ? null : a_gameState.eventCounts.clone();
+        if(eventRecording == Types.EVENT_RECORDING.FULL)
+        {
+            historicEvents = new TreeSet<Event>();
+            for (Event historicEvent : a_gameState.historicEvents) {
+                historicEvents.add(historicEvent.copy());
+            }
+        }else
+            historicEvents = a_gameState.historicEvents;
+
+        //collision pairs: the analysis is shared, the pairs known to be clean are copied.
+        pairTypes = a_gameState.pairTypes;
+        frozenTypes = a_gameState.frozenTypes;
+        typeAdditions = a_gameState.typeAdditions == null ? null : a_gameState.typeAdditions.clone();
+        pairCleanStamp = a_gameState.pairCleanStamp == null ? null : a_gameState.pairCleanStamp.clone();
 
         //copy the time effects:
-        this.timeEffects = new TreeSet<TimeEffect>();
-        Iterator<TimeEffect> timeEffects = a_gameState.timeEffects.descendingIterator();
-        while(timeEffects.hasNext())
-        {
-            TimeEffect tef = timeEffects.next().copy();
-            this.timeEffects.add(tef);
-        }
+        this.timeEffects = a_gameState.timeEffects.copy();
         //System.out.println("Tef size: " + this.timeEffects.size());
 
         //Game state variables:
@@ -198,6 +200,139 @@ public class ForwardModel extends Game
         this.nextSpriteID = a_gameState.nextSpriteID;
     }
 
+    /**
+     * Categorizes a sprite just added to this forward model and creates its observation, unless
+     * it is hidden to the player of this forward model.
+     * @param sprite the sprite.
+     * @param itype itype of the sprite.
+     */
+    private void observeSprite(VGDLSprite sprite, int itype)
+    {
+        String hidden = "False";
+        if (sprite.hidden != null) {
+            String[] split = sprite.hidden.split(",");
+            if (playerID > split.length - 1)
+                hidden = split[split.length - 1];
+            else
+                hidden = split[playerID];
+        }
+        if(!Boolean.parseBoolean(hidden)) {
+            checkSpriteFeatures(sprite, itype);
+            updateObservation(sprite);
+        }
+    }
+
+    /**
+     * Writes a binary snapshot of the state of this forward model: sprites, avatars, counters,
+     * scores, random generator, time effects, shields, events and tick. It can be restored with
+     * restore() in any forward model of the same game, also in another process.
+     * @return the snapshot.
+     */
+    public byte[] snapshot()
+    {
+        return StateSnapshot.write(this);
+    }
+
+    /**
+     * Sets the state of this forward model to the one of a snapshot taken with snapshot().
+     * @param snapshot the snapshot, of a forward model of the same game.
+     * @throws IllegalArgumentException if the snapshot is corrupt, of another version or of
+     * another game.
+     */
+    @SuppressWarnings("unchecked")
+    public void restore(byte[] snapshot)
+    {
+        StateSnapshot.read(this, snapshot);
+
+        int numSpriteTypes = spriteGroups.length;
+        kill_list = new ArrayList<VGDLSprite>();
+        bucketList = new Bucket[numSpriteTypes];
+        for(int i = 0; i < numSpriteTypes; ++i)
+            bucketList[i] = new Bucket();
+        spatialIndex = null;
+        if(pairCleanStamp != null)
+            Arrays.fill(pairCleanStamp, -1);
+
+        //The observations are built again for the restored sprites.
+        npcList = new boolean[numSpriteTypes];
+        immList = new boolean[numSpriteTypes];
+        movList = new boolean[numSpriteTypes];
+        resList = new boolean[numSpriteTypes];
+        portalList = new boolean[numSpriteTypes];
+        fromAvatar = new boolean[numSpriteTypes];
+        unknownList = new boolean[numSpriteTypes];
+        visibleList = new boolean[no_players][numSpriteTypes];
+        playerList = new boolean[numSpriteTypes];
+        observations = new IntHashMap<Observation>();
+        for(int i = 0; i < observationGrid.length; ++i)
+            for(int j = 0; j < observationGrid[i].length; ++j)
+                observationGrid[i][j].clear();
+        if(observationTensor != null)
+            Arrays.fill(observationTensor, (byte) 0);
+
+        for(int i = 0; i < numSpriteTypes; ++i)
+            for(VGDLSprite sp : spriteGroups[i].getSprites())
+                observeSprite(sp, i);
+    }
+
+    /**
+     * Indicates if another forward model has the same state as this one: tick, sprites, avatars,
+     * counters, random generator, time effects, shields and events.
+     * @param other the other forward model.
+     * @return true if both states are the same.
+     */
+    public boolean equiv(ForwardModel other)
+    {
+        if(other == this) return true;
+        if(other.gameTick != gameTick || other.isEnded != isEnded || other.nextSpriteID != nextSpriteID
+                || other.num_sprites != num_sprites || other.spriteGroups.length != spriteGroups.length)
+            return false;
+        if(!Arrays.equals(other.counter, counter) || !Arrays.equals(other.avatarLastAction, avatarLastAction))
+            return false;
+        if(!Arrays.equals(StateSnapshot.randomState(other.randomObs), StateSnapshot.randomState(randomObs)))
+            return false;
+
+        for(int i = 0; i < spriteGroups.length; ++i)
+        {
+            ArrayList<VGDLSprite> mine = spriteGroups[i].getSprites(), others = other.spriteGroups[i].getSprites();
+            if(mine.size() != others.size())
+                return false;
+            for(int j = 0; j < mine.size(); ++j)
+                if(!mine.get(j).equiv(others.get(j)))
+                    return false;
+            if(!shieldedEffects[i].equals(other.shieldedEffects[i]))
+                return false;
+        }
+
+        for(int i = 0; i < no_players; ++i)
+        {
+            MovingAvatar a = avatars[i], b = other.avatars[i];
+            if(a == null || b == null)
+            {
+                if(a != b) return false;
+            }else if(!a.equiv(b) || a.getScore() != b.getScore() || a.getWinState() != b.getWinState())
+                return false;
+        }
+
+        if(other.timeEffects.size() != timeEffects.size())
+            return false;
+        for(int i = 0; i < timeEffects.size(); ++i)
+        {
+            TimeEffect a = timeEffects.get(i), b = other.timeEffects.get(i);
+            if(timeEffects.getTick(i) != other.timeEffects.getTick(i) || a.delegate != b.delegate
+                    || a.timer != b.timer || a.repeating != b.repeating)
+                return false;
+        }
+
+        if(!Arrays.equals(other.eventCounts, eventCounts) || other.historicEvents.size() != historicEvents.size())
+            return false;
+        Iterator<Event> mine = historicEvents.iterator(), others = other.historicEvents.iterator();
+        while(mine.hasNext())
+            if(mine.next().compareTo(others.next()) != 0)
+                return false;
+        return true;
+    }
+
     /**
      * Updates the persistent observation of this sprite, or creates it if the
      * observation is new.
@@ -208,22 +343,24 @@ public class ForwardModel extends Game
         int spriteId = sprite.spriteID;
         boolean moved = false, newObs = false;
 
-        Vector2d oldPosition = null;
+        double oldX = 0, oldY = 0;
 
         Observation obs = observations.get(spriteId);
         if(obs != null)
         {
-            oldPosition = obs.position;
-            Vector2d position = sprite.getPosition();
-            moved = ! obs.position.equals(position);
-            obs.position = position;
+            //Only a sprite that moved gets a new position object: agents may keep the old one.
+            oldX = obs.position.x;
+            oldY = obs.position.y;
+            moved = oldX != sprite.rect.x || oldY != sprite.rect.y;
+            if(moved)
+                obs.position = sprite.getPosition();
         }else
         {
             obs = createSpriteObservation(sprite);
             newObs = true;
         }
 
-        updateGrid(obs, newObs, moved, oldPosition);
+        updateGrid(obs, newObs, moved, oldX, oldY);
     }
 
     /**
@@ -237,7 +374,7 @@ public class ForwardModel extends Game
         Observation obs = observations.get(spriteId);
         if(obs != null)
         {
-            removeObservationFromGrid(obs, obs.position);
+            removeObservationFromGrid(obs, obs.position.x, obs.position.y);
             observations.remove(spriteId);
         }
     }
@@ -247,16 +384,17 @@ public class ForwardModel extends Game
      * @param obs observation to update
      * @param newObs if this is a new observation.
      * @param moved if it is a past observation, and it moved.
-     * @param oldPosition the old position of this observation if it moved.
+     * @param oldX the old x coordinate of this observation if it moved.
+     * @param oldY the old y coordinate of this observation if it moved.
      */
-    private void updateGrid(Observation obs, boolean newObs, boolean moved, Vector2d oldPosition)
+    private void updateGrid(Observation obs, boolean newObs, boolean moved, double oldX, double oldY)
     {
         //Insert observation in the grid position.
         if(newObs || moved)
         {
             //First, remove observation if the sprite moved.
             if(moved)
-                removeObservationFromGrid(obs, oldPosition);
+                removeObservationFromGrid(obs, oldX, oldY);
 
             addObservationToGrid(obs, obs.position);
         }
@@ -265,26 +403,27 @@ public class ForwardModel extends Game
     /**
      * Removes an observation to the grid, from the position specified.
      * @param obs observation to delete.
-     * @param position where the sprite was located last time seen.
+     * @param posX x coordinate where the sprite was located last time seen.
+     * @param posY y coordinate where the sprite was located last time seen.
      */
-    private void removeObservationFromGrid(Observation obs, Vector2d position)
+    private void removeObservationFromGrid(Observation obs, double posX, double posY)
     {
-        int x = (int) position.x / block_size;
+        int x = (int) posX / block_size;
         boolean validX = x >= 0 && x < observationGrid.length;
-        boolean xPlus = (position.x % block_size) > 0 && (x+1 < observationGrid.length);
-        int y = (int) position.y / block_size;
+        boolean xPlus = (posX % block_size) > 0 && (x+1 < observationGrid.length);
+        int y = (int) posY / block_size;
         boolean validY = y >= 0 && y < observationGrid[0].length;
-        boolean yPlus = (position.y % block_size) > 0 && (y+1 < observationGrid[0].length);
+        boolean yPlus = (posY % block_size) > 0 && (y+1 < observationGrid[0].length);
 
         if(validX && validY)
         {
-            observationGrid[x][y].remove(obs);
+            removeObservationFromCell(obs, x, y);
             if(xPlus)
-                observationGrid[x+1][y].remove(obs);
+                removeObservationFromCell(obs, x+1, y);
             if(yPlus)
-                observationGrid[x][y+1].remove(obs);
+                removeObservationFromCell(obs, x, y+1);
             if(xPlus && yPlus)
-                observationGrid[x+1][y+1].remove(obs);
+                removeObservationFromCell(obs, x+1, y+1);
         }
     }
 
@@ -304,16 +443,94 @@ public class ForwardModel extends Game
 
         if(validX && validY)
         {
-            observationGrid[x][y].add(obs);
+            addObservationToCell(obs, x, y);
             if(xPlus)
-                observationGrid[x+1][y].add(obs);
+                addObservationToCell(obs, x+1, y);
             if(yPlus)
-                observationGrid[x][y+1].add(obs);
+                addObservationToCell(obs, x, y+1);
             if(xPlus && yPlus)
-                observationGrid[x+1][y+1].add(obs);
+                addObservationToCell(obs, x+1, y+1);
+        }
+    }
+
+    /**
+     * Removes an observation from a grid cell, keeping the observation tensor up to date.
+     * @param obs observation to delete.
+     * @param x x coordinate of the cell.
+     * @param y y coordinate of the cell.
+     */
+    private void removeObservationFromCell(Observation obs, int x, int y)
+    {
+        if(observationGrid[x][y].remove(obs) && observationTensor != null)
+        {
+            int idx = (x * observationGrid[0].length + y) * classConst.length + obs.itype;
+            if(observationTensor[idx] != Byte.MAX_VALUE)
+                observationTensor[idx]--;
+            else
+            {
+                //The count saturated, so it has to be taken again from the cell.
+                int count = 0;
+                for(Observation other : observationGrid[x][y])
+                    if(other.itype == obs.itype)
+                        count++;
+                observationTensor[idx] = (byte) Math.min(count, Byte.MAX_VALUE);
+            }
         }
     }
 
+    /**
+     * Adds an observation to a grid cell, keeping the observation tensor up to date.
+     * @param obs observation to add.
+     * @param x x coordinate of the cell.
+     * @param y y coordinate of the cell.
+     */
+    private void addObservationToCell(Observation obs, int x, int y)
+    {
+        observationGrid[x][y].add(obs);
+        if(observationTensor != null)
+            incrementTensor((x * observationGrid[0].length + y) * classConst.length + obs.itype);
+    }
+
+    /**
+     * Increments a count of the observation tensor, saturating at Byte.MAX_VALUE.
+     * @param idx index of the count in the tensor.
+     */
+    private void incrementTensor(int idx)
+    {
+        if(observationTensor[idx] != Byte.MAX_VALUE)
+            observationTensor[idx]++;
+    }
+
+    /**
+     * Starts maintaining the observation tensor of this forward model. It is built from the
+     * current observation grid, and from then on it is updated only for the observations that
+     * appear, disappear or change cell. Copies of this forward model maintain it too.
+     */
+    public void enableObservationTensor()
+    {
+        if(observationTensor != null)
+            return;
+
+        int height = observationGrid.length > 0 ? observationGrid[0].length : 0;
+        observationTensor = new byte[observationGrid.length * height * classConst.length];
+        for(int x = 0; x < observationGrid.length; ++x)
+            for(int y = 0; y < height; ++y)
+                for(Observation obs : observationGrid[x][y])
+                    incrementTensor((x * height + y) * classConst.length + obs.itype);
+    }
+
+    /**
+     * Returns the observation tensor: for each cell (x,y) of the observation grid and sprite
+     * type t, the number of observations of type t in that cell is at
+     * ((x * gridHeight) + y) * numSpriteTypes + t. Counts saturate at Byte.MAX_VALUE. The array is the one maintained by this
+     * forward model and must not be modified.
+     * @return the observation tensor, or null if enableObservationTensor() has not been called.
+     */
+    public byte[] getObservationTensor()
+    {
+        return observationTensor;
+    }
+
     /**
      * Prints the observation grid. For debug only.
      */
@@ -471,6 +688,7 @@ public class ForwardModel extends Game
         this.collisionEffects = a_gameState.collisionEffects;
         this.definedEffects = a_gameState.definedEffects;
         this.eosEffects = a_gameState.eosEffects;
+        this.definedTimeEffects = a_gameState.definedTimeEffects;
         this.definedEOSEffects = a_gameState.definedEOSEffects;
         this.iSubTypes = a_gameState.iSubTypes;
         this.charMapping = a_gameState.charMapping;
@@ -482,6 +700,8 @@ public class ForwardModel extends Game
         this.MAX_SPRITES = a_gameState.MAX_SPRITES;
         this.no_players = a_gameState.no_players;
         this.no_counters = a_gameState.no_counters;
+        this.is_stochastic = a_gameState.is_stochastic;
+        this.keyHandler = a_gameState.keyHandler;
         this.avatarLastAction = new Types.ACTIONS[no_players];
         System.arraycopy(a_gameState.avatarLastAction, 0, avatarLastAction, 0, no_players);
         this.avatars = new MovingAvatar[no_players];
@@ -505,12 +725,16 @@ public class ForwardModel extends Game
         visibleList = new boolean[no_players][a_gameState.spriteGroups.length];
         playerList  = new boolean[a_gameState.spriteGroups.length];
 
-        observations = new HashMap<Integer, Observation>();
+        observations = new IntHashMap<Observation>();
         observationGrid = new ArrayList[screenSize.width/block_size][screenSize.height/block_size];
         for(int i = 0; i < observationGrid.length; ++i)
             for(int j = 0; j < observationGrid[i].length; ++j)
                 observationGrid[i][j] = new ArrayList<Observation>();
 
+        //The tensor is filled by update(), as observations are added to the grid.
+        if(a_gameState instanceof ForwardModel && ((ForwardModel) a_gameState).observationTensor != null)
+            observationTensor = new byte[((ForwardModel) a_gameState).observationTensor.length];
+
         this.pathf = a_gameState.pathf;
     }
 
@@ -535,6 +759,17 @@ public class ForwardModel extends Game
         randomObs = new Random(seed);
     }
 
+    /**
+     * Sets the random generator of this forward model, to continue the random sequence
+     * of another one.
+     *
+     * @param random the random generator.
+     */
+    void setRandomGenerator(Random random)
+    {
+        randomObs = random;
+    }
+
 
     /************** Useful functions for the agent *******************/
 
@@ -559,7 +794,13 @@ public class ForwardModel extends Game
 
             //apply action to correct avatar
             a.preMovement();
-            a.updateAvatar(this, false, ki.getMask());
+            if(profiler != null)
+            {
+                long start = System.nanoTime();
+                a.updateAvatar(this, false, ki.getMask());
+                profiler.spriteUpdated(a, start);
+            }else
+                a.updateAvatar(this, false, ki.getMask());
             setAvatarLastAction(action);
         }
     }
@@ -570,6 +811,9 @@ public class ForwardModel extends Game
      * Doesn't update disabled sprites.
      */
     protected void tick() {
+        if(spatialIndex != null)
+            spatialIndex.beginTick();
+
         for(int i = spriteOrder.length-1; i >= 0; --i)
         {
             int spriteTypeInt = spriteOrder[i];
@@ -582,10 +826,22 @@ public class ForwardModel extends Game
                 if(!(sp instanceof MovingAvatar) && ! sp.is_disabled())
                 {
                     sp.preMovement();
-                    sp.update(this);
+                    if(profiler != null)
+                    {
+                        long start = System.nanoTime();
+                        sp.update(this);
+                        profiler.spriteUpdated(sp, start);
+                    }else
+                        sp.update(this);
+                    if(spatialIndex != null)
+                        spatialIndex.spriteMoved(sp);
                 }
             }
         }
+
+        if(spatialIndex != null)
+            spatialIndex.endTick();
+        endPhase(EngineProfiler.SPRITES);
     }
 
 
@@ -595,12 +851,19 @@ public class ForwardModel extends Game
      */
     final public void advance(Types.ACTIONS action) {
         if(!isEnded) {
-            //apply player action
-            updateAvatars(action, 0);
-            //update all the other sprites
-            tick();
-            //update game state
-            advance_aux();
+            if(profiler != null)
+                profiler.beginCycle(EngineProfiler.FORWARD_MODEL);
+            try {
+                //apply player action
+                updateAvatars(action, 0);
+                endPhase(EngineProfiler.AVATARS);
+                //update all the other sprites
+                tick();
+                //update game state
+                advance_aux();
+            } finally {
+                endCycle();
+            }
         }
     }
 
@@ -612,15 +875,22 @@ public class ForwardModel extends Game
     final public void advance(Types.ACTIONS[] actions) {
 
         if(!isEnded) {
-            //apply actions of all players
-            for (int i = 0; i < actions.length; i++) {
-                Types.ACTIONS a = actions[i]; // action
-                updateAvatars(a, i); // index in array actions is the playerID
+            if(profiler != null)
+                profiler.beginCycle(EngineProfiler.FORWARD_MODEL);
+            try {
+                //apply actions of all players
+                for (int i = 0; i < actions.length; i++) {
+                    Types.ACTIONS a = actions[i]; // action
+                    updateAvatars(a, i); // index in array actions is the playerID
+                }
+                endPhase(EngineProfiler.AVATARS);
+                //update all other sprites in the game
+                tick();
+                //update game state
+                advance_aux();
+            } finally {
+                endCycle();
             }
-            //update all other sprites in the game
-            tick();
-            //update game state
-            advance_aux();
         }
         //System.out.println(isMultiGameOver());
     }
@@ -631,9 +901,12 @@ public class ForwardModel extends Game
     private void advance_aux() {
         eventHandling();
         clearAll(this);
+        endPhase(EngineProfiler.CLEAR);
         terminationHandling();
         checkTimeOut();
+        endPhase(EngineProfiler.TERMINATION);
         updateAllObservations();
+        endPhase(EngineProfiler.OBSERVATION);
         gameTick++;
     }
 
@@ -645,14 +918,9 @@ public class ForwardModel extends Game
         int typeIndex = spriteOrder.length-1;
         for(int i = typeIndex; i >=0; --i)   //For update, opposite order than drawing.
         {
-            int spriteTypeInt = spriteOrder[i];
-
-            Iterator<VGDLSprite> spriteIt = spriteGroups[spriteTypeInt].getSpriteIterator();
-            if(spriteIt != null) while(spriteIt.hasNext())
-            {
-                VGDLSprite sp = spriteIt.next();
-                updateObservation(sp);
-            }
+            ArrayList<VGDLSprite> sprites = spriteGroups[spriteOrder[i]].getSprites();
+            for(int j = 0, n = sprites.size(); j < n; ++j)
+                updateObservation(sprites.get(j));
         }
     }
 
@@ -834,10 +1102,10 @@ public class ForwardModel extends Game
             return owned;
 
         //And for each type, add their amount.
-        Set<Map.Entry<Integer, Integer>> entries = avatars[playerID].resources.entrySet();
-        for(Map.Entry<Integer, Integer> entry : entries)
+        MovingAvatar avatar = avatars[playerID];
+        for(int i = 0; i < avatar.getNumResources(); ++i)
         {
-            owned.put(entry.getKey(), entry.getValue());
+            owned.put(avatar.getResourceType(i), avatar.getResourceAmount(i));
         }
 
         return owned;
@@ -981,7 +1249,10 @@ public class ForwardModel extends Game
                     VGDLSprite sp = spriteIt.next();
 
                     Observation observation = getSpriteObservation(sp);
-                    observation.update(i, sp.spriteID, sp.getPosition(), reference, getSpriteCategory(sp));
+                    Vector2d position = observation.position;
+                    if(position.x != sp.rect.x || position.y != sp.rect.y)
+                        position = sp.getPosition();
+                    observation.update(i, sp.spriteID, position, reference, getSpriteCategory(sp));
 
                     observation.reference = reference;
                     observations[idx].add(observation);
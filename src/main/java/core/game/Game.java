@@ -71,6 +71,24 @@ public abstract class Game {
 	 */
 	protected SpriteGroup[] spriteGroups;
 
+	/**
+	 * Spatial index of the sprites, for NPCs that look for the closest sprites
+	 * of a type. Created the first time it is requested.
+	 */
+	protected SpatialIndex spatialIndex;
+
+	/**
+	 * Profiler of the engine, shared with the forward models of the game. Null
+	 * if the game is not being profiled.
+	 */
+	protected EngineProfiler profiler;
+
+	/**
+	 * Logger of the warnings of this game, shared with its forward models. It
+	 * passes all messages to the global logger.
+	 */
+	protected Logger logger;
+
 	/**
 	 * Relationships for collisions: double array of (list of) effects.
 	 * Interaction between two sprites can trigger more than one effect.
@@ -92,9 +110,37 @@ public abstract class Game {
 	protected ArrayList<Effect>[] eosEffects;
 
 	/**
-	 * List of TIME effects
+	 * Sprite types (with their subtypes) of both sides of each pair in
+	 * definedEffects, and which types are frozen: their sprites are static
+	 * and no effect can move them. Computed the first time collisions are
+	 * handled (see analyseCollisionPairs()), and shared with the forward
+	 * models.
+	 */
+	protected int[][][] pairTypes;
+	protected boolean[] frozenTypes;
+
+	/**
+	 * Number of sprites added to each type and, for each pair of frozen
+	 * types, the sum of those numbers when the pair was last found not to
+	 * collide (-1 if it wasn't).
 	 */
-	protected TreeSet<TimeEffect> timeEffects;
+	protected int[] typeAdditions;
+	protected long[] pairCleanStamp;
+
+	/**
+	 * Lists reused by the collision handling.
+	 */
+	private ArrayList<VGDLSprite> collisionFirst, collisionSecond, collisionHits;
+
+	/**
+	 * TIME effects waiting to be triggered.
+	 */
+	protected TimeEffectSchedule timeEffects;
+
+	/**
+	 * TIME effects defined in VGDL, in the order they were parsed.
+	 */
+	protected ArrayList<TimeEffect> definedTimeEffects;
 
 	/**
 	 * List of types that can trigger an EOS effect.
@@ -103,10 +149,23 @@ public abstract class Game {
 
 	/**
 	 * Historic of events related to the avatar happened during the game. The
-	 * entries are ordered asc. by game step.
+	 * entries are ordered asc. by game step. Unless the full history is being
+	 * recorded, this set can be shared with forward models copied from this
+	 * state, so it is replaced instead of modified.
 	 */
 	protected TreeSet<Event> historicEvents;
 
+	/**
+	 * How events are recorded (see setEventRecording()).
+	 */
+	protected Types.EVENT_RECORDING eventRecording = Types.EVENT_RECORDING.FULL;
+
+	/**
+	 * Number of events by pair of types (active * number of types + passive),
+	 * when recording COUNTERS. Null until the first event is counted.
+	 */
+	protected int[] eventCounts;
+
 	/**
 	 * For each entry, int identifier of sprite type, a list with all the itypes
 	 * this sprite belongs to.
@@ -154,6 +213,11 @@ public abstract class Game {
 	 */
 	protected Dimension screenSize;
 
+	/**
+	 * Bounds of the screen, reused by isAtEdge().
+	 */
+	private Rectangle screenBounds = new Rectangle();
+
 	/**
 	 * Dimensions of the game.
 	 */
@@ -199,6 +263,11 @@ public abstract class Game {
 	 */
 	protected ForwardModel fwdModel;
 
+	/**
+	 * Indicates if the forward model maintains the occupancy tensor of its observation grid.
+	 */
+	protected boolean maintainObservationTensor;
+
 	/**
 	 * Maximum number of sprites in a game.
 	 */
@@ -253,6 +322,12 @@ public abstract class Game {
 	 */
 	public ArrayList<Vector2d>[] avatarPositionHistory;
 
+	/**
+	 * Trajectory of the next game played, being recorded (see
+	 * recordTrajectory()), or null.
+	 */
+	protected TrajectoryRecorder.Trajectory trajectory;
+
 	public int no_players = 1; // default to single player
 
 	public int no_counters = 0; // default no counters
@@ -260,6 +335,13 @@ public abstract class Game {
 
 	public static KeyHandler ki;
 
+	/**
+	 * Key handler of the avatars of this game. It is the same as Game.ki when
+	 * the game is created, but it is not replaced when other games are created,
+	 * so games played at the same time do not share it.
+	 */
+	protected KeyHandler keyHandler;
+
 	/**
 	 * Default constructor.
 	 */
@@ -270,7 +352,8 @@ public abstract class Game {
 		charMapping = new HashMap<Character, ArrayList<String>>();
 		terminations = new ArrayList<Termination>();
 		historicEvents = new TreeSet<Event>();
-		timeEffects = new TreeSet<TimeEffect>();
+		timeEffects = new TimeEffectSchedule();
+		definedTimeEffects = new ArrayList<TimeEffect>();
 
 		// Game attributes:
 		size = new Dimension();
@@ -278,6 +361,9 @@ public abstract class Game {
 		disqualified = false;
 		num_sprites = 0;
 		nextSpriteID = 0;
+		logger = new Logger(Logger.getInstance());
+		if (CompetitionParameters.ENGINE_PROFILING)
+			profiler = new EngineProfiler();
 
 		loadDefaultConstr();
 	}
@@ -407,7 +493,7 @@ public abstract class Game {
 			spriteGroups[j] = new SpriteGroup(j);
 			shieldedEffects[j] = new ArrayList<>();
 			eosEffects[j] = new ArrayList<Effect>();
-			timeEffects = new TreeSet<TimeEffect>();
+			timeEffects = new TimeEffectSchedule();
 			bucketList[j] = new Bucket();
 
 			// Declare the extended types list of this sprite type.
@@ -757,12 +843,17 @@ public abstract class Game {
 		for (int j = 0; j < spriteGroups.length; ++j) {
 			bucketList[j].clear();
 		}
+		pairTypes = null;
 
 		for (int i = 0; i < templateSprites.length; ++i) {
 			templateSprites[i] = null;
 		}
 
-		historicEvents.clear();
+		if (eventRecording == Types.EVENT_RECORDING.FULL)
+			historicEvents.clear();
+		else
+			historicEvents = new TreeSet<Event>();
+		eventCounts = null;
 
 		resetShieldEffects();
 
@@ -776,12 +867,51 @@ public abstract class Game {
 		}
 	}
 
+	/**
+	 * Makes the forward model of this game maintain the dense occupancy tensor of
+	 * its observation grid, so the observations taken from the game carry it.
+	 */
+	public void enableObservationTensor() {
+		maintainObservationTensor = true;
+		if (fwdModel != null)
+			fwdModel.enableObservationTensor();
+	}
+
+	/**
+	 * Records the trajectory of the next game played (runGame(), playGame()
+	 * or playOnlineGame()) with a recorder. It is written when the game ends.
+	 *
+	 * @param recorder
+	 *           the recorder, or null to not record it.
+	 * @param gameLabel
+	 *           name of the game, stored with the trajectory.
+	 * @param levelLabel
+	 *           name of the level, stored with the trajectory.
+	 */
+	public void recordTrajectory(TrajectoryRecorder recorder, String gameLabel, String levelLabel) {
+		trajectory = recorder == null ? null : recorder.newTrajectory(gameLabel, levelLabel);
+		if (recorder != null && recorder.recordsObservations())
+			enableObservationTensor();
+	}
+
+	/**
+	 * Writes the trajectory being recorded, if any, once the game has ended.
+	 */
+	private void finishTrajectory() {
+		if (trajectory != null) {
+			trajectory.finish(this, historicEvents);
+			trajectory = null;
+		}
+	}
+
 	/**
 	 * Starts the forward model for the game.
 	 */
 	public void initForwardModel() {
 		fwdModel = new ForwardModel(this, 0);
 		fwdModel.update(this);
+		if (maintainObservationTensor)
+			fwdModel.enableObservationTensor();
 	}
 
 	/**
@@ -809,6 +939,7 @@ public abstract class Game {
 
 		ki = CompetitionParameters.KEY_HANDLER == CompetitionParameters.KEY_INPUT ? new KeyInput()
 				: new KeyPulse(no_players);
+		keyHandler = ki;
 	}
 
 	/**
@@ -825,6 +956,11 @@ public abstract class Game {
 		sprite.spriteID = nextSpriteID;
 		spriteGroups[itype].addSprite(nextSpriteID++, sprite);
 		num_sprites++;
+		if (typeAdditions != null)
+			typeAdditions[itype]++;
+
+		if (spatialIndex != null)
+			spatialIndex.spriteAdded(sprite);
 
 		if (sprite.is_stochastic)
 			this.is_stochastic = true;
@@ -840,8 +976,9 @@ public abstract class Game {
 	 */
 	public int getNumSprites(int itype) {
 		int acum = 0;
-		for (Integer subtype : this.iSubTypes[itype]) {
-			acum += spriteGroups[subtype].numSprites();
+		ArrayList<Integer> subtypes = this.iSubTypes[itype];
+		for (int i = 0, n = subtypes.size(); i < n; ++i) {
+			acum += spriteGroups[subtypes.get(i)].numSprites();
 		}
 		return acum;
 	}
@@ -866,8 +1003,9 @@ public abstract class Game {
 	 */
 	public int getNumDisabledSprites(int itype) {
 		int acum = 0;
-		for (Integer subtype : this.iSubTypes[itype]) {
-			acum += spriteGroups[subtype].numDisabledSprites();
+		ArrayList<Integer> subtypes = this.iSubTypes[itype];
+		for (int i = 0, n = subtypes.size(); i < n; ++i) {
+			acum += spriteGroups[subtypes.get(i)].numDisabledSprites();
 		}
 		return acum;
 	}
@@ -893,7 +1031,9 @@ public abstract class Game {
 		// Update the forward model for the game state sent to the controller.
 		fwdModel.update(this);
 
-		return handleResult();
+		double[] scores = handleResult();
+		finishTrajectory();
+		return scores;
 	}
 
 	/**
@@ -989,7 +1129,9 @@ public abstract class Game {
 		// Update the forward model for the game state sent to the controller.
 		fwdModel.update(this);
 
-		return handleResult();
+		double[] scores = handleResult();
+		finishTrajectory();
+		return scores;
 	}
 
 	public double[] playOnlineGame(Player[] players, int randomSeed, boolean isHuman, int humanID) {
@@ -1036,7 +1178,9 @@ public abstract class Game {
 		// Update the forward model for the game state sent to the controller.
 		fwdModel.update(this);
 
-		return handleResult();
+		double[] scores = handleResult();
+		finishTrajectory();
+		return scores;
 	}
 
 	/**
@@ -1100,6 +1244,10 @@ public abstract class Game {
 
 		// Initialize state observation (sets all non-volatile references).
 		initForwardModel();
+
+		if (trajectory != null)
+			trajectory.start(randomSeed, no_players,
+					new int[] { screenSize.width / block_size, screenSize.height / block_size, classConst.length });
 	}
 
 	/**
@@ -1109,27 +1257,37 @@ public abstract class Game {
 	 */
 	private void gameCycle() {
 		gameTick++; // next game tick.
+		if (profiler != null)
+			profiler.beginCycle(EngineProfiler.GAME);
 
 		// Update our state observation (forward model) with the information of
 		// the current game state.
 		fwdModel.update(this);
+		endPhase(EngineProfiler.OBSERVATION);
 		
 		// 记录所有Avatar的位置 - 添加这部分
 		for (int i = 0; i < no_players; i++) {
 			if (avatars[i] != null && !avatars[i].is_disabled()) {
-				avatarPositionHistory[i].add(avatars[i].getPosition().copy());
+				avatarPositionHistory[i].add(avatars[i].getPosition());
 			} else {
 				avatarPositionHistory[i].add(null); // 记录null表示Avatar不可用
 			}
 		}
+		if (trajectory != null)
+			trajectory.beginTick(this, fwdModel.getObservationTensor());
 
 		// Execute a game cycle:
 		this.tick(); // update for all entities.
 		this.eventHandling(); // handle events such collisions.
 		this.clearAll(fwdModel); // clear all additional data, including dead
 		// sprites.
+		endPhase(EngineProfiler.CLEAR);
 		this.terminationHandling(); // check for game termination.
 		this.checkTimeOut(); // Check for end of game by time steps.
+		endPhase(EngineProfiler.TERMINATION);
+		if (trajectory != null)
+			trajectory.endTick(this, avatarLastAction);
+		endCycle();
 
 		// if(gameTick == 0 || isEnded)
 		// fwdModel.printObservationGrid(); //uncomment this to show the
@@ -1327,12 +1485,12 @@ public abstract class Game {
 				if (numAvatarSprites > i) { // check if there's enough avatars
 					// just in case
 					avatars[i] = avSprites.get(i);
-					avatars[i].setKeyHandler(ki);
+					avatars[i].setKeyHandler(getKeyHandler());
 					avatars[i].setPlayerID(i);
 				}
 			}
 		} else {
-			Logger.getInstance().addMessage(new Message(Message.WARNING, "No avatars found."));
+			logger.addMessage(new Message(Message.WARNING, "No avatars found."));
 		}
 	}
 
@@ -1382,15 +1540,26 @@ public abstract class Game {
 	 * Avatar is always updated first. Doesn't update disabled sprites.
 	 */
 	protected void tick() {
+		if (spatialIndex != null)
+			spatialIndex.beginTick();
+
 		// Now, do all of the avatars.
 		for (int i = 0; i < no_players; i++) {
 			if (avatars[i] != null && !avatars[i].is_disabled()) {
 				avatars[i].preMovement();
-				avatars[i].updateAvatar(this, true, null);
+				if (profiler != null) {
+					long start = System.nanoTime();
+					avatars[i].updateAvatar(this, true, null);
+					profiler.spriteUpdated(avatars[i], start);
+				} else
+					avatars[i].updateAvatar(this, true, null);
+				if (spatialIndex != null)
+					spatialIndex.spriteMoved(avatars[i]);
 			} else if (avatars[i] == null) {
 				System.out.println(gameTick + ": Something went wrong, no avatar, ID = " + i);
 			}
 		}
+		endPhase(EngineProfiler.AVATARS);
 		// random = new Random(this.gameTick * 100); //uncomment this for
 		// testing a new rnd generator after avatar's move
 
@@ -1402,11 +1571,44 @@ public abstract class Game {
 				for (VGDLSprite sp : spritesList) {
 					if (!(sp instanceof MovingAvatar) && !sp.is_disabled()) {
 						sp.preMovement();
-						sp.update(this);
+						if (profiler != null) {
+							long start = System.nanoTime();
+							sp.update(this);
+							profiler.spriteUpdated(sp, start);
+						} else
+							sp.update(this);
+						if (spatialIndex != null)
+							spatialIndex.spriteMoved(sp);
 					}
 				}
 
 		}
+
+		if (spatialIndex != null)
+			spatialIndex.endTick();
+		endPhase(EngineProfiler.SPRITES);
+	}
+
+	/**
+	 * Finishes a phase of the current cycle for the profiler, if the game is
+	 * being profiled.
+	 *
+	 * @param phase
+	 *           phase finished (see EngineProfiler).
+	 */
+	protected final void endPhase(int phase) {
+		if (profiler != null)
+			profiler.endPhase(this instanceof ForwardModel ? EngineProfiler.FORWARD_MODEL : EngineProfiler.GAME,
+					phase, gameTick);
+	}
+
+	/**
+	 * Finishes the current cycle for the profiler, if the game is being
+	 * profiled.
+	 */
+	protected final void endCycle() {
+		if (profiler != null)
+			profiler.endCycle();
 	}
 
 	/**
@@ -1414,12 +1616,8 @@ public abstract class Game {
 	 */
 	@SuppressWarnings("unchecked")
 	protected void eventHandling() {
-		// Array to indicate that the sprite type has no representative in
-		// collisions.
-		boolean noSprites[] = new boolean[spriteGroups.length];
-
 		// First, check the effects that are triggered in a timely manner.
-		while (timeEffects.size() > 0 && timeEffects.first().nextExecution <= gameTick) {
+		while (timeEffects.hasDue(gameTick)) {
 			TimeEffect ef = timeEffects.pollFirst();
 			if (ef.enabled) {
 				int intId = ef.itype;
@@ -1429,7 +1627,12 @@ public abstract class Game {
 				if (intId == -1) {
 					// With no sprite, the effect is independent from particular
 					// sprites.
-					ef.execute(null, null, this);
+					if (profiler != null) {
+						long start = System.nanoTime();
+						ef.execute(null, null, this);
+						profiler.effectExecuted(ef, start);
+					} else
+						ef.execute(null, null, this);
 					exec = true;
 
 					// Affect score for all players:
@@ -1457,15 +1660,14 @@ public abstract class Game {
 				}
 
 				// If the time effect is repetitive, need to reinsert in the
-				// list of effects
-				if (ef.repeating) {
-					if (!exec)
-						ef.planExecution(this);
-					this.addTimeEffect(ef);
-				}
+				// list of effects. The effect may be shared with other states,
+				// so its next execution is kept in the schedule only.
+				if (ef.repeating)
+					timeEffects.add(gameTick + ef.timer, ef);
 			}
 
 		}
+		endPhase(EngineProfiler.TIME_EFFECTS);
 
 		// Secondly, we handle single sprite events (EOS). Take each sprite
 		// itype that has
@@ -1492,21 +1694,44 @@ public abstract class Game {
 								}
 							}
 						} catch (ConcurrentModificationException e) {
-							Logger.getInstance().addMessage(
+							logger.addMessage(
 									new Message(Message.WARNING, "you can't spawn sprites outside of the screen."));
 						}
 					}
 			}
 
 		}
+		endPhase(EngineProfiler.EOS_EFFECTS);
 
 		// Now, we handle events between pairs of sprites, for each pair of
 		// sprites that
-		// has a paired effect defined:
-		for (Pair<Integer, Integer> p : definedEffects) {
+		// has a paired effect defined. Pairs with no sprites on one side are
+		// skipped, and so are pairs of frozen types that didn't collide when
+		// last checked and had no sprites added since.
+		if (pairTypes == null)
+			analyseCollisionPairs();
+		if (collisionFirst == null) {
+			collisionFirst = new ArrayList<VGDLSprite>();
+			collisionSecond = new ArrayList<VGDLSprite>();
+			collisionHits = new ArrayList<VGDLSprite>();
+		}
+		int numPairs = definedEffects.size();
+		for (int pi = 0; pi < numPairs; ++pi) {
+			Pair<Integer, Integer> p = definedEffects.get(pi);
+			int[] types1 = pairTypes[pi][0];
+			int[] types2 = pairTypes[pi][1];
+			if (countSprites(types1) == 0 || countSprites(types2) == 0)
+				continue;
+			long stamp = frozenPairStamp(pi);
+			if (stamp != -1 && pairCleanStamp[pi] == stamp)
+				continue;
+
+			boolean checked = false, collided = false;
 			// We iterate over the (potential) multiple effects that these
 			// two sprites could have defined between them.
-			for (Effect ef : collisionEffects[p.first][p.second]) {
+			ArrayList<Effect> pairEffects = collisionEffects[p.first][p.second];
+			for (int ei = 0; ei < pairEffects.size(); ++ei) {
+				Effect ef = pairEffects.get(ei);
 				if (ef.enabled) {
 
 					if (shieldedEffects[p.first].size() > 0) {
@@ -1514,30 +1739,35 @@ public abstract class Game {
 							continue;
 					}
 
-					ArrayList<VGDLSprite> firstx = new ArrayList<VGDLSprite>();
-					ArrayList<VGDLSprite> secondx = new ArrayList<VGDLSprite>();
-
-					ArrayList<Integer> allTypes1 = iSubTypes[p.first];
-					for (int i : allTypes1) {
-						firstx.addAll(getSprites(i));
+					ArrayList<VGDLSprite> firstx = collisionFirst;
+					ArrayList<VGDLSprite> secondx = collisionSecond;
+					firstx.clear();
+					secondx.clear();
+					for (int i : types1) {
+						addSpritesTo(firstx, i);
 					}
-					ArrayList<Integer> allTypes2 = iSubTypes[p.second];
-					for (int j : allTypes2) {
-						secondx.addAll(getSprites(j));
+					for (int j : types2) {
+						addSpritesTo(secondx, j);
 					}
+					checked = true;
 
-					ArrayList<VGDLSprite> new_secondx = new ArrayList<VGDLSprite>();
+					ArrayList<VGDLSprite> new_secondx = collisionHits;
 
-					for (VGDLSprite s1 : firstx) {
-						new_secondx = new ArrayList<VGDLSprite>();
+					// Indexed loops: these lists are private to this method.
+					int numFirst = firstx.size(), numSecond = secondx.size();
+					for (int fi = 0; fi < numFirst; ++fi) {
+						VGDLSprite s1 = firstx.get(fi);
+						new_secondx.clear();
 
-						for (VGDLSprite s2 : secondx) {
+						for (int si = 0; si < numSecond; ++si) {
+							VGDLSprite s2 = secondx.get(si);
 							if ((s1 != s2 && s1.intersects(s2))) {
 								new_secondx.add(s2);
 							}
 						}
 
 						if (new_secondx.size() > 0) {
+							collided = true;
 							if (ef.inBatch) {
 								executeEffectBatch(ef, s1, new_secondx);
 							} else {
@@ -1553,13 +1783,110 @@ public abstract class Game {
 					}
 				}
 			}
+
+			// Frozen sprites that don't overlap now won't until one is added.
+			if (stamp != -1 && checked && !collided && allStatic(collisionFirst) && allStatic(collisionSecond))
+				pairCleanStamp[pi] = stamp;
+		}
+		if (collisionFirst != null) {
+			collisionFirst.clear();
+			collisionSecond.clear();
+			collisionHits.clear();
+		}
+		endPhase(EngineProfiler.COLLISIONS);
+	}
+
+	/**
+	 * Analyses the interaction set: finds the types of each pair of
+	 * definedEffects, and the frozen types. A type is frozen if it is not on
+	 * any side of a collision, EOS or TIME effect that can move sprites. Its
+	 * static sprites then never move.
+	 */
+	protected void analyseCollisionPairs() {
+		int numTypes = spriteGroups.length;
+		frozenTypes = new boolean[numTypes];
+		Arrays.fill(frozenTypes, true);
+		for (Pair<Integer, Integer> p : definedEffects)
+			for (Effect ef : collisionEffects[p.first][p.second])
+				if (ef.movesSprites) {
+					unfreeze(p.first);
+					unfreeze(p.second);
+				}
+		for (Integer itype : definedEOSEffects)
+			for (Effect ef : eosEffects[itype])
+				if (ef.movesSprites)
+					unfreeze(itype);
+		for (int i = 0; i < timeEffects.size(); ++i) {
+			TimeEffect ef = timeEffects.get(i);
+			if (ef.movesSprites && ef.itype != -1)
+				unfreeze(ef.itype);
 		}
 
+		int numPairs = definedEffects.size();
+		pairTypes = new int[numPairs][][];
+		for (int pi = 0; pi < numPairs; ++pi) {
+			Pair<Integer, Integer> p = definedEffects.get(pi);
+			pairTypes[pi] = new int[][] { toArray(iSubTypes[p.first]), toArray(iSubTypes[p.second]) };
+		}
+		if (typeAdditions == null || typeAdditions.length != numTypes)
+			typeAdditions = new int[numTypes];
+		pairCleanStamp = new long[numPairs];
+		Arrays.fill(pairCleanStamp, -1);
+	}
+
+	private void unfreeze(int itype) {
+		for (Integer t : iSubTypes[itype])
+			frozenTypes[t] = false;
+	}
+
+	private static int[] toArray(ArrayList<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; ++i)
+			array[i] = list.get(i);
+		return array;
+	}
+
+	private void addSpritesTo(ArrayList<VGDLSprite> list, int itype) {
+		ArrayList<VGDLSprite> sprites = spriteGroups[itype].getSprites();
+		for (int i = 0, n = sprites.size(); i < n; ++i)
+			list.add(sprites.get(i));
+	}
+
+	private int countSprites(int[] itypes) {
+		int n = 0;
+		for (int itype : itypes)
+			n += spriteGroups[itype].numSprites();
+		return n;
+	}
+
+	/**
+	 * Returns the number of sprites added to the types of a pair, or -1 if
+	 * any of its types is not frozen.
+	 */
+	private long frozenPairStamp(int pair) {
+		long stamp = 0;
+		for (int[] types : pairTypes[pair])
+			for (int itype : types) {
+				if (!frozenTypes[itype])
+					return -1;
+				stamp += typeAdditions[itype];
+			}
+		return stamp;
+	}
+
+	private static boolean allStatic(ArrayList<VGDLSprite> sprites) {
+		for (int i = 0; i < sprites.size(); ++i)
+			if (!sprites.get(i).is_static)
+				return false;
+		return true;
 	}
 
 	private void executeEffectBatch(Effect ef, VGDLSprite s1, ArrayList<VGDLSprite> s2list) {
 		// There is a collision. Apply the effect.
+		long start = profiler != null ? System.nanoTime() : 0;
 		int batchCount = ef.executeBatch(s1, s2list, this);
+		if (profiler != null)
+			profiler.effectExecuted(ef, start);
 		if (batchCount == -1) {
 			System.out.println("WARNING: Batch collision not or bad implemented (batchCount == -1)");
 			batchCount = 0; // So the game keeps making better sense.
@@ -1575,7 +1902,7 @@ public abstract class Game {
 		}
 
 		// Add to events history.
-		if (s1 != null && s2list != null)
+		if (s1 != null && s2list != null && eventRecording != Types.EVENT_RECORDING.OFF)
 			for (VGDLSprite s2 : s2list)
 				addEvent(s1, s2, ef);
 
@@ -1596,7 +1923,12 @@ public abstract class Game {
 
 	private void executeEffect(Effect ef, VGDLSprite s1, VGDLSprite s2) {
 		// There is a collision. Apply the effect.
-		ef.execute(s1, s2, this);
+		if (profiler != null) {
+			long start = System.nanoTime();
+			ef.execute(s1, s2, this);
+			profiler.effectExecuted(ef, start);
+		} else
+			ef.execute(s1, s2, this);
 
 		// Affect score:
 		if (ef.applyScore) {
@@ -1607,7 +1939,7 @@ public abstract class Game {
 		}
 
 		// Add to events history.
-		if (s1 != null && s2 != null)
+		if (s1 != null && s2 != null && eventRecording != Types.EVENT_RECORDING.OFF)
 			addEvent(s1, s2, ef);
 		// ef.getClass().getName();
 
@@ -1625,6 +1957,14 @@ public abstract class Game {
 	}
 
 	private void addEvent(VGDLSprite s1, VGDLSprite s2, Effect ef) {
+		if (eventRecording == Types.EVENT_RECORDING.COUNTERS) {
+			if (s1.is_avatar || s1.is_from_avatar)
+				countEvent(s1.getType(), s2.getType());
+			else if (s2.is_avatar || s2.is_from_avatar)
+				countEvent(s2.getType(), s1.getType());
+			return;
+		}
+
 		String effectName = ef.getClass().getSimpleName();
 		Event addedEvent = null;
 		// System.out.println(s1.identifier + " collided with " + s2.identifier + " with effect: " + effectName);
@@ -1642,6 +1982,59 @@ public abstract class Game {
 			
 	}
 
+	private void countEvent(int activeType, int passiveType) {
+		int numTypes = spriteGroups.length;
+		if (eventCounts == null)
+			eventCounts = new int[numTypes * numTypes];
+		eventCounts[activeType * numTypes + passiveType]++;
+	}
+
+	/**
+	 * Sets how the events (collisions of the avatar, or of sprites created by
+	 * it) are recorded from now on. FULL keeps the history of events
+	 * (getEventsHistory()), COUNTERS only counts the events of each pair of
+	 * types (getEventCount()), and OFF doesn't record them. The history
+	 * recorded before is kept. Forward models take the policy of the game or
+	 * state they are copied from.
+	 *
+	 * @param recording
+	 *           the recording policy.
+	 */
+	public void setEventRecording(Types.EVENT_RECORDING recording) {
+		if (recording == Types.EVENT_RECORDING.FULL && eventRecording != Types.EVENT_RECORDING.FULL) {
+			TreeSet<Event> history = new TreeSet<Event>();
+			for (Event e : historicEvents)
+				history.add(e.copy());
+			historicEvents = history;
+		}
+		eventRecording = recording;
+	}
+
+	/**
+	 * Gets how the events are recorded.
+	 *
+	 * @return the recording policy.
+	 */
+	public Types.EVENT_RECORDING getEventRecording() {
+		return eventRecording;
+	}
+
+	/**
+	 * Gets the number of events between two sprite types counted while
+	 * recording COUNTERS.
+	 *
+	 * @param activeType
+	 *           type of the avatar, or of the sprite created by the avatar.
+	 * @param passiveType
+	 *           type of the sprite it collided with.
+	 * @return the number of events.
+	 */
+	public int getEventCount(int activeType, int passiveType) {
+		if (eventCounts == null)
+			return 0;
+		return eventCounts[activeType * spriteGroups.length + passiveType];
+	}
+
 	/**
 	 * Checks if a given rectangle is at the edge of the screen.
 	 *
@@ -1650,8 +2043,8 @@ public abstract class Game {
 	 * @return true if rect is at the edge of the screen.
 	 */
 	private boolean isAtEdge(Rectangle rect) {
-		Rectangle r = new Rectangle(screenSize);
-		if (!r.contains(rect)) {
+		screenBounds.setBounds(0, 0, screenSize.width, screenSize.height);
+		if (!screenBounds.contains(rect)) {
 			return true;
 		}
 		return false;
@@ -1674,13 +2067,13 @@ public abstract class Game {
 				}
 			}
 		}
-		if (Logger.getInstance().getMessageCount() > CompetitionParameters.MAX_ALLOWED_WARNINGS) {
+		if (logger.getMessageCount() > CompetitionParameters.MAX_ALLOWED_WARNINGS) {
 			System.out
-					.println("Finishing the game due to number of warnings: " + Logger.getInstance().getMessageCount() +
+					.println("Finishing the game due to number of warnings: " + logger.getMessageCount() +
 							". Messages will be flushed.");
-			Logger.getInstance().printMessages();
+			logger.printMessages();
 			isEnded = true;
-			Logger.getInstance().flushMessages();
+			logger.flushMessages();
 		}
 	}
 
@@ -1781,10 +2174,9 @@ public abstract class Game {
 	 * @param force
 	 *                 If true, forces the creation ignoring singleton restrictions
 	 */
-	@SuppressWarnings("unchecked")
 	public VGDLSprite addSprite(SpriteContent content, Vector2d position, int itype, boolean force) {
 		if (num_sprites > MAX_SPRITES) {
-			Logger.getInstance().addMessage(new Message(Message.WARNING, "Sprite limit reached."));
+			logger.addMessage(new Message(Message.WARNING, "Sprite limit reached."));
 			return null;
 		}
 
@@ -1812,7 +2204,7 @@ public abstract class Game {
 				newSprite = VGDLFactory.GetInstance().createSprite(this, content, position, spriteDim);
 
 				// Assign its types and add it to the collection of sprites.
-				newSprite.itypes = (ArrayList<Integer>) content.itypes.clone();
+				newSprite.itypes = toIntArray(content.itypes);
 
 				// save a copy as template object
 				templateSprites[itype] = newSprite.copy();
@@ -1835,6 +2227,50 @@ public abstract class Game {
 		return null;
 	}
 
+	/**
+	 * Returns the types of a sprite content as the array shared by all its sprites.
+	 * @param itypes hierarchy of types of the content.
+	 * @return the same types, in an int array.
+	 */
+	private static int[] toIntArray(ArrayList<Integer> itypes) {
+		int[] types = new int[itypes.size()];
+		for (int i = 0; i < types.length; ++i)
+			types[i] = itypes.get(i);
+		return types;
+	}
+
+	/**
+	 * Creates the template sprite of every leaf sprite type that does not have
+	 * one yet. Sprites spawned afterwards are copied from these templates, so the
+	 * game does not need to go back to VGDLFactory and VGDLRegistry while it is
+	 * being played. Parent types are skipped: they may lack parameters that only
+	 * their children define.
+	 */
+	public void buildTemplateSprites() {
+		for (int itype = 0; itype < templateSprites.length; ++itype)
+			if (classConst[itype] != null && isLeafNode(itype))
+				buildTemplateSprite(itype);
+	}
+
+	/**
+	 * Creates the template sprite of a sprite type, if it does not have one yet.
+	 *
+	 * @param itype
+	 *              sprite type.
+	 */
+	public void buildTemplateSprite(int itype) {
+		SpriteContent content = (SpriteContent) classConst[itype];
+		if (templateSprites[itype] != null || content == null || content.referenceClass == null)
+			return;
+
+		Dimension spriteDim = new Dimension(block_size, block_size);
+		VGDLSprite template = VGDLFactory.GetInstance().createSprite(this, content, new Vector2d(), spriteDim);
+		if (template != null) {
+			template.itypes = toIntArray(content.itypes);
+			templateSprites[itype] = template.copy();
+		}
+	}
+
 	public void _updateCollisionDict(VGDLSprite sprite) {
 	}
 
@@ -1922,6 +2358,80 @@ public abstract class Game {
 		return allSprites.getSpriteIterator();
 	}
 
+	/**
+	 * Gets the types of the sprites that getSubSpritesGroup() goes through, in
+	 * the same order: the type itself, and then all its subtypes.
+	 *
+	 * @param spriteItype
+	 *                    type of the sprite.
+	 * @return the types of the sprites of the type and subtypes.
+	 */
+	public int[] getSubSpritesTypes(int spriteItype) {
+		ArrayList<Integer> allTypes = iSubTypes[spriteItype];
+		int[] types = new int[allTypes.size() + 1];
+		types[0] = spriteItype;
+		for (int i = 0; i < allTypes.size(); ++i)
+			types[i + 1] = allTypes.get(i);
+		return types;
+	}
+
+	/**
+	 * Gets the logger of the warnings of this game. Messages logged here count
+	 * for the limit of warnings of this game only (MAX_ALLOWED_WARNINGS), and
+	 * are also sent to the global logger.
+	 *
+	 * @return the logger of the game.
+	 */
+	public Logger getLogger() {
+		return logger;
+	}
+
+	/**
+	 * Gets the key handler of the avatars of this game.
+	 *
+	 * @return the key handler of the game, or Game.ki if it has none.
+	 */
+	public KeyHandler getKeyHandler() {
+		return keyHandler != null ? keyHandler : ki;
+	}
+
+	/**
+	 * Starts profiling the engine (see EngineProfiler). The forward models of
+	 * the game (and their copies) report to the same profiler.
+	 */
+	public void enableProfiling() {
+		if (profiler == null)
+			profiler = new EngineProfiler();
+	}
+
+	/**
+	 * Stops profiling the engine, discarding the measures taken.
+	 */
+	public void disableProfiling() {
+		profiler = null;
+	}
+
+	/**
+	 * Gets the measures taken by the profiler of the engine.
+	 *
+	 * @return a snapshot of the metrics, or null if the game is not being
+	 *         profiled.
+	 */
+	public EngineProfiler.Metrics getMetrics() {
+		return profiler == null ? null : profiler.snapshot();
+	}
+
+	/**
+	 * Gets the spatial index of the sprites of the game, creating it if needed.
+	 *
+	 * @return the spatial index.
+	 */
+	public SpatialIndex getSpatialIndex() {
+		if (spatialIndex == null)
+			spatialIndex = new SpatialIndex(this);
+		return spatialIndex;
+	}
+
 	/**
 	 * Gets the collection of sprites for a particular sprite type.
 	 *
@@ -1975,10 +2485,13 @@ public abstract class Game {
 	}
 
 	/**
-	 * Adds a time effect to the game.
+	 * Adds a time effect to the game, to be triggered at its nextExecution
+	 * tick. The effect must not be modified after this.
 	 */
 	public void addTimeEffect(TimeEffect ef) {
-		timeEffects.add(ef);
+		if (ef.isNative)
+			definedTimeEffects.add(ef);
+		timeEffects.add(ef.nextExecution, ef);
 	}
 
 	/**
@@ -2054,6 +2567,60 @@ public abstract class Game {
 		is_stochastic = stoch;
 	}
 
+	/**
+	 * Indicates if the game is stochastic: if any of its sprites, of the sprites
+	 * it can create or of its effects behaves randomly. It is known once the
+	 * level is built (see computeStochastic()).
+	 *
+	 * @return true if the game is stochastic.
+	 */
+	public boolean isStochastic() {
+		return is_stochastic;
+	}
+
+	/**
+	 * Finds out if the game is stochastic, creating the template sprites of all
+	 * its types to check the sprites it can create. It is called on the game
+	 * thread when a level is built, before the forward model copies the flag:
+	 * forward models share the templates with the game, so agents must not
+	 * create them.
+	 */
+	protected void computeStochastic() {
+		buildTemplateSprites();
+		if (is_stochastic)
+			return;
+
+		for (VGDLSprite template : templateSprites)
+			if (template != null && template.is_stochastic) {
+				is_stochastic = true;
+				return;
+			}
+		for (ArrayList<Effect>[] effects : collisionEffects)
+			for (ArrayList<Effect> list : effects)
+				if (isStochastic(list)) {
+					is_stochastic = true;
+					return;
+				}
+		for (ArrayList<Effect> list : eosEffects)
+			if (isStochastic(list)) {
+				is_stochastic = true;
+				return;
+			}
+		for (TimeEffect effect : definedTimeEffects)
+			if (effect.is_stochastic) {
+				is_stochastic = true;
+				return;
+			}
+	}
+
+	private static boolean isStochastic(ArrayList<Effect> effects) {
+		if (effects != null)
+			for (Effect effect : effects)
+				if (effect.is_stochastic)
+					return true;
+		return false;
+	}
+
 	/**
 	 * Returns the avatar of the game in single player games.
 	 *
@@ -2158,6 +2725,8 @@ public abstract class Game {
 		}
 
 		this.timeEffects.clear();
+		this.definedTimeEffects.clear();
+		this.pairTypes = null;
 	}
 
 	/**
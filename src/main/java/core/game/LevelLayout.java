@@ -0,0 +1,272 @@
+package core.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import core.logging.Logger;
+import core.logging.Message;
+import core.vgdl.VGDLRegistry;
+import core.vgdl.VGDLSprite;
+
+/**
+ * A level description compiled for a game: the list of sprites to place, in the order the level
+ * builder places them, with their types already resolved and their autotiling computed. Once a
+ * level has been built, the layout also keeps a snapshot of the sprites it created, so building
+ * the same level again only copies them.
+ */
+public class LevelLayout
+{
+    /**
+     * Sprite types (-1 for an undefined character), cells and autotiling index of each placement.
+     */
+    int[] itypes;
+    int[] xs;
+    int[] ys;
+    int[] similarTiles;
+
+    /**
+     * Undefined character of each placement with itype -1.
+     */
+    char[] undefined;
+
+    /**
+     * Number of placements.
+     */
+    int size;
+
+    /**
+     * Character mapping the layout was compiled with.
+     */
+    HashMap<Character, ArrayList<String>> charMapping;
+
+    /**
+     * Sprites created by the first build of this layout, or null if not taken yet.
+     */
+    Snapshot snapshot;
+
+    /**
+     * Sprites of a level right after being built (before the avatars are assigned to players).
+     */
+    static class Snapshot
+    {
+        /**
+         * Copies of the sprites of each type, in the order of their groups. Their spriteIDs are
+         * relative to the first ID used by the build.
+         */
+        ArrayList<VGDLSprite>[] groups;
+
+        /**
+         * Copies of the template sprites created by the build.
+         */
+        VGDLSprite[] templates;
+
+        /**
+         * Number of sprites counted and IDs used by the build.
+         */
+        int numSprites, numIDs;
+
+        /**
+         * Indicates if any of the sprites is stochastic.
+         */
+        boolean isStochastic;
+
+        /**
+         * Messages logged by the build, and which of them were logged to the logger of the game
+         * (the others went to the global logger only).
+         */
+        ArrayList<Message> messages;
+        boolean[] gameMessages;
+
+        /**
+         * Block size of the build, and its seed if the sprites depend on it (random tiling).
+         */
+        int blockSize, seed;
+        boolean seedDependent;
+    }
+
+    /**
+     * Compiles a level. Lines must already be padded to the width of the level.
+     * @param lines lines of the level.
+     * @param charMapping mapping from characters to sprite types.
+     * @return the layout of the level.
+     */
+    public static LevelLayout compile(String[] lines, HashMap<Character, ArrayList<String>> charMapping)
+    {
+        LevelLayout layout = new LevelLayout();
+        layout.charMapping = charMapping;
+        int width = lines[0].length(), height = lines.length;
+        int capacity = Math.max(16, width * height * 2);
+        layout.itypes = new int[capacity];
+        layout.xs = new int[capacity];
+        layout.ys = new int[capacity];
+        layout.similarTiles = new int[capacity];
+        layout.undefined = new char[capacity];
+
+        VGDLRegistry registry = VGDLRegistry.GetInstance();
+        for (int i = 0; i < height; ++i)
+        {
+            String line = lines[i];
+            for (int j = 0; j < width; ++j)
+            {
+                char c = line.charAt(j);
+                ArrayList<String> objs = charMapping.get(c);
+                if (objs == null)
+                {
+                    if (c != ' ')
+                        layout.add(-1, j, i, 0, c);
+                    continue;
+                }
+
+                for (String obj : objs)
+                {
+                    int similarTiles = 0;
+                    for (int x = -1; x <= 1; x++)
+                    {
+                        for (int y = -1; y <= 1; y++)
+                        {
+                            if (Math.abs(x) != Math.abs(y)
+                                    && (j + x >= 0 && j + x < width && i + y >= 0 && i + y < height))
+                            {
+                                ArrayList<String> neighborTiles = charMapping.get(lines[i + y].charAt(j + x));
+                                if (neighborTiles != null && neighborTiles.contains(obj))
+                                {
+                                    similarTiles += Math.floor(Math.abs(x) * (x + 3) / 2)
+                                            + Math.abs(y) * (y + 3) * 2;
+                                }
+                            }
+                        }
+                    }
+                    layout.add(registry.getRegisteredSpriteValue(obj), j, i, similarTiles, c);
+                }
+            }
+        }
+        return layout;
+    }
+
+    private void add(int itype, int x, int y, int tiles, char c)
+    {
+        if (size == itypes.length)
+        {
+            itypes = Arrays.copyOf(itypes, size * 2);
+            xs = Arrays.copyOf(xs, size * 2);
+            ys = Arrays.copyOf(ys, size * 2);
+            similarTiles = Arrays.copyOf(similarTiles, size * 2);
+            undefined = Arrays.copyOf(undefined, size * 2);
+        }
+        itypes[size] = itype;
+        xs[size] = x;
+        ys[size] = y;
+        similarTiles[size] = tiles;
+        undefined[size] = c;
+        size++;
+    }
+
+    /**
+     * Takes the snapshot of a game whose level has just been built from this layout.
+     * @param game game, with the sprites of this level only.
+     * @param firstID first sprite ID used by the build.
+     * @param messages messages logged to the global logger by the build.
+     * @param gameMessages messages (also in messages) logged to the logger of the game.
+     * @param seed seed of the build.
+     * @param seedDependent true if some sprite was built differently because of the seed.
+     */
+    @SuppressWarnings("unchecked")
+    void takeSnapshot(Game game, int firstID, ArrayList<Message> messages, ArrayList<Message> gameMessages,
+                      int seed, boolean seedDependent)
+    {
+        Snapshot s = new Snapshot();
+        s.groups = (ArrayList<VGDLSprite>[]) new ArrayList<?>[game.spriteGroups.length];
+        for (int i = 0; i < s.groups.length; ++i)
+        {
+            ArrayList<VGDLSprite> sprites = game.spriteGroups[i].getSprites();
+            s.groups[i] = new ArrayList<VGDLSprite>(sprites.size());
+            for (VGDLSprite sp : sprites)
+            {
+                VGDLSprite copy = sp.copy();
+                copy.spriteID = sp.spriteID - firstID;
+                s.groups[i].add(copy);
+                s.isStochastic |= sp.is_stochastic;
+            }
+        }
+
+        s.templates = new VGDLSprite[game.templateSprites.length];
+        for (int i = 0; i < s.templates.length; ++i)
+            if (game.templateSprites[i] != null)
+                s.templates[i] = game.templateSprites[i].copy();
+
+        s.numSprites = game.num_sprites;
+        s.numIDs = game.nextSpriteID - firstID;
+        s.messages = messages;
+        s.gameMessages = new boolean[messages.size()];
+        IdentityHashMap<Message, int[]> fromGame = new IdentityHashMap<Message, int[]>();
+        for (Message m : gameMessages)
+        {
+            int[] n = fromGame.get(m);
+            if (n == null)
+                fromGame.put(m, new int[]{1});
+            else
+                n[0]++;
+        }
+        for (int i = 0; i < messages.size(); ++i)
+        {
+            int[] n = fromGame.get(messages.get(i));
+            if (n != null && n[0] > 0)
+            {
+                s.gameMessages[i] = true;
+                n[0]--;
+            }
+        }
+        s.blockSize = game.block_size;
+        s.seed = seed;
+        s.seedDependent = seedDependent;
+        snapshot = s;
+    }
+
+    /**
+     * Indicates if a game can be built by restoring the snapshot of this layout.
+     * @param game game to build, that must be empty (just reset).
+     * @param seed seed of the build.
+     * @return true if the snapshot can be restored.
+     */
+    boolean canRestore(Game game, int seed)
+    {
+        return snapshot != null && game.num_sprites == 0 && snapshot.blockSize == game.block_size
+                && (!snapshot.seedDependent || snapshot.seed == seed);
+    }
+
+    /**
+     * Puts in a game copies of the sprites of the snapshot, as if the level had been built.
+     * @param game game to build, that must be empty (just reset).
+     */
+    void restore(Game game)
+    {
+        Snapshot s = snapshot;
+        int firstID = game.nextSpriteID;
+        for (int i = 0; i < s.groups.length; ++i)
+        {
+            for (VGDLSprite sp : s.groups[i])
+            {
+                VGDLSprite copy = sp.copy();
+                copy.spriteID = firstID + sp.spriteID;
+                game.spriteGroups[i].addSprite(copy.spriteID, copy);
+            }
+        }
+        for (int i = 0; i < s.templates.length; ++i)
+            if (s.templates[i] != null)
+                game.templateSprites[i] = s.templates[i].copy();
+
+        game.num_sprites = s.numSprites;
+        game.nextSpriteID = firstID + s.numIDs;
+        if (s.isStochastic)
+            game.is_stochastic = true;
+        for (int i = 0; i < s.messages.size(); ++i)
+        {
+            if (s.gameMessages[i])
+                game.getLogger().addMessage(s.messages.get(i));
+            else
+                Logger.getInstance().addMessage(s.messages.get(i));
+        }
+    }
+}
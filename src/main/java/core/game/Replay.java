@@ -0,0 +1,411 @@
+package core.game;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import core.vgdl.VGDLFactory;
+import core.vgdl.VGDLParser;
+import core.vgdl.VGDLRegistry;
+import ontology.Types;
+import ontology.avatar.MovingAvatar;
+import tools.TrajectoryReader;
+
+/**
+ * Headless replay of a recorded game. The recorded actions are fed straight to a forward model of
+ * the game, seeded as the game was, without players, timers or graphics. This reproduces the
+ * game tick by tick, as the sprites draw from the random generator of the forward model the same
+ * numbers they drew from the one of the game.
+ *
+ * The first time the replay goes through a tick, it keeps a copy of the state every
+ * checkpointInterval ticks. Later, seek() starts from the last checkpoint before the tick asked
+ * for, so it advances at most checkpointInterval - 1 ticks.
+ *
+ * Replays can be made from action files (as recorded by the players, see
+ * ArcadeMachine.replayGame()) or from episodes of trajectory files (see tools.TrajectoryRecorder).
+ */
+public class Replay
+{
+    /**
+     * Default number of ticks between checkpoints.
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 100;
+
+    /**
+     * Actions of each player, in the order they were taken. A player takes the next one in the
+     * ticks its avatar is in the game.
+     */
+    private ArrayList<Types.ACTIONS>[] actions;
+
+    /**
+     * Number of ticks between checkpoints.
+     */
+    private int checkpointInterval;
+
+    /**
+     * Checkpoints kept so far: the k-th one is the state at tick k * checkpointInterval.
+     */
+    private ArrayList<Checkpoint> checkpoints;
+
+    /**
+     * State at the last tick the replay has gone through.
+     */
+    private Checkpoint head;
+
+    /**
+     * Recorded result of the game: score and winner of each player and number of ticks played
+     * (null and -1 if unknown).
+     */
+    public double[] expectedScores;
+    public Types.WINNER[] expectedWinners;
+    public int expectedTicks = -1;
+
+    /**
+     * State of the replay at a tick.
+     */
+    private static class Checkpoint
+    {
+        ForwardModel state;
+
+        /**
+         * Index of the next action of each player.
+         */
+        int[] next;
+    }
+
+    /**
+     * Creates the replay of a game.
+     * @param game the game, with its level built and not played yet.
+     * @param seed random seed the game was played with.
+     * @param actions actions of each player, in the order they were taken.
+     * @param checkpointInterval number of ticks between checkpoints.
+     */
+    public Replay(Game game, int seed, ArrayList<Types.ACTIONS>[] actions, int checkpointInterval)
+    {
+        if(actions.length != game.no_players)
+            throw new IllegalArgumentException("Replay: " + actions.length + " lists of actions for "
+                    + game.no_players + " players.");
+        if(checkpointInterval < 1)
+            throw new IllegalArgumentException("Replay: the checkpoint interval must be positive.");
+        this.actions = actions;
+        this.checkpointInterval = checkpointInterval;
+
+        head = new Checkpoint();
+        head.state = game.fwdModel.copy();
+        head.state.setNewSeed(seed);
+        head.next = new int[actions.length];
+        checkpoints = new ArrayList<Checkpoint>();
+        checkpoints.add(copy(head));
+    }
+
+    /**
+     * Creates the replay of an action file.
+     * @param game_file game description file.
+     * @param level_file file with the level played.
+     * @param actionFile file with the actions of the players.
+     * @param checkpointInterval number of ticks between checkpoints.
+     * @return the replay, with the result recorded in the file as expected result.
+     * @throws IOException if the action file can't be read.
+     */
+    @SuppressWarnings("unchecked")
+    public static Replay fromActionFile(String game_file, String level_file, String actionFile,
+                                        int checkpointInterval) throws IOException
+    {
+        BufferedReader br = new BufferedReader(new FileReader(actionFile));
+        try
+        {
+            //Single player: "seed win score timesteps". Multi player: "seed timesteps", then
+            //the scores and the win states of all players in one line each.
+            String[] first = br.readLine().trim().split(" ");
+            int seed = Integer.parseInt(first[0]);
+            Game game = load(game_file, level_file, seed);
+            int n = game.no_players;
+
+            double[] scores = new double[n];
+            Types.WINNER[] winners = new Types.WINNER[n];
+            int timesteps;
+            if(n == 1)
+            {
+                winners[0] = Integer.parseInt(first[1]) == 1 ? Types.WINNER.PLAYER_WINS : Types.WINNER.PLAYER_LOSES;
+                scores[0] = Double.parseDouble(first[2]);
+                timesteps = Integer.parseInt(first[3]);
+            }else
+            {
+                timesteps = Integer.parseInt(first[1]);
+                String[] scoreLine = br.readLine().trim().split(" ");
+                String[] winLine = br.readLine().trim().split(" ");
+                for(int i = 0; i < n; i++)
+                {
+                    scores[i] = scoreLine.length > i ? Double.parseDouble(scoreLine[i]) : 0;
+                    winners[i] = winLine.length > i && Integer.parseInt(winLine[i]) == 1 ?
+                            Types.WINNER.PLAYER_WINS : Types.WINNER.PLAYER_LOSES;
+                }
+            }
+
+            ArrayList<Types.ACTIONS>[] actions = (ArrayList<Types.ACTIONS>[]) new ArrayList<?>[n];
+            for(int i = 0; i < n; i++)
+                actions[i] = new ArrayList<Types.ACTIONS>();
+            String line = br.readLine();
+            while(line != null)
+            {
+                String[] acts = line.trim().split(" ");
+                for(int i = 0; i < n; i++)
+                    if(acts.length > i && !acts[i].isEmpty())
+                        actions[i].add(Types.ACTIONS.fromString(acts[i]));
+                line = br.readLine();
+            }
+
+            Replay replay = new Replay(game, seed, actions, checkpointInterval);
+            replay.expectedScores = scores;
+            replay.expectedWinners = winners;
+            //The file has the last tick of the game; ticks are counted from 0.
+            replay.expectedTicks = timesteps + 1;
+            return replay;
+        }finally
+        {
+            br.close();
+        }
+    }
+
+    /**
+     * Creates the replay of an episode of a trajectory file. The game and level stored with the
+     * episode are read as file names, or as descriptions if they have more than one line.
+     * @param episode the episode.
+     * @param checkpointInterval number of ticks between checkpoints.
+     * @return the replay, with the result recorded in the episode as expected result.
+     */
+    @SuppressWarnings("unchecked")
+    public static Replay fromTrajectory(TrajectoryReader.Episode episode, int checkpointInterval)
+    {
+        Game game = load(episode.game(), episode.level(), episode.seed());
+        int n = episode.numPlayers();
+
+        ArrayList<Types.ACTIONS>[] actions = (ArrayList<Types.ACTIONS>[]) new ArrayList<?>[n];
+        double[] scores = new double[n];
+        Types.WINNER[] winners = new Types.WINNER[n];
+        for(int i = 0; i < n; i++)
+        {
+            actions[i] = new ArrayList<Types.ACTIONS>();
+            for(int t = 0; t < episode.numTicks(); t++)
+                if(!Float.isNaN(episode.x(t, i)))
+                    actions[i].add(episode.action(t, i));
+            scores[i] = episode.score(i);
+            winners[i] = episode.winner(i);
+        }
+
+        Replay replay = new Replay(game, episode.seed(), actions, checkpointInterval);
+        replay.expectedScores = scores;
+        replay.expectedWinners = winners;
+        replay.expectedTicks = episode.numTicks();
+        return replay;
+    }
+
+    /**
+     * Parses a game and builds a level, as ArcadeMachine does before playing.
+     */
+    private static Game load(String game, String level, int seed)
+    {
+        VGDLFactory.GetInstance().init();
+        VGDLRegistry.GetInstance().init();
+
+        Game toPlay;
+        if(game.indexOf('\n') != -1)
+            toPlay = new VGDLParser().parseGameStr(game);
+        else
+            toPlay = new VGDLParser().parseGame(game);
+        if(level.indexOf('\n') != -1)
+            toPlay.buildLevelStr(level, seed);
+        else
+            toPlay.buildLevel(level, seed);
+        return toPlay;
+    }
+
+    /**
+     * Returns the state of the game at the start of a tick (the state the players saw in that
+     * tick). Ticks are counted from 0.
+     * @param tick the tick. If the game ended before, the final state is returned.
+     * @return a copy of the state.
+     */
+    public StateObservationMulti seek(int tick)
+    {
+        if(tick > head.state.gameTick)
+            advanceHead(tick);
+        if(tick >= head.state.gameTick)
+            return new StateObservationMulti(copy(head).state, 0);
+
+        Checkpoint cp = copy(checkpoints.get(tick / checkpointInterval));
+        while(cp.state.gameTick < tick)
+            step(cp);
+        return new StateObservationMulti(cp.state, 0);
+    }
+
+    /**
+     * Replays the game until it ends, keeping the checkpoints. Players whose actions have run
+     * out do nothing.
+     * @return the final state.
+     */
+    public StateObservationMulti run()
+    {
+        return seek(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of ticks replayed so far.
+     * @return the number of ticks.
+     */
+    public int numTicks()
+    {
+        return head.state.gameTick;
+    }
+
+    /**
+     * Replays the game until it ends and checks that the scores, winners and number of ticks are
+     * the ones recorded. Differences are printed.
+     * @return true if the result is the recorded one.
+     */
+    public boolean verify()
+    {
+        run();
+        ForwardModel end = head.state;
+        boolean ok = true;
+        if(!end.isEnded)
+        {
+            System.out.println("Replay: the game did not end after " + end.gameTick + " ticks.");
+            ok = false;
+        }
+        if(expectedTicks >= 0 && end.gameTick != expectedTicks)
+        {
+            System.out.println("Replay: the game lasted " + end.gameTick + " ticks, recorded " + expectedTicks + ".");
+            ok = false;
+        }
+        for(int i = 0; i < end.no_players; i++)
+        {
+            MovingAvatar avatar = end.avatars[i];
+            Types.WINNER winner = avatar != null ? avatar.getWinState() : Types.WINNER.PLAYER_DISQ;
+            double score = avatar != null ? avatar.getScore() : Types.SCORE_DISQ;
+            //As in Game.handleResult(), winning always gives a positive score.
+            if(winner == Types.WINNER.PLAYER_WINS && score <= 0)
+                score = 1;
+            if(expectedWinners != null && winner != expectedWinners[i])
+            {
+                System.out.println("Replay: player " + i + " ended as " + winner + ", recorded " + expectedWinners[i] + ".");
+                ok = false;
+            }
+            if(expectedScores != null && score != expectedScores[i])
+            {
+                System.out.println("Replay: player " + i + " scored " + score + ", recorded " + expectedScores[i] + ".");
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Verifies all the episodes of a trajectory file.
+     * @param filename the trajectory file.
+     * @return the number of episodes whose result could not be reproduced.
+     * @throws IOException if the file can't be read.
+     */
+    public static int verifyTrajectories(String filename) throws IOException
+    {
+        TrajectoryReader reader = new TrajectoryReader(filename);
+        int failed = 0;
+        try
+        {
+            for(int i = 0; i < reader.numEpisodes(); i++)
+            {
+                TrajectoryReader.Episode episode = reader.episode(i);
+                boolean ok;
+                try
+                {
+                    ok = fromTrajectory(episode, Integer.MAX_VALUE).verify();
+                }catch(RuntimeException e)
+                {
+                    System.out.println("Replay: " + e);
+                    ok = false;
+                }
+                if(!ok)
+                {
+                    System.out.println("Replay: episode " + i + " (seed " + episode.seed() + ") was not reproduced.");
+                    failed++;
+                }
+            }
+        }finally
+        {
+            reader.close();
+        }
+        System.out.println("Replay: " + (reader.numEpisodes() - failed) + " of " + reader.numEpisodes()
+                + " episodes reproduced.");
+        return failed;
+    }
+
+    /**
+     * Advances the head up to a tick, keeping the checkpoints on the way.
+     */
+    private void advanceHead(int tick)
+    {
+        while(head.state.gameTick < tick && !head.state.isEnded)
+        {
+            step(head);
+            if(head.state.gameTick % checkpointInterval == 0)
+                checkpoints.add(copy(head));
+        }
+    }
+
+    /**
+     * Advances a state one tick, with the next action of each player whose avatar is in the game.
+     */
+    private void step(Checkpoint cp)
+    {
+        ForwardModel fm = cp.state;
+        Types.ACTIONS[] acts = new Types.ACTIONS[actions.length];
+        for(int i = 0; i < acts.length; i++)
+        {
+            acts[i] = Types.ACTIONS.ACTION_NIL;
+            MovingAvatar avatar = fm.avatars[i];
+            if(avatar != null && !avatar.is_disabled() && cp.next[i] < actions[i].size())
+                acts[i] = actions[i].get(cp.next[i]++);
+        }
+        if(acts.length == 1)
+            fm.advance(acts[0]);
+        else
+            fm.advance(acts);
+    }
+
+    /**
+     * Copies a state, with the state of its random generator.
+     */
+    private static Checkpoint copy(Checkpoint cp)
+    {
+        Checkpoint c = new Checkpoint();
+        c.state = cp.state.copy();
+        c.state.setRandomGenerator(copyRandom(cp.state.getRandomGenerator()));
+        c.next = cp.next.clone();
+        return c;
+    }
+
+    /**
+     * Copies a random generator (java.util.Random has no other way to copy its seed).
+     */
+    private static Random copyRandom(Random random)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(random);
+            out.close();
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            return (Random) in.readObject();
+        }catch(IOException | ClassNotFoundException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
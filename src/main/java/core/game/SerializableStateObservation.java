@@ -53,6 +53,7 @@ public class SerializableStateObservation {
     public int observationGridNum;
     public int observationGridMaxRow;
     public int observationGridMaxCol;
+    public byte[] observationTensor;
     public Observation[][] NPCPositions;
     public int NPCPositionsNum;
     public int NPCPositionsMaxRow;
@@ -181,6 +182,9 @@ public class SerializableStateObservation {
             }
         }
 
+        // Occupancy tensor, only if the state maintains it
+        observationTensor = s.getObservationTensor();
+
         // NPC positions
         if (s.getNPCPositions()!=null) {
             NPCPositionsNum = s.getNPCPositions().length;
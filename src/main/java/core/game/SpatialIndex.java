@@ -0,0 +1,603 @@
+package core.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import core.vgdl.VGDLSprite;
+import ontology.physics.Physics;
+import tools.IntHashMap;
+
+/**
+ * Spatial index of the sprites of a game, used by NPCs that look for the closest sprites of a
+ * type (chasers, fleeing sprites). Sprites of each type are kept in buckets of one grid cell
+ * (block_size pixels), so queries visit the cells around the sprite that asks, ring by ring,
+ * instead of every sprite of the type.
+ *
+ * Buckets of a type are built the first time the type is queried in a game tick, and kept up to
+ * date while the tick runs: Game.tick() reports every sprite that has been updated (and might
+ * have moved) and every sprite created. Outside tick(), buckets are rebuilt for each query.
+ *
+ * Results are the same as going through the sprite groups in order: sprites at the same distance
+ * are returned in the order of the types given and, within a type, in the order of its group.
+ * Distances are computed by the physics of the sprite that queries. The search relies on them
+ * being at least the largest of the horizontal and vertical distances, which is true for the
+ * grid (Hamming) and continuous (Euclidean) physics.
+ */
+public class SpatialIndex
+{
+    /**
+     * Types with at most this many sprites (among all the types of a query) are searched
+     * linearly, as visiting cells would not be cheaper.
+     */
+    public static final int LINEAR_SEARCH_LIMIT = 16;
+
+    /**
+     * Game whose sprites are indexed.
+     */
+    private Game game;
+
+    /**
+     * Size of the cells, and dimensions of the grid of cells.
+     */
+    private int cellSize, width, height;
+
+    /**
+     * Buckets of each sprite type, null for the types not built since the last clear.
+     */
+    private TypeBuckets[] buckets;
+
+    /**
+     * True while the game runs tick(), when the buckets are kept up to date.
+     */
+    private boolean tracking;
+
+    /**
+     * Distance fields computed since the last clear.
+     */
+    private ArrayList<DistanceField> fields;
+
+    /**
+     * Results of the query in progress: sprites, their distances, and their order keys
+     * (position of their type in the query, and position in the group of their type).
+     */
+    private VGDLSprite[] found;
+    private double[] foundDist;
+    private long[] foundKey;
+    private int numFound;
+
+    /**
+     * Sprite in a bucket.
+     */
+    private static class Entry
+    {
+        VGDLSprite sprite;
+        int seq;
+        int cell;
+        Entry prev, next;
+    }
+
+    /**
+     * Buckets of the sprites of one type.
+     */
+    private static class TypeBuckets
+    {
+        Entry[] cells;
+        IntHashMap<Entry> bySpriteID = new IntHashMap<Entry>();
+        int nextSeq;
+    }
+
+    /**
+     * Distance (in cells) from every cell to the closest sprite of a type.
+     */
+    private static class DistanceField
+    {
+        int itype, obstacleItype;
+        boolean[] involved;
+        int[][] distance;
+    }
+
+    /**
+     * Filter for the sprites returned by a query.
+     */
+    public interface Filter
+    {
+        /**
+         * Indicates if a sprite can be returned by a query.
+         * @param sprite candidate sprite.
+         * @return true if the sprite is accepted.
+         */
+        boolean accept(VGDLSprite sprite);
+    }
+
+    /**
+     * Creates the index of a game.
+     * @param game game whose sprites are indexed.
+     */
+    public SpatialIndex(Game game)
+    {
+        this.game = game;
+        this.fields = new ArrayList<DistanceField>();
+        this.found = new VGDLSprite[16];
+        this.foundDist = new double[16];
+        this.foundKey = new long[16];
+    }
+
+    /**
+     * Called by the game when tick() starts. Buckets built before are discarded, as sprites
+     * may have moved in between.
+     */
+    public void beginTick()
+    {
+        clear();
+        tracking = true;
+    }
+
+    /**
+     * Called by the game when tick() finishes.
+     */
+    public void endTick()
+    {
+        tracking = false;
+    }
+
+    /**
+     * Called by the game after a sprite has been updated, as it may have moved.
+     * @param sprite sprite updated.
+     */
+    public void spriteMoved(VGDLSprite sprite)
+    {
+        if(!tracking)
+            return;
+        int itype = sprite.getType();
+        dropFields(itype);
+        TypeBuckets tb = buckets[itype];
+        if(tb == null)
+            return;
+
+        Entry e = tb.bySpriteID.get(sprite.spriteID);
+        if(e == null)
+            return;
+        int cell = cellOf(sprite);
+        if(cell != e.cell)
+        {
+            unlink(tb, e);
+            e.cell = cell;
+            link(tb, e);
+        }
+    }
+
+    /**
+     * Called by the game after a sprite has been added to its group.
+     * @param sprite sprite added.
+     */
+    public void spriteAdded(VGDLSprite sprite)
+    {
+        if(!tracking)
+            return;
+        int itype = sprite.getType();
+        dropFields(itype);
+        TypeBuckets tb = buckets[itype];
+        if(tb != null)
+            add(tb, sprite);
+    }
+
+    /**
+     * Finds the sprites closest to a given one. All sprites at the minimum distance are returned,
+     * in the order they are found going through the groups of the types given.
+     * @param from sprite that queries, that gives the position and the physics to measure distances.
+     * @param itypes types of the sprites to look for. A type appearing twice is searched twice.
+     * @param maxDistance sprites further than this are ignored. -1 for no limit.
+     * @param filter if not null, only sprites accepted by it are returned.
+     * @param closest list where the closest sprites are added.
+     */
+    public void closest(VGDLSprite from, int[] itypes, double maxDistance, Filter filter,
+                        ArrayList<VGDLSprite> closest)
+    {
+        search(from, itypes, maxDistance < 0 ? Double.MAX_VALUE : maxDistance, filter, 0);
+        for(int i = 0; i < numFound; i++)
+            closest.add(found[i]);
+        Arrays.fill(found, 0, numFound, null);
+    }
+
+    /**
+     * Finds the k sprites closest to a given one, sorted by distance.
+     * @param from sprite that queries, that gives the position and the physics to measure distances.
+     * @param itypes types of the sprites to look for.
+     * @param k maximum number of sprites to return.
+     * @param nearest list where the sprites are added.
+     */
+    public void nearest(VGDLSprite from, int[] itypes, int k, ArrayList<VGDLSprite> nearest)
+    {
+        if(k <= 0)
+            return;
+        search(from, itypes, Double.MAX_VALUE, null, k);
+        for(int i = 0; i < numFound; i++)
+            nearest.add(found[i]);
+        Arrays.fill(found, 0, numFound, null);
+    }
+
+    /**
+     * Finds all sprites within a distance of a given one, sorted by distance.
+     * @param from sprite that queries, that gives the position and the physics to measure distances.
+     * @param itypes types of the sprites to look for.
+     * @param radius maximum distance of the sprites returned.
+     * @param within list where the sprites are added.
+     */
+    public void withinRadius(VGDLSprite from, int[] itypes, double radius, ArrayList<VGDLSprite> within)
+    {
+        search(from, itypes, radius, null, -1);
+        for(int i = 0; i < numFound; i++)
+            within.add(found[i]);
+        Arrays.fill(found, 0, numFound, null);
+    }
+
+    /**
+     * Returns the distance, in cells, from every cell of the level to the closest cell occupied
+     * by a sprite of a type (or any of its subtypes), moving in the four grid directions and
+     * without crossing cells occupied by obstacles. Fields are kept until a sprite of the types
+     * involved moves or is created, so NPCs of the same tick share them.
+     * @param itype type of the sprites to measure the distance to.
+     * @param obstacleItype type (with its subtypes) of the sprites that block the way, -1 for none.
+     * @return distances, indexed [x][y], -1 for cells that can't reach any sprite of the type.
+     */
+    public int[][] getDistanceField(int itype, int obstacleItype)
+    {
+        if(!tracking)
+            clear();
+        else
+            for(DistanceField f : fields)
+                if(f.itype == itype && f.obstacleItype == obstacleItype)
+                    return f.distance;
+
+        checkDimensions();
+        DistanceField f = new DistanceField();
+        f.itype = itype;
+        f.obstacleItype = obstacleItype;
+        f.involved = new boolean[game.spriteGroups.length];
+        f.distance = new int[width][height];
+        for(int[] column : f.distance)
+            Arrays.fill(column, -1);
+
+        boolean[] blocked = new boolean[width * height];
+        if(obstacleItype != -1)
+            for(int type : subTypes(obstacleItype))
+            {
+                f.involved[type] = true;
+                for(VGDLSprite s : game.spriteGroups[type].getSprites())
+                    blocked[cellOf(s)] = true;
+            }
+
+        LinkedList<Integer> open = new LinkedList<Integer>();
+        for(int type : subTypes(itype))
+        {
+            f.involved[type] = true;
+            for(VGDLSprite s : game.spriteGroups[type].getSprites())
+            {
+                int cell = cellOf(s);
+                if(f.distance[cell / height][cell % height] == -1)
+                {
+                    f.distance[cell / height][cell % height] = 0;
+                    open.add(cell);
+                }
+            }
+        }
+
+        while(!open.isEmpty())
+        {
+            int cell = open.poll();
+            int x = cell / height, y = cell % height;
+            int dist = f.distance[x][y] + 1;
+            expand(f.distance, blocked, x - 1, y, dist, open);
+            expand(f.distance, blocked, x + 1, y, dist, open);
+            expand(f.distance, blocked, x, y - 1, dist, open);
+            expand(f.distance, blocked, x, y + 1, dist, open);
+        }
+
+        if(tracking)
+            fields.add(f);
+        return f.distance;
+    }
+
+    /**
+     * Visits a cell from the BFS of a distance field.
+     */
+    private void expand(int[][] distance, boolean[] blocked, int x, int y, int dist, LinkedList<Integer> open)
+    {
+        if(x < 0 || y < 0 || x >= width || y >= height)
+            return;
+        int cell = x * height + y;
+        if(distance[x][y] != -1 || blocked[cell])
+            return;
+        distance[x][y] = dist;
+        open.add(cell);
+    }
+
+    /**
+     * Searches sprites of the given types around a sprite, leaving the results in found[],
+     * sorted by distance and order key.
+     * @param limit maximum distance of the sprites found.
+     * @param k 0 to find only the closest sprites (all of them, if tied), -1 to find all sprites
+     *          within the limit, or the maximum number of sprites to find.
+     */
+    private void search(VGDLSprite from, int[] itypes, double limit, Filter filter, int k)
+    {
+        numFound = 0;
+        if(!tracking)
+            clear();
+
+        int total = 0;
+        for(int itype : itypes)
+            total += game.spriteGroups[itype].numSprites();
+        if(total == 0)
+            return;
+
+        Physics physics = from.physics;
+        if(total <= LINEAR_SEARCH_LIMIT)
+        {
+            for(int r = 0; r < itypes.length; r++)
+            {
+                ArrayList<VGDLSprite> sprites = game.spriteGroups[itypes[r]].getSprites();
+                for(int i = 0; i < sprites.size(); i++)
+                {
+                    VGDLSprite s = sprites.get(i);
+                    if(filter == null || filter.accept(s))
+                        limit = offer(s, physics.distance(from.rect, s.rect), ((long) r << 32) | i, limit, k);
+                }
+            }
+        }else
+        {
+            checkDimensions();
+            for(int itype : itypes)
+                if(buckets[itype] == null)
+                    build(itype);
+
+            int cx = cellX(from.rect.x), cy = cellY(from.rect.y);
+            int maxRing = Math.max(Math.max(cx, width - 1 - cx), Math.max(cy, height - 1 - cy));
+            for(int ring = 0; ring <= maxRing; ring++)
+            {
+                //Any sprite in a cell of this ring is at least this far (in each axis, at least).
+                double bound = ring == 0 ? 0 : (ring - 1) * (double) cellSize + 1;
+                if(bound > limit)
+                    break;
+
+                for(int x = cx - ring; x <= cx + ring; x++)
+                {
+                    if(x < 0 || x >= width)
+                        continue;
+                    boolean edge = (x == cx - ring || x == cx + ring);
+                    int step = edge ? 1 : 2 * ring;
+                    for(int y = cy - ring; y <= cy + ring; y += step)
+                    {
+                        if(y >= 0 && y < height)
+                            limit = searchCell(from, physics, itypes, x * height + y, limit, filter, k);
+                    }
+                }
+            }
+        }
+        sortFound();
+    }
+
+    /**
+     * Offers the sprites of a cell to the query in progress.
+     * @return the new distance limit of the query.
+     */
+    private double searchCell(VGDLSprite from, Physics physics, int[] itypes, int cell, double limit,
+                              Filter filter, int k)
+    {
+        for(int r = 0; r < itypes.length; r++)
+        {
+            for(Entry e = buckets[itypes[r]].cells[cell]; e != null; e = e.next)
+            {
+                VGDLSprite s = e.sprite;
+                if(filter == null || filter.accept(s))
+                    limit = offer(s, physics.distance(from.rect, s.rect), ((long) r << 32) | e.seq, limit, k);
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Offers a sprite to the results of the query in progress.
+     * @return the new distance limit of the query.
+     */
+    private double offer(VGDLSprite s, double dist, long key, double limit, int k)
+    {
+        if(dist > limit)
+            return limit;
+
+        if(k == 0)
+        {
+            //Closest only: a closer sprite discards the ones found so far.
+            if(numFound > 0 && dist < foundDist[0])
+                numFound = 0;
+            append(s, dist, key);
+            return dist;
+        }
+
+        append(s, dist, key);
+        if(k > 0 && numFound > k)
+        {
+            //Drop the worst one, keeping the k best.
+            int worst = 0;
+            for(int i = 1; i < numFound; i++)
+                if(after(i, worst))
+                    worst = i;
+            numFound--;
+            found[worst] = found[numFound];
+            foundDist[worst] = foundDist[numFound];
+            foundKey[worst] = foundKey[numFound];
+        }
+        if(k > 0 && numFound == k)
+        {
+            double worstDist = 0;
+            for(int i = 0; i < numFound; i++)
+                worstDist = Math.max(worstDist, foundDist[i]);
+            return Math.min(limit, worstDist);
+        }
+        return limit;
+    }
+
+    /**
+     * Adds a sprite at the end of the results.
+     */
+    private void append(VGDLSprite s, double dist, long key)
+    {
+        if(numFound == found.length)
+        {
+            found = Arrays.copyOf(found, numFound * 2);
+            foundDist = Arrays.copyOf(foundDist, numFound * 2);
+            foundKey = Arrays.copyOf(foundKey, numFound * 2);
+        }
+        found[numFound] = s;
+        foundDist[numFound] = dist;
+        foundKey[numFound] = key;
+        numFound++;
+    }
+
+    /**
+     * Indicates if result i goes after result j (further, or as far but later in the groups).
+     */
+    private boolean after(int i, int j)
+    {
+        return foundDist[i] > foundDist[j] || (foundDist[i] == foundDist[j] && foundKey[i] > foundKey[j]);
+    }
+
+    /**
+     * Sorts the results of a query (insertion sort, as there are few results).
+     */
+    private void sortFound()
+    {
+        for(int i = 1; i < numFound; i++)
+        {
+            VGDLSprite s = found[i];
+            double dist = foundDist[i];
+            long key = foundKey[i];
+            int j = i - 1;
+            while(j >= 0 && (foundDist[j] > dist || (foundDist[j] == dist && foundKey[j] > key)))
+            {
+                found[j + 1] = found[j];
+                foundDist[j + 1] = foundDist[j];
+                foundKey[j + 1] = foundKey[j];
+                j--;
+            }
+            found[j + 1] = s;
+            foundDist[j + 1] = dist;
+            foundKey[j + 1] = key;
+        }
+    }
+
+    /**
+     * Builds the buckets of a type from its sprite group.
+     */
+    private void build(int itype)
+    {
+        TypeBuckets tb = new TypeBuckets();
+        tb.cells = new Entry[width * height];
+        for(VGDLSprite s : game.spriteGroups[itype].getSprites())
+            add(tb, s);
+        buckets[itype] = tb;
+    }
+
+    /**
+     * Adds a sprite to the buckets of its type, after all sprites already there.
+     */
+    private void add(TypeBuckets tb, VGDLSprite sprite)
+    {
+        Entry e = new Entry();
+        e.sprite = sprite;
+        e.seq = tb.nextSeq++;
+        e.cell = cellOf(sprite);
+        link(tb, e);
+        tb.bySpriteID.put(sprite.spriteID, e);
+    }
+
+    private void link(TypeBuckets tb, Entry e)
+    {
+        e.prev = null;
+        e.next = tb.cells[e.cell];
+        if(e.next != null)
+            e.next.prev = e;
+        tb.cells[e.cell] = e;
+    }
+
+    private void unlink(TypeBuckets tb, Entry e)
+    {
+        if(e.prev != null)
+            e.prev.next = e.next;
+        else
+            tb.cells[e.cell] = e.next;
+        if(e.next != null)
+            e.next.prev = e.prev;
+        e.prev = e.next = null;
+    }
+
+    /**
+     * Discards the distance fields that involve a sprite type.
+     */
+    private void dropFields(int itype)
+    {
+        for(int i = fields.size() - 1; i >= 0; i--)
+            if(fields.get(i).involved[itype])
+                fields.remove(i);
+    }
+
+    /**
+     * Discards all buckets and distance fields.
+     */
+    private void clear()
+    {
+        int numTypes = game.spriteGroups.length;
+        if(buckets == null || buckets.length != numTypes)
+            buckets = new TypeBuckets[numTypes];
+        else
+            Arrays.fill(buckets, null);
+        fields.clear();
+    }
+
+    /**
+     * Sets the dimensions of the grid of cells from the current level.
+     */
+    private void checkDimensions()
+    {
+        cellSize = Math.max(1, game.block_size);
+        width = Math.max(1, (game.screenSize.width + cellSize - 1) / cellSize);
+        height = Math.max(1, (game.screenSize.height + cellSize - 1) / cellSize);
+    }
+
+    /**
+     * Returns the types searched for a type and all its subtypes, without repetitions.
+     */
+    private int[] subTypes(int itype)
+    {
+        ArrayList<Integer> sub = game.getSubTypes(itype);
+        int[] types = new int[sub.size() + 1];
+        int n = 0;
+        types[n++] = itype;
+        for(Integer t : sub)
+            if(t != itype)
+                types[n++] = t;
+        return Arrays.copyOf(types, n);
+    }
+
+    private int cellOf(VGDLSprite sprite)
+    {
+        return cellX(sprite.rect.x) * height + cellY(sprite.rect.y);
+    }
+
+    /**
+     * Cell column of a position. Positions out of the level go to the closest column.
+     */
+    private int cellX(int x)
+    {
+        return Math.min(width - 1, Math.max(0, Math.floorDiv(x, cellSize)));
+    }
+
+    /**
+     * Cell row of a position. Positions out of the level go to the closest row.
+     */
+    private int cellY(int y)
+    {
+        return Math.min(height - 1, Math.max(0, Math.floorDiv(y, cellSize)));
+    }
+}
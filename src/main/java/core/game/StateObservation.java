@@ -71,6 +71,27 @@ public class StateObservation {
         model.advance(action);
     }
 
+    /**
+     * Writes a binary snapshot of this state, that can be restored with restore() in another
+     * state of the same game, also in another process (see ForwardModel.snapshot()).
+     *
+     * @return the snapshot.
+     */
+    public byte[] snapshot()
+    {
+        return model.snapshot();
+    }
+
+    /**
+     * Sets this state to the one of a snapshot taken with snapshot() in the same game.
+     *
+     * @param snapshot the snapshot.
+     */
+    public void restore(byte[] snapshot)
+    {
+        model.restore(snapshot);
+    }
+
     /**
      * Sets a new seed for the forward model's random generator (creates a new object)
      *
@@ -137,6 +158,16 @@ public class StateObservation {
         return model.getGameTick();
     }
 
+    /**
+     * Gets the measures taken by the engine profiler of the game this observation comes from
+     * (see EngineProfiler). They include the advances of this observation and of its copies.
+     * @return a snapshot of the metrics, or null if the game is not being profiled.
+     */
+    public EngineProfiler.Metrics getMetrics()
+    {
+        return model.getMetrics();
+    }
+
     /**
      * Indicates if there is a game winner in the current observation.
      * Possible values are Types.WINNER.PLAYER_WINS, Types.WINNER.PLAYER_LOSES and
@@ -157,6 +188,16 @@ public class StateObservation {
         return model.isGameOver();
     }
 
+    /**
+     * Indicates if the game is stochastic. In games that are not, advancing copies of a state
+     * with the same actions always gives the same states.
+     * @return true if the game is stochastic.
+     */
+    public boolean isStochastic()
+    {
+        return model.isStochastic();
+    }
+
     /**
      * Returns the world dimensions, in pixels.
      * @return the world dimensions, in pixels.
@@ -282,6 +323,28 @@ public class StateObservation {
         return model.getObservationGrid();
     }
 
+    /**
+     * Starts maintaining a dense occupancy tensor of the observation grid in this state.
+     * It is updated incrementally when the state is advanced, and it is kept by its copies.
+     */
+    public void enableObservationTensor()
+    {
+        model.enableObservationTensor();
+    }
+
+    /**
+     * Returns the dense occupancy tensor of the observation grid. For each cell (x,y) of the grid
+     * and sprite type t, the number of sprites of type t in that cell is at
+     * ((x * gridHeight) + y) * numSpriteTypes + t, where gridHeight is getObservationGrid()[0].length.
+     * Counts saturate at Byte.MAX_VALUE. The array is shared with this state: it must not be modified, and it changes when the state
+     * is advanced.
+     * @return the occupancy tensor, or null if enableObservationTensor() was not called.
+     */
+    public byte[] getObservationTensor()
+    {
+        return model.getObservationTensor();
+    }
+
     /**
      * This method retrieves a list of events that happened so far in the game. In this
      * context, events are collisions of the avatar with other sprites in the game. Additionally,
@@ -296,6 +359,42 @@ public class StateObservation {
          return model.getEventsHistory();
     }
 
+    /**
+     * Sets how this state (and the states copied from it) record events. Rollouts that don't read
+     * the history can use Types.EVENT_RECORDING.COUNTERS (only counts of events by pair of sprite
+     * types, see getEventCount()) or Types.EVENT_RECORDING.OFF, which make advance() and copy()
+     * cheaper. The events recorded so far are kept.
+     *
+     * @param recording the recording policy.
+     */
+    public void setEventRecording(Types.EVENT_RECORDING recording)
+    {
+        model.setEventRecording(recording);
+    }
+
+    /**
+     * Gets how this state records events.
+     *
+     * @return the recording policy (Types.EVENT_RECORDING.FULL by default).
+     */
+    public Types.EVENT_RECORDING getEventRecording()
+    {
+        return model.getEventRecording();
+    }
+
+    /**
+     * Gets the number of events between two sprite types, counted while recording
+     * Types.EVENT_RECORDING.COUNTERS.
+     *
+     * @param activeType type of the avatar, or of the sprite created by the avatar.
+     * @param passiveType type of the sprite it collided with.
+     * @return the number of events counted.
+     */
+    public int getEventCount(int activeType, int passiveType)
+    {
+        return model.getEventCount(activeType, passiveType);
+    }
+
     /**
      * Returns a list of observations of NPC in the game. As there can be
      * NPCs of different type, each entry in the array corresponds to a sprite type.
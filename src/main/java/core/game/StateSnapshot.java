@@ -0,0 +1,844 @@
+package core.game;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TreeSet;
+
+import core.content.SpriteContent;
+import core.vgdl.SpriteGroup;
+import core.vgdl.VGDLSprite;
+import ontology.Types;
+import ontology.avatar.MovingAvatar;
+import ontology.effects.Effect;
+import ontology.effects.TimeEffect;
+import ontology.effects.binary.AddTimer;
+import tools.Direction;
+import tools.IntHashMap;
+import tools.KeyHandler;
+import tools.Pair;
+import tools.Vector2d;
+
+/**
+ * Binary snapshots of the state of a forward model (see ForwardModel.snapshot() and
+ * ForwardModel.restore()). A snapshot can be restored in any forward model of the same game, in
+ * this process or in another one that parsed the same game description.
+ *
+ * Format (version 1):
+ *  - header: magic number, version, fingerprint of the sprite types of the game, number of sprite
+ *    types, players and counters.
+ *  - tick, ended flag, next sprite ID, sprite count, counters, last action of each player and
+ *    state of the random generator.
+ *  - sprites, by type. Each sprite is a record with its ID, a bit set of the fields that differ
+ *    from the template sprite of its type and the values of those fields. The fields of each
+ *    sprite class are found once, by reflection.
+ *  - avatars: in the sprites above, or a record of their own if they are out of the game.
+ *  - time effect schedule, shields, event recording policy, event counters and event history.
+ *
+ * Strings are written the first time they appear and referenced by index afterwards. Fields of
+ * sprites that are not values (images, physics, colours, lists) are taken from the template.
+ */
+class StateSnapshot
+{
+    static final int MAGIC = 0x47565353; //"GVSS"
+    static final int VERSION = 1;
+
+    /**
+     * Kinds of sprite fields.
+     */
+    private static final int BOOLEAN = 0, BYTE = 1, SHORT = 2, CHAR = 3, INT = 4, LONG = 5, FLOAT = 6,
+            DOUBLE = 7, STRING = 8, ENUM = 9, DIRECTION = 10, VECTOR = 11, RECTANGLE = 12, DIMENSION = 13,
+            INT_ARRAY = 14, SPRITE = 15, KEY_HANDLER = 16;
+
+    /**
+     * Fields of VGDLSprite that depend on where the sprite is, so they are always written: the
+     * templates of the writer and the reader may have been created in different positions.
+     */
+    private static final String[] POSITION_FIELDS = {"rect", "lastrect", "bucket", "bucketSharp"};
+
+    /**
+     * Layouts of the sprite classes seen so far.
+     */
+    private static final HashMap<Class<?>, Layout> layouts = new HashMap<Class<?>, Layout>();
+
+    /**
+     * Fields of a sprite class that are part of the snapshot, with their kinds.
+     */
+    private static class Layout
+    {
+        Field[] fields;
+        int[] kinds;
+        boolean[] always;
+    }
+
+    /**
+     * Reference from a restored sprite to another sprite, resolved once all of them are read.
+     */
+    private static class SpriteRef
+    {
+        VGDLSprite sprite;
+        Field field;
+        int spriteID;
+    }
+
+    private ByteBuffer buf;
+    private ArrayList<String> strings = new ArrayList<String>();
+    private HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+    private ArrayList<SpriteRef> refs = new ArrayList<SpriteRef>();
+
+    private StateSnapshot(ByteBuffer buf)
+    {
+        this.buf = buf;
+    }
+
+    /**
+     * Writes the snapshot of a forward model.
+     * @param fm the forward model.
+     * @return the snapshot.
+     */
+    static byte[] write(ForwardModel fm)
+    {
+        StateSnapshot out = new StateSnapshot(ByteBuffer.allocate(4096));
+        int numTypes = fm.spriteGroups.length;
+
+        out.ensure(32);
+        out.buf.putInt(MAGIC);
+        out.buf.putShort((short) VERSION);
+        out.buf.putInt(fingerprint(fm));
+        out.putVarInt(numTypes);
+        out.putVarInt(fm.no_players);
+        out.putVarInt(fm.no_counters);
+
+        out.putVarInt(fm.gameTick);
+        out.putBoolean(fm.isEnded);
+        out.putVarInt(fm.nextSpriteID);
+        out.putVarInt(fm.num_sprites);
+        for (int i = 0; i < fm.no_counters; i++)
+            out.putInt(fm.counter[i]);
+        for (int i = 0; i < fm.no_players; i++)
+            out.putVarInt(fm.avatarLastAction[i] == null ? 0 : fm.avatarLastAction[i].ordinal() + 1);
+        out.putBytes(randomState(fm.getRandomGenerator()));
+
+        //Sprites, by type.
+        boolean[] avatarInGame = new boolean[fm.no_players];
+        for (int i = 0; i < numTypes; i++)
+        {
+            ArrayList<VGDLSprite> sprites = fm.spriteGroups[i].getSprites();
+            out.putVarInt(sprites.size());
+            if (sprites.isEmpty())
+                continue;
+            VGDLSprite template = template(fm, i);
+            out.putString(template.getClass().getName());
+            for (VGDLSprite sp : sprites)
+            {
+                if (sp.getClass() != template.getClass())
+                    throw new IllegalStateException("StateSnapshot: sprite " + sp + " is not of the class of its type.");
+                out.putSprite(sp, template);
+                for (int p = 0; p < fm.no_players; p++)
+                    if (fm.avatars[p] == sp)
+                        avatarInGame[p] = true;
+            }
+        }
+
+        //Avatars: 0 if none, 1 if in the game (by ID) and 2 if out of it (full record).
+        for (int p = 0; p < fm.no_players; p++)
+        {
+            MovingAvatar avatar = fm.avatars[p];
+            if (avatar == null)
+                out.putVarInt(0);
+            else if (avatarInGame[p])
+            {
+                out.putVarInt(1);
+                out.putVarInt(avatar.spriteID);
+            } else
+            {
+                out.putVarInt(2);
+                out.putVarInt(avatar.getType());
+                out.putSprite(avatar, template(fm, avatar.getType()));
+            }
+        }
+
+        //Time effects, by position in the tables of the game.
+        ArrayList<AddTimer> timers = addTimers(fm);
+        out.putVarInt(fm.timeEffects.size());
+        for (int i = 0; i < fm.timeEffects.size(); i++)
+        {
+            TimeEffect ef = fm.timeEffects.get(i);
+            out.putVarInt(fm.timeEffects.getTick(i));
+            int index = -1;
+            if (ef.isNative)
+            {
+                for (int j = 0; j < fm.definedTimeEffects.size() && index == -1; j++)
+                    if (fm.definedTimeEffects.get(j) == ef)
+                        index = j;
+                out.putVarInt(index + 1);
+            } else
+            {
+                for (int j = 0; j < timers.size() && index == -1; j++)
+                    if (timers.get(j).timerDelegate == ef.delegate)
+                        index = j;
+                out.putVarInt(0);
+                out.putVarInt(index + 1);
+            }
+            if (index == -1)
+                throw new IllegalStateException("StateSnapshot: time effect not defined in the game.");
+        }
+
+        //Shields.
+        for (int i = 0; i < numTypes; i++)
+        {
+            out.putVarInt(fm.shieldedEffects[i].size());
+            for (Pair<Integer, Long> shield : fm.shieldedEffects[i])
+            {
+                out.putVarInt(shield.first);
+                out.putLong(shield.second);
+            }
+        }
+
+        //Events.
+        out.putVarInt(fm.eventRecording.ordinal());
+        out.putBoolean(fm.eventCounts != null);
+        if (fm.eventCounts != null)
+            for (int count : fm.eventCounts)
+                out.putVarInt(count);
+        out.putVarInt(fm.historicEvents.size());
+        for (Event e : fm.historicEvents)
+        {
+            out.putVarInt(e.gameStep);
+            out.putBoolean(e.fromAvatar);
+            out.putInt(e.activeTypeId);
+            out.putInt(e.passiveTypeId);
+            out.putInt(e.activeSpriteId);
+            out.putInt(e.passiveSpriteId);
+            out.putBoolean(e.position != null);
+            if (e.position != null)
+            {
+                out.putDouble(e.position.x);
+                out.putDouble(e.position.y);
+            }
+            out.putString(e.effectName);
+            out.putString(e.activeSpriteName);
+            out.putString(e.passiveSpriteName);
+            out.putString(e.activeSpriteIdentifier);
+            out.putString(e.passiveSpriteIdentifier);
+        }
+
+        return Arrays.copyOf(out.buf.array(), out.buf.position());
+    }
+
+    /**
+     * Restores a snapshot in a forward model: its sprites, avatars, counters, random generator,
+     * time effects, shields, events and tick. The caller rebuilds what is derived from these.
+     * @param fm the forward model, of the same game as the snapshot.
+     * @param snapshot the snapshot.
+     */
+    @SuppressWarnings("unchecked")
+    static void read(ForwardModel fm, byte[] snapshot)
+    {
+        StateSnapshot in = new StateSnapshot(ByteBuffer.wrap(snapshot));
+        try
+        {
+            int numTypes = fm.spriteGroups.length;
+            if (in.buf.getInt() != MAGIC)
+                throw new IllegalArgumentException("StateSnapshot: not a game state snapshot.");
+            int version = in.buf.getShort();
+            if (version != VERSION)
+                throw new IllegalArgumentException("StateSnapshot: unsupported version " + version + ".");
+            if (in.buf.getInt() != fingerprint(fm) || in.getVarInt() != numTypes
+                    || in.getVarInt() != fm.no_players || in.getVarInt() != fm.no_counters)
+                throw new IllegalArgumentException("StateSnapshot: the snapshot is of another game.");
+
+            fm.gameTick = in.getVarInt();
+            fm.isEnded = in.getBoolean();
+            fm.nextSpriteID = in.getVarInt();
+            int numSprites = in.getVarInt();
+            for (int i = 0; i < fm.no_counters; i++)
+                fm.counter[i] = in.buf.getInt();
+            Types.ACTIONS[] actions = Types.ACTIONS.values();
+            fm.avatarLastAction = new Types.ACTIONS[fm.no_players];
+            for (int i = 0; i < fm.no_players; i++)
+            {
+                int action = in.getVarInt();
+                fm.avatarLastAction[i] = action == 0 ? null : actions[action - 1];
+            }
+            fm.setRandomGenerator(randomFromState(in.getBytes()));
+
+            //Sprites.
+            IntHashMap<VGDLSprite> byId = new IntHashMap<VGDLSprite>();
+            fm.spriteGroups = new SpriteGroup[numTypes];
+            for (int i = 0; i < numTypes; i++)
+            {
+                fm.spriteGroups[i] = new SpriteGroup(i);
+                int n = in.getVarInt();
+                if (n == 0)
+                    continue;
+                VGDLSprite template = template(fm, i);
+                if (!template.getClass().getName().equals(in.getString()))
+                    throw new IllegalArgumentException("StateSnapshot: the snapshot is of another game.");
+                for (int k = 0; k < n; k++)
+                {
+                    VGDLSprite sp = in.getSprite(fm, template);
+                    fm.spriteGroups[i].addSprite(sp.spriteID, sp);
+                    byId.put(sp.spriteID, sp);
+                }
+            }
+            fm.num_sprites = numSprites;
+
+            fm.avatars = new MovingAvatar[fm.no_players];
+            for (int p = 0; p < fm.no_players; p++)
+            {
+                int where = in.getVarInt();
+                if (where == 1)
+                    fm.avatars[p] = (MovingAvatar) byId.get(in.getVarInt());
+                else if (where == 2)
+                    fm.avatars[p] = (MovingAvatar) in.getSprite(fm, template(fm, in.getVarInt()));
+            }
+
+            for (SpriteRef ref : in.refs)
+                ref.field.set(ref.sprite, byId.get(ref.spriteID));
+
+            //Time effects. Added from the last one, as each goes before those with the same tick.
+            ArrayList<AddTimer> timers = addTimers(fm);
+            int numEffects = in.getVarInt();
+            int[] ticks = new int[numEffects];
+            TimeEffect[] effects = new TimeEffect[numEffects];
+            for (int i = 0; i < numEffects; i++)
+            {
+                ticks[i] = in.getVarInt();
+                int index = in.getVarInt();
+                if (index > 0)
+                    effects[i] = fm.definedTimeEffects.get(index - 1);
+                else
+                {
+                    effects[i] = timers.get(in.getVarInt() - 1).createTimer();
+                    effects[i].nextExecution = ticks[i];
+                }
+            }
+            fm.timeEffects = new TimeEffectSchedule();
+            for (int i = numEffects - 1; i >= 0; i--)
+                fm.timeEffects.add(ticks[i], effects[i]);
+
+            //Shields.
+            fm.shieldedEffects = (ArrayList<Pair<Integer, Long>>[]) new ArrayList<?>[numTypes];
+            for (int i = 0; i < numTypes; i++)
+            {
+                fm.shieldedEffects[i] = new ArrayList<Pair<Integer, Long>>();
+                int n = in.getVarInt();
+                for (int k = 0; k < n; k++)
+                {
+                    int type = in.getVarInt();
+                    fm.shieldedEffects[i].add(new Pair<Integer, Long>(type, in.buf.getLong()));
+                }
+            }
+
+            //Events.
+            fm.eventRecording = Types.EVENT_RECORDING.values()[in.getVarInt()];
+            fm.eventCounts = null;
+            if (in.getBoolean())
+            {
+                fm.eventCounts = new int[numTypes * numTypes];
+                for (int i = 0; i < fm.eventCounts.length; i++)
+                    fm.eventCounts[i] = in.getVarInt();
+            }
+            fm.historicEvents = new TreeSet<Event>();
+            int numEvents = in.getVarInt();
+            for (int i = 0; i < numEvents; i++)
+            {
+                int gameStep = in.getVarInt();
+                boolean fromAvatar = in.getBoolean();
+                int activeType = in.buf.getInt(), passiveType = in.buf.getInt();
+                int activeId = in.buf.getInt(), passiveId = in.buf.getInt();
+                Vector2d position = in.getBoolean() ? new Vector2d(in.buf.getDouble(), in.buf.getDouble()) : null;
+                fm.historicEvents.add(new Event(gameStep, fromAvatar, activeType, passiveType, activeId, passiveId,
+                        position, in.getString(), in.getString(), in.getString(), in.getString(), in.getString()));
+            }
+
+            if (in.buf.hasRemaining())
+                throw new IllegalArgumentException("StateSnapshot: unexpected data at the end of the snapshot.");
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e)
+        {
+            throw new IllegalArgumentException("StateSnapshot: truncated or corrupt snapshot.", e);
+        } catch (IllegalAccessException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the state of a random generator, as bytes.
+     * @param random the random generator.
+     * @return its state (java.util.Random has no other way to read its seed).
+     */
+    static byte[] randomState(Random random)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(random);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates a random generator from its state.
+     * @param state the state, as returned by randomState().
+     * @return the random generator.
+     */
+    static Random randomFromState(byte[] state)
+    {
+        try
+        {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state));
+            return (Random) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e)
+        {
+            throw new IllegalArgumentException("StateSnapshot: invalid random generator state.", e);
+        }
+    }
+
+    /**
+     * Identifies the sprite types of a game, so snapshots are not restored in other games.
+     */
+    private static int fingerprint(Game game)
+    {
+        int hash = 17;
+        for (int i = 0; i < game.classConst.length; i++)
+        {
+            SpriteContent content = (SpriteContent) game.classConst[i];
+            hash = 31 * hash + (content == null ? 0 : String.valueOf(content.identifier).hashCode());
+            hash = 31 * hash + (content == null ? 0 : String.valueOf(content.referenceClass).hashCode());
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the template sprite of a type, creating it if needed.
+     */
+    private static VGDLSprite template(Game game, int itype)
+    {
+        if (game.templateSprites[itype] == null)
+            game.buildTemplateSprite(itype);
+        if (game.templateSprites[itype] == null)
+            throw new IllegalStateException("StateSnapshot: no template for sprite type " + itype + ".");
+        return game.templateSprites[itype];
+    }
+
+    /**
+     * Returns the AddTimer effects of a game (that create the time effects that are not native),
+     * in the order they are defined.
+     */
+    private static ArrayList<AddTimer> addTimers(Game game)
+    {
+        ArrayList<AddTimer> timers = new ArrayList<AddTimer>();
+        for (ArrayList<Effect>[] row : game.collisionEffects)
+            for (ArrayList<Effect> effects : row)
+                for (Effect ef : effects)
+                    if (ef instanceof AddTimer)
+                        timers.add((AddTimer) ef);
+        for (ArrayList<Effect> effects : game.eosEffects)
+            for (Effect ef : effects)
+                if (ef instanceof AddTimer)
+                    timers.add((AddTimer) ef);
+        return timers;
+    }
+
+    /**
+     * Returns the layout of a sprite class: its instance fields of value types, superclass
+     * fields first and by name within each class.
+     */
+    private static Layout layout(Class<?> spriteClass)
+    {
+        synchronized (layouts)
+        {
+            Layout layout = layouts.get(spriteClass);
+            if (layout != null)
+                return layout;
+
+            ArrayList<Class<?>> hierarchy = new ArrayList<Class<?>>();
+            for (Class<?> c = spriteClass; c != Object.class; c = c.getSuperclass())
+                hierarchy.add(0, c);
+
+            ArrayList<Field> fields = new ArrayList<Field>();
+            ArrayList<Integer> kinds = new ArrayList<Integer>();
+            for (Class<?> c : hierarchy)
+            {
+                Field[] declared = c.getDeclaredFields();
+                Arrays.sort(declared, new Comparator<Field>() {
+                    public int compare(Field a, Field b) { return a.getName().compareTo(b.getName()); }
+                });
+                for (Field f : declared)
+                {
+                    int mod = f.getModifiers();
+                    if (Modifier.isStatic(mod) || Modifier.isFinal(mod) || Modifier.isTransient(mod)
+                            || (c == VGDLSprite.class && f.getName().equals("spriteID")))
+                        continue;
+                    int kind = kindOf(f.getType());
+                    if (kind == -1)
+                        continue;
+                    f.setAccessible(true);
+                    fields.add(f);
+                    kinds.add(kind);
+                }
+            }
+
+            layout = new Layout();
+            layout.fields = fields.toArray(new Field[0]);
+            layout.kinds = new int[fields.size()];
+            layout.always = new boolean[fields.size()];
+            for (int i = 0; i < layout.fields.length; i++)
+            {
+                layout.kinds[i] = kinds.get(i);
+                if (layout.fields[i].getDeclaringClass() == VGDLSprite.class)
+                    layout.always[i] = Arrays.asList(POSITION_FIELDS).contains(layout.fields[i].getName());
+            }
+            layouts.put(spriteClass, layout);
+            return layout;
+        }
+    }
+
+    /**
+     * Returns the kind of a field type, or -1 if fields of this type are not in snapshots.
+     */
+    private static int kindOf(Class<?> type)
+    {
+        if (type == boolean.class) return BOOLEAN;
+        if (type == byte.class) return BYTE;
+        if (type == short.class) return SHORT;
+        if (type == char.class) return CHAR;
+        if (type == int.class) return INT;
+        if (type == long.class) return LONG;
+        if (type == float.class) return FLOAT;
+        if (type == double.class) return DOUBLE;
+        if (type == String.class) return STRING;
+        if (type.isEnum()) return ENUM;
+        if (type == Direction.class) return DIRECTION;
+        if (type == Vector2d.class) return VECTOR;
+        if (type == Rectangle.class) return RECTANGLE;
+        if (type == Dimension.class) return DIMENSION;
+        if (type == int[].class) return INT_ARRAY;
+        if (VGDLSprite.class.isAssignableFrom(type)) return SPRITE;
+        if (KeyHandler.class.isAssignableFrom(type)) return KEY_HANDLER;
+        return -1;
+    }
+
+    /**
+     * Writes the record of a sprite: ID, fields that differ from the template and their values.
+     */
+    private void putSprite(VGDLSprite sp, VGDLSprite template)
+    {
+        Layout layout = layout(sp.getClass());
+        try
+        {
+            Object[] values = new Object[layout.fields.length];
+            byte[] mask = new byte[(layout.fields.length + 7) / 8];
+            for (int i = 0; i < layout.fields.length; i++)
+            {
+                values[i] = layout.fields[i].get(sp);
+                if (layout.always[i] || !same(layout.kinds[i], values[i], layout.fields[i].get(template)))
+                    mask[i >> 3] |= 1 << (i & 7);
+            }
+
+            putVarInt(sp.spriteID);
+            ensure(mask.length);
+            buf.put(mask);
+            for (int i = 0; i < layout.fields.length; i++)
+                if ((mask[i >> 3] & (1 << (i & 7))) != 0)
+                    putValue(layout.kinds[i], values[i]);
+        } catch (IllegalAccessException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the record of a sprite, as a copy of the template with the fields of the record.
+     */
+    private VGDLSprite getSprite(Game game, VGDLSprite template) throws IllegalAccessException
+    {
+        Layout layout = layout(template.getClass());
+        VGDLSprite sp = template.copy();
+        sp.spriteID = getVarInt();
+        byte[] mask = new byte[(layout.fields.length + 7) / 8];
+        buf.get(mask);
+        for (int i = 0; i < layout.fields.length; i++)
+        {
+            if ((mask[i >> 3] & (1 << (i & 7))) == 0)
+                continue;
+            Field f = layout.fields[i];
+            switch (layout.kinds[i])
+            {
+                case BOOLEAN: f.setBoolean(sp, getBoolean()); break;
+                case BYTE: f.setByte(sp, buf.get()); break;
+                case SHORT: f.setShort(sp, buf.getShort()); break;
+                case CHAR: f.setChar(sp, buf.getChar()); break;
+                case INT: f.setInt(sp, buf.getInt()); break;
+                case LONG: f.setLong(sp, buf.getLong()); break;
+                case FLOAT: f.setFloat(sp, buf.getFloat()); break;
+                case DOUBLE: f.setDouble(sp, buf.getDouble()); break;
+                case SPRITE:
+                    //Resolved once all the sprites are read.
+                    f.set(sp, null);
+                    int id = getVarInt() - 1;
+                    if (id >= 0)
+                    {
+                        SpriteRef ref = new SpriteRef();
+                        ref.sprite = sp;
+                        ref.field = f;
+                        ref.spriteID = id;
+                        refs.add(ref);
+                    }
+                    break;
+                case KEY_HANDLER:
+                    f.set(sp, getBoolean() ? game.getKeyHandler() : null);
+                    break;
+                default:
+                    f.set(sp, getValue(layout.kinds[i], f.getType()));
+            }
+        }
+        return sp;
+    }
+
+    /**
+     * Indicates if two values of a field are the same, as written in a snapshot.
+     */
+    private static boolean same(int kind, Object a, Object b)
+    {
+        if (a == b)
+            return true;
+        if (a == null || b == null)
+            return kind == SPRITE ? spriteId(a) == spriteId(b) : false;
+        switch (kind)
+        {
+            case INT_ARRAY: return Arrays.equals((int[]) a, (int[]) b);
+            case SPRITE: return spriteId(a) == spriteId(b);
+            case KEY_HANDLER: return true;
+            default: return a.equals(b);
+        }
+    }
+
+    private static int spriteId(Object sprite)
+    {
+        return sprite == null ? -1 : ((VGDLSprite) sprite).spriteID;
+    }
+
+    /**
+     * Writes a field value of a kind that is not primitive, or a boxed primitive.
+     */
+    private void putValue(int kind, Object value)
+    {
+        switch (kind)
+        {
+            case BOOLEAN: putBoolean((Boolean) value); break;
+            case BYTE: ensure(1); buf.put((Byte) value); break;
+            case SHORT: ensure(2); buf.putShort((Short) value); break;
+            case CHAR: ensure(2); buf.putChar((Character) value); break;
+            case INT: putInt((Integer) value); break;
+            case LONG: putLong((Long) value); break;
+            case FLOAT: ensure(4); buf.putFloat((Float) value); break;
+            case DOUBLE: putDouble((Double) value); break;
+            case STRING: putString((String) value); break;
+            case ENUM: putVarInt(value == null ? 0 : ((Enum<?>) value).ordinal() + 1); break;
+            case SPRITE: putVarInt(spriteId(value) + 1); break;
+            case KEY_HANDLER: putBoolean(value != null); break;
+            case DIRECTION:
+                putBoolean(value != null);
+                if (value != null)
+                {
+                    putDouble(((Direction) value).x());
+                    putDouble(((Direction) value).y());
+                }
+                break;
+            case VECTOR:
+                putBoolean(value != null);
+                if (value != null)
+                {
+                    putDouble(((Vector2d) value).x);
+                    putDouble(((Vector2d) value).y);
+                }
+                break;
+            case RECTANGLE:
+                putBoolean(value != null);
+                if (value != null)
+                {
+                    Rectangle r = (Rectangle) value;
+                    putInt(r.x);
+                    putInt(r.y);
+                    putInt(r.width);
+                    putInt(r.height);
+                }
+                break;
+            case DIMENSION:
+                putBoolean(value != null);
+                if (value != null)
+                {
+                    putInt(((Dimension) value).width);
+                    putInt(((Dimension) value).height);
+                }
+                break;
+            case INT_ARRAY:
+                int[] array = (int[]) value;
+                putVarInt(array == null ? 0 : array.length + 1);
+                if (array != null)
+                    for (int v : array)
+                        putInt(v);
+                break;
+        }
+    }
+
+    /**
+     * Reads a field value of a kind that is not primitive.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object getValue(int kind, Class<?> type)
+    {
+        switch (kind)
+        {
+            case STRING:
+                return getString();
+            case ENUM:
+                int ordinal = getVarInt();
+                return ordinal == 0 ? null : ((Class<? extends Enum>) type).getEnumConstants()[ordinal - 1];
+            case DIRECTION:
+                if (!getBoolean())
+                    return null;
+                double x = buf.getDouble(), y = buf.getDouble();
+                //Directions are compared by reference in some places: use the constants (only
+                //if they are the same to the bit, -0.0 is kept).
+                for (Direction base : new Direction[]{Types.DNONE, Types.DNIL, Types.DUP, Types.DDOWN,
+                        Types.DLEFT, Types.DRIGHT})
+                    if (Double.doubleToLongBits(base.x()) == Double.doubleToLongBits(x)
+                            && Double.doubleToLongBits(base.y()) == Double.doubleToLongBits(y))
+                        return base;
+                return new Direction(x, y);
+            case VECTOR:
+                return getBoolean() ? new Vector2d(buf.getDouble(), buf.getDouble()) : null;
+            case RECTANGLE:
+                return getBoolean() ? new Rectangle(buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt()) : null;
+            case DIMENSION:
+                return getBoolean() ? new Dimension(buf.getInt(), buf.getInt()) : null;
+            case INT_ARRAY:
+                int length = getVarInt() - 1;
+                if (length < 0)
+                    return null;
+                int[] array = new int[length];
+                for (int i = 0; i < length; i++)
+                    array[i] = buf.getInt();
+                return array;
+        }
+        throw new IllegalArgumentException("StateSnapshot: unknown field kind " + kind + ".");
+    }
+
+    /************** Primitive encoding *******************/
+
+    private void ensure(int bytes)
+    {
+        if (buf.remaining() < bytes)
+        {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + bytes));
+            buf.flip();
+            bigger.put(buf);
+            buf = bigger;
+        }
+    }
+
+    private void putVarInt(int value)
+    {
+        ensure(5);
+        while ((value & ~0x7F) != 0)
+        {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private int getVarInt()
+    {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7)
+        {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("StateSnapshot: malformed number.");
+    }
+
+    private void putBoolean(boolean value) { ensure(1); buf.put((byte) (value ? 1 : 0)); }
+    private boolean getBoolean() { return buf.get() != 0; }
+    private void putInt(int value) { ensure(4); buf.putInt(value); }
+    private void putLong(long value) { ensure(8); buf.putLong(value); }
+    private void putDouble(double value) { ensure(8); buf.putDouble(value); }
+
+    private void putBytes(byte[] bytes)
+    {
+        putVarInt(bytes.length);
+        ensure(bytes.length);
+        buf.put(bytes);
+    }
+
+    private byte[] getBytes()
+    {
+        byte[] bytes = new byte[getVarInt()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a string: 0 for null, its index + 1 if it was written before, or the next index
+     * followed by its characters the first time.
+     */
+    private void putString(String s)
+    {
+        if (s == null)
+        {
+            putVarInt(0);
+            return;
+        }
+        Integer id = stringIds.get(s);
+        if (id != null)
+        {
+            putVarInt(id + 1);
+            return;
+        }
+        stringIds.put(s, strings.size());
+        strings.add(s);
+        putVarInt(strings.size());
+        putBytes(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String getString()
+    {
+        int id = getVarInt();
+        if (id == 0)
+            return null;
+        if (id <= strings.size())
+            return strings.get(id - 1);
+        if (id != strings.size() + 1)
+            throw new IllegalArgumentException("StateSnapshot: malformed string reference.");
+        //Some strings of sprites are compared by reference.
+        String s = new String(getBytes(), StandardCharsets.UTF_8).intern();
+        strings.add(s);
+        return s;
+    }
+}
@@ -0,0 +1,156 @@
+package core.game;
+
+import java.util.Arrays;
+
+import ontology.effects.TimeEffect;
+
+/**
+ * Time effects of a game waiting to be triggered, ordered by the game tick when they trigger.
+ * Effects with the same tick are triggered in the reverse order they were scheduled.
+ *
+ * The schedule only holds (tick, effect) pairs: the effects themselves are not modified by the
+ * engine once scheduled, so the copies of a state share them. Copies also share the arrays of
+ * the schedule until one of them schedules a new effect, so copying a state costs O(1) here.
+ * Checking for due effects is O(1) and taking one is O(1).
+ */
+public class TimeEffectSchedule
+{
+    /**
+     * Ticks and effects, sorted by tick, in positions [head, size).
+     */
+    private int[] ticks;
+    private TimeEffect[] effects;
+    private int head, size;
+
+    /**
+     * True if the arrays may be used by another schedule, so they must be copied before writing.
+     */
+    private boolean shared;
+
+    public TimeEffectSchedule()
+    {
+        ticks = new int[8];
+        effects = new TimeEffect[8];
+    }
+
+    /**
+     * Schedules an effect.
+     * @param tick game tick when the effect is triggered.
+     * @param ef effect to trigger.
+     */
+    public void add(int tick, TimeEffect ef)
+    {
+        if (shared || size == ticks.length)
+        {
+            int n = size - head;
+            int capacity = Math.max(8, n == ticks.length ? n * 2 : ticks.length);
+            ticks = Arrays.copyOfRange(ticks, head, head + capacity);
+            effects = Arrays.copyOfRange(effects, head, head + capacity);
+            head = 0;
+            size = n;
+            shared = false;
+        }
+
+        //Before all the effects with the same tick.
+        int lo = head, hi = size;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (ticks[mid] < tick)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        System.arraycopy(ticks, lo, ticks, lo + 1, size - lo);
+        System.arraycopy(effects, lo, effects, lo + 1, size - lo);
+        ticks[lo] = tick;
+        effects[lo] = ef;
+        size++;
+    }
+
+    /**
+     * Indicates if there is an effect to trigger at a game tick (or before).
+     * @param tick current game tick.
+     * @return true if the first effect is due.
+     */
+    public boolean hasDue(int tick)
+    {
+        return head < size && ticks[head] <= tick;
+    }
+
+    /**
+     * Removes the first effect of the schedule.
+     * @return the effect, or null if the schedule is empty.
+     */
+    public TimeEffect pollFirst()
+    {
+        if (head == size)
+            return null;
+        TimeEffect ef = effects[head];
+        if (!shared)
+            effects[head] = null;
+        head++;
+        return ef;
+    }
+
+    /**
+     * Returns a scheduled effect.
+     * @param index position of the effect in the schedule (0 is the next one).
+     * @return the effect.
+     */
+    public TimeEffect get(int index)
+    {
+        return effects[head + index];
+    }
+
+    /**
+     * Returns the game tick when a scheduled effect is triggered.
+     * @param index position of the effect in the schedule (0 is the next one).
+     * @return the game tick.
+     */
+    public int getTick(int index)
+    {
+        return ticks[head + index];
+    }
+
+    /**
+     * Returns the number of effects scheduled.
+     * @return the number of effects.
+     */
+    public int size()
+    {
+        return size - head;
+    }
+
+    /**
+     * Removes all the effects.
+     */
+    public void clear()
+    {
+        if (!shared)
+            Arrays.fill(effects, head, size, null);
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Creates a copy of this schedule, that shares the arrays with this one until any of them
+     * adds an effect.
+     * @return the copy.
+     */
+    public TimeEffectSchedule copy()
+    {
+        TimeEffectSchedule copy = new TimeEffectSchedule(this);
+        shared = true;
+        return copy;
+    }
+
+    private TimeEffectSchedule(TimeEffectSchedule other)
+    {
+        ticks = other.ticks;
+        effects = other.effects;
+        head = other.head;
+        size = other.size;
+        shared = true;
+    }
+}
@@ -1,11 +1,46 @@
 package core.logging;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import core.competition.CompetitionParameters;
+
+/**
+ * Log of the errors and warnings of the engine. The global logger (getInstance()) receives the
+ * messages of the parser and of all games; each game also has its own logger (Game.getLogger()),
+ * that passes its messages up to the global one, so the warnings of a game are counted apart
+ * from the warnings of other games running in the same JVM.
+ *
+ * Identical messages are stored once, with the number of times they were logged, and only the
+ * last CompetitionParameters.MAX_LOGGED_MESSAGES different messages are kept. Message counts
+ * include all the messages logged, also the repeated and discarded ones.
+ */
 public class Logger {
 
-    private static final Logger instance = new Logger();
-    private ArrayList<Message> messages;
+    private static final Logger instance = new Logger(null);
+
+    /**
+     * Different messages logged, oldest first, with the times each one was logged. Created
+     * with the first message.
+     */
+    private LinkedHashMap<Message, int[]> messages;
+
+    /**
+     * Number of warnings and errors logged.
+     */
+    private int warnings, errors;
+
+    /**
+     * Logger that also receives the messages of this one, if any.
+     */
+    private Logger parent;
+
+    /**
+     * Messages logged (with repetitions) by each thread since it called startRecording(),
+     * or null if the thread is not recording. Created the first time a thread records.
+     */
+    private volatile ThreadLocal<ArrayList<Message>> recording;
 
     /**
      * To disable and enable logger
@@ -13,15 +48,18 @@ public class Logger {
     public boolean active;
 
     /**
-     * Private constructor to enforce singleton pattern
+     * Creates a logger.
+     *
+     * @param parent logger that also receives the messages of this one (null for none).
+     *               This logger is disabled while the parent is.
      */
-    private Logger() {
-        messages = new ArrayList<Message>();
+    public Logger(Logger parent) {
+        this.parent = parent;
         active = true;
     }
 
     /**
-     * Returns the instance of the singleton Logger
+     * Returns the instance of the global Logger
      *
      * @return the instance
      */
@@ -29,38 +67,66 @@ public class Logger {
         return instance;
     }
 
+    /**
+     * Indicates if messages are logged: this logger and all its parents are active.
+     *
+     * @return true if messages are logged.
+     */
+    public boolean isActive() {
+        return active && (parent == null || parent.isActive());
+    }
+
     /**
      * Returns the list of errors and warnings
      *
      * @return list of errors and warnings
      */
-    public ArrayList<Message> getMessages(){
-        return this.messages;
+    public synchronized ArrayList<Message> getMessages(){
+        if (messages == null) {
+            return new ArrayList<Message>();
+        }
+        return new ArrayList<Message>(messages.keySet());
     }
 
     /**
      * Returns the list of errors and warnings
-     * 
+     *
      * @return list of errors and warnings
      */
-    public ArrayList<Message> getMessages(int type){
-	ArrayList<Message> result = new ArrayList<Message>();
-	for (int i=0; i<messages.size(); i++){
-	    if(messages.get(i).getType() == type){
-		result.add(messages.get(i));
-	    }
-	}
-	return result;
+    public synchronized ArrayList<Message> getMessages(int type){
+        ArrayList<Message> result = new ArrayList<Message>();
+        if (messages != null) {
+            for (Message m : messages.keySet()) {
+                if (m.getType() == type) {
+                    result.add(m);
+                }
+            }
+        }
+        return result;
     }
-    
+
+    /**
+     * Returns how many times a message was logged.
+     *
+     * @param m the message
+     * @return the times it was logged, or 0 if it's not kept.
+     */
+    public synchronized int getRepeats(Message m) {
+        int[] repeats = messages == null ? null : messages.get(m);
+        return repeats == null ? 0 : repeats[0];
+    }
+
     /**
      * Sends all messages to the console in one batch Flushes the message log
      * after this is done to prepare for a new game
      */
-    public void printMessages() {
+    public synchronized void printMessages() {
         System.out.println("*** Logged Messages ***");
-        for (Message msg : messages) {
-            System.out.println(msg.toString());
+        if (messages != null) {
+            for (Map.Entry<Message, int[]> e : messages.entrySet()) {
+                int repeats = e.getValue()[0];
+                System.out.println(e.getKey().toString() + (repeats > 1 ? " (x" + repeats + ")" : ""));
+            }
         }
         System.out.println("*** Logged Messages End ***");
     }
@@ -69,8 +135,8 @@ public class Logger {
      * Get the number of error and warning messages combined
      * @return 	number of error and warning messages
      */
-    public int getMessageCount() {
-        return messages.size();
+    public synchronized int getMessageCount() {
+        return warnings + errors;
     }
 
     /**
@@ -78,14 +144,11 @@ public class Logger {
      * @param type 0 warnings, 1 errors
      * @return	number of errors or warnings
      */
-    public int getMessageCount(int type) {
-        int result = 0;
-        for (int i=0; i<messages.size(); i++){
-            if(messages.get(i).getType() == type){
-                result += 1;
-            }
+    public synchronized int getMessageCount(int type) {
+        if (type == Message.WARNING) {
+            return warnings;
         }
-        return result;
+        return type == Message.ERROR ? errors : 0;
     }
 
     /**
@@ -95,16 +158,85 @@ public class Logger {
      *            the message to be added to messages
      */
     public void addMessage(Message m) {
-        if(active){
-            messages.add(m);
+        if (!isActive()) {
+            return;
+        }
+        ArrayList<Message> recorded = recording == null ? null : recording.get();
+        if (recorded != null) {
+            recorded.add(m);
+        }
+        synchronized (this) {
+            if (m.getType() == Message.WARNING) {
+                warnings++;
+            } else if (m.getType() == Message.ERROR) {
+                errors++;
+            }
+            if (messages == null) {
+                messages = new LinkedHashMap<Message, int[]>() {
+                    protected boolean removeEldestEntry(Map.Entry<Message, int[]> eldest) {
+                        return size() > CompetitionParameters.MAX_LOGGED_MESSAGES;
+                    }
+                };
+            }
+            int[] repeats = messages.get(m);
+            if (repeats == null) {
+                messages.put(m, new int[]{1});
+            } else {
+                repeats[0]++;
+            }
+        }
+        if (parent != null) {
+            parent.addMessage(m);
+        }
+    }
+
+    /**
+     * Adds a message whose content is only built (with String.format) if it is
+     * printed. Nothing is created if the logger is not active.
+     *
+     * @param type Message.WARNING or Message.ERROR
+     * @param format format of the content
+     * @param args arguments of the format
+     */
+    public void addMessage(int type, String format, Object... args) {
+        if (isActive()) {
+            addMessage(new Message(type, format, args));
+        }
+    }
+
+    /**
+     * Starts keeping a list of the messages logged by the current thread.
+     */
+    public void startRecording() {
+        synchronized (this) {
+            if (recording == null) {
+                recording = new ThreadLocal<ArrayList<Message>>();
+            }
+        }
+        recording.set(new ArrayList<Message>());
+    }
+
+    /**
+     * Stops keeping the list of messages logged by the current thread.
+     *
+     * @return the messages it logged since startRecording(), in order and with repetitions.
+     */
+    public ArrayList<Message> stopRecording() {
+        if (recording == null) {
+            return new ArrayList<Message>();
         }
+        ArrayList<Message> recorded = recording.get();
+        recording.remove();
+        return recorded == null ? new ArrayList<Message>() : recorded;
     }
 
     /**
      * Empties the messages list of all messages
      */
-    public void flushMessages() {
-        messages.clear();
+    public synchronized void flushMessages() {
+        messages = null;
+        warnings = 0;
+        errors = 0;
     }
 
 }
@@ -1,13 +1,17 @@
 package core.logging;
 
+import java.util.Arrays;
+
 public class Message {
     public static int WARNING = 0;
     public static int ERROR = 1;
 
     // 0 is warning, 1 is error
     private int type;
-    // the string content of the message to print
+    // the string content of the message to print, built from format and args when first needed
     private String content;
+    private String format;
+    private Object[] args;
 
     /**
      * Base constructor for a Message. Needs a type (0 or 1) and a content
@@ -24,6 +28,23 @@ public class Message {
         this.content = content;
     }
 
+    /**
+     * Constructor for a Message whose content is only built (with String.format)
+     * when it is printed or requested.
+     *
+     * @param type
+     *            the type of Message this is, either warning or error
+     * @param format
+     *            format of the content
+     * @param args
+     *            arguments of the format
+     */
+    public Message(int type, String format, Object... args) {
+        this.type = type;
+        this.format = format;
+        this.args = args;
+    }
+
     /**
      * Returns the numerical type of the Message
      *
@@ -39,6 +60,9 @@ public class Message {
      * @return the content of the Message
      */
     public String getContent() {
+        if (content == null && format != null) {
+            content = String.format(format, args);
+        }
         return content;
     }
 
@@ -47,6 +71,32 @@ public class Message {
      * @return a string explaining the whole error/warning
      */
     public String toString() {
-        return (this.type == Message.ERROR? "Error: ": "Warning: ") + this.content;
+        return (this.type == Message.ERROR? "Error: ": "Warning: ") + getContent();
+    }
+
+    /**
+     * Two messages are equal if they have the same type and content. Messages
+     * with a format are compared by format and arguments, without building their
+     * content (so they are never equal to messages built with a content).
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof Message)) {
+            return false;
+        }
+        Message m = (Message) o;
+        if (type != m.type || (format == null) != (m.format == null)) {
+            return false;
+        }
+        if (format != null) {
+            return format.equals(m.format) && Arrays.equals(args, m.args);
+        }
+        return String.valueOf(content).equals(String.valueOf(m.content));
+    }
+
+    public int hashCode() {
+        if (format != null) {
+            return 31 * (31 * type + format.hashCode()) + Arrays.hashCode(args);
+        }
+        return 31 * type + String.valueOf(content).hashCode();
     }
 }
@@ -0,0 +1,157 @@
+package core.player;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import core.competition.CompetitionParameters;
+import tools.ElapsedCpuTimer;
+
+/**
+ * Runs the calls to the controllers (constructor, act(), result()) on threads of their own, with
+ * a hard deadline. The time of a call is measured as before (CPU time of the thread that runs it,
+ * with the timer the controller receives), but the game stops waiting for it when its wall time
+ * goes over the disqualification limit plus CompetitionParameters.WATCHDOG_MARGIN. The controller
+ * is then disqualified, and its thread is interrupted and left to it: the thread goes back to the
+ * pool only if the call returns.
+ *
+ * Calls run on the calling thread, as before, when CompetitionParameters.AGENT_WATCHDOG or
+ * CompetitionParameters.TIME_CONSTRAINED are false.
+ */
+public class AgentWatchdog {
+
+    /**
+     * Threads that run the calls. Idle threads are discarded after a minute.
+     */
+    private static final ExecutorService agentThreads = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "AgentWatchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * A call to a controller.
+     * @param <T> type of the value returned.
+     * @param <E> type of the exceptions thrown.
+     */
+    public interface AgentCall<T, E extends Exception> {
+        /**
+         * Makes the call.
+         * @param timer timer of the call, to pass to the controller.
+         * @return the value returned by the controller.
+         */
+        T call(ElapsedCpuTimer timer) throws E;
+    }
+
+    /**
+     * Value and time of a call.
+     * @param <T> type of the value returned.
+     */
+    public static class Result<T> {
+        /**
+         * Value returned, or null if the call did not return in time.
+         */
+        public T value;
+
+        /**
+         * True if the call did not return before its hard deadline.
+         */
+        public boolean timedOut;
+
+        private long elapsed, maxTime;
+
+        /**
+         * Returns the time taken by the call, or the time waited for it if it timed out.
+         * @return the time in milliseconds.
+         */
+        public long elapsedMillis() {
+            return elapsed / 1000000;
+        }
+
+        /**
+         * Returns the time left from the maximum time of the call (negative if exceeded).
+         * @return the time in milliseconds.
+         */
+        public long remainingTimeMillis() {
+            return (maxTime - elapsed) / 1000000;
+        }
+
+        /**
+         * Indicates if the call took more than its maximum time.
+         * @return true if the call took longer, or did not return.
+         */
+        public boolean exceededMaxTime() {
+            return timedOut || elapsed > maxTime;
+        }
+    }
+
+    /**
+     * Calls a controller that is being created.
+     * @param task the call.
+     * @param maxTimeMillis time the controller has for the call (the time of its timer).
+     * @param limitMillis time after which the controller is disqualified.
+     * @return the value and time of the call.
+     * @throws E if the call throws it.
+     */
+    public static <T, E extends Exception> Result<T> call(AgentCall<T, E> task, long maxTimeMillis,
+                                                          long limitMillis) throws E {
+        return call(null, task, maxTimeMillis, limitMillis);
+    }
+
+    /**
+     * Calls a controller.
+     * @param player the controller, or null if it is being created. If it is not watched (see
+     *               Player.isWatched()), the call is made on the current thread.
+     * @param task the call.
+     * @param maxTimeMillis time the controller has for the call (the time of its timer).
+     * @param limitMillis time after which the controller is disqualified.
+     * @return the value and time of the call.
+     * @throws E if the call throws it.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, E extends Exception> Result<T> call(Player player, AgentCall<T, E> task, long maxTimeMillis,
+                                                          long limitMillis) throws E {
+        if (!CompetitionParameters.AGENT_WATCHDOG || !CompetitionParameters.TIME_CONSTRAINED
+                || (player != null && !player.isWatched()))
+            return run(task, maxTimeMillis);
+
+        long deadline = limitMillis + CompetitionParameters.WATCHDOG_MARGIN;
+        Future<Result<T>> future = agentThreads.submit(() -> run(task, maxTimeMillis));
+        try {
+            return future.get(deadline, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            Result<T> result = new Result<T>();
+            result.timedOut = true;
+            result.elapsed = TimeUnit.MILLISECONDS.toNanos(deadline);
+            result.maxTime = TimeUnit.MILLISECONDS.toNanos(maxTimeMillis);
+            return result;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a controller.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error)
+                throw (Error) cause;
+            // run() only throws E or unchecked exceptions.
+            throw (E) cause;
+        }
+    }
+
+    /**
+     * Makes a call on the current thread.
+     */
+    private static <T, E extends Exception> Result<T> run(AgentCall<T, E> task, long maxTimeMillis) throws E {
+        ElapsedCpuTimer ect = new ElapsedCpuTimer();
+        ect.setMaxTimeMillis(maxTimeMillis);
+        Result<T> result = new Result<T>();
+        result.value = task.call(ect.copy());
+        result.elapsed = ect.elapsedNanos();
+        result.maxTime = TimeUnit.MILLISECONDS.toNanos(maxTimeMillis);
+        return result;
+    }
+}
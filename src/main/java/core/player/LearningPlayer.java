@@ -186,4 +186,13 @@ public class LearningPlayer extends Player {
     public Types.LEARNING_SSO_TYPE getLearningSsoType() {
         return comm.getLastSsoType();
     }
+
+    /**
+     * The client is an external process, whose time is not measured here: its replies are
+     * waited for by the communication (see Comm), not by AgentWatchdog.
+     */
+    @Override
+    public boolean isWatched() {
+        return false;
+    }
 }
\ No newline at end of file
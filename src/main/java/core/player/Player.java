@@ -58,6 +58,11 @@ public abstract class Player {
      */
     private boolean isHuman;
 
+    /**
+     * True if a call to this player did not return before its hard deadline (see AgentWatchdog).
+     */
+    private volatile boolean unresponsive;
+
     /**
      * Picks an action. This function is called every game step to request an
      * action from the player. The action returned must be contained in the
@@ -165,6 +170,25 @@ public abstract class Player {
      */
     public boolean isHuman() { return isHuman;}
 
+    /**
+     * Indicates if the calls to this player are made through AgentWatchdog. Human players are
+     * called directly, as they read the input of the game window.
+     * @return true if the calls to this player have a hard deadline.
+     */
+    public boolean isWatched() { return !isHuman; }
+
+    /**
+     * Indicates if a call to this player did not return in time. The call may still be running,
+     * so the player must not be called again.
+     * @return true if the player is unresponsive.
+     */
+    public boolean isUnresponsive() { return unresponsive; }
+
+    /**
+     * Marks this player as unresponsive: a call to it did not return in time.
+     */
+    public void setUnresponsive() { unresponsive = true; }
+
     /**
      * @return the ID of this player
      */
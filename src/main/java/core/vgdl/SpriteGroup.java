@@ -167,8 +167,8 @@ public class SpriteGroup
      */
     public int numDisabledSprites() {
         int acum = 0;
-        for (VGDLSprite sp: sprites) {
-            if (sp.is_disabled()) acum++;
+        for (int i = 0, n = sprites.size(); i < n; ++i) {
+            if (sprites.get(i).is_disabled()) acum++;
         }
         return acum;
     }
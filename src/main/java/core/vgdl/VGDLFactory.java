@@ -420,8 +420,8 @@ public class VGDLFactory
                 }
 
                 if( warn ){
-                    Logger.getInstance().addMessage(new Message(Message.ERROR, "Unknown field (" + parameter + "=" + value +
-                            ") from " + content.toString()));
+                    Logger.getInstance().addMessage(Message.ERROR, "Unknown field (%s=%s) from %s", parameter, value,
+                            content);
                 }
             }
         }
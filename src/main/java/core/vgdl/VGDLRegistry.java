@@ -121,6 +121,26 @@ public class VGDLRegistry
         return null;
     }
 
+    /**
+     * Returns a copy of the current mapping between sprite names and int identifiers.
+     * It can be installed back with setSpriteMapping() to build levels of a game after
+     * other games have been parsed in the same process.
+     * @return a copy of the sprite mapping.
+     */
+    public TreeMap<String, Integer> getSpriteMapping()
+    {
+        return new TreeMap<String, Integer>(sprite_mapping);
+    }
+
+    /**
+     * Replaces the current mapping between sprite names and int identifiers.
+     * @param mapping mapping to install, as returned by getSpriteMapping().
+     */
+    public void setSpriteMapping(TreeMap<String, Integer> mapping)
+    {
+        sprite_mapping = new TreeMap<String, Integer>(mapping);
+    }
+
     /**
      * Returns the -number of elements in the sprite_mapping array.
      * @return number of elements in the sprite_mapping array.
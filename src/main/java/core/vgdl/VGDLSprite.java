@@ -11,10 +11,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.Random;
-import java.util.Set;
-import java.util.TreeMap;
 
 import javax.imageio.ImageIO;
 
@@ -211,14 +208,21 @@ public abstract class VGDLSprite {
 
     /**
      * List of types this sprite belongs to. It contains the ids, including itself's, from this sprite up
-     * in the hierarchy of sprites defined in SpriteSet in the game definition.
+     * in the hierarchy of sprites defined in SpriteSet in the game definition. The array is shared by
+     * all the sprites of the same type, and must not be modified.
      */
-    public ArrayList<Integer> itypes;
+    public int[] itypes;
 
     /**
-     * Indicates the amount of resources this sprite has, for each type defined as its int identifier.
+     * Indicates the amount of resources this sprite has, as pairs (resource type, amount) sorted
+     * by resource type. Sprites without resources share an empty array.
      */
-    public TreeMap<Integer, Integer> resources;
+    private int[] resources;
+
+    /**
+     * Resources of the sprites that have none.
+     */
+    private static final int[] NO_RESOURCES = new int[0];
 
     /**
      * All images in case there's orientation changes and/or animations.
@@ -375,8 +379,8 @@ public abstract class VGDLSprite {
         isFirstTick = true;
         disabled = false;
         limitHealthPoints = 1000;
-        resources = new TreeMap<Integer, Integer>();
-        itypes = new ArrayList<Integer>();
+        resources = NO_RESOURCES;
+        itypes = new int[0];
         rotation = 0.0;
         max_speed = -1.0;
         images = new HashMap<String,ArrayList<Image>>();
@@ -395,7 +399,11 @@ public abstract class VGDLSprite {
 
     public void setRect(Rectangle rectangle)
     {
-        rect = new Rectangle(rectangle);
+        //The rectangle of a sprite is never shared, so it is moved in place.
+        if(rect == null)
+            rect = new Rectangle(rectangle);
+        else
+            rect.setBounds(rectangle);
         bucket = rect.y / rect.height;
         bucketSharp = (rect.y % rect.height) == 0;
     }
@@ -489,7 +497,7 @@ public abstract class VGDLSprite {
      */
     public void preMovement()
     {
-        lastrect = new Rectangle(rect);
+        lastrect.setBounds(rect);
         lastmove += 1;
 
         frameRemaining -= 1;
@@ -542,7 +550,7 @@ public abstract class VGDLSprite {
     {
         if(!this.is_oriented) return false;
         if(this.orientation.equals(orientation)) return false;
-        this.orientation = orientation.copy();
+        this.orientation = orientation; //Directions are immutable.
         return true;
     }
 
@@ -596,6 +604,22 @@ public abstract class VGDLSprite {
         }
     }
 
+    /**
+     * Returns the x component of the velocity of the sprite, without creating a Vector2d.
+     * @return the x component of the velocity.
+     */
+    public double velocityX() {
+        return speed == 0 ? 0 : orientation.x() * speed;
+    }
+
+    /**
+     * Returns the y component of the velocity of the sprite, without creating a Vector2d.
+     * @return the y component of the velocity.
+     */
+    public double velocityY() {
+        return speed == 0 ? 0 : orientation.y() * speed;
+    }
+
     /**
      * Checks if this sprites intersects with the one received as parameter.
      * @param sp the other sprite to check collisions with
@@ -645,14 +669,14 @@ public abstract class VGDLSprite {
     {
         int prev = getAmountResource(resourceId);
         int next = Math.max(0,prev + amount_delta);
-        resources.put(resourceId, next);
+        setResource(resourceId, next);
     }
 
     public void subtractResource(int resourceId, int amount_delta)
     {
         int prev = getAmountResource(resourceId);
         int next = Math.max(0,prev - amount_delta);
-        resources.put(resourceId, next);
+        setResource(resourceId, next);
     }
 
     /**
@@ -660,7 +684,7 @@ public abstract class VGDLSprite {
      * @param resourceId - id of the resource whose quantity must be changed.
      */
     public void removeResource(int resourceId) {
-        resources.put(resourceId, 0);
+        setResource(resourceId, 0);
     }
 
     /**
@@ -670,11 +694,89 @@ public abstract class VGDLSprite {
      */
     public int getAmountResource(int resourceId)
     {
-        int prev = 0;
-        if(resources.containsKey(resourceId))
-            prev = resources.get(resourceId);
+        int idx = resourceIndex(resourceId);
+        return idx >= 0 ? resources[idx + 1] : 0;
+    }
+
+    /**
+     * Indicates if this sprite has ever held (or been set) a resource of a given type,
+     * even if its current amount is 0.
+     * @param resourceId id of the resource to check.
+     * @return true if the sprite has an entry for this resource.
+     */
+    public boolean hasResource(int resourceId)
+    {
+        return resourceIndex(resourceId) >= 0;
+    }
+
+    /**
+     * Sets the amount of resource of a given type, with no limits checks.
+     * @param resourceId id of the resource to set.
+     * @param amount new amount of this resource.
+     */
+    public void setResource(int resourceId, int amount)
+    {
+        int idx = resourceIndex(resourceId);
+        if(idx >= 0)
+        {
+            resources[idx + 1] = amount;
+            return;
+        }
 
-        return prev;
+        //Insert the new pair keeping the array sorted by resource type.
+        int pos = -idx - 1;
+        int[] newResources = new int[resources.length + 2];
+        System.arraycopy(resources, 0, newResources, 0, pos);
+        newResources[pos] = resourceId;
+        newResources[pos + 1] = amount;
+        System.arraycopy(resources, pos, newResources, pos + 2, resources.length - pos);
+        resources = newResources;
+    }
+
+    /**
+     * Returns the number of different resources this sprite has an entry for.
+     * @return the number of resources.
+     */
+    public int getNumResources()
+    {
+        return resources.length / 2;
+    }
+
+    /**
+     * Returns the type of the i-th resource of this sprite, in increasing order of type.
+     * @param i index of the resource, between 0 and getNumResources()-1.
+     * @return the type of the resource.
+     */
+    public int getResourceType(int i)
+    {
+        return resources[2 * i];
+    }
+
+    /**
+     * Returns the amount of the i-th resource of this sprite, in increasing order of type.
+     * @param i index of the resource, between 0 and getNumResources()-1.
+     * @return the amount of the resource.
+     */
+    public int getResourceAmount(int i)
+    {
+        return resources[2 * i + 1];
+    }
+
+    /**
+     * Finds the position of a resource in the resources array.
+     * @param resourceId id of the resource to find.
+     * @return the index of its pair, or (-(insertion index) - 1) if the sprite doesn't have it.
+     */
+    private int resourceIndex(int resourceId)
+    {
+        for(int i = 0; i < resources.length; i += 2)
+        {
+            if(resources[i] == resourceId)
+                return i;
+            if(resources[i] > resourceId)
+                return -i - 1;
+        }
+        return -resources.length - 1;
     }
 
     /**
@@ -720,7 +822,7 @@ public abstract class VGDLSprite {
 	            else
 	                _draw(gphx, game, r);
 	
-	            if(resources.size() > 0)
+	            if(resources.length > 0)
 	            {
 	                _drawResources(gphx, game, r);
 	            }
@@ -733,7 +835,7 @@ public abstract class VGDLSprite {
 
             else{
                 _drawOriented(gphx, r);
-	            if(resources.size() > 0)
+	            if(resources.length > 0)
 	            {
 	                _drawResources(gphx, game, r);
 	            }
@@ -882,15 +984,14 @@ public abstract class VGDLSprite {
      */
     protected void _drawResources(Graphics2D gphx, Game game, Rectangle r)
     {
-        int numResources = resources.size();
+        int numResources = getNumResources();
         double barheight = r.getHeight() / 3.5f / numResources;
         double offset = r.getMinY() + 2*r.height / 3.0f;
 
-        Set<Map.Entry<Integer, Integer>> entries = resources.entrySet();
-        for(Map.Entry<Integer, Integer> entry : entries)
+        for(int i = 0; i < numResources; ++i)
         {
-            int resType = entry.getKey();
-            int resValue = entry.getValue();
+            int resType = getResourceType(i);
+            int resValue = getResourceAmount(i);
 
             if(resType > -1) {
                 double wiggle = r.width / 10.0f;
@@ -952,7 +1053,7 @@ public abstract class VGDLSprite {
      */
     public int getType()
     {
-        return itypes.get(itypes.size()-1);
+        return itypes[itypes.length-1];
     }
 
     /**
@@ -1147,7 +1248,7 @@ public abstract class VGDLSprite {
         toSprite.physics = this.physics; //Object reference, but should be ok.
         toSprite.shrinkfactor = this.shrinkfactor;
         toSprite.is_oriented = this.is_oriented;
-        toSprite.orientation = new Direction(orientation.x(), orientation.y());
+        toSprite.orientation = this.orientation; //Directions are immutable.
         toSprite.rect = new Rectangle(this.rect.x, this.rect.y, this.rect.width, this.rect.height);
         toSprite.lastrect =  new Rectangle(this.lastrect.x, this.lastrect.y, this.lastrect.width, this.lastrect.height);
         toSprite.lastmove = this.lastmove;
@@ -1187,16 +1288,9 @@ public abstract class VGDLSprite {
         toSprite.orientedImg = this.orientedImg;
         toSprite.identifier = this.identifier;
 
-        toSprite.itypes = new ArrayList<Integer>();
-        for(Integer it : this.itypes)
-            toSprite.itypes.add(it);
-
-        toSprite.resources = new TreeMap<Integer, Integer>();
-        Set<Map.Entry<Integer, Integer>> entries = this.resources.entrySet();
-        for(Map.Entry<Integer, Integer> entry : entries)
-        {
-            toSprite.resources.put(entry.getKey(), entry.getValue());
-        }
+        //Types are shared by all sprites of the same type.
+        toSprite.itypes = this.itypes;
+        toSprite.resources = this.resources.length == 0 ? NO_RESOURCES : this.resources.clone();
 
     }
 
@@ -1245,10 +1339,10 @@ public abstract class VGDLSprite {
         if(other.maxHealthPoints != this.maxHealthPoints) return false;
         if(other.limitHealthPoints != this.limitHealthPoints) return false;
 
-        int numTypes = other.itypes.size();
-        if(numTypes != this.itypes.size()) return false;
+        int numTypes = other.itypes.length;
+        if(numTypes != this.itypes.length) return false;
         for(int i = 0; i < numTypes; ++i)
-            if(other.itypes.get(i) != this.itypes.get(i)) return false;
+            if(other.itypes[i] != this.itypes[i]) return false;
 
         return true;
     }
@@ -5,14 +5,18 @@ import core.game.Game;
 import core.player.LearningPlayer;
 import core.player.Player;
 import ontology.Types;
+import tools.Direction;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.geom.Area;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /**
  * Created with IntelliJ IDEA.
@@ -34,7 +38,7 @@ public class VGDLViewer extends JComponent
     private Dimension size;
 
     /**
-     * Sprites to draw
+     * Sprites drawn in the last frame (the groups of the game).
      */
     public SpriteGroup[] spriteGroups;
 
@@ -45,6 +49,49 @@ public class VGDLViewer extends JComponent
 
     public boolean justImage = false;
 
+    /**
+     * Last frame rendered. paint() renders it in the thread of the game, where the sprites are
+     * consistent, and the Swing thread only copies it to the screen, so sprites are not copied.
+     * Access is synchronized on the viewer.
+     */
+    private BufferedImage frame;
+
+    /**
+     * Order in which the frame is drawn: for each step, either a pre-rendered layer with the sprites
+     * of a run of static types, or null for the sprites of the next type in dynamicTypes.
+     */
+    private ArrayList<BufferedImage> layers = new ArrayList<BufferedImage>();
+    private ArrayList<Integer> dynamicTypes = new ArrayList<Integer>();
+
+    /**
+     * Types that have had non static sprites. They are never moved back to a layer, so types whose
+     * sprites come and go (i.e. missiles) don't make the layers be rebuilt.
+     */
+    private boolean[] dynamic;
+
+    /**
+     * Signature of the sprites of each type in a layer when the layer was drawn.
+     */
+    private long[] staticSignatures;
+
+    /**
+     * What was drawn for each dynamic sprite in the last frame, and in the frame being rendered,
+     * by sprite ID.
+     */
+    private HashMap<Integer, DrawRecord> records = new HashMap<Integer, DrawRecord>();
+    private HashMap<Integer, DrawRecord> nextRecords = new HashMap<Integer, DrawRecord>();
+
+    /**
+     * Cells of the screen (of block size) that must be repainted in the frame being rendered.
+     */
+    private boolean[] dirty, pending;
+    private int cellSize, cols, rows;
+
+    /**
+     * Pixels around the rectangle of a sprite that its drawing may touch (antialiasing).
+     */
+    private static final int MARGIN = 2;
+
     /**
      * Creates the viewer for the game.
      * @param game game to be displayed
@@ -54,6 +101,12 @@ public class VGDLViewer extends JComponent
         this.game = game;
         this.size = game.getScreenSize();
         this.player = player;
+        this.frame = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_ARGB);
+        this.cellSize = Math.max(1, game.getBlockSize());
+        this.cols = (size.width + cellSize - 1) / cellSize;
+        this.rows = (size.height + cellSize - 1) / cellSize;
+        this.dirty = new boolean[cols * rows];
+        this.pending = new boolean[cols * rows];
         if (player instanceof LearningPlayer) {
             LearningPlayer learningPlayer = (LearningPlayer) player;
             Types.LEARNING_SSO_TYPE ssoType = learningPlayer.getLearningSsoType();
@@ -75,25 +128,9 @@ public class VGDLViewer extends JComponent
     }
 
     public void paintWithGraphics(Graphics2D g) {
-        //For a better graphics, enable this: (be aware this could bring performance issues depending on your HW & OS).
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-        //g.setColor(Types.LIGHTGRAY);
-        g.setColor(Types.BLACK);
-        g.fillRect(0, size.height, size.width, size.height);
-
-        try {
-            int[] gameSpriteOrder = game.getSpriteOrder();
-            if (this.spriteGroups != null) for (Integer spriteTypeInt : gameSpriteOrder) {
-                if (spriteGroups[spriteTypeInt] != null) {
-                    ArrayList<VGDLSprite> spritesList = spriteGroups[spriteTypeInt].getSprites();
-                    for (VGDLSprite sp : spritesList) {
-                        if (sp != null) sp.draw(g, game);
-                    }
-
-                }
-            }
-        }catch(Exception e) {}
+        synchronized (this) {
+            g.drawImage(frame, 0, 0, null);
+        }
 
         g.setColor(Types.BLACK);
         player.draw(g);
@@ -102,16 +139,23 @@ public class VGDLViewer extends JComponent
 
 
     /**
-     * Paints the sprites.
+     * Paints the sprites. The frame is rendered now, repainting only the parts of the screen where
+     * dynamic sprites changed; the static sprites are drawn from their layers.
      * @param spriteGroupsGame sprites to paint.
      */
     public void paint(SpriteGroup[] spriteGroupsGame)
     {
-        this.spriteGroups = new SpriteGroup[spriteGroupsGame.length];
-        for(int i = 0; i < this.spriteGroups.length; ++i)
-        {
-            this.spriteGroups[i] = new SpriteGroup(spriteGroupsGame[i].getItype());
-            this.spriteGroups[i].copyAllSprites(spriteGroupsGame[i].getSprites());
+        this.spriteGroups = spriteGroupsGame;
+        synchronized (this) {
+            try {
+                render(spriteGroupsGame);
+            } catch (Exception e) {
+                //As when painting: a frame with problems is not drawn, but the game goes on.
+                records.clear();
+                nextRecords.clear();
+                Arrays.fill(dirty, false);
+                staticSignatures = null;
+            }
         }
         this.repaint();
         if (player instanceof LearningPlayer) {
@@ -125,6 +169,315 @@ public class VGDLViewer extends JComponent
         }
     }
 
+    /**
+     * Renders the sprites in the frame.
+     * @param groups sprites to render.
+     */
+    private void render(SpriteGroup[] groups)
+    {
+        boolean full = updateLayers(groups);
+
+        //Records of the dynamic sprites, marking as dirty where they were and are if they changed.
+        for (Integer itype : dynamicTypes)
+        {
+            ArrayList<VGDLSprite> sprites = groups[itype].getSprites();
+            for (int i = 0; i < sprites.size(); ++i)
+            {
+                VGDLSprite sp = sprites.get(i);
+                if (sp == null)
+                    continue;
+                DrawRecord rec = records.remove(sp.spriteID);
+                if (rec == null)
+                {
+                    rec = new DrawRecord();
+                    rec.set(itype, sp);
+                    markDirty(rec.bounds);
+                } else if (!rec.matches(itype, sp))
+                {
+                    markDirty(rec.bounds);
+                    rec.set(itype, sp);
+                    markDirty(rec.bounds);
+                }
+                nextRecords.put(sp.spriteID, rec);
+            }
+        }
+        //Sprites that are gone.
+        for (DrawRecord rec : records.values())
+            markDirty(rec.bounds);
+        records.clear();
+        HashMap<Integer, DrawRecord> swap = records;
+        records = nextRecords;
+        nextRecords = swap;
+
+        Graphics2D g = frame.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        if (full || countDirty() * 2 > dirty.length)
+            drawRegion(g, groups, null);
+        else
+            drawRegion(g, groups, dirtyArea());
+        g.dispose();
+        Arrays.fill(dirty, false);
+    }
+
+    /**
+     * Checks the static types, rebuilding the layers if any of their sprites changed (they spawned,
+     * died or look different) or if a type became dynamic.
+     * @param groups sprites of the game.
+     * @return true if the layers were rebuilt, so the whole frame must be drawn.
+     */
+    private boolean updateLayers(SpriteGroup[] groups)
+    {
+        int[] order = game.getSpriteOrder();
+        boolean rebuild = staticSignatures == null || staticSignatures.length != groups.length;
+        if (rebuild)
+        {
+            dynamic = new boolean[groups.length];
+            staticSignatures = new long[groups.length];
+        }
+
+        for (int itype : order)
+        {
+            if (dynamic[itype] || groups[itype] == null)
+                continue;
+            ArrayList<VGDLSprite> sprites = groups[itype].getSprites();
+            long signature = 1;
+            for (int i = 0; i < sprites.size(); ++i)
+            {
+                VGDLSprite sp = sprites.get(i);
+                if (sp == null)
+                    continue;
+                if (!sp.is_static || sp.is_avatar)
+                {
+                    dynamic[itype] = true;
+                    rebuild = true;
+                    break;
+                }
+                signature = signature * 31 + DrawRecord.signature(sp);
+            }
+            if (!dynamic[itype] && signature != staticSignatures[itype])
+            {
+                staticSignatures[itype] = signature;
+                rebuild = true;
+            }
+        }
+        if (!rebuild)
+            return false;
+
+        layers.clear();
+        dynamicTypes.clear();
+        records.clear();
+        ArrayList<Integer> run = new ArrayList<Integer>();
+        for (int itype : order)
+        {
+            if (groups[itype] == null)
+                continue;
+            if (!dynamic[itype])
+            {
+                run.add(itype);
+                continue;
+            }
+            addLayer(groups, run);
+            layers.add(null);
+            dynamicTypes.add(itype);
+        }
+        addLayer(groups, run);
+        return true;
+    }
+
+    /**
+     * Draws the sprites of a run of static types in a new layer, and empties the run.
+     */
+    private void addLayer(SpriteGroup[] groups, ArrayList<Integer> run)
+    {
+        if (run.isEmpty())
+            return;
+        BufferedImage layer = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = layer.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        for (Integer itype : run)
+            for (VGDLSprite sp : groups[itype].getSprites())
+                if (sp != null)
+                    sp.draw(g, game);
+        g.dispose();
+        layers.add(layer);
+        run.clear();
+    }
+
+    /**
+     * Draws a region of the frame from scratch: the layers and the dynamic sprites that touch it.
+     * Each sprite is drawn once, with the whole region as clip, so the sprites cut by the region
+     * look the same as when the whole frame is drawn.
+     * @param region region to draw, or null for the whole frame.
+     */
+    private void drawRegion(Graphics2D g, SpriteGroup[] groups, Shape region)
+    {
+        g.setClip(region);
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, size.width, size.height);
+        g.setComposite(AlphaComposite.SrcOver);
+
+        int dyn = 0;
+        for (int step = 0; step < layers.size(); ++step)
+        {
+            BufferedImage layer = layers.get(step);
+            if (layer != null)
+            {
+                g.drawImage(layer, 0, 0, null);
+                continue;
+            }
+            int itype = dynamicTypes.get(dyn++);
+            for (VGDLSprite sp : groups[itype].getSprites())
+            {
+                if (sp == null)
+                    continue;
+                DrawRecord rec = records.get(sp.spriteID);
+                if (region == null || rec == null || isDirty(rec.bounds))
+                    sp.draw(g, game);
+            }
+        }
+        g.setClip(null);
+    }
+
+    /**
+     * Builds the area of the dirty cells, from rectangles that are runs of a row extended down
+     * while the rows below have the same run.
+     */
+    private Area dirtyArea()
+    {
+        Area area = new Area();
+        System.arraycopy(dirty, 0, pending, 0, dirty.length);
+        for (int y = 0; y < rows; ++y)
+        {
+            int x = 0;
+            while (x < cols)
+            {
+                if (!pending[y * cols + x])
+                {
+                    x++;
+                    continue;
+                }
+                int x2 = x;
+                while (x2 < cols && pending[y * cols + x2])
+                    x2++;
+                int y2 = y + 1;
+                while (y2 < rows && isRun(y2, x, x2))
+                {
+                    Arrays.fill(pending, y2 * cols + x, y2 * cols + x2, false);
+                    y2++;
+                }
+                area.add(new Area(new Rectangle(x * cellSize, y * cellSize, (x2 - x) * cellSize, (y2 - y) * cellSize)));
+                x = x2;
+            }
+        }
+        return area;
+    }
+
+    private void markDirty(Rectangle r)
+    {
+        setDirty(r, true);
+    }
+
+    private boolean isDirty(Rectangle r)
+    {
+        return setDirty(r, false);
+    }
+
+    /**
+     * Marks as dirty the cells a rectangle touches, or only checks them.
+     * @return true if any of the cells was dirty.
+     */
+    private boolean setDirty(Rectangle r, boolean mark)
+    {
+        int x1 = Math.max(0, Math.floorDiv(r.x, cellSize));
+        int y1 = Math.max(0, Math.floorDiv(r.y, cellSize));
+        int x2 = Math.min(cols - 1, Math.floorDiv(r.x + r.width, cellSize));
+        int y2 = Math.min(rows - 1, Math.floorDiv(r.y + r.height, cellSize));
+        boolean found = false;
+        for (int y = y1; y <= y2; ++y)
+            for (int x = x1; x <= x2; ++x)
+            {
+                found |= dirty[y * cols + x];
+                if (mark)
+                    dirty[y * cols + x] = true;
+            }
+        return found;
+    }
+
+    private int countDirty()
+    {
+        int n = 0;
+        for (boolean d : dirty)
+            if (d)
+                n++;
+        return n;
+    }
+
+    /**
+     * Indicates if the pending dirty cells of a row in [x1, x2) are exactly that run.
+     */
+    private boolean isRun(int y, int x1, int x2)
+    {
+        for (int x = x1; x < x2; ++x)
+            if (!pending[y * cols + x])
+                return false;
+        return (x1 == 0 || !pending[y * cols + x1 - 1]) && (x2 == cols || !pending[y * cols + x2]);
+    }
+
+    /**
+     * What was drawn for a sprite: everything its drawing depends on that can change in a game.
+     */
+    private static class DrawRecord
+    {
+        int itype;
+        Rectangle rect = new Rectangle();
+
+        /**
+         * Pixels the drawing may touch: the rectangle, with room for antialiasing and rotation.
+         */
+        Rectangle bounds = new Rectangle();
+        Direction orientation;
+        Image image;
+        double rotation;
+        long state;
+
+        void set(int itype, VGDLSprite sp)
+        {
+            this.itype = itype;
+            rect.setBounds(sp.rect);
+            int margin = MARGIN;
+            if (sp.is_avatar && sp.is_oriented)
+                margin += Math.max(rect.width, rect.height) / 2;
+            bounds.setBounds(rect.x - margin, rect.y - margin, rect.width + 2 * margin, rect.height + 2 * margin);
+            orientation = sp.orientation;
+            image = sp.image;
+            rotation = sp.rotation;
+            state = signature(sp);
+        }
+
+        boolean matches(int itype, VGDLSprite sp)
+        {
+            return this.itype == itype && rect.equals(sp.rect) && image == sp.image && rotation == sp.rotation
+                    && (orientation == sp.orientation || orientation != null && orientation.equals(sp.orientation))
+                    && state == signature(sp);
+        }
+
+        /**
+         * Hash of the state of a sprite that affects its drawing.
+         */
+        static long signature(VGDLSprite sp)
+        {
+            long h = sp.spriteID;
+            h = h * 31 + sp.rect.hashCode();
+            h = h * 31 + System.identityHashCode(sp.image);
+            h = h * 31 + (sp.color == null ? 0 : sp.color.getRGB());
+            h = h * 31 + sp.healthPoints;
+            for (int i = 0; i < sp.getNumResources(); ++i)
+                h = h * 31 + sp.getResourceType(i) * 1000003L + sp.getResourceAmount(i);
+            h = h * 31 + (sp.is_disabled() ? 1 : 0);
+            return h;
+        }
+    }
+
     /**
      * Gets the dimensions of the window.
      * @return the dimensions of the window.
@@ -191,6 +191,16 @@ public class Types {
         MOVE
     }
 
+    /**
+     * How a game (or a state observation) records the collisions of the avatar:
+     * full history of events, counters of events per pair of sprite types, or nothing.
+     */
+    public static enum EVENT_RECORDING {
+        FULL,
+        COUNTERS,
+        OFF
+    }
+
     /**
      * This is an enum type that specifies the type of sso required
      */
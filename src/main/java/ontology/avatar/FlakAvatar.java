@@ -102,20 +102,20 @@ public class FlakAvatar extends HorizontalAvatar
             return true; //no ammo defined, I can shoot.
 
         //If I have ammo, I must have enough resource of ammo type to be able to shoot.
-        if(resources.containsKey(ammoId))
+        if(hasResource(ammoId))
             if(minAmmo > -1)
-                return resources.get(ammoId) > minAmmo;
+                return getAmountResource(ammoId) > minAmmo;
             else
-                return resources.get(ammoId) > 0;
+                return getAmountResource(ammoId) > 0;
 
         return false;
     }
 
     private void reduceAmmo()
     {
-        if(ammo != null && resources.containsKey(ammoId))
+        if(ammo != null && hasResource(ammoId))
         {
-            resources.put(ammoId, resources.get(ammoId) - ammoCost);
+            setResource(ammoId, getAmountResource(ammoId) - ammoCost);
         }
     }
     public VGDLSprite copy()
@@ -129,12 +129,14 @@ public class FlakAvatar extends HorizontalAvatar
     {
         FlakAvatar targetSprite = (FlakAvatar) target;
         targetSprite.stype = this.stype;
-        targetSprite.itype= this.itype;
         targetSprite.ammo = this.ammo;
-        targetSprite.ammoId= this.ammoId;
         targetSprite.ammoCost = this.ammoCost;
         targetSprite.minAmmo= this.minAmmo;
         super.copyTo(targetSprite);
+
+        // Copied after postProcess(), which looks them up in the registry of the game parsed last.
+        targetSprite.itype= this.itype;
+        targetSprite.ammoId= this.ammoId;
     }
     
     @Override
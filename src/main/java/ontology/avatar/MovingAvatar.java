@@ -7,6 +7,9 @@ import core.vgdl.VGDLSprite;
 import core.competition.CompetitionParameters;
 import core.content.SpriteContent;
 import core.game.Game;
+import core.game.StateObservation;
+import core.game.StateObservationMulti;
+import core.player.AgentWatchdog;
 import core.player.Player;
 import ontology.Types;
 import ontology.Types.ACTIONS;
@@ -125,24 +128,33 @@ public class MovingAvatar extends VGDLSprite {
      * @param game
      */
     protected void requestPlayerInput(Game game) {
-        ElapsedCpuTimer ect = new ElapsedCpuTimer();
-        ect.setMaxTimeMillis(CompetitionParameters.ACTION_TIME);
-
-        Types.ACTIONS action;
+        //The controller acts on a thread of its own (see AgentWatchdog), with a hard deadline.
+        AgentWatchdog.Result<Types.ACTIONS> call;
         if (game.no_players > 1) {
-            action = this.player.act(game.getObservationMulti(playerID), ect.copy());
+            StateObservationMulti so = game.getObservationMulti(playerID);
+            call = AgentWatchdog.call(player, t -> player.act(so, t),
+                    CompetitionParameters.ACTION_TIME, CompetitionParameters.ACTION_TIME_DISQ);
         } else {
-            action = this.player.act(game.getObservation(), ect.copy());
+            StateObservation so = game.getObservation();
+            call = AgentWatchdog.call(player, t -> player.act(so, t),
+                    CompetitionParameters.ACTION_TIME, CompetitionParameters.ACTION_TIME_DISQ);
         }
-        
+
+        Types.ACTIONS action = call.value;
         if(action == null){
             action = ACTIONS.ACTION_NIL;
         }
 
-        if (CompetitionParameters.TIME_CONSTRAINED && ect.exceededMaxTime()) {
-            long exceeded = -ect.remainingTimeMillis();
+        if (call.timedOut) {
+            //The controller is still running: it is left behind, and never called again.
+            System.out.println("No reply: " + playerID + " (after " + call.elapsedMillis() + "ms): controller disqualified.");
+            player.setUnresponsive();
+            game.disqualify(playerID);
+            action = Types.ACTIONS.ACTION_NIL;
+        } else if (CompetitionParameters.TIME_CONSTRAINED && call.exceededMaxTime()) {
+            long exceeded = -call.remainingTimeMillis();
 
-            if (ect.elapsedMillis() > CompetitionParameters.ACTION_TIME_DISQ) {
+            if (call.elapsedMillis() > CompetitionParameters.ACTION_TIME_DISQ) {
                 //The agent took too long to replay. The game is over and the agent is disqualified
                 System.out.println("Too long: " + playerID + "(exceeding " + (exceeded) + "ms): controller disqualified.");
                 game.disqualify(playerID);
@@ -272,7 +284,7 @@ public class MovingAvatar extends VGDLSprite {
         targetSprite.setKeyHandler(this.getKeyHandler());
         
         // need to copy orientation here already because MovingAvatar.postProcess() requires the orientation
-        targetSprite.orientation = this.orientation.copy();	
+        targetSprite.orientation = this.orientation;	
         
         targetSprite.postProcess();
         super.copyTo(targetSprite);
@@ -106,15 +106,15 @@ public class ShootAvatar extends OrientedAvatar
             return true; //no ammo defined, I can shoot.
 
         //If I have ammo, I must have enough resource of ammo type to be able to shoot.
-        return resources.containsKey(ammoId[idx]) && resources.get(ammoId[idx]) > 0;
+        return getAmountResource(ammoId[idx]) > 0;
 
     }
 
     protected void reduceAmmo(int idx)
     {
-        if(ammo != null && idx < ammos.length && resources.containsKey(ammoId[idx]))
+        if(ammo != null && idx < ammos.length && hasResource(ammoId[idx]))
         {
-            resources.put(ammoId[idx], resources.get(ammoId[idx]) - 1);
+            setResource(ammoId[idx], getAmountResource(ammoId[idx]) - 1);
         }
     }
 
@@ -157,13 +157,15 @@ public class ShootAvatar extends OrientedAvatar
     {
         ShootAvatar targetSprite = (ShootAvatar) target;
         targetSprite.stype = this.stype;
-        targetSprite.itype = this.itype.clone();
         targetSprite.stypes = this.stypes.clone();
         targetSprite.ammo = this.ammo;
-        targetSprite.ammoId= this.ammoId.clone();
         targetSprite.ammos = this.ammos.clone();
 
         super.copyTo(targetSprite);
+
+        // Copied after postProcess(), which looks them up in the registry of the game parsed last.
+        targetSprite.itype = this.itype.clone();
+        targetSprite.ammoId= this.ammoId.clone();
     }
     
     @Override
@@ -169,10 +169,12 @@ public class WizardAvatar extends MovingAvatar
         targetSprite.air_slowdown_factor = this.air_slowdown_factor;
         targetSprite.stype = this.stype;
         targetSprite.stypes = this.stypes.clone();
-        targetSprite.itype = this.itype.clone();
         targetSprite.facing_dir = new Direction(this.facing_dir.x(), this.facing_dir.y());
         targetSprite.last_block_time = this.last_block_time;
         super.copyTo(targetSprite);
+
+        // Copied after postProcess(), which looks them up in the registry of the game parsed last.
+        targetSprite.itype = this.itype.clone();
     }
 
 
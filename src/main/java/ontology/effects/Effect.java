@@ -36,6 +36,9 @@ public abstract class Effect{
     //Change of the score this effect makes.
     public String scoreChange = "0";
 
+    //scoreChange, parsed the last time it was read. Effects are shared between states.
+    private ParsedScore parsedScore;
+
     //Count something
     public boolean count = true;
     public String counter = "0";
@@ -70,6 +73,11 @@ public abstract class Effect{
      */
     public boolean inBatch = false;
 
+    /**
+     * Indicates if the effect can change the position of the sprites it's applied to.
+     */
+    public boolean movesSprites = false;
+
     /**
      * Collision for batches
      */
@@ -186,22 +194,22 @@ public abstract class Effect{
 
         if(!horizontalBounce && !verticalBounce)
         {
-            Vector2d vel = sprite1._velocity();
+            double velX = sprite1.velocityX(), velY = sprite1.velocityY();
 
             //Distance on X, according to the direction of travel
-            double distX = (vel.x == 0.0) ?  Math.abs (sprite1.lastrect.x - s2rect.x) :                         //Travelling vertically
-                    ((vel.x > 0.0) ?  Math.abs ((sprite1.lastrect.x + sprite1.rect.width) - s2rect.x) :  //Going right
+            double distX = (velX == 0.0) ?  Math.abs (sprite1.lastrect.x - s2rect.x) :                         //Travelling vertically
+                    ((velX > 0.0) ?  Math.abs ((sprite1.lastrect.x + sprite1.rect.width) - s2rect.x) :  //Going right
                             Math.abs ((s2rect.x + s2rect.width) - sprite1.lastrect.x));        //Going left
 
 
             //Distance on Y, according to the direction of travel
-            double distY =  (vel.y == 0.0) ?  Math.abs (sprite1.lastrect.y - s2rect.y) :                          //Travelling laterally
-                    ((vel.y > 0.0) ?  Math.abs ((sprite1.lastrect.y + sprite1.rect.height) - s2rect.y) :  //Going downwards
+            double distY =  (velY == 0.0) ?  Math.abs (sprite1.lastrect.y - s2rect.y) :                          //Travelling laterally
+                    ((velY > 0.0) ?  Math.abs ((sprite1.lastrect.y + sprite1.rect.height) - s2rect.y) :  //Going downwards
                             Math.abs (sprite1.lastrect.y - (s2rect.y + s2rect.height)));        //Going upwards
 
 
-            double tX = Math.abs(distX / vel.x);
-            double tY = Math.abs(distY / vel.y);
+            double tX = Math.abs(distX / velX);
+            double tY = Math.abs(distY / velY);
             horizontalBounce = (tX < tY);
             verticalBounce = (tY < tX);
         }
@@ -221,6 +229,7 @@ public abstract class Effect{
         //parameters from the object.
         VGDLFactory.GetInstance().parseParameters(content, this);
         hashCode = content.hashCode;
+        setStochastic();
     }
 
     /**
@@ -229,14 +238,48 @@ public abstract class Effect{
      * @return - score change
      */
     public int getScoreChange(int playerID) {
-        String[] scores = scoreChange.split(",");
-        try{
-            return playerID < scores.length ? Integer.parseInt(scores[playerID]) : Integer.parseInt(scores[0]);
+        ParsedScore parsed = parsedScore;
+        if(parsed == null || parsed.source != scoreChange)
+        {
+            parsed = new ParsedScore(scoreChange);
+            parsedScore = parsed;
         }
-        catch(Exception e){
-            Logger.getInstance().addMessage(new Message(Message.WARNING, "scoreChange must be an integer number not " + scoreChange + "."));
+        int idx = playerID < parsed.values.length ? playerID : 0;
+        if(parsed.values.length == 0 || !parsed.valid[idx])
+        {
+            Logger.getInstance().addMessage(Message.WARNING, "scoreChange must be an integer number not %s.", parsed.source);
             return 0;
         }
+        return parsed.values[idx];
+    }
+
+    /**
+     * A scoreChange string and the scores it holds. Immutable, so it can be published to other
+     * threads without synchronization.
+     */
+    private static final class ParsedScore
+    {
+        final String source;
+        final int[] values;
+        final boolean[] valid;
+
+        ParsedScore(String source)
+        {
+            this.source = source;
+            String[] scores = source.split(",");
+            values = new int[scores.length];
+            valid = new boolean[scores.length];
+            for(int i = 0; i < scores.length; i++)
+            {
+                try{
+                    values[i] = Integer.parseInt(scores[i]);
+                    valid[i] = true;
+                }
+                catch(NumberFormatException e){
+                    valid[i] = false;
+                }
+            }
+        }
     }
 
     public int getCounter(int idx) {
@@ -245,7 +288,7 @@ public abstract class Effect{
             return idx < scores.length ? Integer.parseInt(scores[idx]) : Integer.parseInt(scores[0]);
         }
         catch(Exception e){
-            Logger.getInstance().addMessage(new Message(Message.WARNING, "counter must be an integer number not " + counter + "."));
+            Logger.getInstance().addMessage(Message.WARNING, "counter must be an integer number not %s.", counter);
             return 0;
         }
     }
@@ -256,7 +299,7 @@ public abstract class Effect{
     	    return idx < scores.length ? Integer.parseInt(scores[idx]) : Integer.parseInt(scores[0]);	
     	}
     	catch(Exception e){
-            Logger.getInstance().addMessage(new Message(Message.WARNING, "counterElse must be an integer number not " + counterElse + "."));
+            Logger.getInstance().addMessage(Message.WARNING, "counterElse must be an integer number not %s.", counterElse);
             return 0;
         }
     }
@@ -23,8 +23,10 @@ public class TimeEffect extends Effect implements Comparable<TimeEffect> {
     public int timer = -1;
 
     /**
-     * Indicates the next time step when this effect will be automatically triggered without collisions.
-     * It is set by planExecution().
+     * Indicates the time step when this effect will be first triggered without collisions.
+     * It is set by planExecution(), before the effect is scheduled. Later executions of a
+     * repeating effect are kept in the game's schedule only, as scheduled effects are shared
+     * between states.
      */
     public int nextExecution = -1;
 
@@ -56,6 +58,9 @@ public class TimeEffect extends Effect implements Comparable<TimeEffect> {
     public TimeEffect(InteractionContent ic, Effect delegate) {
         this.parseParameters(ic);
         this.delegate = delegate;
+        this.movesSprites = delegate.movesSprites;
+        if (delegate.is_stochastic)
+            this.is_stochastic = true;
 
         if (ic.object1.equalsIgnoreCase("TIME")) //Depends on where TIME is in the effect.
             this.itype = VGDLRegistry.GetInstance().getRegisteredSpriteValue(ic.object2[0]);
@@ -68,6 +73,9 @@ public class TimeEffect extends Effect implements Comparable<TimeEffect> {
 
     public TimeEffect(Effect delegate) {
         this.delegate = delegate;
+        this.movesSprites = delegate.movesSprites;
+        if (delegate.is_stochastic)
+            this.is_stochastic = true;
         this.itype = -1;
 
         if (nextExecution != -1)
@@ -84,9 +92,8 @@ public class TimeEffect extends Effect implements Comparable<TimeEffect> {
      */
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game) {
         //If the time effect is not native, we cannot guarantee that the sprite will be there.
+        //A repeating effect is scheduled again by the game (tick + timer): it is not modified here.
         delegate.execute(sprite1, sprite2, game);
-        if (repeating)
-            planExecution(game);
     }
 
     public void planExecution(Game game) {
@@ -120,6 +127,7 @@ public class TimeEffect extends Effect implements Comparable<TimeEffect> {
         tef.delegate = this.delegate;
         tef.isNative = this.isNative;
         tef.enabled = this.enabled;
+        tef.movesSprites = this.movesSprites;
 
         return tef;
     }
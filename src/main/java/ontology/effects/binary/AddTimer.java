@@ -34,19 +34,31 @@ public class AddTimer extends TimeEffect
 
         //Create the new effect with the function specified in "ftype" (no paramterizations allowed yet).
         timerDelegate = VGDLFactory.GetInstance().createEffect(null, icDelegate);
+        if (timerDelegate.is_stochastic)
+            is_stochastic = true;
     }
 
     @Override
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
         //Adds a timer with the inner effect as delegate.
+        TimeEffect tef = createTimer();
+        tef.planExecution(game);
+        game.addTimeEffect(tef);
+    }
+
+    /**
+     * Creates the time effect added by this effect, not planned yet.
+     * @return the time effect.
+     */
+    public TimeEffect createTimer()
+    {
         TimeEffect tef = new TimeEffect(timerDelegate);
         super.copyTo(tef);
         tef.delegate = timerDelegate;
         tef.itype = -1; //Triggered by time, not by collision. It cannot depend on a particular sprite.
         tef.isNative = false;
-        tef.planExecution(game);
-        game.addTimeEffect(tef);
+        return tef;
     }
 
     public TimeEffect copy()
@@ -3,7 +3,6 @@ package ontology.effects.binary;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import ontology.effects.Effect;
 
@@ -22,6 +21,7 @@ public class Align extends Effect
 
     public Align(InteractionContent cnt)
     {
+        movesSprites = true;
         this.parseParameters(cnt);
         setStochastic();
     }
@@ -30,7 +30,7 @@ public class Align extends Effect
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
         if(sprite1 == null || sprite2 == null){
-            Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither 1st not 2nd sprite can be EOS with Align interaction."));
+            game.getLogger().addMessage(new Message(Message.WARNING, "Neither 1st not 2nd sprite can be EOS with Align interaction."));
             return;
         }
         if (orient) {
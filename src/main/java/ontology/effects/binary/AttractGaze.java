@@ -22,6 +22,7 @@ public class AttractGaze extends Effect
 
     public AttractGaze(InteractionContent cnt)
     {
+        movesSprites = true;
         this.parseParameters(cnt);
         setStochastic();
     }
@@ -30,7 +31,7 @@ public class AttractGaze extends Effect
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite1 == null || sprite2 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither 1st not 2nd sprite can be EOS with AttractGaze interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "Neither 1st not 2nd sprite can be EOS with AttractGaze interaction."));
 	    return;
 	}
 	
@@ -33,7 +33,7 @@ public class BounceDirection extends Effect
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite1 == null || sprite2 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither 1st not 2nd sprite can be EOS with BounceDirection interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "Neither 1st not 2nd sprite can be EOS with BounceDirection interaction."));
 	    return;
 	}
 	
@@ -41,7 +41,7 @@ public class BounceDirection extends Effect
         Rectangle interRect = sprite1.rect.intersection(sprite2.rect);
         double padLenght = sprite2.rect.height;
         double diff, travelDir;
-        Vector2d vel = sprite1._velocity();
+        double velX = sprite1.velocityX(), velY = sprite1.velocityY();
 
 //        boolean verticalBounce = interRect.width > interRect.height;
 //        boolean horizontalBounce = interRect.width < interRect.height;
@@ -53,8 +53,8 @@ public class BounceDirection extends Effect
                 Math.abs ((sprite1.lastrect.y + sprite1.rect.height) - sprite2.rect.y));
 
 
-        double tX = Math.abs(distX / vel.x);
-        double tY = Math.abs(distY / vel.y);
+        double tX = Math.abs(distX / velX);
+        double tY = Math.abs(distY / velY);
         boolean horizontalBounce = (tX < tY);
         boolean verticalBounce = (tY < tX);
 
@@ -34,7 +34,7 @@ public class ChangeResource extends Effect
     @Override
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game) {
 	if(sprite1 == null || sprite2 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with ChangeResource interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with ChangeResource interaction."));
 	    return;
 	}
 	
@@ -4,7 +4,6 @@ import core.vgdl.VGDLRegistry;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import ontology.effects.Effect;
 import ontology.sprites.Resource;
@@ -36,7 +35,7 @@ public class CollectResourceIfHeld extends Effect
     @Override
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game) {
 	if(sprite1 == null || sprite2 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with CollectResourceIfHeld interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with CollectResourceIfHeld interaction."));
 	    return;
 	}
 	
@@ -3,7 +3,6 @@ package ontology.effects.binary;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import ontology.effects.Effect;
 
@@ -25,7 +24,7 @@ public class KillBoth extends Effect {
     @Override
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game) {
 	if(sprite1 == null || sprite2 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with KillBoth interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with KillBoth interaction."));
 	    return;
 	}
 	
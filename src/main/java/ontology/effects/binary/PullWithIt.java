@@ -6,7 +6,6 @@ import java.util.ArrayList;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import ontology.Types;
 import ontology.effects.Effect;
@@ -26,12 +25,19 @@ public class PullWithIt extends Effect
 {
     private int lastGameTime;
 
+    /**
+     * Game (or forward model) of the last execution. The effect is shared by the game and its
+     * forward models, so the cycle is identified by both the game and its tick.
+     */
+    private Game lastGame;
+
     private ArrayList<VGDLSprite> spritesThisCycle;
 
     public boolean pixelPerfect;
 
     public PullWithIt(InteractionContent cnt)
     {
+        movesSprites = true;
         pixelPerfect = false;
         lastGameTime = -1;
         spritesThisCycle = new ArrayList<VGDLSprite>();
@@ -42,14 +48,15 @@ public class PullWithIt extends Effect
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
         if(sprite1 == null || sprite2 == null){
-            Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with PullWithIt interaction."));
+            game.getLogger().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with PullWithIt interaction."));
             return;
         }
         //Keep in the list, for the current cycle, the sprites that have triggered this event.
         int currentGameTime = game.getGameTick();
-        if(currentGameTime > lastGameTime)
+        if(game != lastGame || currentGameTime != lastGameTime)
         {
             spritesThisCycle.clear();
+            lastGame = game;
             lastGameTime = currentGameTime;
         }
 
@@ -6,7 +6,6 @@ import core.vgdl.VGDLFactory;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import ontology.effects.Effect;
 import tools.Utils;
@@ -23,6 +22,8 @@ public class TeleportToExit extends Effect
 
     public TeleportToExit(InteractionContent cnt)
     {
+        movesSprites = true;
+        is_stochastic = true;
         this.parseParameters(cnt);
     }
 
@@ -30,7 +31,7 @@ public class TeleportToExit extends Effect
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite1 == null || sprite2 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with TeleportToExit interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with TeleportToExit interaction."));
 	    return;
 	}
 	
@@ -40,7 +41,7 @@ public class TeleportToExit extends Effect
             sprites = game.getSprites(destinationId);
         }
         else{
-            Logger.getInstance().addMessage(new Message(Message.WARNING, "Ignoring TeleportToExit effect as " + sprite2.name + " isn't of type portal."));
+            game.getLogger().addMessage(Message.WARNING, "Ignoring TeleportToExit effect as %s isn't of type portal.", sprite2.name);
             return;
         }
 
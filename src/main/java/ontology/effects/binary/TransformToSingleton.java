@@ -3,14 +3,11 @@ package ontology.effects.binary;
 import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
 
 import core.vgdl.VGDLRegistry;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import core.player.Player;
 import ontology.Types;
@@ -57,7 +54,7 @@ public class TransformToSingleton extends Effect {
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite1 == null || sprite2 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with TransformToSingleton interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with TransformToSingleton interaction."));
 	    return;
 	}
 	
@@ -100,15 +97,11 @@ public class TransformToSingleton extends Effect {
                 oldSprite.lastrect.width, oldSprite.lastrect.height);
 
         //Copy resources
-        if(oldSprite.resources.size() > 0)
+        for(int i = 0; i < oldSprite.getNumResources(); ++i)
         {
-            Set<Map.Entry<Integer, Integer>> entries = oldSprite.resources.entrySet();
-            for(Map.Entry<Integer, Integer> entry : entries)
-            {
-                int resType = entry.getKey();
-                int resValue = entry.getValue();
-                newSprite.modifyResource(resType, resValue);
-            }
+            int resType = oldSprite.getResourceType(i);
+            int resValue = oldSprite.getResourceAmount(i);
+            newSprite.modifyResource(resType, resValue);
         }
 
 
@@ -123,7 +116,7 @@ public class TransformToSingleton extends Effect {
                 Types.WINNER win = game.getAvatar(id).getWinState();
                 game.setAvatar((MovingAvatar) newSprite, id);
                 game.getAvatar(id).player = p;
-                game.getAvatar(id).setKeyHandler(Game.ki);
+                game.getAvatar(id).setKeyHandler(game.getKeyHandler());
                 game.getAvatar(id).setScore(score);
                 game.getAvatar(id).setWinState(win);
                 game.getAvatar(id).setPlayerID(id);
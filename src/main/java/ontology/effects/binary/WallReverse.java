@@ -2,7 +2,6 @@ package ontology.effects.binary;
 
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import core.vgdl.VGDLSprite;
 import ontology.effects.Effect;
@@ -29,6 +28,7 @@ public class WallReverse extends Effect
 
     public WallReverse(InteractionContent cnt)
     {
+        movesSprites = true;
         super.inBatch = true;
         lastGameTime = -1;
         spritesThisCycle = new ArrayList<VGDLSprite>();
@@ -39,7 +39,7 @@ public class WallReverse extends Effect
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite1 == null || sprite2 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with WallReverse interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with WallReverse interaction."));
 	    return;
 	}
 	
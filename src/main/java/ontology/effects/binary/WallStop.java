@@ -5,7 +5,6 @@ import java.util.ArrayList;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import ontology.effects.Effect;
 import tools.Direction;
@@ -26,6 +25,7 @@ public class WallStop extends Effect
 
     public WallStop(InteractionContent cnt)
     {
+        movesSprites = true;
         lastGameTime = -1;
         spritesThisCycle = new ArrayList<VGDLSprite>();
         this.parseParameters(cnt);
@@ -35,7 +35,7 @@ public class WallStop extends Effect
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite1 == null || sprite2 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with WallStop interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "Neither the 1st nor 2nd sprite can be EOS with WallStop interaction."));
 	    return;
 	}
 	
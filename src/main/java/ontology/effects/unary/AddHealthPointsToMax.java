@@ -3,7 +3,6 @@ package ontology.effects.unary;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import ontology.effects.Effect;
 
@@ -29,7 +28,7 @@ public class AddHealthPointsToMax extends Effect
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite1 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with AddHealthPointsToMax interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with AddHealthPointsToMax interaction."));
 	    return;
 	}
 	
@@ -3,7 +3,6 @@ package ontology.effects.unary;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import ontology.effects.Effect;
 
@@ -24,7 +23,7 @@ public class HalfSpeed extends Effect {
     @Override
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game) {
 	if(sprite1 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with HalfSpeed interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with HalfSpeed interaction."));
 	    return;
 	}
 	
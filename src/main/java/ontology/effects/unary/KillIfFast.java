@@ -3,7 +3,6 @@ package ontology.effects.unary;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import ontology.effects.Effect;
 import tools.Vector2d;
@@ -30,7 +29,7 @@ public class KillIfFast extends Effect
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite1 == null || sprite2 == null){
-            Logger.getInstance().addMessage(new Message(Message.WARNING, "Neither 1st not 2nd sprite can be EOS with KillIfFast interaction."));
+            game.getLogger().addMessage(new Message(Message.WARNING, "Neither 1st not 2nd sprite can be EOS with KillIfFast interaction."));
             return;
         }
     	double relspeed = 0.0;
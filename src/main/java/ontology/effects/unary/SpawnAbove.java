@@ -2,7 +2,6 @@ package ontology.effects.unary;
 
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import core.vgdl.VGDLRegistry;
 import core.vgdl.VGDLSprite;
@@ -30,7 +29,7 @@ public class SpawnAbove extends Effect {
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite2 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with SpawnBehind interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with SpawnBehind interaction."));
 	    return;
 	}
 	
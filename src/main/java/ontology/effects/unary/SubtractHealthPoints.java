@@ -4,7 +4,6 @@ import core.vgdl.VGDLRegistry;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import ontology.effects.Effect;
 
@@ -64,7 +63,7 @@ public class SubtractHealthPoints extends Effect
         }
         else{
             if(sprite1 == null){
-        	Logger.getInstance().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with SubtractHealthPoints interaction."));
+        	game.getLogger().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with SubtractHealthPoints interaction."));
         	return;
             }
         }
@@ -2,14 +2,11 @@ package ontology.effects.unary;
 
 import java.awt.Rectangle;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.Set;
 
 import core.vgdl.VGDLRegistry;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import core.player.Player;
 import ontology.Types;
@@ -46,7 +43,7 @@ public class TransformTo extends Effect {
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite1 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with TransformTo interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with TransformTo interaction."));
 	    return;
 	}
 	
@@ -71,15 +68,11 @@ public class TransformTo extends Effect {
                     sprite1.lastrect.width, sprite1.lastrect.height);
 
             //Copy resources
-            if(sprite1.resources.size() > 0)
+            for(int i = 0; i < sprite1.getNumResources(); ++i)
             {
-                Set<Map.Entry<Integer, Integer>> entries = sprite1.resources.entrySet();
-                for(Map.Entry<Integer, Integer> entry : entries)
-                {
-                    int resType = entry.getKey();
-                    int resValue = entry.getValue();
-                    newSprite.modifyResource(resType, resValue);
-                }
+                int resType = sprite1.getResourceType(i);
+                int resValue = sprite1.getResourceAmount(i);
+                newSprite.modifyResource(resType, resValue);
             }
 
 
@@ -94,7 +87,7 @@ public class TransformTo extends Effect {
                     Types.WINNER win = game.getAvatar(id).getWinState();
                     game.setAvatar((MovingAvatar) newSprite, id);
                     game.getAvatar(id).player = p;
-                    game.getAvatar(id).setKeyHandler(Game.ki);
+                    game.getAvatar(id).setKeyHandler(game.getKeyHandler());
                     game.getAvatar(id).setScore(score);
                     game.getAvatar(id).setWinState(win);
                     game.getAvatar(id).setPlayerID(id);
@@ -4,7 +4,6 @@ import core.vgdl.VGDLRegistry;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import tools.Utils;
 
@@ -22,6 +21,7 @@ public class TransformToRandomChild extends TransformTo {
     public TransformToRandomChild(InteractionContent cnt) throws Exception
     {
         super(cnt);
+        is_stochastic = true;
         itype = VGDLRegistry.GetInstance().getRegisteredSpriteValue(stype);
         if(itype == -1){
             throw new Exception("Undefined sprite " + stype);
@@ -32,7 +32,7 @@ public class TransformToRandomChild extends TransformTo {
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite1 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with TransformToRandomChild interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with TransformToRandomChild interaction."));
 	    return;
 	}
 	
@@ -50,7 +50,7 @@ public class TransformToRandomChild extends TransformTo {
         	transformTo(newSprite, sprite1, sprite2, game);
             }
             catch(Exception e){
-        	Logger.getInstance().addMessage(new Message(Message.WARNING, "Can't construct a parent node to the child " + stype + " sprite in TransformToRandomChild interaction."));
+        	game.getLogger().addMessage(Message.WARNING, "Can't construct a parent node to the child %s sprite in TransformToRandomChild interaction.", stype);
         	return;
             }
         }
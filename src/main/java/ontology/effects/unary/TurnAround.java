@@ -3,7 +3,6 @@ package ontology.effects.unary;
 import core.vgdl.VGDLSprite;
 import core.content.InteractionContent;
 import core.game.Game;
-import core.logging.Logger;
 import core.logging.Message;
 import ontology.Types;
 import ontology.effects.Effect;
@@ -19,6 +18,7 @@ public class TurnAround extends Effect
 {
     public TurnAround(InteractionContent cnt)
     {
+        movesSprites = true;
         this.parseParameters(cnt);
     }
 
@@ -26,7 +26,7 @@ public class TurnAround extends Effect
     public void execute(VGDLSprite sprite1, VGDLSprite sprite2, Game game)
     {
 	if(sprite1 == null){
-	    Logger.getInstance().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with TurnAround interaction."));
+	    game.getLogger().addMessage(new Message(Message.WARNING, "1st sprite can't be EOS with TurnAround interaction."));
 	    return;
 	}
 	
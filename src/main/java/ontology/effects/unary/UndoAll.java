@@ -29,6 +29,7 @@ public class UndoAll extends Effect
 
     public UndoAll(InteractionContent cnt)
     {
+        movesSprites = true;
         this.parseParameters(cnt);
         int notItypesArray[] = VGDLRegistry.GetInstance().explode(notStype);
         notItypes = new ArrayList<>();
@@ -5,7 +5,6 @@ import java.awt.Rectangle;
 import core.vgdl.VGDLSprite;
 import ontology.Types;
 import tools.Direction;
-import tools.Vector2d;
 
 /**
  * Created with IntelliJ IDEA.
@@ -36,8 +35,7 @@ public class ContinuousPhysics extends GridPhysics
 
             if(sprite.gravity > 0 && sprite.mass > 0 && !sprite.on_ground)
             {
-            	Direction gravityAction = new Direction(0, sprite.gravity * sprite.mass);
-                this.activeMovement(sprite, gravityAction, 0);
+                this.accelerate(sprite, 0, sprite.gravity * sprite.mass, 0);
             }
             sprite.speed *= (1-sprite.friction);
             return Types.MOVEMENT.MOVE;
@@ -48,33 +46,54 @@ public class ContinuousPhysics extends GridPhysics
 
     @Override
     public Types.MOVEMENT activeMovement(VGDLSprite sprite, Direction action, double speed)
+    {
+        return accelerate(sprite, action.x(), action.y(), speed);
+    }
+
+    /**
+     * Applies an acceleration to the sprite, given by its components. Does the work of
+     * activeMovement without creating objects, except for the new orientation of the sprite
+     * when it changes.
+     * @param sprite sprite to move.
+     * @param ax x component of the acceleration.
+     * @param ay y component of the acceleration.
+     * @param speed speed of the sprite (0 or -1 to use the speed of the sprite).
+     * @return the type of movement performed.
+     */
+    private Types.MOVEMENT accelerate(VGDLSprite sprite, double ax, double ay, double speed)
     {
         //Here the assumption is that the controls determine the direction of
         //acceleration of the sprite.
-    	
+
         if(speed == 0)
             speed = sprite.speed;
-        
+
         if(speed == -1)
             speed = sprite.speed;
-    	
-        double v1 = (action.x() / (float)sprite.mass) + (sprite.orientation.x() * speed);
-        double v2 = (action.y() / (float)sprite.mass) + (sprite.orientation.y() * speed);
 
-        Vector2d dir = new Vector2d(v1, v2);
+        double v1 = (ax / (float)sprite.mass) + (sprite.orientation.x() * speed);
+        double v2 = (ay / (float)sprite.mass) + (sprite.orientation.y() * speed);
 
-        double speedD = dir.mag();
+        double mag = Math.sqrt(v1*v1 + v2*v2);
+        double speedD = mag;
         if(sprite.max_speed != -1) {
-            speedD = Math.min(dir.mag(), sprite.max_speed);
+            speedD = Math.min(mag, sprite.max_speed);
         }
 
-        dir.normalise();
-        Direction d = new Direction(dir.x, dir.y);
+        if(mag == 0)
+        {
+            v1 = v2 = 0;
+        }else{
+            v1 /= mag;
+            v2 /= mag;
+        }
 
-        sprite.orientation = d;
+        //Directions are immutable, so the current one is kept if it does not change.
+        if(v1 != sprite.orientation.x() || v2 != sprite.orientation.y())
+            sprite.orientation = new Direction(v1, v2);
         sprite.speed = speedD;
 
-        if(action.equals(Types.DNONE))
+        if(ax == 0 && ay == 0)
             return Types.MOVEMENT.STILL;
         else
             return Types.MOVEMENT.MOVE;
@@ -89,8 +108,21 @@ public class ContinuousPhysics extends GridPhysics
      */
     public double distance(Rectangle r1, Rectangle r2)
     {
-        double topDiff = r1.getMinY() - r2.getMinY();
-        double leftDiff = r1.getMinX() - r2.getMinX();
+        return distance(r1.getMinX(), r1.getMinY(), r2.getMinX(), r2.getMinY());
+    }
+
+    /**
+     * Euclidean distance between two positions.
+     * @param x1 x coordinate of the first position.
+     * @param y1 y coordinate of the first position.
+     * @param x2 x coordinate of the second position.
+     * @param y2 y coordinate of the second position.
+     * @return Euclidean distance between both positions.
+     */
+    public double distance(double x1, double y1, double x2, double y2)
+    {
+        double topDiff = y1 - y2;
+        double leftDiff = x1 - x2;
         return Math.sqrt(topDiff*topDiff + leftDiff*leftDiff);
     }
 }
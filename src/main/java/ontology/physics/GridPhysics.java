@@ -97,7 +97,19 @@ public class GridPhysics implements Physics {
      */
     public double distance(Rectangle r1, Rectangle r2)
     {
-        return Math.abs(r1.getMinY() - r2.getMinY()) +
-                Math.abs(r1.getMinX() - r2.getMinX());
+        return distance(r1.getMinX(), r1.getMinY(), r2.getMinX(), r2.getMinY());
+    }
+
+    /**
+     * Hamming distance between two positions.
+     * @param x1 x coordinate of the first position.
+     * @param y1 y coordinate of the first position.
+     * @param x2 x coordinate of the second position.
+     * @param y2 y coordinate of the second position.
+     * @return Hamming distance between both positions.
+     */
+    public double distance(double x1, double y1, double x2, double y2)
+    {
+        return Math.abs(y1 - y2) + Math.abs(x1 - x2);
     }
 }
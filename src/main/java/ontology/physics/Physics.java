@@ -18,4 +18,5 @@ public interface Physics
     public Types.MOVEMENT passiveMovement(VGDLSprite sprite);
     public Types.MOVEMENT activeMovement(VGDLSprite sprite, Direction action, double speed);
     public double distance(Rectangle r1, Rectangle r2);
+    public double distance(double x1, double y1, double x2, double y2);
 }
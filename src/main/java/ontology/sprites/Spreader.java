@@ -48,6 +48,8 @@ public class Spreader extends Flicker
     public void postProcess()
     {
         super.postProcess();
+        if(spreadprob > 0 && spreadprob < 1)
+            is_stochastic = true;
         itype = -1;
         if(stype != null)
             itype = VGDLRegistry.GetInstance().getRegisteredSpriteValue(stype);
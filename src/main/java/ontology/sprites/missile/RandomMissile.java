@@ -37,6 +37,7 @@ public class RandomMissile extends Missile
     {
         super.loadDefaults();
         orientation = Types.DNIL;
+        is_stochastic = true;
     }
 
     public void update(Game game)
@@ -1,10 +1,8 @@
 package ontology.sprites.npc;
 
 import java.awt.Dimension;
-import java.awt.Rectangle;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Random;
 
 import core.vgdl.VGDLRegistry;
 import core.vgdl.VGDLSprite;
@@ -33,6 +31,12 @@ public class AlternateChaser extends RandomNPC
     ArrayList<VGDLSprite> targets;
     ArrayList<Direction> actions;
 
+    /**
+     * Last type chased or fled from, and the types searched for it (the type and its subtypes).
+     */
+    private int searchedType = -1;
+    private int[] searchedSubTypes;
+
     public AlternateChaser(){}
 
     public AlternateChaser(Vector2d position, Dimension size, SpriteContent cnt)
@@ -109,9 +113,8 @@ public class AlternateChaser extends RandomNPC
         for(Direction act : Types.DBASEDIRS)
         {
             //Calculate the distance if I'd apply this move.
-            Rectangle r = new Rectangle(this.rect);
-            r.translate((int)act.x(), (int)act.y());
-            double newDist = this.physics.distance(r, target.rect);
+            double newDist = this.physics.distance(rect.x + (int)act.x(), rect.y + (int)act.y(),
+                    target.rect.x, target.rect.y);
 
             //depending on getting me closer/farther, if I'm fleeing/chasing, add move:
             if(fleeing && distance<newDist)
@@ -129,7 +132,6 @@ public class AlternateChaser extends RandomNPC
     protected void closestTargets(Game game, boolean randomTarget)
     {
         targets.clear();
-        double bestDist = Double.MAX_VALUE;
 
         int targetSpriteId = -1;
         int numChasing = 0;
@@ -141,35 +143,28 @@ public class AlternateChaser extends RandomNPC
 
         if(numChasing > numFleeing)
         {
-            targetSpriteId = itype1[new Random().nextInt(itype1.length)];
+            targetSpriteId = itype1[game.getRandomGenerator().nextInt(itype1.length)];
             fleeing = false;
         }else if(numFleeing > numChasing)
         {
-            targetSpriteId = itype2[new Random().nextInt(itype2.length)];
+            targetSpriteId = itype2[game.getRandomGenerator().nextInt(itype2.length)];
             fleeing = true;
         }
 
         if(targetSpriteId != -1)
         {
-            Iterator<VGDLSprite> spriteIt = game.getSubSpritesGroup(targetSpriteId);
-            if(spriteIt != null) while(spriteIt.hasNext())
+            if(randomTarget)
             {
-                VGDLSprite s = spriteIt.next();
-
-                if(randomTarget)
+                Iterator<VGDLSprite> spriteIt = game.getSubSpritesGroup(targetSpriteId);
+                if(spriteIt != null) while(spriteIt.hasNext())
+                    targets.add(spriteIt.next());
+            }else{
+                if(targetSpriteId != searchedType)
                 {
-                    targets.add(s);
-                }else{
-                    double distance = this.physics.distance(rect, s.rect);
-                    if(distance < bestDist)
-                    {
-                        bestDist = distance;
-                        targets.clear();
-                        targets.add(s);
-                    }else if(distance == bestDist){
-                        targets.add(s);
-                    }
+                    searchedType = targetSpriteId;
+                    searchedSubTypes = game.getSubSpritesTypes(targetSpriteId);
                 }
+                game.getSpatialIndex().closest(this, searchedSubTypes, -1, null, targets);
             }
         }
 
@@ -197,6 +192,8 @@ public class AlternateChaser extends RandomNPC
         targetSprite.stype2 = this.stype2;
         targetSprite.itype1 = this.itype1.clone();
         targetSprite.itype2 = this.itype2.clone();
+        targetSprite.searchedType = this.searchedType;
+        targetSprite.searchedSubTypes = this.searchedSubTypes;
         targetSprite.targets = new ArrayList<VGDLSprite>();
         targetSprite.actions = new ArrayList<Direction>();
         super.copyTo(targetSprite);
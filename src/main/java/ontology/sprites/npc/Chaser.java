@@ -1,9 +1,7 @@
 package ontology.sprites.npc;
 
 import java.awt.Dimension;
-import java.awt.Rectangle;
 import java.util.ArrayList;
-import java.util.Iterator;
 
 import core.vgdl.VGDLRegistry;
 import core.vgdl.VGDLSprite;
@@ -31,6 +29,13 @@ public class Chaser extends RandomNPC
     ArrayList<VGDLSprite> targets;
     ArrayList<Direction> actions;
 
+    /**
+     * Types searched for targets: 'itype' alone, or 'itype' and all its subtypes.
+     * Filled the first time they are needed, shared with the copies of this sprite.
+     */
+    int[] targetTypes;
+    int[] targetSubTypes;
+
     public Chaser(){}
 
     public Chaser(Vector2d position, Dimension size, SpriteContent cnt)
@@ -104,9 +109,8 @@ public class Chaser extends RandomNPC
         for(Direction act : Types.DBASEDIRS)
         {
             //Calculate the distance if I'd apply this move.
-            Rectangle r = new Rectangle(this.rect);
-            r.translate((int)act.x(), (int)act.y());
-            double newDist = this.physics.distance(r, target.rect);
+            double newDist = this.physics.distance(rect.x + (int)act.x(), rect.y + (int)act.y(),
+                    target.rect.x, target.rect.y);
 
             //depending on getting me closer/farther, if I'm fleeing/chasing, add move:
             if(fleeing && distance<newDist)
@@ -123,24 +127,26 @@ public class Chaser extends RandomNPC
     protected void closestTargets(Game game)
     {
         targets.clear();
-        double bestDist = Double.MAX_VALUE;
-
-        Iterator<VGDLSprite> spriteIt = game.getSpriteGroup(itype);
-        if(spriteIt == null) spriteIt = game.getSubSpritesGroup(itype); //Try subtypes
+        game.getSpatialIndex().closest(this, getTargetTypes(game), maxDistance, null, targets);
+    }
 
-        if(spriteIt != null) while(spriteIt.hasNext())
+    /**
+     * Returns the types of the sprites that can be targets: 'itype', if there are sprites
+     * of that type, or else 'itype' and all its subtypes.
+     * @param game game to access all sprites
+     * @return the types to search for targets.
+     */
+    protected int[] getTargetTypes(Game game)
+    {
+        if(game.getSprites(itype).size() > 0)
         {
-            VGDLSprite s = spriteIt.next();
-            double distance = this.physics.distance(rect, s.rect);
-            if(distance < bestDist)
-            {
-                bestDist = distance;
-                targets.clear();
-                targets.add(s);
-            }else if(distance == bestDist){
-                targets.add(s);
-            }
+            if(targetTypes == null)
+                targetTypes = new int[]{itype};
+            return targetTypes;
         }
+        if(targetSubTypes == null)
+            targetSubTypes = game.getSubSpritesTypes(itype); //Try subtypes
+        return targetSubTypes;
     }
 
 
@@ -158,6 +164,8 @@ public class Chaser extends RandomNPC
         targetSprite.stype = this.stype;
         targetSprite.itype = this.itype;
         targetSprite.maxDistance = this.maxDistance;
+        targetSprite.targetTypes = this.targetTypes;
+        targetSprite.targetSubTypes = this.targetSubTypes;
         targetSprite.targets = new ArrayList<VGDLSprite>();
         targetSprite.actions = new ArrayList<Direction>();
         super.copyTo(targetSprite);
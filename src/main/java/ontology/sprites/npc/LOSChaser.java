@@ -3,17 +3,17 @@ package ontology.sprites.npc;
 import core.vgdl.VGDLSprite;
 import core.content.SpriteContent;
 import core.game.Game;
+import core.game.SpatialIndex;
 import ontology.Types;
 import tools.Direction;
 import tools.Vector2d;
 
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.Iterator;
 
 // Line of sigh chaser. Chases the target if it is in its line of sight, otherwise acts like random NPC.
 
-public class LOSChaser extends Chaser
+public class LOSChaser extends Chaser implements SpatialIndex.Filter
 {
     public LOSChaser(){}
 
@@ -46,49 +46,31 @@ public class LOSChaser extends Chaser
     protected void closestTargets(Game game)
     {
         targets.clear();
-        double bestDist = Double.MAX_VALUE;
-
-        Iterator<VGDLSprite> spriteIt = game.getSpriteGroup(itype);
-        if(spriteIt == null) spriteIt = game.getSubSpritesGroup(itype); //Try subtypes
-
-        if(spriteIt != null) while(spriteIt.hasNext())
-        {
-            VGDLSprite s = spriteIt.next();
-            double distance = this.physics.distance(rect, s.rect);
-
-            //check if I can see this sprite
-            boolean canSee = false;
-
-            if (prevAction == Types.DNONE || prevAction == Types.DNIL) {
-                break;
-            } else if (prevAction.equals(Types.DDOWN)) {
-                if ((s.rect.x == rect.x && s.rect.y >= rect.y)) {
-                    canSee = true;
-                }
-            } else if (prevAction.equals(Types.DUP)) {
-                if ((s.rect.x == rect.x && s.rect.y <= rect.y)) {
-                    canSee = true;
-                }
-            } else if (prevAction.equals(Types.DLEFT)) {
-                if ((s.rect.x <= rect.x && s.rect.y == rect.y)) {
-                    canSee = true;
-                }
-            } else if (prevAction.equals(Types.DRIGHT)) {
-                if ((s.rect.x >= rect.x && s.rect.y == rect.y)) {
-                    canSee = true;
-                }
-            }
-
-            if (canSee) {
-                if (distance < bestDist) {
-                    bestDist = distance;
-                    targets.clear();
-                    targets.add(s);
-                } else if (distance == bestDist) {
-                    targets.add(s);
-                }
-            }
+
+        //Without a direction, I can't see anything.
+        if (prevAction == Types.DNONE || prevAction == Types.DNIL)
+            return;
+
+        game.getSpatialIndex().closest(this, getTargetTypes(game), maxDistance, this, targets);
+    }
+
+    /**
+     * Checks if I can see a sprite: it must be in the direction of my last move, in my row or column.
+     * @param s sprite to check.
+     * @return true if the sprite is in my line of sight.
+     */
+    public boolean accept(VGDLSprite s)
+    {
+        if (prevAction.equals(Types.DDOWN)) {
+            return s.rect.x == rect.x && s.rect.y >= rect.y;
+        } else if (prevAction.equals(Types.DUP)) {
+            return s.rect.x == rect.x && s.rect.y <= rect.y;
+        } else if (prevAction.equals(Types.DLEFT)) {
+            return s.rect.x <= rect.x && s.rect.y == rect.y;
+        } else if (prevAction.equals(Types.DRIGHT)) {
+            return s.rect.x >= rect.x && s.rect.y == rect.y;
         }
+        return false;
     }
 
 
@@ -57,11 +57,11 @@ public class RandomNPC extends VGDLSprite
         {
             //Apply previous action (repeat cons times).
             counter++;
-            return prevAction.copy();
+            return prevAction; //Directions are immutable.
         }else{
             //Determine a new action
             Direction act = (Direction) Utils.choice(Types.DBASEDIRS, game.getRandomGenerator());
-            prevAction = act.copy();
+            prevAction = act;
             counter=0;
             return act;
         }
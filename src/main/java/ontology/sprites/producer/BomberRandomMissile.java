@@ -42,6 +42,7 @@ public class BomberRandomMissile extends SpawnPoint
         is_oriented = true;
         orientation = Types.DRIGHT.copy();
         is_npc = true;
+        is_stochastic = true;
     }
 
     public void update(Game game)
@@ -59,7 +59,8 @@ public class SpawnPoint extends SpriteProducer
     public void postProcess()
     {
         super.postProcess();
-        is_stochastic = (prob > 0 && prob < 1);
+        if(prob > 0 && prob < 1)
+            is_stochastic = true;
         counter = 0;
         if(stype != null) //Could be, if we're using different stype variants in subclasses.
             itype = VGDLRegistry.GetInstance().getRegisteredSpriteValue(stype);
@@ -65,7 +65,8 @@ public class SpawnPointMultiSprite extends SpriteProducer
     public void postProcess()
     {
         super.postProcess();
-        is_stochastic = (prob > 0 && prob < 1);
+        if(prob > 0 && prob < 1)
+            is_stochastic = true;
         counter = 0;
     }
 
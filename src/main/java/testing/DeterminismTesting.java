@@ -0,0 +1,94 @@
+package testing;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import core.game.Game;
+import core.game.Observation;
+import core.game.StateObservation;
+import core.vgdl.VGDLFactory;
+import core.vgdl.VGDLParser;
+import core.vgdl.VGDLRegistry;
+import ontology.Types;
+import tools.Utils;
+
+/**
+ * Checks StateObservation.isStochastic() over the example games. Copies of the initial
+ * state of each level are advanced with the same actions and different seeds: a game
+ * whose runs diverge must be reported as stochastic, and runs with the same seed must
+ * always give the same states.
+ */
+public class DeterminismTesting {
+
+    public static void main(String[] args) {
+
+	// Available games:
+	String spGamesCollection = "examples/all_games_sp.csv";
+	String[][] games = Utils.readGames(spGamesCollection);
+
+	// Other settings
+	int steps = 500;
+	int[] seeds = new int[] { 1, 2, 3, 4 };
+	int unflagged = 0, irreproducible = 0;
+
+	for (String[] g : games) {
+	    for (int i = 0; i < 5; i++) {
+		String game = g[0];
+		String level1 = game.replace(g[1], g[1] + "_lvl" + i);
+		try {
+		    VGDLFactory.GetInstance().init();
+		    VGDLRegistry.GetInstance().init();
+		    Game toPlay = new VGDLParser().parseGame(game);
+		    toPlay.buildLevel(level1, 0);
+		    StateObservation root = toPlay.getObservation();
+
+		    long first = run(root, seeds[0], steps);
+		    boolean diverges = false;
+		    for (int s = 1; s < seeds.length; s++)
+			diverges |= run(root, seeds[s], steps) != first;
+
+		    if (run(root, seeds[0], steps) != first) {
+			irreproducible++;
+			System.out.println(g[1] + " level " + i + ": same seed, different states.");
+		    }
+		    if (diverges && !root.isStochastic()) {
+			unflagged++;
+			System.out.println(g[1] + " level " + i + ": diverges but isStochastic() is false.");
+		    }
+		} catch (Exception e) {
+		    System.out.println("*************** " + g[1] + " **************");
+		    System.out.println("Level " + i);
+		    e.printStackTrace();
+		    System.out.println("****************************************");
+		}
+	    }
+	}
+
+	System.out.println(unflagged + " unflagged stochastic levels, " + irreproducible + " irreproducible levels.");
+    }
+
+    /**
+     * Advances a copy of the state with a fixed sequence of actions.
+     * @param root state to copy.
+     * @param seed seed for the random generator of the copy.
+     * @param steps maximum number of steps to advance.
+     * @return a hash of the states visited.
+     */
+    private static long run(StateObservation root, int seed, int steps) {
+	StateObservation st = root.copy();
+	st.setNewSeed(seed);
+	Random actions = new Random(0);
+	long hash = 0;
+	for (int i = 0; i < steps && !st.isGameOver(); i++) {
+	    ArrayList<Types.ACTIONS> available = st.getAvailableActions();
+	    st.advance(available.get(actions.nextInt(available.size())));
+
+	    for (ArrayList<Observation>[] column : st.getObservationGrid())
+		for (ArrayList<Observation> cell : column)
+		    for (Observation obs : cell)
+			hash = hash * 31 + obs.itype * 17 + (long) obs.position.x * 13 + (long) obs.position.y;
+	    hash = hash * 31 + Double.doubleToLongBits(st.getGameScore());
+	}
+	return hash * 31 + st.getGameWinner().ordinal();
+    }
+}
@@ -0,0 +1,99 @@
+package testing;
+
+import java.io.IOException;
+
+import core.competition.CompetitionParameters;
+import core.game.Game;
+import core.game.StateObservation;
+import core.player.AbstractPlayer;
+import core.vgdl.VGDLFactory;
+import core.vgdl.VGDLParser;
+import core.vgdl.VGDLRegistry;
+import ontology.Types;
+import tools.ElapsedCpuTimer;
+import tools.rollout.RolloutCoordinator;
+import tracks.ArcadeMachine;
+
+/**
+ * Checks the sample agents that use rollout workers (tools.rollout.RolloutCoordinator). Each
+ * agent plays some steps of a few games without workers and with local workers, and the wall-clock
+ * time of its act() calls is reported, as the time waiting for the workers is not CPU time. Then a
+ * game is played with ArcadeMachine, that launches the workers from
+ * CompetitionParameters.ROLLOUT_WORKERS.
+ */
+public class RolloutWorkersTesting {
+
+    public static void main(String[] args) throws IOException {
+
+	// Available controllers:
+	String[] controllers = new String[] { "tracks.singlePlayer.advanced.sampleMCTS.Agent",
+		"tracks.singlePlayer.advanced.sampleRHEA.Agent" };
+
+	// Available games:
+	String gamesPath = "examples/gridphysics/";
+	String[] games = new String[] { "aliens", "boulderdash", "zelda" };
+
+	// Other settings
+	int numWorkers = 2;
+	int steps = 100;
+	int seed = 42;
+
+	RolloutCoordinator coordinator = RolloutCoordinator.launchLocal(numWorkers);
+	for (String g : games) {
+	    String game = gamesPath + g + ".txt";
+	    String level1 = gamesPath + g + "_lvl0.txt";
+	    coordinator.setGame(game, level1);
+	    for (String controller : controllers) {
+		RolloutCoordinator.setDefault(null);
+		String local = play(game, level1, controller, steps, seed);
+		RolloutCoordinator.setDefault(coordinator);
+		String remote = play(game, level1, controller, steps, seed);
+		System.out.println(g + ", " + controller + ": without workers " + local + "; with " + numWorkers
+			+ " workers " + remote);
+	    }
+	}
+	coordinator.close();
+
+	// The workers launched by ArcadeMachine are closed when this JVM exits.
+	CompetitionParameters.ROLLOUT_WORKERS = numWorkers;
+	String game = gamesPath + games[0] + ".txt";
+	String level1 = gamesPath + games[0] + "_lvl0.txt";
+	double[] result = ArcadeMachine.runOneGame(game, level1, false, controllers[1], null, seed, 0);
+	System.out.println(games[0] + " played with ArcadeMachine and " + numWorkers + " workers: winner "
+		+ result[0] + ", score " + result[1] + ", steps " + result[2] + ", workers connected "
+		+ (RolloutCoordinator.getDefault() == null ? 0 : RolloutCoordinator.getDefault().numWorkers()));
+    }
+
+    /**
+     * Plays some steps of a game with an agent, measuring the wall-clock time of its actions.
+     * @return mean and maximum milliseconds per action, and actions over the time allowed.
+     */
+    private static String play(String game, String level1, String controller, int steps, int seed) {
+	VGDLFactory.GetInstance().init();
+	VGDLRegistry.GetInstance().init();
+	Game toPlay = new VGDLParser().parseGame(game);
+	toPlay.buildLevel(level1, seed);
+	StateObservation state = toPlay.getObservation();
+	state.setNewSeed(seed);
+
+	AbstractPlayer player = ArcadeMachine.createPlayer(controller, null, state.copy(), seed, false);
+	double total = 0, max = 0;
+	int acts = 0, over = 0;
+	while (acts < steps && !state.isGameOver()) {
+	    ElapsedCpuTimer ect = new ElapsedCpuTimer();
+	    ect.setMaxTimeMillis(CompetitionParameters.ACTION_TIME);
+	    long start = System.nanoTime();
+	    Types.ACTIONS action = player.act(state.copy(), ect);
+	    double ms = (System.nanoTime() - start) / 1e6;
+	    state.advance(action);
+
+	    total += ms;
+	    max = Math.max(max, ms);
+	    if (ms > CompetitionParameters.ACTION_TIME)
+		over++;
+	    acts++;
+	}
+	return String.format("%.1f ms mean, %.1f ms max, %d of %d over %d ms", total / Math.max(1, acts), max, over,
+		acts, CompetitionParameters.ACTION_TIME);
+    }
+}
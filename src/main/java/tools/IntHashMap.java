@@ -0,0 +1,170 @@
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * Hash map with int keys, that does not box its keys. It uses open addressing with
+ * linear probing, so get, put and remove do not create objects (except when the table grows).
+ */
+public class IntHashMap<V>
+{
+    /**
+     * Keys of the table. Only meaningful where values[i] != null.
+     */
+    private int[] keys;
+
+    /**
+     * Values of the table, null for empty slots.
+     */
+    private Object[] values;
+
+    /**
+     * Number of entries in the map.
+     */
+    private int size;
+
+    /**
+     * Creates an empty map.
+     */
+    public IntHashMap()
+    {
+        this(16);
+    }
+
+    /**
+     * Creates an empty map, sized for a number of entries.
+     * @param expected number of entries expected.
+     */
+    public IntHashMap(int expected)
+    {
+        int capacity = 16;
+        while(capacity < expected * 2)
+            capacity <<= 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * Returns the value of a key.
+     * @param key key to look for.
+     * @return the value, or null if the key is not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key)
+    {
+        int mask = values.length - 1;
+        for(int i = slot(key, mask); values[i] != null; i = (i + 1) & mask)
+        {
+            if(keys[i] == key)
+                return (V) values[i];
+        }
+        return null;
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key key to set.
+     * @param value value of the key. Must not be null.
+     */
+    public void put(int key, V value)
+    {
+        int mask = values.length - 1;
+        int i = slot(key, mask);
+        for(; values[i] != null; i = (i + 1) & mask)
+        {
+            if(keys[i] == key)
+            {
+                values[i] = value;
+                return;
+            }
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        if(++size * 2 > values.length)
+            rehash(values.length * 2);
+    }
+
+    /**
+     * Removes a key from the map.
+     * @param key key to remove.
+     * @return the value it had, or null if it was not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key)
+    {
+        int mask = values.length - 1;
+        int i = slot(key, mask);
+        for(; values[i] != null; i = (i + 1) & mask)
+        {
+            if(keys[i] == key)
+                break;
+        }
+        if(values[i] == null)
+            return null;
+
+        V old = (V) values[i];
+        values[i] = null;
+        size--;
+
+        //Move back the entries of the same run that would not be found after this gap.
+        int gap = i;
+        for(i = (i + 1) & mask; values[i] != null; i = (i + 1) & mask)
+        {
+            int home = slot(keys[i], mask);
+            if(((i - home) & mask) >= ((i - gap) & mask))
+            {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                values[i] = null;
+                gap = i;
+            }
+        }
+        return old;
+    }
+
+    /**
+     * Returns the number of entries in the map.
+     * @return the number of entries.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Removes all entries of the map.
+     */
+    public void clear()
+    {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Returns the slot where the search of a key starts.
+     */
+    private static int slot(int key, int mask)
+    {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Moves all entries to a table of a new capacity.
+     */
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity)
+    {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        size = 0;
+        for(int i = 0; i < oldValues.length; i++)
+        {
+            if(oldValues[i] != null)
+                put(oldKeys[i], (V) oldValues[i]);
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import core.competition.CompetitionParameters;
+
+/**
+ * Persistent cache of game results, indexed by a hash of everything that determines the result
+ * (game and level descriptions, agent, seed) and the engine version.
+ *
+ * Results are appended to a file, one per line ("key TAB result"), and the file is indexed in
+ * memory when the cache is opened. The index keeps the most recently used maxEntries results;
+ * when the file holds more than twice that many lines it is compacted to the indexed ones.
+ *
+ * Results are only exact if the agent is deterministic for a given seed. For stochastic agents,
+ * a hit returns one of the results that the same inputs produced before.
+ */
+public class ResultCache
+{
+    /**
+     * File where results are appended.
+     */
+    private File file;
+
+    /**
+     * Access to the file.
+     */
+    private RandomAccessFile raf;
+
+    /**
+     * Position (in the file) and length of the result of each key, in LRU order.
+     */
+    private LinkedHashMap<String, long[]> index;
+
+    /**
+     * Number of lines in the file.
+     */
+    private int numLines;
+
+    /**
+     * Maximum number of results indexed.
+     */
+    private int maxEntries;
+
+    /**
+     * Opens (or creates) a cache.
+     * @param filename file where the results are stored.
+     * @param maxEntries maximum number of results kept.
+     * @throws IOException if the file can't be read or created.
+     */
+    public ResultCache(String filename, final int maxEntries) throws IOException
+    {
+        this.file = new File(filename);
+        this.maxEntries = maxEntries;
+        this.index = new LinkedHashMap<String, long[]>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+
+        if(file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+        raf = new RandomAccessFile(file, "rw");
+        load();
+        if(numLines > 2 * maxEntries)
+            compact();
+    }
+
+    /**
+     * Version of the engine the keys are built with, computed the first time it is needed.
+     */
+    private static String engineVersion;
+
+    /**
+     * Packages (as paths) whose classes determine the result of a game.
+     */
+    private static final String[] ENGINE_PACKAGES = {"core", "ontology", "tools"};
+
+    /**
+     * Builds the key of a result from the inputs of the game. The engine version is included,
+     * so results of older versions are not returned.
+     * @param inputs everything that determines the result.
+     * @return the key, a SHA-256 in hexadecimal.
+     */
+    public static String key(String... inputs)
+    {
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(engineVersion().getBytes(StandardCharsets.UTF_8));
+            for(String input : inputs)
+            {
+                byte[] bytes = String.valueOf(input).getBytes(StandardCharsets.UTF_8);
+                //Length first, so different splits of the same text give different keys.
+                md.update((byte) (bytes.length >>> 24));
+                md.update((byte) (bytes.length >>> 16));
+                md.update((byte) (bytes.length >>> 8));
+                md.update((byte) bytes.length);
+                md.update(bytes);
+            }
+            StringBuilder sb = new StringBuilder();
+            for(byte b : md.digest())
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        }catch(NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the version of the engine: CompetitionParameters.ENGINE_VERSION followed by a
+     * SHA-256 of the classes of the engine packages (core, ontology and tools), so any change to
+     * the engine gives new keys even if ENGINE_VERSION was not bumped. If the classes can't be
+     * read (they are not in a directory or jar file), only ENGINE_VERSION is used.
+     * @return the engine version.
+     */
+    public static synchronized String engineVersion()
+    {
+        if(engineVersion != null)
+            return engineVersion;
+
+        engineVersion = CompetitionParameters.ENGINE_VERSION;
+        try
+        {
+            TreeMap<String, byte[]> classes = new TreeMap<String, byte[]>();
+            CodeSource source = CompetitionParameters.class.getProtectionDomain().getCodeSource();
+            if(source == null)
+                return engineVersion;
+            File location = new File(source.getLocation().toURI());
+            if(location.isDirectory())
+            {
+                for(String pkg : ENGINE_PACKAGES)
+                    readClasses(new File(location, pkg), pkg, classes);
+            }else
+            {
+                try(JarFile jar = new JarFile(location))
+                {
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while(entries.hasMoreElements())
+                    {
+                        JarEntry entry = entries.nextElement();
+                        if(entry.getName().endsWith(".class") && isEnginePath(entry.getName()))
+                            try(InputStream in = jar.getInputStream(entry))
+                            {
+                                classes.put(entry.getName(), readAll(in));
+                            }
+                    }
+                }
+            }
+
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for(Map.Entry<String, byte[]> c : classes.entrySet())
+            {
+                md.update(c.getKey().getBytes(StandardCharsets.UTF_8));
+                md.update(c.getValue());
+            }
+            StringBuilder sb = new StringBuilder(engineVersion).append('-');
+            byte[] digest = md.digest();
+            for(int i = 0; i < 8; i++)
+                sb.append(String.format("%02x", digest[i]));
+            engineVersion = sb.toString();
+        }catch(Exception e)
+        {
+            System.out.println("ResultCache: could not hash the engine classes, using version "
+                    + engineVersion + ": " + e.getMessage());
+        }
+        return engineVersion;
+    }
+
+    private static boolean isEnginePath(String path)
+    {
+        for(String pkg : ENGINE_PACKAGES)
+            if(path.startsWith(pkg + "/"))
+                return true;
+        return false;
+    }
+
+    private static void readClasses(File dir, String path, TreeMap<String, byte[]> classes) throws IOException
+    {
+        File[] files = dir.listFiles();
+        if(files == null)
+            return;
+        for(File f : files)
+        {
+            String name = path + "/" + f.getName();
+            if(f.isDirectory())
+                readClasses(f, name, classes);
+            else if(name.endsWith(".class"))
+                classes.put(name, Files.readAllBytes(f.toPath()));
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while((n = in.read(buffer)) != -1)
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns a stored result.
+     * @param key key of the result.
+     * @return the result, or null if it is not in the cache.
+     */
+    public synchronized String get(String key)
+    {
+        long[] entry = index.get(key);
+        if(entry == null)
+            return null;
+        try
+        {
+            byte[] bytes = new byte[(int) entry[1]];
+            raf.seek(entry[0]);
+            raf.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }catch(IOException e)
+        {
+            System.out.println("ResultCache: could not read " + file + ": " + e.getMessage());
+            index.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a result, replacing the previous result of the key.
+     * @param key key of the result.
+     * @param result result to store, in a single line.
+     */
+    public synchronized void put(String key, String result)
+    {
+        if(result.indexOf('\n') != -1)
+            throw new RuntimeException("ResultCache: results must be a single line.");
+        try
+        {
+            byte[] bytes = result.getBytes(StandardCharsets.UTF_8);
+            long start = raf.length();
+            raf.seek(start);
+            raf.write((key + "\t").getBytes(StandardCharsets.UTF_8));
+            long offset = raf.getFilePointer();
+            raf.write(bytes);
+            raf.write('\n');
+            index.put(key, new long[]{offset, bytes.length});
+            numLines++;
+            if(numLines > 2 * maxEntries)
+                compact();
+        }catch(IOException e)
+        {
+            System.out.println("ResultCache: could not write " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of results indexed.
+     * @return the number of results.
+     */
+    public synchronized int size()
+    {
+        return index.size();
+    }
+
+    /**
+     * Closes the file of the cache.
+     */
+    public synchronized void close()
+    {
+        try
+        {
+            raf.close();
+        }catch(IOException e)
+        {
+            System.out.println("ResultCache: could not close " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Indexes the lines of the file. Later lines replace earlier ones with the same key.
+     * An incomplete last line (from an interrupted write) is cut off.
+     */
+    private void load() throws IOException
+    {
+        byte[] data = new byte[(int) raf.length()];
+        raf.seek(0);
+        raf.readFully(data);
+
+        int lineStart = 0;
+        for(int i = 0; i < data.length; i++)
+        {
+            if(data[i] != '\n')
+                continue;
+            int tab = lineStart;
+            while(tab < i && data[tab] != '\t')
+                tab++;
+            if(tab < i)
+            {
+                String key = new String(data, lineStart, tab - lineStart, StandardCharsets.UTF_8);
+                index.put(key, new long[]{tab + 1, i - tab - 1});
+                numLines++;
+            }
+            lineStart = i + 1;
+        }
+
+        if(lineStart < data.length)
+            raf.setLength(lineStart);
+    }
+
+    /**
+     * Rewrites the file with the indexed results only, oldest first.
+     */
+    private void compact() throws IOException
+    {
+        ArrayList<String> keys = new ArrayList<String>(index.keySet());
+        ArrayList<String> results = new ArrayList<String>();
+        for(String key : keys)
+        {
+            long[] entry = index.get(key);
+            byte[] bytes = new byte[(int) entry[1]];
+            raf.seek(entry[0]);
+            raf.readFully(bytes);
+            results.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        out.setLength(0);
+        index.clear();
+        for(int i = 0; i < keys.size(); i++)
+        {
+            out.write((keys.get(i) + "\t").getBytes(StandardCharsets.UTF_8));
+            long offset = out.getFilePointer();
+            byte[] bytes = results.get(i).getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            out.write('\n');
+            index.put(keys.get(i), new long[]{offset, bytes.length});
+        }
+        out.close();
+        raf.close();
+
+        if(!tmp.renameTo(file))
+        {
+            file.delete();
+            if(!tmp.renameTo(file))
+                throw new IOException("could not replace " + file);
+        }
+        raf = new RandomAccessFile(file, "rw");
+        numLines = keys.size();
+    }
+}
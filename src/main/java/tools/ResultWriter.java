@@ -0,0 +1,338 @@
+package tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.stream.JsonWriter;
+
+import core.game.Event;
+import core.game.Game;
+import core.game.StateObservation;
+
+/**
+ * Writes the result of a game (score, tick, winner, events and avatar positions) as JSON directly
+ * to a stream, without building an intermediate object or string. With all fields and no
+ * truncation, the output is the same Gson gives for PlayVGDL.VGDLResultCompatible.
+ *
+ * Fields can be left out (setFields()), the history of events and positions can be truncated to
+ * its last entries (setMaxHistory()) and the output can be gzipped (setGzip()). The JsonWriter is
+ * reused from one result to the next, so writing a result takes the same memory whatever its size.
+ *
+ * A writer can be shared by several threads, that write one result at a time.
+ */
+public class ResultWriter
+{
+    /**
+     * Fields of the result, to combine in setFields().
+     */
+    public static final int NPCS = 1;
+    public static final int GAME_SCORE = 1 << 1;
+    public static final int GAME_TICK = 1 << 2;
+    public static final int WINNER = 1 << 3;
+    public static final int IS_GAME_OVER = 1 << 4;
+    public static final int HISTORY_EVENTS = 1 << 5;
+    public static final int AVATAR_POSITIONS = 1 << 6;
+    public static final int ALL_FIELDS = (1 << 7) - 1;
+
+    /**
+     * Fields written.
+     */
+    private int fields = ALL_FIELDS;
+
+    /**
+     * Maximum number of events, and of positions of each avatar, written (the last ones). -1 for all.
+     */
+    private int maxHistory = -1;
+
+    /**
+     * True to gzip the output.
+     */
+    private boolean gzip;
+
+    /**
+     * Writer the JsonWriter writes to, redirected to the stream of each result.
+     */
+    private Sink sink = new Sink();
+
+    /**
+     * JSON writer, reused for all the results.
+     */
+    private JsonWriter json;
+
+    /**
+     * Writer of characters to the stream of the current result, in UTF-8.
+     */
+    private static class Sink extends Writer
+    {
+        private OutputStream out;
+        private byte[] buffer = new byte[8192];
+        private int count;
+
+        @Override
+        public void write(int c) throws IOException
+        {
+            if(c < 0x80)
+            {
+                if(count == buffer.length)
+                    flushBuffer();
+                buffer[count++] = (byte) c;
+            }
+            else
+                write(new char[]{(char) c}, 0, 1);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException
+        {
+            for(int i = off; i < off + len; i++)
+            {
+                char c = cbuf[i];
+                if(count > buffer.length - 4)
+                    flushBuffer();
+                if(c < 0x80)
+                    buffer[count++] = (byte) c;
+                else if(Character.isHighSurrogate(c) && i + 1 < off + len && Character.isLowSurrogate(cbuf[i + 1]))
+                {
+                    byte[] bytes = new String(cbuf, i, 2).getBytes(StandardCharsets.UTF_8);
+                    System.arraycopy(bytes, 0, buffer, count, bytes.length);
+                    count += bytes.length;
+                    i++;
+                }
+                else
+                {
+                    byte[] bytes = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                    System.arraycopy(bytes, 0, buffer, count, bytes.length);
+                    count += bytes.length;
+                }
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException
+        {
+            for(int i = off; i < off + len; i++)
+            {
+                char c = str.charAt(i);
+                if(c >= 0x80)
+                {
+                    //Rare in results: the slow way.
+                    write(str.substring(i, off + len).toCharArray(), 0, off + len - i);
+                    return;
+                }
+                if(count == buffer.length)
+                    flushBuffer();
+                buffer[count++] = (byte) c;
+            }
+        }
+
+        private void flushBuffer() throws IOException
+        {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            flushBuffer();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Sets the fields written.
+     * @param fields combination of NPCS, GAME_SCORE, GAME_TICK, WINNER, IS_GAME_OVER,
+     *               HISTORY_EVENTS and AVATAR_POSITIONS (ALL_FIELDS by default).
+     * @return this writer.
+     */
+    public synchronized ResultWriter setFields(int fields)
+    {
+        this.fields = fields;
+        return this;
+    }
+
+    /**
+     * Truncates the history of the results written to its last entries.
+     * @param maxHistory maximum number of events, and of positions of each avatar, written
+     *                   (-1, the default, for all).
+     * @return this writer.
+     */
+    public synchronized ResultWriter setMaxHistory(int maxHistory)
+    {
+        this.maxHistory = maxHistory;
+        return this;
+    }
+
+    /**
+     * Sets if the output is gzipped.
+     * @param gzip true to gzip the results (false by default).
+     * @return this writer.
+     */
+    public synchronized ResultWriter setGzip(boolean gzip)
+    {
+        this.gzip = gzip;
+        return this;
+    }
+
+    /**
+     * Writes the result of a game to a stream. The stream is not closed.
+     * @param stateObs final state of the game.
+     * @param game the game.
+     * @param out where the result is written.
+     * @throws IOException if the stream can't be written.
+     */
+    public synchronized void write(StateObservation stateObs, Game game, OutputStream out) throws IOException
+    {
+        GZIPOutputStream zip = gzip ? new GZIPOutputStream(out, 8192) : null;
+        sink.out = zip != null ? zip : out;
+        sink.count = 0;
+        if(json == null)
+        {
+            json = new JsonWriter(sink);
+            //As the Gson of PlayVGDL, that writes NaN and infinite scores.
+            json.setLenient(true);
+            json.setHtmlSafe(true);
+            json.setSerializeNulls(false);
+        }
+
+        try
+        {
+            writeResult(stateObs, game);
+            json.flush();
+            if(zip != null)
+                zip.finish();
+        }catch(IOException | RuntimeException e)
+        {
+            //The writer may be in the middle of a value.
+            json = null;
+            throw e;
+        }finally
+        {
+            sink.out = null;
+        }
+    }
+
+    /**
+     * Writes the result of a game as a string. Not gzipped, whatever setGzip() says.
+     * @param stateObs final state of the game.
+     * @param game the game.
+     * @return the result.
+     */
+    public synchronized String toJson(StateObservation stateObs, Game game)
+    {
+        boolean zipped = gzip;
+        gzip = false;
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            write(stateObs, game, out);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }catch(IOException e)
+        {
+            //Not from a ByteArrayOutputStream.
+            throw new RuntimeException(e);
+        }finally
+        {
+            gzip = zipped;
+        }
+    }
+
+    private void writeResult(StateObservation stateObs, Game game) throws IOException
+    {
+        json.beginObject();
+        if((fields & NPCS) != 0)
+            json.name("npcs").value(stateObs.getNoPlayers());
+        if((fields & GAME_SCORE) != 0)
+            json.name("gameScore").value(stateObs.getGameScore());
+        if((fields & GAME_TICK) != 0)
+            json.name("gameTick").value(stateObs.getGameTick());
+        if((fields & WINNER) != 0 && stateObs.getGameWinner() != null)
+            json.name("winner").value(stateObs.getGameWinner().name());
+        if((fields & IS_GAME_OVER) != 0)
+            json.name("isGameOver").value(stateObs.isGameOver());
+
+        if((fields & HISTORY_EVENTS) != 0)
+        {
+            TreeSet<Event> events = stateObs.getEventsHistory();
+            if(events != null)
+            {
+                json.name("historyEvents").beginArray();
+                Iterator<Event> it = events.iterator();
+                for(int skip = maxHistory < 0 ? 0 : events.size() - maxHistory; skip > 0; skip--)
+                    it.next();
+                while(it.hasNext())
+                    writeEvent(it.next());
+                json.endArray();
+            }
+        }
+
+        if((fields & AVATAR_POSITIONS) != 0 && game.avatarPositionHistory != null)
+        {
+            json.name("avatarSpritesPositions").beginArray();
+            for(ArrayList<Vector2d> positions : game.avatarPositionHistory)
+            {
+                if(positions == null)
+                {
+                    json.nullValue();
+                    continue;
+                }
+                json.beginArray();
+                int from = maxHistory < 0 ? 0 : Math.max(0, positions.size() - maxHistory);
+                for(int i = from; i < positions.size(); i++)
+                    writeVector(positions.get(i));
+                json.endArray();
+            }
+            json.endArray();
+        }
+        json.endObject();
+    }
+
+    private void writeEvent(Event e) throws IOException
+    {
+        json.beginObject();
+        json.name("gameStep").value(e.gameStep);
+        json.name("fromAvatar").value(e.fromAvatar);
+        json.name("activeTypeId").value(e.activeTypeId);
+        json.name("passiveTypeId").value(e.passiveTypeId);
+        json.name("activeSpriteId").value(e.activeSpriteId);
+        json.name("passiveSpriteId").value(e.passiveSpriteId);
+        if(e.position != null)
+        {
+            json.name("position");
+            writeVector(e.position);
+        }
+        //Null strings are left out, as Gson does.
+        json.name("effectName").value(e.effectName);
+        json.name("activeSpriteName").value(e.activeSpriteName);
+        json.name("passiveSpriteName").value(e.passiveSpriteName);
+        json.name("activeSpriteIdentifier").value(e.activeSpriteIdentifier);
+        json.name("passiveSpriteIdentifier").value(e.passiveSpriteIdentifier);
+        json.endObject();
+    }
+
+    private void writeVector(Vector2d v) throws IOException
+    {
+        if(v == null)
+        {
+            json.nullValue();
+            return;
+        }
+        json.beginObject();
+        json.name("x").value(v.x);
+        json.name("y").value(v.y);
+        json.endObject();
+    }
+}
@@ -0,0 +1,334 @@
+package tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import core.game.Event;
+import ontology.Types;
+
+/**
+ * Reads a file of trajectories written by TrajectoryRecorder. Only the start of each episode is
+ * read when the file is opened; each episode is mapped in memory (FileChannel.map) when it is
+ * accessed, so any episode and tick can be read without loading the file in the heap.
+ */
+public class TrajectoryReader
+{
+    /**
+     * The file.
+     */
+    private FileChannel channel;
+
+    /**
+     * Start and length of each episode in the file.
+     */
+    private long[] offsets, lengths;
+
+    /**
+     * Opens a file of trajectories. Episodes appended to it after this are not seen.
+     * @param filename the file.
+     * @throws IOException if the file can't be read or is not a file of trajectories.
+     */
+    public TrajectoryReader(String filename) throws IOException
+    {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        ArrayList<Long> starts = new ArrayList<Long>();
+        long end = TrajectoryRecorder.scan(channel, starts);
+        offsets = new long[starts.size()];
+        lengths = new long[starts.size()];
+        for(int i = 0; i < offsets.length; i++)
+        {
+            offsets[i] = starts.get(i);
+            lengths[i] = (i + 1 < offsets.length ? starts.get(i + 1) : end) - offsets[i];
+        }
+    }
+
+    /**
+     * Returns the number of episodes in the file.
+     * @return the number of episodes.
+     */
+    public int numEpisodes()
+    {
+        return offsets.length;
+    }
+
+    /**
+     * Maps an episode of the file in memory.
+     * @param index index of the episode, from 0 to numEpisodes() - 1.
+     * @return the episode.
+     * @throws IOException if the episode can't be mapped.
+     */
+    public Episode episode(int index) throws IOException
+    {
+        if(lengths[index] > Integer.MAX_VALUE)
+            throw new IOException("episode " + index + " is too large to be mapped");
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, offsets[index], lengths[index]);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return new Episode(buf);
+    }
+
+    /**
+     * Closes the file. Episodes already mapped can still be read.
+     */
+    public void close()
+    {
+        try
+        {
+            channel.close();
+        }catch(IOException e)
+        {
+            System.out.println("TrajectoryReader: could not close file: " + e.getMessage());
+        }
+    }
+
+    private static int align(int n)
+    {
+        return (n + 7) & ~7;
+    }
+
+    /**
+     * An episode of the file. Values are read from the mapped file on each call.
+     */
+    public static class Episode
+    {
+        private ByteBuffer buf;
+        private int numTicks, numPlayers, numEvents, numNames;
+        private int width, height, types;
+
+        /**
+         * Offsets of the columns in the episode.
+         */
+        private int ticksAt, actionsAt, rewardsAt, xAt, yAt, eventsAt, namesAt, obsAt;
+
+        /**
+         * Name table, decoded the first time a name is read.
+         */
+        private String[] names;
+
+        private Episode(ByteBuffer buf)
+        {
+            this.buf = buf;
+            numTicks = buf.getInt(16);
+            numPlayers = buf.getInt(20);
+            numEvents = buf.getInt(24);
+            numNames = buf.getInt(28);
+            width = buf.getInt(32);
+            height = buf.getInt(36);
+            types = buf.getInt(40);
+
+            int cells = numTicks * numPlayers;
+            ticksAt = align(TrajectoryRecorder.HEADER_SIZE + numPlayers * TrajectoryRecorder.RESULT_SIZE);
+            actionsAt = ticksAt + align(numTicks * 4);
+            rewardsAt = actionsAt + align(cells);
+            xAt = rewardsAt + cells * 8;
+            yAt = xAt + align(cells * 4);
+            eventsAt = yAt + align(cells * 4);
+            namesAt = eventsAt + align(numEvents * TrajectoryRecorder.EVENT_SIZE);
+            int pos = namesAt;
+            for(int i = 0; i < numNames; i++)
+                pos += 4 + buf.getInt(pos);
+            obsAt = align(pos);
+        }
+
+        public int numTicks()
+        {
+            return numTicks;
+        }
+
+        public int numPlayers()
+        {
+            return numPlayers;
+        }
+
+        public int numEvents()
+        {
+            return numEvents;
+        }
+
+        /**
+         * Seed the game was played with.
+         */
+        public int seed()
+        {
+            return buf.getInt(44);
+        }
+
+        /**
+         * Game and level of the episode, as given to the recorder.
+         */
+        public String game()
+        {
+            return name(buf.getInt(48));
+        }
+
+        public String level()
+        {
+            return name(buf.getInt(52));
+        }
+
+        /**
+         * Final result of a player.
+         */
+        public Types.WINNER winner(int player)
+        {
+            int key = buf.getInt(TrajectoryRecorder.HEADER_SIZE + player * TrajectoryRecorder.RESULT_SIZE);
+            for(Types.WINNER w : Types.WINNER.values())
+                if(w.key() == key)
+                    return w;
+            return Types.WINNER.NO_WINNER;
+        }
+
+        public double score(int player)
+        {
+            return buf.getDouble(TrajectoryRecorder.HEADER_SIZE + player * TrajectoryRecorder.RESULT_SIZE + 8);
+        }
+
+        /**
+         * Game tick of a row (row t is usually tick t).
+         */
+        public int tick(int t)
+        {
+            return buf.getInt(ticksAt + t * 4);
+        }
+
+        /**
+         * Action of a player in a tick.
+         */
+        public Types.ACTIONS action(int t, int player)
+        {
+            return Types.ACTIONS.values()[buf.get(actionsAt + t * numPlayers + player)];
+        }
+
+        /**
+         * Change of the score of a player in a tick.
+         */
+        public double reward(int t, int player)
+        {
+            return buf.getDouble(rewardsAt + (t * numPlayers + player) * 8);
+        }
+
+        /**
+         * Position of the avatar of a player at the start of a tick (NaN if it was not in the game).
+         */
+        public float x(int t, int player)
+        {
+            return buf.getFloat(xAt + (t * numPlayers + player) * 4);
+        }
+
+        public float y(int t, int player)
+        {
+            return buf.getFloat(yAt + (t * numPlayers + player) * 4);
+        }
+
+        /**
+         * Position of the avatar of a player at the start of a tick.
+         * @return the position, or null if the avatar was not in the game.
+         */
+        public Vector2d position(int t, int player)
+        {
+            float x = x(t, player);
+            return Float.isNaN(x) ? null : new Vector2d(x, y(t, player));
+        }
+
+        /**
+         * Indicates if the observations were recorded.
+         */
+        public boolean hasObservations()
+        {
+            return types > 0;
+        }
+
+        /**
+         * Shape of the observations: width and height of the grid, and number of sprite types.
+         */
+        public int[] observationShape()
+        {
+            return new int[]{width, height, types};
+        }
+
+        /**
+         * Number of sprites of a type in a cell of the observation grid, at the start of a tick.
+         */
+        public int observation(int t, int x, int y, int type)
+        {
+            return buf.get(obsAt + t * width * height * types + (x * height + y) * types + type);
+        }
+
+        /**
+         * Copies the observation tensor of a tick (see ForwardModel.getObservationTensor()).
+         * @param t the tick.
+         * @param dst array of width * height * types bytes where it is copied, or null.
+         * @return the tensor.
+         */
+        public byte[] observation(int t, byte[] dst)
+        {
+            int size = width * height * types;
+            if(dst == null)
+                dst = new byte[size];
+            ByteBuffer src = buf.duplicate();
+            src.position(obsAt + t * size);
+            src.get(dst, 0, size);
+            return dst;
+        }
+
+        /**
+         * Returns an event of the episode. Events are sorted by game step.
+         * @param i index of the event, from 0 to numEvents() - 1.
+         * @return the event.
+         */
+        public Event event(int i)
+        {
+            int at = eventsAt + i * TrajectoryRecorder.EVENT_SIZE;
+            return new Event(buf.getInt(at), buf.getInt(at + 4) != 0, buf.getInt(at + 8), buf.getInt(at + 12),
+                    buf.getInt(at + 16), buf.getInt(at + 20), new Vector2d(buf.getFloat(at + 24), buf.getFloat(at + 28)),
+                    name(buf.getInt(at + 32)), name(buf.getInt(at + 36)), name(buf.getInt(at + 40)),
+                    name(buf.getInt(at + 44)), name(buf.getInt(at + 48)));
+        }
+
+        /**
+         * Returns the index of the first event that happened at or after a game step.
+         * @param gameStep the game step.
+         * @return the index, or numEvents() if there are none.
+         */
+        public int firstEvent(int gameStep)
+        {
+            int lo = 0, hi = numEvents;
+            while(lo < hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                if(buf.getInt(eventsAt + mid * TrajectoryRecorder.EVENT_SIZE) < gameStep)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        /**
+         * Returns a name of the name table of the episode.
+         */
+        public String name(int index)
+        {
+            if(names == null)
+            {
+                String[] table = new String[numNames];
+                ByteBuffer src = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                src.position(namesAt);
+                for(int i = 0; i < numNames; i++)
+                {
+                    byte[] bytes = new byte[src.getInt()];
+                    src.get(bytes);
+                    table[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+                names = table;
+            }
+            return names[index];
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+import core.game.Event;
+import core.game.Game;
+import ontology.Types;
+import ontology.avatar.MovingAvatar;
+
+/**
+ * Records the trajectories of games (actions, rewards and avatar positions of every tick, the
+ * events, and optionally the observation grids) in a compact binary file, for datasets of played
+ * games. Files are read with TrajectoryReader, which gives random access to any episode and tick.
+ *
+ * A file is a sequence of episodes (one per game), appended as each game ends. An episode is a
+ * block of columns of primitive values, all of them little-endian:
+ *
+ *  - header (HEADER_SIZE bytes): MAGIC, VERSION, length of the block (long), number of ticks,
+ *    players, events and names, shape of the observations (width, height and number of sprite
+ *    types; 0 if not recorded), seed, and game and level (indices in the name table).
+ *  - results: for each player, the winner (int, Types.WINNER.key()), 4 bytes of padding and the
+ *    final score (double).
+ *  - ticks: int[ticks], the game tick of each row.
+ *  - actions: byte[ticks * players], the ordinal of the Types.ACTIONS of each player, by tick.
+ *  - rewards: double[ticks * players], the change of the score of each player in each tick.
+ *  - x, y: float[ticks * players] each, the position of each avatar at the start of the tick
+ *    (NaN if the avatar was not in the game).
+ *  - events: EVENT_SIZE bytes each: game step, flags (1 if from the avatar), active and passive
+ *    type ids, active and passive sprite ids, x and y (floats), and effect name, active and
+ *    passive sprite names and active and passive identifiers (indices in the name table).
+ *  - names: the name table, each name as its length (int) and its bytes in UTF-8.
+ *  - observations: byte[ticks * width * height * types], the observation tensor at the start of
+ *    each tick (see ForwardModel.getObservationTensor()).
+ *
+ * Every column starts at a multiple of 8 bytes from the start of the block.
+ *
+ * A recorder can be shared by games played in parallel: each game keeps its trajectory in memory
+ * and writes it at once when it ends.
+ */
+public class TrajectoryRecorder
+{
+    /**
+     * First int of each episode ("GVTR").
+     */
+    public static final int MAGIC = 0x52545647;
+
+    /**
+     * Version of the format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the header of an episode, and of the results of each player.
+     */
+    public static final int HEADER_SIZE = 64;
+    public static final int RESULT_SIZE = 16;
+
+    /**
+     * Size of each event.
+     */
+    public static final int EVENT_SIZE = 52;
+
+    /**
+     * File where trajectories are appended.
+     */
+    private File file;
+
+    /**
+     * Access to the file.
+     */
+    private RandomAccessFile raf;
+
+    /**
+     * True if the observation grids are recorded.
+     */
+    private boolean observations;
+
+    /**
+     * Number of episodes in the file.
+     */
+    private int numEpisodes;
+
+    /**
+     * Opens (or creates) a file of trajectories. New episodes are appended to the ones in it.
+     * @param filename file where trajectories are stored.
+     * @param observations true to record the observation grid of every tick.
+     * @throws IOException if the file can't be read or created.
+     */
+    public TrajectoryRecorder(String filename, boolean observations) throws IOException
+    {
+        this.file = new File(filename);
+        this.observations = observations;
+
+        if(file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+        raf = new RandomAccessFile(file, "rw");
+
+        //Cut off an incomplete last episode (from an interrupted write).
+        ArrayList<Long> offsets = new ArrayList<Long>();
+        long end = scan(raf.getChannel(), offsets);
+        if(end < raf.length())
+            raf.setLength(end);
+        numEpisodes = offsets.size();
+    }
+
+    /**
+     * Finds the complete episodes of a file of trajectories.
+     * @param channel the file.
+     * @param offsets list where the start of each episode is added.
+     * @return the end of the last complete episode.
+     * @throws IOException if the file can't be read or is not a file of trajectories.
+     */
+    static long scan(FileChannel channel, ArrayList<Long> offsets) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        long size = channel.size();
+        long pos = 0;
+        while(pos + HEADER_SIZE <= size)
+        {
+            header.clear();
+            while(header.hasRemaining() && channel.read(header, pos + header.position()) >= 0);
+            if(header.getInt(0) != MAGIC)
+                throw new IOException("not a trajectory file, or corrupted at " + pos);
+            if(header.getInt(4) > VERSION)
+                throw new IOException("trajectory version " + header.getInt(4) + " is not supported");
+            long length = header.getLong(8);
+            if(length < HEADER_SIZE || pos + length > size)
+                break;
+            offsets.add(pos);
+            pos += length;
+        }
+        return pos;
+    }
+
+    /**
+     * Starts the trajectory of a game. It is written to the file when the game ends.
+     * @param gameLabel name (or description) of the game, stored with the episode.
+     * @param levelLabel name (or description) of the level, stored with the episode.
+     * @return the trajectory.
+     */
+    public Trajectory newTrajectory(String gameLabel, String levelLabel)
+    {
+        return new Trajectory(gameLabel, levelLabel);
+    }
+
+    /**
+     * Indicates if the observation grids are recorded.
+     * @return true if they are.
+     */
+    public boolean recordsObservations()
+    {
+        return observations;
+    }
+
+    /**
+     * Returns the number of episodes in the file.
+     * @return the number of episodes.
+     */
+    public synchronized int size()
+    {
+        return numEpisodes;
+    }
+
+    /**
+     * Closes the file.
+     */
+    public synchronized void close()
+    {
+        try
+        {
+            raf.close();
+        }catch(IOException e)
+        {
+            System.out.println("TrajectoryRecorder: could not close " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends an episode to the file.
+     */
+    private synchronized void write(ByteBuffer columns, byte[] obs, int obsLength)
+    {
+        long start = -1;
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            start = channel.size();
+            long pos = start;
+            while(columns.hasRemaining())
+                pos += channel.write(columns, pos);
+            ByteBuffer obsBuffer = ByteBuffer.wrap(obs, 0, obsLength);
+            while(obsBuffer.hasRemaining())
+                pos += channel.write(obsBuffer, pos);
+            numEpisodes++;
+        }catch(IOException e)
+        {
+            System.out.println("TrajectoryRecorder: could not write " + file + ": " + e.getMessage());
+            try
+            {
+                //Don't leave half an episode before the next ones.
+                if(start >= 0)
+                    raf.setLength(start);
+            }catch(IOException e2)
+            {
+                System.out.println("TrajectoryRecorder: could not truncate " + file + ": " + e2.getMessage());
+            }
+        }
+    }
+
+    private static int align(int n)
+    {
+        return (n + 7) & ~7;
+    }
+
+    /**
+     * Trajectory of a game being played. The game calls start() when it starts, beginTick() and
+     * endTick() around each of its cycles, and finish() when it ends.
+     */
+    public class Trajectory
+    {
+        private String gameLabel, levelLabel;
+        private int seed, numPlayers;
+        private int width, height, types, obsSize;
+
+        private int numTicks;
+        private int[] ticks = new int[256];
+        private byte[] actions;
+        private double[] rewards;
+        private float[] x, y;
+        private byte[] obs;
+
+        /**
+         * Score of each player at the end of the last tick.
+         */
+        private double[] lastScore;
+
+        /**
+         * True for the players whose avatar was in the game at the start of the tick.
+         */
+        private boolean[] present;
+
+        private Trajectory(String gameLabel, String levelLabel)
+        {
+            this.gameLabel = gameLabel;
+            this.levelLabel = levelLabel;
+        }
+
+        /**
+         * Starts recording.
+         * @param seed seed of the game.
+         * @param numPlayers number of players.
+         * @param obsShape width, height and number of sprite types of the observation grid.
+         */
+        public void start(int seed, int numPlayers, int[] obsShape)
+        {
+            this.seed = seed;
+            this.numPlayers = numPlayers;
+            if(observations)
+            {
+                width = obsShape[0];
+                height = obsShape[1];
+                types = obsShape[2];
+                obsSize = width * height * types;
+                obs = new byte[ticks.length * obsSize];
+            }
+            actions = new byte[ticks.length * numPlayers];
+            rewards = new double[ticks.length * numPlayers];
+            x = new float[ticks.length * numPlayers];
+            y = new float[ticks.length * numPlayers];
+            lastScore = new double[numPlayers];
+            present = new boolean[numPlayers];
+        }
+
+        /**
+         * Records the state at the start of a tick.
+         * @param game the game.
+         * @param tensor observation tensor of the tick (only used if observations are recorded).
+         */
+        public void beginTick(Game game, byte[] tensor)
+        {
+            if(numTicks == ticks.length)
+                grow();
+
+            ticks[numTicks] = game.getGameTick();
+            MovingAvatar[] avatars = game.getAvatars();
+            int row = numTicks * numPlayers;
+            for(int i = 0; i < numPlayers; i++)
+            {
+                present[i] = avatars[i] != null && !avatars[i].is_disabled();
+                x[row + i] = present[i] ? (float) avatars[i].getPosition().x : Float.NaN;
+                y[row + i] = present[i] ? (float) avatars[i].getPosition().y : Float.NaN;
+            }
+            if(obs != null && tensor != null)
+                System.arraycopy(tensor, 0, obs, numTicks * obsSize, obsSize);
+        }
+
+        /**
+         * Records the actions and rewards of a tick, once it has been played.
+         * @param game the game.
+         * @param lastActions last action of each avatar.
+         */
+        public void endTick(Game game, Types.ACTIONS[] lastActions)
+        {
+            MovingAvatar[] avatars = game.getAvatars();
+            int row = numTicks * numPlayers;
+            for(int i = 0; i < numPlayers; i++)
+            {
+                Types.ACTIONS action = present[i] ? lastActions[i] : Types.ACTIONS.ACTION_NIL;
+                actions[row + i] = (byte) action.ordinal();
+                double score = avatars[i] != null ? avatars[i].getScore() : lastScore[i];
+                rewards[row + i] = score - lastScore[i];
+                lastScore[i] = score;
+            }
+            numTicks++;
+        }
+
+        private void grow()
+        {
+            int capacity = ticks.length * 2;
+            ticks = Arrays.copyOf(ticks, capacity);
+            actions = Arrays.copyOf(actions, capacity * numPlayers);
+            rewards = Arrays.copyOf(rewards, capacity * numPlayers);
+            x = Arrays.copyOf(x, capacity * numPlayers);
+            y = Arrays.copyOf(y, capacity * numPlayers);
+            if(obs != null)
+                obs = Arrays.copyOf(obs, capacity * obsSize);
+        }
+
+        /**
+         * Writes the trajectory to the file of the recorder.
+         * @param game the game, already ended.
+         * @param events events of the game, in order.
+         */
+        public void finish(Game game, Collection<Event> events)
+        {
+            HashMap<String, Integer> nameIds = new HashMap<String, Integer>();
+            ArrayList<byte[]> names = new ArrayList<byte[]>();
+            int gameName = intern(gameLabel, nameIds, names);
+            int levelName = intern(levelLabel, nameIds, names);
+
+            ByteBuffer ev = ByteBuffer.allocate(events.size() * EVENT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for(Event e : events)
+            {
+                ev.putInt(e.gameStep);
+                ev.putInt(e.fromAvatar ? 1 : 0);
+                ev.putInt(e.activeTypeId);
+                ev.putInt(e.passiveTypeId);
+                ev.putInt(e.activeSpriteId);
+                ev.putInt(e.passiveSpriteId);
+                ev.putFloat(e.position != null ? (float) e.position.x : Float.NaN);
+                ev.putFloat(e.position != null ? (float) e.position.y : Float.NaN);
+                ev.putInt(intern(e.effectName, nameIds, names));
+                ev.putInt(intern(e.activeSpriteName, nameIds, names));
+                ev.putInt(intern(e.passiveSpriteName, nameIds, names));
+                ev.putInt(intern(e.activeSpriteIdentifier, nameIds, names));
+                ev.putInt(intern(e.passiveSpriteIdentifier, nameIds, names));
+            }
+
+            int namesSize = 0;
+            for(byte[] name : names)
+                namesSize += 4 + name.length;
+
+            int cells = numTicks * numPlayers;
+            int size = align(HEADER_SIZE + numPlayers * RESULT_SIZE) + align(numTicks * 4) + align(cells)
+                    + cells * 8 + align(cells * 4) * 2 + align(ev.capacity()) + align(namesSize);
+            int obsLength = obs != null ? numTicks * obsSize : 0;
+
+            ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION).putLong((long) size + obsLength);
+            buf.putInt(numTicks).putInt(numPlayers).putInt(events.size()).putInt(names.size());
+            buf.putInt(width).putInt(height).putInt(types).putInt(seed);
+            buf.putInt(gameName).putInt(levelName);
+            buf.position(HEADER_SIZE);
+
+            MovingAvatar[] avatars = game.getAvatars();
+            for(int i = 0; i < numPlayers; i++)
+            {
+                boolean ok = avatars[i] != null;
+                buf.putInt(ok ? avatars[i].getWinState().key() : Types.WINNER.PLAYER_DISQ.key()).putInt(0);
+                buf.putDouble(ok ? avatars[i].getScore() : Types.SCORE_DISQ);
+            }
+            pad(buf);
+
+            for(int t = 0; t < numTicks; t++)
+                buf.putInt(ticks[t]);
+            pad(buf);
+            buf.put(actions, 0, cells);
+            pad(buf);
+            for(int c = 0; c < cells; c++)
+                buf.putDouble(rewards[c]);
+            for(int c = 0; c < cells; c++)
+                buf.putFloat(x[c]);
+            pad(buf);
+            for(int c = 0; c < cells; c++)
+                buf.putFloat(y[c]);
+            pad(buf);
+            buf.put(ev.array());
+            pad(buf);
+            for(byte[] name : names)
+                buf.putInt(name.length).put(name);
+            pad(buf);
+            buf.flip();
+
+            write(buf, obs != null ? obs : new byte[0], obsLength);
+        }
+
+        private int intern(String name, HashMap<String, Integer> ids, ArrayList<byte[]> names)
+        {
+            if(name == null)
+                name = "";
+            Integer id = ids.get(name);
+            if(id == null)
+            {
+                id = names.size();
+                ids.put(name, id);
+                names.add(name.getBytes(StandardCharsets.UTF_8));
+            }
+            return id;
+        }
+
+        private void pad(ByteBuffer buf)
+        {
+            buf.position(align(buf.position()));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package tools.rollout;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import core.game.StateObservation;
+
+/**
+ * Cache of the states of the nodes of a search tree, for tree searches that are open loop (they
+ * simulate every iteration from the root). With it, an iteration can start from the state of the
+ * deepest node of its path that has one (closed loop) instead of advancing the root through the
+ * whole path again.
+ *
+ * States are only exact in deterministic games (see StateObservation.isStochastic()): in
+ * stochastic ones, iterations must sample the transitions again, so the cache should not be used.
+ * States are kept for nodes up to a maximum depth, and up to maxStates of them: the least recently
+ * used are evicted. Nodes are compared by identity.
+ */
+public class NodeStateCache<N>
+{
+    private int maxDepth;
+    private int maxStates;
+
+    /**
+     * States, by node, in LRU order.
+     */
+    private LinkedHashMap<N, StateObservation> states;
+
+    /**
+     * Creates a cache.
+     * @param maxDepth maximum depth of the nodes whose states are kept.
+     * @param maxStates maximum number of states kept.
+     */
+    public NodeStateCache(int maxDepth, int maxStates)
+    {
+        this.maxDepth = maxDepth;
+        this.maxStates = maxStates;
+        this.states = new LinkedHashMap<N, StateObservation>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<N, StateObservation> eldest)
+            {
+                return size() > NodeStateCache.this.maxStates;
+            }
+        };
+    }
+
+    /**
+     * Empties the cache (when the root changes).
+     */
+    public void clear()
+    {
+        states.clear();
+    }
+
+    /**
+     * Returns the state of a node.
+     * @param node the node.
+     * @return its state, that must not be modified (copy it to advance it), or null if it is not
+     * in the cache.
+     */
+    public StateObservation get(N node)
+    {
+        return states.get(node);
+    }
+
+    /**
+     * Stores the state of a node, if it is not deeper than the maximum and not in the cache yet.
+     * @param node the node.
+     * @param depth depth of the node.
+     * @param state its state (not modified: a copy is stored).
+     */
+    public void put(N node, int depth, StateObservation state)
+    {
+        if (depth > maxDepth || maxStates <= 0 || states.containsKey(node))
+            return;
+        states.put(node, state.copy());
+    }
+}
@@ -0,0 +1,170 @@
+package tools.rollout;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import core.game.StateObservation;
+
+/**
+ * Cache of the states reached from a root state with sequences of actions, for agents that
+ * evaluate many sequences sharing prefixes (elites, mutants and crossover children of rolling
+ * horizon agents). Sequences are arrays of action indices, stored in a trie; some of its nodes keep
+ * a copy of the state reached (a checkpoint), so evaluating a sequence can resume from the
+ * deepest checkpoint of its prefix instead of from the root.
+ *
+ * A checkpoint is made when a prefix is played for the second time, as copying a state can cost
+ * more than the actions it saves if the prefix is never played again. Checkpoints are made every
+ * checkpointInterval actions, up to a maximum depth (deep prefixes are shared by fewer sequences),
+ * and up to maxStates of them: the least recently used are evicted. They are exact only in deterministic games (see
+ * StateObservation.isStochastic()); in stochastic ones, all the evaluations that resume from a
+ * checkpoint share its outcome.
+ *
+ * Usage: reset() with the root state of each decision; then, for each sequence, resume() gives the
+ * state to advance from (and resumedDepth() the actions already played), and played() is called
+ * after each action played from it.
+ */
+public class PrefixStateCache
+{
+    /**
+     * Node of the trie: sequence of actions from the root.
+     */
+    private static class Node
+    {
+        Node[] children;
+
+        /**
+         * Number of times the prefix has been played.
+         */
+        int visits;
+
+        Node(int numActions)
+        {
+            children = new Node[numActions];
+        }
+    }
+
+    private int numActions;
+    private int checkpointInterval;
+    private int maxDepth;
+    private int maxStates;
+
+    private StateObservation root;
+    private Node rootNode;
+
+    /**
+     * Checkpoints, by node, in LRU order.
+     */
+    private LinkedHashMap<Node, StateObservation> checkpoints;
+
+    /**
+     * Depth of the state returned by the last call to resume().
+     */
+    private int resumedDepth;
+
+    /**
+     * Node of the last prefix played from it (null if it is deeper than the checkpoints).
+     */
+    private Node cursor;
+
+    /**
+     * Creates a cache.
+     * @param checkpointInterval actions between checkpoints.
+     * @param maxDepth maximum depth of the checkpoints.
+     * @param maxStates maximum number of checkpoints kept.
+     */
+    public PrefixStateCache(int checkpointInterval, int maxDepth, int maxStates)
+    {
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+        this.maxDepth = maxDepth;
+        this.maxStates = maxStates;
+        this.checkpoints = new LinkedHashMap<Node, StateObservation>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<Node, StateObservation> eldest)
+            {
+                return size() > PrefixStateCache.this.maxStates;
+            }
+        };
+    }
+
+    /**
+     * Empties the cache and sets the state sequences start from.
+     * @param root root state (not modified).
+     * @param numActions number of action indices.
+     */
+    public void reset(StateObservation root, int numActions)
+    {
+        this.root = root;
+        this.numActions = numActions;
+        this.rootNode = new Node(numActions);
+        this.cursor = null;
+        checkpoints.clear();
+    }
+
+    /**
+     * Returns the state reached with the deepest prefix of a sequence that has a checkpoint (or
+     * the root state). It is a copy, that can be advanced.
+     * @param actions action indices of the sequence.
+     * @param length length of the sequence.
+     * @return the state; resumedDepth() tells the number of actions of the sequence it has played.
+     */
+    public StateObservation resume(int[] actions, int length)
+    {
+        StateObservation deepest = root;
+        resumedDepth = 0;
+        cursor = rootNode;
+        Node node = rootNode;
+        for (int d = 0; d < Math.min(length, maxDepth); d++)
+        {
+            node = node.children[actions[d]];
+            if (node == null)
+                break;
+            if ((d + 1) % checkpointInterval == 0)
+            {
+                StateObservation st = checkpoints.get(node);
+                if (st != null)
+                {
+                    deepest = st;
+                    resumedDepth = d + 1;
+                    cursor = node;
+                }
+            }
+        }
+        return deepest.copy();
+    }
+
+    /**
+     * Returns the number of actions played by the state returned by the last call to resume().
+     * @return the depth of the state.
+     */
+    public int resumedDepth()
+    {
+        return resumedDepth;
+    }
+
+    /**
+     * Tells that an action of the sequence passed to resume() has been played from the state it
+     * returned, or from the following ones. A checkpoint of the state is made if its prefix
+     * gets one and has been played before.
+     * @param actions action indices of the sequence.
+     * @param depth length of the prefix played.
+     * @param state state reached (not modified: a copy is stored).
+     */
+    public void played(int[] actions, int depth, StateObservation state)
+    {
+        if (cursor == null || depth > maxDepth)
+        {
+            cursor = null;
+            return;
+        }
+        Node next = cursor.children[actions[depth - 1]];
+        if (next == null)
+        {
+            next = new Node(numActions);
+            cursor.children[actions[depth - 1]] = next;
+        }
+        cursor = next;
+        next.visits++;
+        if (next.visits > 1 && depth % checkpointInterval == 0 && maxStates > 0 && !checkpoints.containsKey(next))
+            checkpoints.put(next, state.copy());
+    }
+}
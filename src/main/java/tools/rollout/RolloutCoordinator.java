@@ -0,0 +1,639 @@
+package tools.rollout;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import core.game.StateObservation;
+import ontology.Types;
+
+/**
+ * Runs rollouts in other processes (RolloutWorker), so search agents are not bounded by the cores
+ * of their own JVM. For each batch, the state is sent to the workers as a snapshot (see
+ * StateObservation.snapshot()), with the action prefixes each one has to evaluate, and they answer
+ * with the statistics of their rollouts.
+ *
+ * The workers connect to the coordinator, that tells them which game to build (setGame()). They
+ * can be launched by the coordinator on this machine (launchLocal()), or started elsewhere with
+ * "java tools.rollout.RolloutWorker host port" (listen()). The processes launched are ended by
+ * close(), or when this JVM exits.
+ *
+ * The coordinator measures how long the workers take per simulated step, and the time lost in
+ * each round trip, so agents can ask how many prefixes (maxPrefixes()) or rollouts
+ * (maxRollouts()) fit in their time budget. Answers that arrive after the budget are discarded.
+ *
+ * A coordinator is used by one thread at a time. Agents find it with getDefault(). ArcadeMachine
+ * launches the default one when CompetitionParameters.ROLLOUT_WORKERS is set (launchDefault()).
+ */
+public class RolloutCoordinator
+{
+    /**
+     * Coordinator used by the sample agents, or null if they must not use workers.
+     */
+    private static volatile RolloutCoordinator defaultCoordinator;
+
+    /**
+     * Rollouts to run for each prefix.
+     */
+    public static class Spec
+    {
+        /**
+         * Random actions played after the prefix.
+         */
+        public int depth;
+
+        /**
+         * Rollouts run for each prefix.
+         */
+        public int rollouts = 1;
+
+        /**
+         * Value of a rollout that ends with a win or a loss for the player: added to the score, or
+         * instead of it if replaceScore is true.
+         */
+        public double winValue, lossValue;
+        public boolean replaceScore;
+
+        public Spec(int depth, int rollouts, double winValue, double lossValue, boolean replaceScore)
+        {
+            this.depth = depth;
+            this.rollouts = rollouts;
+            this.winValue = winValue;
+            this.lossValue = lossValue;
+            this.replaceScore = replaceScore;
+        }
+
+        void write(DataOutputStream out) throws IOException
+        {
+            out.writeInt(depth);
+            out.writeInt(rollouts);
+            out.writeDouble(winValue);
+            out.writeDouble(lossValue);
+            out.writeBoolean(replaceScore);
+        }
+
+        static Spec read(DataInputStream in) throws IOException
+        {
+            Spec spec = new Spec(in.readInt(), in.readInt(), 0, 0, false);
+            spec.winValue = in.readDouble();
+            spec.lossValue = in.readDouble();
+            spec.replaceScore = in.readBoolean();
+            return spec;
+        }
+    }
+
+    /**
+     * Statistics of the rollouts of a prefix.
+     */
+    public static class Stats
+    {
+        /**
+         * Number of rollouts.
+         */
+        public int n;
+
+        /**
+         * Mean, variance (of the population), minimum and maximum of the values of the rollouts.
+         */
+        public double mean, variance, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+        /**
+         * Fraction of the rollouts that ended with a win and with a loss of the player.
+         */
+        public double winRate, lossRate;
+
+        /**
+         * Mean and maximum number of steps simulated (prefix included).
+         */
+        public double meanDepth;
+        public int maxDepth;
+
+        /**
+         * Adds a rollout.
+         * @param value value of the final state.
+         * @param winner result of the player at the end.
+         * @param depth steps simulated.
+         */
+        void add(double value, Types.WINNER winner, int depth)
+        {
+            n++;
+            double delta = value - mean;
+            mean += delta / n;
+            variance += (delta * (value - mean) - variance) / n;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            winRate += ((winner == Types.WINNER.PLAYER_WINS ? 1 : 0) - winRate) / n;
+            lossRate += ((winner == Types.WINNER.PLAYER_LOSES ? 1 : 0) - lossRate) / n;
+            meanDepth += (depth - meanDepth) / n;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        void write(DataOutputStream out) throws IOException
+        {
+            out.writeInt(n);
+            out.writeDouble(mean);
+            out.writeDouble(variance);
+            out.writeDouble(min);
+            out.writeDouble(max);
+            out.writeDouble(winRate);
+            out.writeDouble(lossRate);
+            out.writeDouble(meanDepth);
+            out.writeInt(maxDepth);
+        }
+
+        static Stats read(DataInputStream in) throws IOException
+        {
+            Stats s = new Stats();
+            s.n = in.readInt();
+            s.mean = in.readDouble();
+            s.variance = in.readDouble();
+            s.min = in.readDouble();
+            s.max = in.readDouble();
+            s.winRate = in.readDouble();
+            s.lossRate = in.readDouble();
+            s.meanDepth = in.readDouble();
+            s.maxDepth = in.readInt();
+            return s;
+        }
+    }
+
+    /**
+     * Connection with a worker.
+     */
+    private static class Worker
+    {
+        Socket socket;
+        DataInputStream in;
+        DataOutputStream out;
+
+        /**
+         * ID of the last request sent, and of the last one answered.
+         */
+        int sent, answered;
+
+        /**
+         * Prefixes of the current request (positions in the batch).
+         */
+        int[] batch;
+        long sentAt;
+        long steps;
+
+        Worker(Socket socket) throws IOException
+        {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        boolean busy()
+        {
+            return answered != sent;
+        }
+    }
+
+    /**
+     * Weight of the last measure in the estimates of the time per step and per round trip.
+     */
+    private static final double ALPHA = 0.2;
+
+    /**
+     * Time given to workers to connect, and to build a game.
+     */
+    private static final int SETUP_TIMEOUT = 30000;
+
+    private ArrayList<Worker> workers = new ArrayList<Worker>();
+    private ArrayList<Process> processes = new ArrayList<Process>();
+    private String game, level;
+
+    /**
+     * Closes the coordinator when the JVM exits, if it launched processes.
+     */
+    private Thread shutdownHook;
+
+    /**
+     * Estimated milliseconds a worker takes per simulated step, and lost per round trip (-1 until
+     * measured).
+     */
+    private double msPerStep = -1, msPerTrip = -1;
+
+    private long seeds;
+
+    private RolloutCoordinator()
+    {
+    }
+
+    /**
+     * Launches workers in new processes of this machine, with the class path of this one.
+     * @param numWorkers number of workers.
+     * @return the coordinator, with the workers connected.
+     */
+    public static RolloutCoordinator launchLocal(int numWorkers) throws IOException
+    {
+        ServerSocket server = new ServerSocket(0, numWorkers, InetAddress.getLoopbackAddress());
+        RolloutCoordinator coordinator = new RolloutCoordinator();
+        coordinator.shutdownHook = new Thread(coordinator::close, "RolloutCoordinator-shutdown");
+        Runtime.getRuntime().addShutdownHook(coordinator.shutdownHook);
+        try
+        {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for (int i = 0; i < numWorkers; i++)
+            {
+                ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        RolloutWorker.class.getName(), "localhost", String.valueOf(server.getLocalPort()));
+                pb.redirectErrorStream(true);
+                pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+                coordinator.processes.add(pb.start());
+            }
+            coordinator.accept(server, numWorkers);
+        } catch (IOException e)
+        {
+            coordinator.close();
+            throw e;
+        } finally
+        {
+            server.close();
+        }
+        return coordinator;
+    }
+
+    /**
+     * Waits for workers started elsewhere to connect.
+     * @param port port to listen to.
+     * @param numWorkers number of workers to wait for.
+     * @return the coordinator, with the workers connected.
+     */
+    public static RolloutCoordinator listen(int port, int numWorkers) throws IOException
+    {
+        ServerSocket server = new ServerSocket(port, numWorkers);
+        RolloutCoordinator coordinator = new RolloutCoordinator();
+        try
+        {
+            coordinator.accept(server, numWorkers);
+        } catch (IOException e)
+        {
+            coordinator.close();
+            throw e;
+        } finally
+        {
+            server.close();
+        }
+        return coordinator;
+    }
+
+    private void accept(ServerSocket server, int numWorkers) throws IOException
+    {
+        server.setSoTimeout(SETUP_TIMEOUT);
+        while (workers.size() < numWorkers)
+            workers.add(new Worker(server.accept()));
+    }
+
+    /**
+     * Launches local workers for the sample agents, unless there is a default coordinator already.
+     * @param numWorkers number of workers.
+     * @return the default coordinator.
+     */
+    public static synchronized RolloutCoordinator launchDefault(int numWorkers) throws IOException
+    {
+        if (defaultCoordinator == null)
+            defaultCoordinator = launchLocal(numWorkers);
+        return defaultCoordinator;
+    }
+
+    /**
+     * Sets the coordinator used by the sample agents.
+     * @param coordinator the coordinator, or null to stop using workers.
+     */
+    public static void setDefault(RolloutCoordinator coordinator)
+    {
+        defaultCoordinator = coordinator;
+    }
+
+    /**
+     * Returns the coordinator used by the sample agents.
+     * @return the coordinator, or null if there is none.
+     */
+    public static RolloutCoordinator getDefault()
+    {
+        return defaultCoordinator;
+    }
+
+    /**
+     * Makes the workers build a game, where the snapshots of the following batches are restored.
+     * Nothing is done if they already have it.
+     * @param game game description, or name of the file that has it.
+     * @param level level description, or name of the file that has it.
+     */
+    public void setGame(String game, String level) throws IOException
+    {
+        if (game.equals(this.game) && level.equals(this.level))
+            return;
+        //The workers may not share the file system: they get the descriptions.
+        String gameDesc = game.indexOf('\n') != -1 ? game : new String(Files.readAllBytes(Paths.get(game)), "UTF-8");
+        String levelDesc = level.indexOf('\n') != -1 ? level : new String(Files.readAllBytes(Paths.get(level)), "UTF-8");
+        this.game = null;
+
+        for (Worker w : new ArrayList<Worker>(workers))
+        {
+            ByteArrayOutputStream msg = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(msg);
+            out.writeByte(RolloutWorker.INIT);
+            out.writeInt(w.sent + 1);
+            RolloutWorker.writeString(out, gameDesc);
+            RolloutWorker.writeString(out, levelDesc);
+            send(w, msg);
+        }
+
+        long deadline = System.currentTimeMillis() + SETUP_TIMEOUT;
+        for (Worker w : new ArrayList<Worker>(workers))
+        {
+            try
+            {
+                //Answers (results or errors) to requests still pending come first.
+                DataInputStream reply = receive(w, deadline);
+                byte type = 0;
+                while (reply != null)
+                {
+                    type = reply.readByte();
+                    if (reply.readInt() == w.sent)
+                        break;
+                    reply = receive(w, deadline);
+                }
+                if (reply == null)
+                    drop(w, "timeout building the game");
+                else if (type != RolloutWorker.READY)
+                    drop(w, "could not build the game: " + reply.readUTF());
+                else
+                    w.answered = w.sent;
+            } catch (IOException e)
+            {
+                drop(w, e.toString());
+            }
+        }
+        if (workers.isEmpty())
+            throw new IOException("RolloutCoordinator: no worker could build the game.");
+        this.game = game;
+        this.level = level;
+    }
+
+    /**
+     * Returns the number of workers connected.
+     * @return the number of workers.
+     */
+    public int numWorkers()
+    {
+        return workers.size();
+    }
+
+    /**
+     * Estimates how many prefixes the workers can evaluate in a time budget.
+     * @param budgetMillis time budget, in milliseconds.
+     * @param spec rollouts to run for each prefix.
+     * @param prefixLength length of the prefixes.
+     * @return the number of prefixes (the number of workers if nothing has been measured yet).
+     */
+    public int maxPrefixes(long budgetMillis, Spec spec, int prefixLength)
+    {
+        if (msPerStep < 0)
+            return workers.size();
+        double perPrefix = msPerStep * spec.rollouts * Math.max(1, prefixLength + spec.depth);
+        return (int) Math.max(0, (budgetMillis - msPerTrip) / perPrefix) * workers.size();
+    }
+
+    /**
+     * Estimates how many rollouts of each prefix the workers can run in a time budget.
+     * @param budgetMillis time budget, in milliseconds.
+     * @param numPrefixes number of prefixes.
+     * @param steps steps of each rollout (prefix included).
+     * @return the number of rollouts per prefix (1 if nothing has been measured yet).
+     */
+    public int maxRollouts(long budgetMillis, int numPrefixes, int steps)
+    {
+        if (msPerStep < 0)
+            return 1;
+        double perRollout = msPerStep * Math.max(1, steps) * numPrefixes;
+        return (int) Math.max(0, (budgetMillis - msPerTrip) * workers.size() / perRollout);
+    }
+
+    /**
+     * Evaluates action prefixes from a state in the workers, splitting them among the workers
+     * that are not busy with a previous batch.
+     * @param state state the rollouts start from.
+     * @param playerID player whose actions are in the prefixes.
+     * @param prefixes actions of the player.
+     * @param spec rollouts to run for each prefix.
+     * @param budgetMillis time to wait for the answers, in milliseconds.
+     * @return the statistics of each prefix, null for those not evaluated in time.
+     */
+    public Stats[] evaluate(StateObservation state, int playerID, Types.ACTIONS[][] prefixes, Spec spec,
+                            long budgetMillis)
+    {
+        long deadline = System.currentTimeMillis() + budgetMillis;
+        Stats[] results = new Stats[prefixes.length];
+        if (game == null)
+            return results;
+
+        //Answers to previous batches that arrive now are discarded.
+        ArrayList<Worker> free = new ArrayList<Worker>();
+        for (Worker w : new ArrayList<Worker>(workers))
+        {
+            if (w.busy())
+                collect(w, System.currentTimeMillis(), null);
+            if (!w.busy())
+                free.add(w);
+        }
+        if (free.isEmpty() || prefixes.length == 0)
+            return results;
+
+        byte[] snapshot = state.snapshot();
+        long seed = ++seeds;
+        for (int k = 0; k < free.size(); k++)
+        {
+            Worker w = free.get(k);
+            int count = prefixes.length / free.size() + (k < prefixes.length % free.size() ? 1 : 0);
+            w.batch = new int[count];
+            w.steps = 0;
+            for (int j = 0; j < count; j++)
+            {
+                w.batch[j] = k + j * free.size();
+                w.steps += (long) spec.rollouts * (prefixes[w.batch[j]].length + spec.depth);
+            }
+            if (count == 0)
+                continue;
+            try
+            {
+                ByteArrayOutputStream msg = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(msg);
+                out.writeByte(RolloutWorker.ROLLOUT);
+                out.writeInt(w.sent + 1);
+                out.writeInt(playerID);
+                out.writeInt(snapshot.length);
+                out.write(snapshot);
+                out.writeLong(seed);
+                spec.write(out);
+                out.writeInt(count);
+                for (int i : w.batch)
+                {
+                    out.writeShort(prefixes[i].length);
+                    for (Types.ACTIONS a : prefixes[i])
+                        out.writeByte(a.ordinal());
+                }
+                w.sentAt = System.nanoTime();
+                send(w, msg);
+            } catch (IOException e)
+            {
+                drop(w, e.toString());
+            }
+        }
+
+        for (Worker w : free)
+            if (w.busy() && workers.contains(w))
+                collect(w, deadline, results);
+        return results;
+    }
+
+    /**
+     * Reads the answers of a worker until the one to its last request, or until a deadline.
+     * @param results where the statistics of the last request go (null to discard them).
+     */
+    private void collect(Worker w, long deadline, Stats[] results)
+    {
+        try
+        {
+            while (w.busy())
+            {
+                DataInputStream reply = receive(w, deadline);
+                if (reply == null)
+                    return;
+                byte type = reply.readByte();
+                int id = reply.readInt();
+                if (type == RolloutWorker.ERROR)
+                {
+                    System.out.println("RolloutCoordinator: worker error: " + reply.readUTF());
+                    w.answered = Math.max(w.answered, id);
+                    continue;
+                }
+                if (type != RolloutWorker.RESULT)
+                    continue;
+                w.answered = id;
+                if (id != w.sent || results == null)
+                    continue;
+
+                double tripMs = (System.nanoTime() - w.sentAt) / 1e6;
+                double computeMs = reply.readLong() / 1e6;
+                int n = reply.readInt();
+                for (int j = 0; j < n; j++)
+                    results[w.batch[j]] = Stats.read(reply);
+                if (w.steps > 0)
+                {
+                    double perStep = computeMs / w.steps;
+                    msPerStep = msPerStep < 0 ? perStep : (1 - ALPHA) * msPerStep + ALPHA * perStep;
+                    double lost = Math.max(0, tripMs - computeMs);
+                    msPerTrip = msPerTrip < 0 ? lost : (1 - ALPHA) * msPerTrip + ALPHA * lost;
+                }
+            }
+        } catch (IOException e)
+        {
+            drop(w, e.toString());
+        }
+    }
+
+    private void send(Worker w, ByteArrayOutputStream msg)
+    {
+        try
+        {
+            w.out.writeInt(msg.size());
+            msg.writeTo(w.out);
+            w.out.flush();
+            w.sent++;
+        } catch (IOException e)
+        {
+            drop(w, e.toString());
+        }
+    }
+
+    /**
+     * Receives a message from a worker.
+     * @return the message, or null if none arrived before the deadline (or the worker failed).
+     */
+    private DataInputStream receive(Worker w, long deadline) throws IOException
+    {
+        try
+        {
+            //Waiting for the first byte only, so a message is never read in part.
+            w.socket.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+            int first = w.in.read();
+            if (first < 0)
+                throw new IOException("connection closed");
+            w.socket.setSoTimeout(0);
+            int length = (first << 24) | (w.in.readUnsignedByte() << 16) | (w.in.readUnsignedShort());
+            byte[] frame = new byte[length];
+            w.in.readFully(frame);
+            return new DataInputStream(new ByteArrayInputStream(frame));
+        } catch (SocketTimeoutException e)
+        {
+            return null;
+        }
+    }
+
+    private void drop(Worker w, String reason)
+    {
+        if (workers.remove(w))
+        {
+            System.out.println("RolloutCoordinator: dropping worker (" + reason + ").");
+            try
+            {
+                w.socket.close();
+            } catch (IOException e)
+            {
+                //Already closed.
+            }
+        }
+    }
+
+    /**
+     * Disconnects the workers, and ends the processes launched.
+     */
+    public void close()
+    {
+        for (Worker w : new ArrayList<Worker>(workers))
+        {
+            try
+            {
+                w.socket.close();
+            } catch (IOException e)
+            {
+                //Already closed.
+            }
+        }
+        workers.clear();
+        for (Process p : processes)
+            p.destroy();
+        processes.clear();
+        if (defaultCoordinator == this)
+            defaultCoordinator = null;
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook)
+        {
+            try
+            {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e)
+            {
+                //The JVM is exiting: the hook runs anyway.
+            }
+        }
+        shutdownHook = null;
+    }
+}
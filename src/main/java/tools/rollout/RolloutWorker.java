@@ -0,0 +1,266 @@
+package tools.rollout;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+
+import core.competition.CompetitionParameters;
+import core.game.Game;
+import core.game.StateObservationMulti;
+import core.vgdl.VGDLFactory;
+import core.vgdl.VGDLParser;
+import core.vgdl.VGDLRegistry;
+import ontology.Types;
+import tracks.ArcadeMachine;
+
+/**
+ * Process that runs rollouts for a RolloutCoordinator. It connects to the coordinator, builds the
+ * game it is told to, and then, for each request, restores the state snapshot it receives and
+ * runs the rollouts requested from it, answering with their statistics.
+ *
+ * Usage: java tools.rollout.RolloutWorker host port
+ *
+ * Messages are frames (length, then body) whose body starts with its type:
+ *  - INIT (to the worker): request ID, game and level (descriptions or file names). Answered with
+ *    READY (request ID) or ERROR (request ID and reason).
+ *  - ROLLOUT (to the worker): request ID, player ID, snapshot, seed of the rollouts, rollout spec
+ *    and action prefixes. Answered with RESULT (request ID, time computing and statistics of each
+ *    prefix) or ERROR.
+ */
+public class RolloutWorker
+{
+    static final byte INIT = 1, ROLLOUT = 2, READY = 3, RESULT = 4, ERROR = 5;
+
+    /**
+     * State of the game, where the snapshots are restored.
+     */
+    private StateObservationMulti base;
+
+    /**
+     * Actions of the game, by ordinal.
+     */
+    private static final Types.ACTIONS[] ACTIONS = Types.ACTIONS.values();
+
+    /**
+     * Snapshots restored after building a game, to warm the worker up.
+     */
+    private static final int WARMUP_RESTORES = 100;
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2)
+        {
+            System.out.println("Usage: java tools.rollout.RolloutWorker host port");
+            return;
+        }
+        Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+        socket.setTcpNoDelay(true);
+        new RolloutWorker().serve(socket);
+    }
+
+    /**
+     * Answers the requests of a coordinator until it closes the connection.
+     * @param socket connection with the coordinator.
+     */
+    public void serve(Socket socket) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        try
+        {
+            while (true)
+            {
+                byte[] frame;
+                try
+                {
+                    frame = new byte[in.readInt()];
+                } catch (EOFException e)
+                {
+                    return;
+                }
+                in.readFully(frame);
+                DataInputStream msg = new DataInputStream(new ByteArrayInputStream(frame));
+                byte type = msg.readByte();
+                ByteArrayOutputStream reply = new ByteArrayOutputStream();
+                DataOutputStream r = new DataOutputStream(reply);
+                if (type == INIT)
+                    init(msg, r);
+                else if (type == ROLLOUT)
+                    rollout(msg, r);
+                else
+                {
+                    r.writeByte(ERROR);
+                    r.writeInt(-1);
+                    r.writeUTF("Unknown message " + type);
+                }
+                out.writeInt(reply.size());
+                reply.writeTo(out);
+                out.flush();
+            }
+        } finally
+        {
+            socket.close();
+        }
+    }
+
+    /**
+     * Builds the game of an INIT message.
+     */
+    private void init(DataInputStream msg, DataOutputStream reply) throws IOException
+    {
+        int requestId = msg.readInt();
+        String game = readString(msg);
+        String level = readString(msg);
+        try
+        {
+            VGDLFactory.GetInstance().init();
+            VGDLRegistry.GetInstance().init();
+            Game toPlay;
+            if (game.indexOf('\n') != -1)
+                toPlay = new VGDLParser().parseGameStr(game);
+            else
+                toPlay = new VGDLParser().parseGame(game);
+            if (level.indexOf('\n') != -1)
+                toPlay.buildLevelStr(level, 0);
+            else
+                toPlay.buildLevel(level, 0);
+            base = toPlay.getObservationMulti(0);
+
+            //The first requests would be slow otherwise.
+            ArcadeMachine.warmUp(toPlay, CompetitionParameters.WARMUP_TIME);
+            byte[] snapshot = base.snapshot();
+            for (int i = 0; i < WARMUP_RESTORES; i++)
+                base.copy().restore(snapshot);
+            reply.writeByte(READY);
+            reply.writeInt(requestId);
+        } catch (RuntimeException e)
+        {
+            base = null;
+            reply.writeByte(ERROR);
+            reply.writeInt(requestId);
+            reply.writeUTF(String.valueOf(e));
+        }
+    }
+
+    /**
+     * Runs the rollouts of a ROLLOUT message.
+     */
+    private void rollout(DataInputStream msg, DataOutputStream reply) throws IOException
+    {
+        int requestId = msg.readInt();
+        int playerID = msg.readInt();
+        byte[] snapshot = new byte[msg.readInt()];
+        msg.readFully(snapshot);
+        long seed = msg.readLong();
+        RolloutCoordinator.Spec spec = RolloutCoordinator.Spec.read(msg);
+        Types.ACTIONS[][] prefixes = new Types.ACTIONS[msg.readInt()][];
+        for (int i = 0; i < prefixes.length; i++)
+        {
+            prefixes[i] = new Types.ACTIONS[msg.readShort()];
+            for (int j = 0; j < prefixes[i].length; j++)
+                prefixes[i][j] = ACTIONS[msg.readByte()];
+        }
+
+        long start = System.nanoTime();
+        RolloutCoordinator.Stats[] stats;
+        try
+        {
+            if (base == null)
+                throw new IllegalStateException("no game");
+            StateObservationMulti root = base.copy();
+            root.restore(snapshot);
+            stats = run(root, playerID, prefixes, spec, seed);
+        } catch (RuntimeException e)
+        {
+            reply.writeByte(ERROR);
+            reply.writeInt(requestId);
+            reply.writeUTF(String.valueOf(e));
+            return;
+        }
+
+        reply.writeByte(RESULT);
+        reply.writeInt(requestId);
+        reply.writeLong(System.nanoTime() - start);
+        reply.writeInt(stats.length);
+        for (RolloutCoordinator.Stats s : stats)
+            s.write(reply);
+    }
+
+    /**
+     * Runs the rollouts of each prefix from a state: the actions of the prefix, and then random
+     * actions (for all players) up to the depth of the spec.
+     * @param root state the rollouts start from.
+     * @param playerID player whose actions are in the prefixes and whose value is measured.
+     * @param prefixes actions of the player.
+     * @param spec rollouts to run.
+     * @param seed seed of the random actions of the rollouts.
+     * @return the statistics of the rollouts of each prefix.
+     */
+    public static RolloutCoordinator.Stats[] run(StateObservationMulti root, int playerID, Types.ACTIONS[][] prefixes,
+                                                 RolloutCoordinator.Spec spec, long seed)
+    {
+        Random rnd = new Random(seed);
+        int numPlayers = root.getNoPlayers();
+        Types.ACTIONS[] acts = new Types.ACTIONS[numPlayers];
+        RolloutCoordinator.Stats[] stats = new RolloutCoordinator.Stats[prefixes.length];
+        for (int i = 0; i < prefixes.length; i++)
+        {
+            stats[i] = new RolloutCoordinator.Stats();
+            for (int k = 0; k < spec.rollouts; k++)
+            {
+                StateObservationMulti st = root.copy();
+                st.setNewSeed(rnd.nextInt());
+                int length = prefixes[i].length + spec.depth;
+                int depth = 0;
+                while (depth < length && !st.isGameOver())
+                {
+                    for (int p = 0; p < numPlayers; p++)
+                    {
+                        if (p == playerID && depth < prefixes[i].length)
+                            acts[p] = prefixes[i][depth];
+                        else
+                        {
+                            ArrayList<Types.ACTIONS> available = st.getAvailableActions(p);
+                            acts[p] = available.isEmpty() ? Types.ACTIONS.ACTION_NIL
+                                    : available.get(rnd.nextInt(available.size()));
+                        }
+                    }
+                    st.advance(acts);
+                    depth++;
+                }
+
+                Types.WINNER winner = st.getMultiGameWinner()[playerID];
+                double value = st.getGameScore(playerID);
+                if (winner == Types.WINNER.PLAYER_WINS)
+                    value = spec.replaceScore ? spec.winValue : value + spec.winValue;
+                else if (winner == Types.WINNER.PLAYER_LOSES)
+                    value = spec.replaceScore ? spec.lossValue : value + spec.lossValue;
+                stats[i].add(value, winner, depth);
+            }
+        }
+        return stats;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
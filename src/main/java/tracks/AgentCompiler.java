@@ -0,0 +1,303 @@
+package tracks;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import core.competition.CompetitionParameters;
+
+/**
+ * Compiles the source code of agents submitted as strings, keeping the results in a bounded
+ * cache indexed by a hash of the source. The same source submitted again (for another level or
+ * seed) reuses its bytecode and does not go through javac. Compilation failures are cached too.
+ *
+ * All compilations run, one at a time, in a background thread that shares a single compiler and
+ * file manager. compileAsync() lets callers start compiling before they need the agent.
+ *
+ * The cache keeps bytecode, not classes: each agent is loaded by a new class loader, so static
+ * state of an agent does not leak from one game to the next.
+ */
+public class AgentCompiler {
+
+    /**
+     * Error (or warning) reported by the compiler.
+     */
+    public static class CompileError {
+        public String kind;
+        public long line;
+        public long column;
+        public String message;
+        public String source;
+
+        public String toString() {
+            return kind + " at line " + line + ", column " + column + ": " + message;
+        }
+    }
+
+    /**
+     * Result of compiling an agent. When it succeeded, holds the bytecode of all its classes.
+     */
+    public static class CompiledAgent {
+        public String className;
+        public boolean success;
+        public List<CompileError> errors = new ArrayList<>();
+        public long compileTimeMillis;
+        Map<String, BytecodeJavaFileObject> byteCode;
+
+        /**
+         * Loads the class of the agent, with a new class loader.
+         * @return the class of the agent.
+         * @throws ClassNotFoundException if the agent did not compile.
+         */
+        public Class<?> loadClass() throws ClassNotFoundException {
+            if (!success)
+                throw new ClassNotFoundException(className + " did not compile.");
+            return new InMemoryClassLoader(byteCode).loadClass(className);
+        }
+    }
+
+    /**
+     * Compilations, finished or in progress, by hash of the class name and source. Least recently
+     * used entries are discarded when there are more than CompetitionParameters.AGENT_CACHE_SIZE.
+     */
+    private static final Map<String, Future<CompiledAgent>> cache =
+            new LinkedHashMap<String, Future<CompiledAgent>>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, Future<CompiledAgent>> eldest) {
+                    return size() > CompetitionParameters.AGENT_CACHE_SIZE;
+                }
+            };
+
+    /**
+     * Thread where agents are compiled.
+     */
+    private static final ExecutorService compilerThread = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "AgentCompiler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Compiler and file manager, created with the first compilation and only used from compilerThread.
+     */
+    private static JavaCompiler compiler;
+    private static StandardJavaFileManager standardFileManager;
+
+    /**
+     * Starts compiling an agent, unless it is in the cache already.
+     * @param className full name (with package) of the class of the agent.
+     * @param source source code of the agent.
+     * @return the compilation, finished or in progress.
+     */
+    public static Future<CompiledAgent> compileAsync(final String className, final String source) {
+        String key = hash(className, source);
+        synchronized (cache) {
+            Future<CompiledAgent> compilation = cache.get(key);
+            if (compilation == null) {
+                compilation = compilerThread.submit(() -> compile(className, source));
+                cache.put(key, compilation);
+            }
+            return compilation;
+        }
+    }
+
+    /**
+     * Compiles an agent, or takes it from the cache. Waits until the compilation finishes.
+     * @param className full name (with package) of the class of the agent.
+     * @param source source code of the agent.
+     * @return the compiled agent, that may have failed to compile.
+     */
+    public static CompiledAgent getCompiledAgent(String className, String source) {
+        try {
+            return compileAsync(className, source).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Removes all compiled agents from the cache.
+     */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Runs javac on the source of an agent. Called from compilerThread.
+     */
+    private static CompiledAgent compile(String className, String source) {
+        CompiledAgent agent = new CompiledAgent();
+        agent.className = className;
+        long start = System.currentTimeMillis();
+
+        if (compiler == null) {
+            compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null) {
+                agent.errors.add(error("ERROR", -1, -1, "Java compiler not found, a JDK (not a JRE) is required."));
+                return failed(agent);
+            }
+            standardFileManager = compiler.getStandardFileManager(null, null, null);
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        InMemoryFileManager fileManager = new InMemoryFileManager(standardFileManager);
+        JavaFileObject sourceFile = new StringJavaFileObject(className, source);
+
+        try {
+            agent.success = compiler.getTask(null, fileManager, diagnostics, null, null,
+                    Collections.singletonList(sourceFile)).call();
+        } catch (RuntimeException e) {
+            agent.errors.add(error("ERROR", -1, -1, e.toString()));
+        }
+
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+            CompileError err = error(d.getKind().toString(), d.getLineNumber(), d.getColumnNumber(), d.getMessage(null));
+            if (d.getSource() != null)
+                err.source = d.getSource().getName();
+            agent.errors.add(err);
+        }
+        agent.compileTimeMillis = System.currentTimeMillis() - start;
+
+        if (!agent.success)
+            return failed(agent);
+        agent.byteCode = fileManager.getByteCodeMap();
+        return agent;
+    }
+
+    /**
+     * Marks a compilation as failed. It stays in the cache, so the same source is not compiled again.
+     */
+    private static CompiledAgent failed(CompiledAgent agent) {
+        agent.success = false;
+        return agent;
+    }
+
+    private static CompileError error(String kind, long line, long column, String message) {
+        CompileError err = new CompileError();
+        err.kind = kind;
+        err.line = line;
+        err.column = column;
+        err.message = message;
+        return err;
+    }
+
+    /**
+     * SHA-256 of the class name and the source of an agent, in hexadecimal.
+     */
+    private static String hash(String className, String source) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(className.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest())
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Java source held in a string.
+     */
+    static class StringJavaFileObject extends SimpleJavaFileObject {
+        private final String code;
+
+        StringJavaFileObject(String name, String code) {
+            super(URI.create("string:///" + name.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+
+    /**
+     * Bytecode of a compiled class, kept in memory.
+     */
+    static class BytecodeJavaFileObject extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        BytecodeJavaFileObject(String name, Kind kind) {
+            super(URI.create("memory:///" + name.replace('.', '/') + kind.extension), kind);
+        }
+
+        byte[] getBytes() {
+            return outputStream.toByteArray();
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return outputStream;
+        }
+    }
+
+    /**
+     * File manager that keeps the compiled classes in memory, by class name.
+     */
+    static class InMemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+        private final Map<String, BytecodeJavaFileObject> byteCodeMap = new HashMap<>();
+
+        InMemoryFileManager(JavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        public Map<String, BytecodeJavaFileObject> getByteCodeMap() {
+            return byteCodeMap;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+            if (kind == JavaFileObject.Kind.CLASS) {
+                BytecodeJavaFileObject fileObject = new BytecodeJavaFileObject(className, kind);
+                byteCodeMap.put(className, fileObject);
+                return fileObject;
+            }
+            return super.getJavaFileForOutput(location, className, kind, sibling);
+        }
+    }
+
+    /**
+     * Class loader that defines classes from bytecode kept in memory.
+     */
+    static class InMemoryClassLoader extends ClassLoader {
+        private final Map<String, BytecodeJavaFileObject> byteCodeMap;
+
+        InMemoryClassLoader(Map<String, BytecodeJavaFileObject> byteCodeMap) {
+            this.byteCodeMap = byteCodeMap;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            BytecodeJavaFileObject fileObject = byteCodeMap.get(name);
+            if (fileObject != null) {
+                byte[] bytes = fileObject.getBytes();
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+            return super.findClass(name);
+        }
+    }
+}
@@ -4,7 +4,6 @@ import java.io.*;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Random;
 
 import core.vgdl.VGDLFactory;
@@ -15,13 +14,15 @@ import core.game.Game;
 import core.game.StateObservation;
 import core.game.StateObservationMulti;
 import core.player.AbstractMultiPlayer;
+import core.player.AgentWatchdog;
 import core.player.AbstractPlayer;
 import core.player.Player;
 import ontology.Types;
 import tools.ElapsedCpuTimer;
 import tools.StatSummary;
+import tools.TrajectoryRecorder;
+import tools.rollout.RolloutCoordinator;
 
-import javax.tools.*;
 
 /**
  * Created with IntelliJ IDEA. User: Diego Date: 06/11/13 Time: 11:24 This is a
@@ -30,6 +31,37 @@ import javax.tools.*;
 public class ArcadeMachine {
     public static final boolean VERBOSE = false;
 
+    /**
+     * Recorder of the trajectories of the games run with runOneGame(), runOneGameStr() and
+     * runOneGameStrWithAgent() (see TrajectoryRecorder), or null to not record them.
+     */
+    public static TrajectoryRecorder trajectoryRecorder = null;
+
+    /**
+     * Makes the workers of the default RolloutCoordinator build the game about to be played,
+     * launching CompetitionParameters.ROLLOUT_WORKERS local workers first if there is no default
+     * coordinator. If the workers fail, the agents run their rollouts locally from then on.
+     * @param game_file game description, or file with it.
+     * @param level_file level description, or file with it.
+     */
+    private static void prepareRolloutWorkers(String game_file, String level_file)
+    {
+        RolloutCoordinator coordinator = RolloutCoordinator.getDefault();
+        try
+        {
+            if (coordinator == null && CompetitionParameters.ROLLOUT_WORKERS > 0)
+                coordinator = RolloutCoordinator.launchDefault(CompetitionParameters.ROLLOUT_WORKERS);
+            if (coordinator != null)
+                coordinator.setGame(game_file, level_file);
+        } catch (IOException e)
+        {
+            System.out.println("Rollout workers disabled: " + e.getMessage());
+            CompetitionParameters.ROLLOUT_WORKERS = 0;
+            if (coordinator != null)
+                coordinator.close();
+        }
+    }
+
     /**
      * Reads and launches a game for a human to be played. Graphics always on.
      * 
@@ -100,6 +132,8 @@ public class ArcadeMachine {
 		// First, we create the game to be played..
 		Game toPlay = new VGDLParser().parseGame(game_file);
 		toPlay.buildLevel(level_file, randomSeed);
+		toPlay.recordTrajectory(trajectoryRecorder, game_file, level_file);
+		prepareRolloutWorkers(game_file, level_file);
 
 		// Warm the game up.
 		ArcadeMachine.warmUp(toPlay, CompetitionParameters.WARMUP_TIME);
@@ -218,6 +252,8 @@ public class ArcadeMachine {
 		// First, we create the game to be played..
 		Game toPlay = new VGDLParser().parseGameStr(game_file);
 		toPlay.buildLevelStr(level_file, randomSeed);
+		toPlay.recordTrajectory(trajectoryRecorder, game_file, level_file);
+		prepareRolloutWorkers(game_file, level_file);
 
 		// Warm the game up.
 		ArcadeMachine.warmUp(toPlay, CompetitionParameters.WARMUP_TIME);
@@ -312,9 +348,14 @@ public class ArcadeMachine {
 			System.out.println(" * WARNING: Time limitations based on WALL TIME on Windows * ");
 		}
 
+		// Compile the agent while the game is created and warmed up.
+		precompileStringAgent(userCode);
+
 		// First, we create the game to be played..
 		Game toPlay = new VGDLParser().parseGameStr(game_file);
 		toPlay.buildLevelStr(level_file, randomSeed);
+		toPlay.recordTrajectory(trajectoryRecorder, game_file, level_file);
+		prepareRolloutWorkers(game_file, level_file);
 
 		// Warm the game up.
 		ArcadeMachine.warmUp(toPlay, CompetitionParameters.WARMUP_TIME);
@@ -584,71 +625,65 @@ public class ArcadeMachine {
 		return result;
     }
 
-	public static AbstractPlayer createStringAgent(String userCode, String actionFile, StateObservation so,
-											int randomSeed, boolean isHuman) throws IOException {
-		// 1. 模拟从前端接收到的用户代码字符串
-		// 假设我们约定用户提交的类名为 "UserSolution"
-		// 并且需要实现一个名为 "solve" 的方法，该方法接收一个字符串参数并返回一个整数。
-
-		// 预计的完整类名 (包含包名)
-		final String fullClassName = "tracks.singlePlayer.simple.selfDefined.Agent";
-
-		// 获取系统 Java 编译器
-		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-		if (compiler == null) {
-			System.err.println("找不到 Java 编译器。请确保您使用的是 JDK 而不是 JRE。");
-			return null;
-		}
-
-		// 用于收集编译错误的诊断监听器
-		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
-
-		// 用于管理编译后字节码的文件管理器
-		InMemoryFileManager fileManager = new InMemoryFileManager(compiler.getStandardFileManager(null, null, null));
+	/**
+	 * Full name of the class of the agents submitted as source code.
+	 */
+	public static final String STRING_AGENT_CLASS = "tracks.singlePlayer.simple.selfDefined.Agent";
 
-		// 准备要编译的源文件对象
-		JavaFileObject sourceFile = new StringJavaFileObject(fullClassName, userCode);
-		Iterable<? extends JavaFileObject> compilationUnits = Collections.singletonList(sourceFile);
+	/**
+	 * Starts compiling an agent submitted as source code, so it is ready (or closer to it)
+	 * when createStringAgent() is called. Sources already compiled are not compiled again.
+	 *
+	 * @param userCode
+	 *            source code of the agent, with class STRING_AGENT_CLASS.
+	 */
+	public static void precompileStringAgent(String userCode) {
+		AgentCompiler.compileAsync(STRING_AGENT_CLASS, userCode);
+	}
 
-		// 2. 执行编译任务
-		System.out.println("开始动态编译...");
-		JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, null, null,
-				compilationUnits);
-		boolean success = task.call();
+	/**
+	 * Creates a player from its source code. The compiled code is cached by AgentCompiler, so
+	 * the same source is only compiled once.
+	 *
+	 * @param userCode
+	 *            source code of the agent, with class STRING_AGENT_CLASS.
+	 * @param actionFile
+	 *            filename of the file where the actions of this player should be recorded.
+	 * @param so
+	 *            Initial state of the game to be played by the agent.
+	 * @param randomSeed
+	 *            Seed for the sampleRandom generator of the game to be played.
+	 * @param isHuman
+	 *            Indicates if the player is human
+	 * @return the player, or null if it could not be compiled or created.
+	 */
+	public static AbstractPlayer createStringAgent(String userCode, String actionFile, StateObservation so,
+											int randomSeed, boolean isHuman) throws IOException {
+		AgentCompiler.CompiledAgent agent = AgentCompiler.getCompiledAgent(STRING_AGENT_CLASS, userCode);
 
-		if (success) {
-			System.out.println("编译成功！");
+		if (agent.success) {
 			try {
-				// Determine the time due for the controller creation.
-				ElapsedCpuTimer ect = new ElapsedCpuTimer();
-				ect.setMaxTimeMillis(CompetitionParameters.INITIALIZATION_TIME);
-				// 3. 创建自定义类加载器来加载内存中的字节码
-				InMemoryClassLoader classLoader = new InMemoryClassLoader(fileManager.getByteCodeMap());
-
-				// 4. 加载用户类
-				System.out.println("正在加载类: " + fullClassName);
-				Class<?> userClass = classLoader.loadClass(fullClassName);
-
-				// 5. 通过反射创建实例并调用方法
-				System.out.println("正在创建实例...");
-				// Object instance = userClass.getDeclaredConstructor().newInstance(so, ect.copy());
-                
-                // 获取带参数的构造函数
-                Constructor<?> constructor = userClass.getDeclaredConstructor(StateObservation.class, ElapsedCpuTimer.class);
-                Object instance = constructor.newInstance(so, ect.copy());
-                return (AbstractPlayer) instance;
+				// Each agent gets its own class loader, so static fields start afresh.
+				Class<?> userClass = agent.loadClass();
+				Constructor<?> constructor = userClass.getDeclaredConstructor(StateObservation.class, ElapsedCpuTimer.class);
+
+				// Call the constructor on a thread of its own, with the time due for the controller creation.
+				AgentWatchdog.Result<Object> created = AgentWatchdog.<Object, ReflectiveOperationException>call(
+						t -> constructor.newInstance(so, t),
+						CompetitionParameters.INITIALIZATION_TIME, CompetitionParameters.INITIALIZATION_TIME);
+				if (CompetitionParameters.TIME_CONSTRAINED && created.exceededMaxTime()) {
+					System.out.println("Controller initialization time out (" + -created.remainingTimeMillis() + ").");
+					return null;
+				}
+				return (AbstractPlayer) created.value;
 			} catch (Exception e) {
 				System.err.println("执行用户代码时出错:");
 				e.printStackTrace();
 			}
 		} else {
 			System.err.println("编译失败！");
-			// 6. 如果编译失败，打印详细错误
-			for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
-				System.err.format("错误: %s\n行号: %d\n源码: %s\n",
-						diagnostic.getMessage(null),
-						diagnostic.getLineNumber(),
-						diagnostic.getSource().getCharContent(true));
+			for (AgentCompiler.CompileError error : agent.errors) {
+				System.err.format("错误: %s\n行号: %d\n源码: %s\n", error.message, error.line, error.source);
 			}
 		}
 		return null;
@@ -755,23 +790,18 @@ public class ArcadeMachine {
         Player player = null;
         try {
 
-            // Determine the time due for the controller creation.
-            ElapsedCpuTimer ect = new ElapsedCpuTimer();
-            ect.setMaxTimeMillis(CompetitionParameters.INITIALIZATION_TIME);
-
+            Constructor controllerArgsConstructor;
+            Object[] constructorArgs;
             if (so.getNoPlayers() < 2) { // single player
 				// Get the class and the constructor with arguments
 				// (StateObservation, long).
 				Class<? extends AbstractPlayer> controllerClass = Class.forName(playerName)
 					.asSubclass(AbstractPlayer.class);
 				Class[] gameArgClass = new Class[] { StateObservation.class, ElapsedCpuTimer.class };
-				Constructor controllerArgsConstructor = controllerClass.getConstructor(gameArgClass);
+				controllerArgsConstructor = controllerClass.getConstructor(gameArgClass);
 
-				// Call the constructor with the appropriate parameters.
-				Object[] constructorArgs = new Object[] { so, ect.copy() };
-
-				player = (AbstractPlayer) controllerArgsConstructor.newInstance(constructorArgs);
-				player.setPlayerID(playerID);
+				// The appropriate parameters (the timer is set by the call).
+				constructorArgs = new Object[] { so, null };
 
             } else { // multi player
 				// Get the class and the constructor with arguments
@@ -779,19 +809,23 @@ public class ArcadeMachine {
 				Class<? extends AbstractMultiPlayer> controllerClass = Class.forName(playerName)
 					.asSubclass(AbstractMultiPlayer.class);
 				Class[] gameArgClass = new Class[] { StateObservationMulti.class, ElapsedCpuTimer.class, int.class };
-				Constructor controllerArgsConstructor = controllerClass.getConstructor(gameArgClass);
-
-				// Call the constructor with the appropriate parameters.
-				Object[] constructorArgs = new Object[] { (StateObservationMulti) so.copy(), ect.copy(), playerID };
+				controllerArgsConstructor = controllerClass.getConstructor(gameArgClass);
 
-				player = (AbstractMultiPlayer) controllerArgsConstructor.newInstance(constructorArgs);
-				player.setPlayerID(playerID);
+				// The appropriate parameters (the timer is set by the call).
+				constructorArgs = new Object[] { (StateObservationMulti) so.copy(), null, playerID };
             }
 
+            // Call the constructor on a thread of its own, with the time due for the controller creation.
+            final Constructor constructor = controllerArgsConstructor;
+            AgentWatchdog.Result<Object> created = AgentWatchdog.<Object, ReflectiveOperationException>call(t -> {
+				constructorArgs[1] = t;
+				return constructor.newInstance(constructorArgs);
+            }, CompetitionParameters.INITIALIZATION_TIME, CompetitionParameters.INITIALIZATION_TIME);
+
             // Check if we returned on time, and act in consequence.
-            long timeTaken = ect.elapsedMillis();
-            if (CompetitionParameters.TIME_CONSTRAINED && ect.exceededMaxTime()) {
-				long exceeded = -ect.remainingTimeMillis();
+            long timeTaken = created.elapsedMillis();
+            if (CompetitionParameters.TIME_CONSTRAINED && created.exceededMaxTime()) {
+				long exceeded = -created.remainingTimeMillis();
 				System.out.println("Controller initialization time out (" + exceeded + ").");
 
 				return null;
@@ -800,6 +834,9 @@ public class ArcadeMachine {
 					System.out.println("Controller initialization time: " + timeTaken + " ms.");
             }
 
+            player = (Player) created.value;
+            player.setPlayerID(playerID);
+
             // This code can throw many exceptions (no time related):
 
         } catch (NoSuchMethodException e) {
@@ -825,6 +862,10 @@ public class ArcadeMachine {
             System.err.println("Exception calling the constructor " + playerName + "(StateObservation,long):");
             e.printStackTrace();
             System.exit(1);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Exception creating " + playerName + ":");
+            e.printStackTrace();
+            System.exit(1);
         }
 
         // System.out.println("Controller created. " + player.getPlayerID());
@@ -948,7 +989,7 @@ public class ArcadeMachine {
         }
 
         // Reset input to delete warm-up effects.
-        Game.ki.resetAll();
+        toPlay.getKeyHandler().resetAll();
     }
 
     /**
@@ -1021,22 +1062,35 @@ public class ArcadeMachine {
 
 	    boolean noTeardownTimeout = true;
         for (Player p : players) {
-            // Determine the time due for the controller close up.
-            ElapsedCpuTimer ect = new ElapsedCpuTimer();
-            ect.setMaxTimeMillis(CompetitionParameters.TEAR_DOWN_TIME);
-
-            // Inform about the result and the final game state.
-            if (toPlay.no_players > 1)
-                p.resultMulti(toPlay.getObservationMulti(p.getPlayerID()).copy(), ect);
-            else
-                p.result(toPlay.getObservation(), ect);
+            // A controller that did not reply in time may still be running: it is not called again.
+            if (p.isUnresponsive())
+                continue;
+
+            // Inform about the result and the final game state, on the thread of the controller
+            // and with the time due for the controller close up.
+            AgentWatchdog.Result<Object> call;
+            if (toPlay.no_players > 1) {
+                StateObservationMulti so = toPlay.getObservationMulti(p.getPlayerID()).copy();
+                call = AgentWatchdog.call(p, t -> {
+                    p.resultMulti(so, t);
+                    return null;
+                }, CompetitionParameters.TEAR_DOWN_TIME, CompetitionParameters.TEAR_DOWN_TIME);
+            } else {
+                StateObservation so = toPlay.getObservation();
+                call = AgentWatchdog.call(p, t -> {
+                    p.result(so, t);
+                    return null;
+                }, CompetitionParameters.TEAR_DOWN_TIME, CompetitionParameters.TEAR_DOWN_TIME);
+            }
 
             // Check if we returned on time, and act in consequence.
-            long timeTaken = ect.elapsedMillis();
-            if (ect.exceededMaxTime()) {
-	            long exceeded = -ect.remainingTimeMillis();
+            long timeTaken = call.elapsedMillis();
+            if (call.exceededMaxTime()) {
+	            long exceeded = -call.remainingTimeMillis();
 	            System.out.println("Controller tear down time out (" + exceeded + ").");
 
+	            if (call.timedOut)
+	                p.setUnresponsive();
 	            toPlay.disqualify(p.getPlayerID());
 	            noTeardownTimeout = false;
             }
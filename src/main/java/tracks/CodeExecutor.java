@@ -1,14 +1,9 @@
 package tracks;
 
 import javax.tools.*;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.lang.reflect.Method;
-import java.net.URI;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * 主执行类，演示如何动态编译和执行一个字符串形式的 Java 代码。
@@ -44,10 +39,10 @@ public class CodeExecutor {
         DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
 
         // 用于管理编译后字节码的文件管理器
-        InMemoryFileManager fileManager = new InMemoryFileManager(compiler.getStandardFileManager(null, null, null));
+        AgentCompiler.InMemoryFileManager fileManager = new AgentCompiler.InMemoryFileManager(compiler.getStandardFileManager(null, null, null));
 
         // 准备要编译的源文件对象
-        JavaFileObject sourceFile = new StringJavaFileObject(fullClassName, userCode);
+        JavaFileObject sourceFile = new AgentCompiler.StringJavaFileObject(fullClassName, userCode);
         Iterable<? extends JavaFileObject> compilationUnits = Collections.singletonList(sourceFile);
 
         // 2. 执行编译任务
@@ -59,7 +54,7 @@ public class CodeExecutor {
             System.out.println("编译成功！");
             try {
                 // 3. 创建自定义类加载器来加载内存中的字节码
-                InMemoryClassLoader classLoader = new InMemoryClassLoader(fileManager.getByteCodeMap());
+                AgentCompiler.InMemoryClassLoader classLoader = new AgentCompiler.InMemoryClassLoader(fileManager.getByteCodeMap());
 
                 // 4. 加载用户类
                 System.out.println("正在加载类: " + fullClassName);
@@ -95,87 +90,3 @@ public class CodeExecutor {
         }
     }
 }
-
-/**
- * 用于从字符串读取 Java 源代码的 JavaFileObject 实现。
- */
-class StringJavaFileObject extends SimpleJavaFileObject {
-    private final String code;
-
-    StringJavaFileObject(String name, String code) {
-        super(URI.create("string:///" + name.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
-        this.code = code;
-    }
-
-    @Override
-    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
-        return code;
-    }
-}
-
-/**
- * 用于将编译后的字节码保存在内存中的 JavaFileObject 实现。
- */
-class BytecodeJavaFileObject extends SimpleJavaFileObject {
-    private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-
-    BytecodeJavaFileObject(String name, Kind kind) {
-        super(URI.create("memory:///" + name.replace('.', '/') + kind.extension), kind);
-    }
-
-    byte[] getBytes() {
-        return outputStream.toByteArray();
-    }
-
-    @Override
-    public OutputStream openOutputStream() {
-        return outputStream;
-    }
-}
-
-/**
- * 自定义文件管理器，用于管理内存中的源文件和字节码。
- */
-class InMemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
-    private final Map<String, BytecodeJavaFileObject> byteCodeMap = new HashMap<>();
-
-    InMemoryFileManager(JavaFileManager fileManager) {
-        super(fileManager);
-    }
-
-    public Map<String, BytecodeJavaFileObject> getByteCodeMap() {
-        return byteCodeMap;
-    }
-
-    @Override
-    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
-        if (kind == JavaFileObject.Kind.CLASS) {
-            BytecodeJavaFileObject fileObject = new BytecodeJavaFileObject(className, kind);
-            byteCodeMap.put(className, fileObject);
-            return fileObject;
-        }
-        return super.getJavaFileForOutput(location, className, kind, sibling);
-    }
-}
-
-/**
- * 自定义类加载器，从内存中的字节码加载类。
- */
-class InMemoryClassLoader extends ClassLoader {
-    private final Map<String, BytecodeJavaFileObject> byteCodeMap;
-
-    InMemoryClassLoader(Map<String, BytecodeJavaFileObject> byteCodeMap) {
-        this.byteCodeMap = byteCodeMap;
-    }
-
-    @Override
-    protected Class<?> findClass(String name) throws ClassNotFoundException {
-        BytecodeJavaFileObject fileObject = byteCodeMap.get(name);
-        if (fileObject != null) {
-            byte[] bytes = fileObject.getBytes();
-            // defineClass 是将字节码转换为 Class 对象的关键方法
-            return defineClass(name, bytes, 0, bytes.length);
-        }
-        return super.findClass(name);
-    }
-}
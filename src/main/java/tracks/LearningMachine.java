@@ -12,6 +12,12 @@ import core.vgdl.VGDLRegistry;
 import ontology.Types;
 import tools.ElapsedCpuTimer;
 import tools.StatSummary;
+import tools.com.google.gson.Gson;
+import tracks.singleLearning.utils.Comm;
+import tracks.singleLearning.utils.CommServer;
+import tracks.singleLearning.utils.PipeComm;
+import tracks.singleLearning.utils.SocketComm;
+import tracks.singleLearning.utils.VecEnv;
 
 import java.io.IOException;
 import java.util.Random;
@@ -70,6 +76,98 @@ public class LearningMachine {
         runGames(game_file, level_files, 1, player, actionFiles, visuals);
     }
 
+    /**
+     * Serves a vectorized environment (see VecEnv) to a client. After the communication is
+     * started, the server sends the JSON of the VecStep obtained by resetting all environments, and
+     * then answers every message of the client with the JSON of a new VecStep:
+     *  "STEP a0 a1 ... aN-1": advances all environments, ai being the index of the action of
+     *                         environment i in its list of available actions.
+     *  "RESET": starts new episodes in all environments.
+     *  "ACTIONS i": list of the available actions of environment i (JSON array of action names).
+     *  "FINISH": closes the environments and the communication.
+     *
+     * @param game_files game description file of each environment.
+     * @param level_files level file of each environment.
+     * @param cmd  array with name of the script file to run for the client, plus agent and port
+     * @param numThreads number of worker threads that step the environments.
+     * @param randomSeed seed for the episodes of the environments.
+     */
+    public static void runVecEnv(String[] game_files, String[] level_files, String[] cmd,
+                                 int numThreads, int randomSeed) throws IOException {
+        CompetitionParameters.IS_LEARNING = true;
+        VecEnv env = new VecEnv(game_files, level_files, numThreads, randomSeed);
+        if (CompetitionParameters.LEARNING_OBSERVATION_TENSOR)
+            env.enableObservationTensors();
+
+        Process client = startClient(cmd);
+        Comm comm = CompetitionParameters.USE_SOCKETS ? new SocketComm(cmd[2]) : new PipeComm(client);
+        serveVecEnv(env, comm);
+    }
+
+    /**
+     * Hosts many learning sessions in this process (see CommServer). Each client that connects to the
+     * port gets a vectorized environment of its own, with one game, and is served as in runVecEnv.
+     * Game i % game_files.length is given to the i-th client. Runs until the process is stopped.
+     *
+     * @param game_files game description files to give to the sessions.
+     * @param level_files level file of each game.
+     * @param port port where the clients connect.
+     * @param maxSessions maximum number of sessions at the same time.
+     * @param randomSeed seed for the episodes of the environments (the session number is added).
+     */
+    public static void serveVecEnvSessions(final String[] game_files, final String[] level_files, int port,
+                                           int maxSessions, final int randomSeed) throws IOException {
+        CompetitionParameters.IS_LEARNING = true;
+        CommServer server = new CommServer(port, maxSessions, (comm, sessionId) -> {
+            int g = sessionId % game_files.length;
+            VecEnv env = new VecEnv(new String[]{game_files[g]}, new String[]{level_files[g]}, 1, randomSeed + sessionId);
+            if (CompetitionParameters.LEARNING_OBSERVATION_TENSOR)
+                env.enableObservationTensors();
+            System.out.println("[SESSION] " + sessionId + " playing " + game_files[g]);
+            serveVecEnv(env, comm);
+        });
+        System.out.println("[SERVER] Listening on port " + server.getPort());
+        server.run();
+    }
+
+    /**
+     * Serves a vectorized environment to a client through a communication channel, until the client
+     * finishes. See runVecEnv for the protocol.
+     * @param env environment to serve. It is closed at the end.
+     * @param comm communication with the client.
+     */
+    private static void serveVecEnv(VecEnv env, Comm comm) throws IOException {
+        if (!comm.startComm()) {
+            env.close();
+            return;
+        }
+
+        Gson gson = new Gson();
+        comm.commSend(gson.toJson(env.reset()));
+
+        String msg = comm.commRecv();
+        while (msg != null && !msg.equals("FINISH")) {
+            String[] tokens = msg.trim().split(" ");
+            if (tokens[0].equals("STEP")) {
+                int[] actions = new int[env.getNumEnvs()];
+                for (int i = 0; i < actions.length && i + 1 < tokens.length; i++)
+                    actions[i] = Integer.parseInt(tokens[i + 1]);
+                comm.commSend(gson.toJson(env.step(actions)));
+            } else if (tokens[0].equals("RESET")) {
+                comm.commSend(gson.toJson(env.reset()));
+            } else if (tokens[0].equals("ACTIONS") && tokens.length > 1) {
+                comm.commSend(gson.toJson(env.getAvailableActions(Integer.parseInt(tokens[1]))));
+            } else {
+                System.out.println("VecEnv: unknown message " + msg);
+                comm.commSend("UNKNOWN");
+            }
+            msg = comm.commRecv();
+        }
+
+        env.close();
+        comm.endComm();
+    }
+
     /**
      * Play a given level of a given game once using a given player
      * @param player
@@ -85,6 +183,8 @@ public class LearningMachine {
                                      boolean visuals, int randomSeed) throws IOException {
         //Create the game.
         Game toPlay = new VGDLParser().parseGame(game_file);
+        if (CompetitionParameters.LEARNING_OBSERVATION_TENSOR)
+            toPlay.enableObservationTensor();
         toPlay.buildLevel(level_file, randomSeed);
 
         //Init the player for the game.
@@ -136,6 +236,8 @@ public class LearningMachine {
         }
 
         Game toPlay = new VGDLParser().parseGame(game_file);
+        if (CompetitionParameters.LEARNING_OBSERVATION_TENSOR)
+            toPlay.enableObservationTensor();
         int levelIdx = 0;
 
         StatSummary[] victories = new StatSummary[toPlay.getNoPlayers()];
@@ -324,10 +426,18 @@ public class LearningMachine {
      * @return the player, created but NOT initialized, ready to start playing the game.
      */
     private static LearningPlayer createPlayer(String[] cmd) throws IOException {
+        return new LearningPlayer(startClient(cmd), cmd[2]);
+    }
+
+    /**
+     * Launches the client process described by cmd, if any.
+     * @param cmd array with name of the script file to run for the client, plus agent and port
+     * @return the client process, or null when the client connects by sockets on its own.
+     */
+    private static Process startClient(String[] cmd) throws IOException {
         String scriptName = cmd[0];
 
         if(scriptName != null) {
-            Process client;
             ProcessBuilder builder;
             if (cmd.length == 5) {
                 builder = new ProcessBuilder(cmd[0], cmd[1], cmd[2], cmd[3], cmd[4]);
@@ -335,11 +445,10 @@ public class LearningMachine {
                 builder = new ProcessBuilder(cmd[0], cmd[1], cmd[2]);
             }
             builder.redirectErrorStream(true);
-            client = builder.start();
-            return new LearningPlayer(client, cmd[2]);
+            return builder.start();
         }else{
             assert (CompetitionParameters.USE_SOCKETS);
-            return new LearningPlayer(null, cmd[2]);
+            return null;
         }
 
     }
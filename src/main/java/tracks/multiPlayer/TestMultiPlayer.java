@@ -137,6 +137,13 @@ public class TestMultiPlayer {
 //	        }
 //	     }
 
+		 // 7. This plays a tournament between multiple tracks in all games, 5 levels, on parallel workers. Ratings are
+		 // updated after each match, and pairs of controllers stop playing once their rating gap is settled.
+//		 String[] agents = new String[]{sampleMCTSController, sampleRHEAController, sampleRSController};
+//		 tracks.multiPlayer.tools.tournament.Tournament tournament =
+//				 new tracks.multiPlayer.tools.tournament.Tournament(agents, games, new int[]{0, 1, 2, 3, 4}, new int[]{seed});
+//		 tournament.printStandings(tournament.run(seed));
+
 
 
     }
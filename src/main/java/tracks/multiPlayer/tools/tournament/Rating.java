@@ -0,0 +1,95 @@
+package tracks.multiPlayer.tools.tournament;
+
+/**
+ * Rating of an agent in a tournament, with the uncertainty of the rating. Ratings follow the
+ * Glicko system (an Elo rating plus a rating deviation), updated after every match as if each
+ * match was a rating period of its own, so ratings are always up to date while the tournament
+ * runs. The deviation shrinks with each match, and rating +- z * deviation is a confidence
+ * interval of the strength of the agent (z = 1.96 for 95%).
+ */
+public class Rating {
+
+    /**
+     * Rating and deviation of an agent that has not played yet.
+     */
+    public static final double INITIAL_RATING = 1500;
+    public static final double INITIAL_DEVIATION = 350;
+
+    private static final double Q = Math.log(10) / 400;
+
+    /**
+     * Name of the agent.
+     */
+    public String name;
+
+    /**
+     * Current rating and rating deviation.
+     */
+    public double rating = INITIAL_RATING;
+    public double deviation = INITIAL_DEVIATION;
+
+    /**
+     * Matches played, won, drawn and lost.
+     */
+    public int games, wins, draws, losses;
+
+    public Rating(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Updates the ratings of two agents with the result of a match between them.
+     * @param a first agent.
+     * @param b second agent.
+     * @param scoreA result for the first agent: 1 if it won, 0.5 for a draw, 0 if it lost.
+     */
+    public static void update(Rating a, Rating b, double scoreA) {
+        double ra = a.rating, da = a.deviation;
+        a.update(b.rating, b.deviation, scoreA);
+        b.update(ra, da, 1 - scoreA);
+    }
+
+    private void update(double opponent, double opponentDeviation, double score) {
+        double g = g(opponentDeviation);
+        double e = expected(rating, opponent, opponentDeviation);
+        double d2 = 1 / (Q * Q * g * g * e * (1 - e));
+        double precision = 1 / (deviation * deviation) + 1 / d2;
+        rating += Q / precision * g * (score - e);
+        deviation = Math.sqrt(1 / precision);
+
+        games++;
+        if (score > 0.5) wins++;
+        else if (score < 0.5) losses++;
+        else draws++;
+    }
+
+    private static double g(double deviation) {
+        return 1 / Math.sqrt(1 + 3 * Q * Q * deviation * deviation / (Math.PI * Math.PI));
+    }
+
+    private static double expected(double rating, double opponent, double opponentDeviation) {
+        return 1 / (1 + Math.pow(10, -g(opponentDeviation) * (rating - opponent) / 400));
+    }
+
+    /**
+     * Indicates if the difference between the ratings of two agents is settled: the
+     * difference is larger than its confidence interval.
+     * @param a first agent.
+     * @param b second agent.
+     * @param z width of the confidence interval, in deviations (1.96 for 95%).
+     * @return true if more matches are not expected to change which agent is the strongest.
+     */
+    public static boolean settled(Rating a, Rating b, double z) {
+        double gap = Math.abs(a.rating - b.rating);
+        return gap > z * Math.sqrt(a.deviation * a.deviation + b.deviation * b.deviation);
+    }
+
+    /**
+     * Returns the rating as "rating +- interval".
+     * @param z width of the confidence interval, in deviations.
+     * @return the rating.
+     */
+    public String toString(double z) {
+        return String.format("%7.1f +- %5.1f", rating, z * deviation);
+    }
+}
@@ -0,0 +1,486 @@
+package tracks.multiPlayer.tools.tournament;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import core.competition.CompetitionParameters;
+import core.game.Game;
+import core.player.AbstractMultiPlayer;
+import core.vgdl.VGDLFactory;
+import core.vgdl.VGDLParser;
+import core.vgdl.VGDLRegistry;
+import ontology.Types;
+import tools.Utils;
+import tracks.ArcadeMachine;
+
+/**
+ * Self-play tournament between agents of two player games. Every pair of agents (a pairing)
+ * plays matches over all the combinations of games, levels and seeds, each one twice with the
+ * agents in both seats. Matches are played on a pool of worker threads, and the ratings of the
+ * agents (see Rating) are updated as the results arrive.
+ *
+ * A pairing stops playing as soon as the gap between the ratings of its agents is settled
+ * (larger than its confidence interval), so the compute goes to the pairings that are still
+ * close. Pairings are either round robin (all pairs of agents, interleaved so all of them get
+ * results early) or Swiss (rounds where each agent plays the closest rated agent it still has
+ * an open pairing with).
+ *
+ * Usage: java tracks.multiPlayer.tools.tournament.Tournament [-swiss rounds] [-workers n]
+ * [-levels n] [-seeds n] [-games csv] agent1 agent2 [agent3 ...]
+ */
+public class Tournament {
+
+    public static final int ROUND_ROBIN = 0;
+    public static final int SWISS = 1;
+
+    /**
+     * Agents (class names) playing.
+     */
+    public String[] agents;
+
+    /**
+     * Games (path and name, as read by Utils.readGames), levels and seeds of the matches.
+     */
+    public String[][] games;
+    public int[] levels;
+    public int[] seeds;
+
+    /**
+     * ROUND_ROBIN or SWISS, and number of rounds of a Swiss tournament.
+     */
+    public int format = ROUND_ROBIN;
+    public int rounds = 5;
+
+    /**
+     * Matches played by each pairing in a round of a Swiss tournament.
+     */
+    public int matchesPerRound = 2;
+
+    /**
+     * Number of matches played at the same time.
+     */
+    public int workers = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Width of the confidence intervals, in rating deviations, and minimum number of matches
+     * a pairing plays before its gap can be settled. A pairing plays on while its rating gap
+     * is smaller than z times the deviation of the gap.
+     */
+    public double z = 1.96;
+    public int minMatches = 4;
+
+    /**
+     * True to print the result of every match.
+     */
+    public boolean verbose = true;
+
+    /**
+     * Ratings of the agents, in the order of the agents.
+     */
+    public Rating[] ratings;
+
+    /**
+     * Number of matches played, and of matches of the pairings that were not played.
+     */
+    public int played, skipped;
+
+    private ArrayList<Pairing> pairings;
+
+    /**
+     * True once the VGDL factory has been initialized by a match.
+     */
+    private static boolean factoryReady;
+
+    /**
+     * Two agents and the matches they play against each other.
+     */
+    private static class Pairing {
+        int a, b;
+        ArrayList<Match> matches;
+        int next, running, played;
+        double scoreA;
+
+        Pairing(int a, int b, ArrayList<Match> matches) {
+            this.a = a;
+            this.b = b;
+            this.matches = matches;
+        }
+
+        boolean hasMatches() {
+            return next < matches.size();
+        }
+    }
+
+    /**
+     * A match of a pairing: game, level, seed and seats.
+     */
+    private static class Match {
+        Pairing pairing;
+        int game, level, seed;
+        boolean swapped;
+        double[] result;
+
+        Match(Pairing pairing, int game, int level, int seed, boolean swapped) {
+            this.pairing = pairing;
+            this.game = game;
+            this.level = level;
+            this.seed = seed;
+            this.swapped = swapped;
+        }
+    }
+
+    /**
+     * Creates a tournament.
+     * @param agents class names of the agents.
+     * @param games games to play (path and name of each one, as read by Utils.readGames).
+     * @param levels levels (game_lvlN.txt) played in each game.
+     * @param seeds seeds of the matches played in each level.
+     */
+    public Tournament(String[] agents, String[][] games, int[] levels, int[] seeds) {
+        if (agents.length < 2)
+            throw new IllegalArgumentException("Tournament: at least two agents are needed.");
+        this.agents = agents;
+        this.games = games;
+        this.levels = levels;
+        this.seeds = seeds;
+    }
+
+    /**
+     * Plays the tournament.
+     * @param shuffleSeed seed for the order of the matches of each pairing.
+     * @return the ratings of the agents, best first.
+     */
+    public Rating[] run(int shuffleSeed) {
+        ratings = new Rating[agents.length];
+        for (int i = 0; i < agents.length; i++)
+            ratings[i] = new Rating(label(i));
+        played = 0;
+        skipped = 0;
+
+        // Any order of the matches can be stopped early: the combinations are shuffled, and the
+        // two seat orders of a combination are played one after the other.
+        ArrayList<int[]> combinations = new ArrayList<int[]>();
+        for (int g = 0; g < games.length; g++)
+            for (int level : levels)
+                for (int seed : seeds)
+                    combinations.add(new int[]{g, level, seed});
+        Collections.shuffle(combinations, new Random(shuffleSeed));
+
+        pairings = new ArrayList<Pairing>();
+        for (int a = 0; a < agents.length; a++) {
+            for (int b = a + 1; b < agents.length; b++) {
+                Pairing p = new Pairing(a, b, new ArrayList<Match>());
+                for (int[] c : combinations) {
+                    p.matches.add(new Match(p, c[0], c[1], c[2], false));
+                    p.matches.add(new Match(p, c[0], c[1], c[2], true));
+                }
+                pairings.add(p);
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+            Thread t = new Thread(r, "Tournament-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            if (format == SWISS) {
+                for (int r = 0; r < rounds; r++) {
+                    ArrayList<Pairing> round = swissRound();
+                    if (round.isEmpty())
+                        break;
+                    if (verbose)
+                        System.out.println("* Round " + (r + 1) + ": " + round.size() + " pairings");
+                    play(pool, round, matchesPerRound);
+                }
+            } else {
+                play(pool, pairings, Integer.MAX_VALUE);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (Pairing p : pairings)
+            skipped += p.matches.size() - p.next;
+
+        Rating[] standings = ratings.clone();
+        Arrays.sort(standings, Comparator.comparingDouble((Rating r) -> r.rating).reversed());
+        return standings;
+    }
+
+    /**
+     * Plays matches of some pairings until all are settled or have played their quota.
+     * @param pool worker threads.
+     * @param open pairings to play.
+     * @param quota maximum number of matches of each pairing.
+     */
+    private void play(ExecutorService pool, ArrayList<Pairing> open, int quota) {
+        CompletionService<Match> done = new ExecutorCompletionService<Match>(pool);
+        int[] started = new int[open.size()];
+        int running = 0, slots = Math.max(1, workers);
+        while (true) {
+            // Keep all workers busy with the pairings that have played less.
+            while (running < slots) {
+                int best = -1;
+                for (int i = 0; i < open.size(); i++) {
+                    Pairing p = open.get(i);
+                    if (started[i] < quota && p.hasMatches() && !isSettled(p)
+                            && (best == -1 || p.played + p.running < open.get(best).played + open.get(best).running))
+                        best = i;
+                }
+                if (best == -1)
+                    break;
+
+                Pairing p = open.get(best);
+                Match m = p.matches.get(p.next++);
+                p.running++;
+                started[best]++;
+                running++;
+                done.submit(() -> {
+                    m.result = playMatch(m);
+                    return m;
+                });
+            }
+            if (running == 0)
+                break;
+
+            Match m;
+            try {
+                m = done.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Tournament: a match failed.", e.getCause());
+            }
+            running--;
+            record(m);
+        }
+    }
+
+    /**
+     * Indicates if a pairing is settled. Pairings are only settled after both seat orders of
+     * a combination have been played.
+     * @param p the pairing.
+     * @return true if the pairing does not need more matches.
+     */
+    private boolean isSettled(Pairing p) {
+        return p.played >= minMatches && (p.played + p.running) % 2 == 0
+                && Rating.settled(ratings[p.a], ratings[p.b], z);
+    }
+
+    /**
+     * Pairs the agents for a round of a Swiss tournament: from the highest rated down, each
+     * agent plays the closest rated agent with an open pairing that is not playing yet.
+     * @return the pairings of the round.
+     */
+    private ArrayList<Pairing> swissRound() {
+        Integer[] order = new Integer[agents.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (x, y) -> Double.compare(ratings[y].rating, ratings[x].rating));
+
+        boolean[] paired = new boolean[agents.length];
+        ArrayList<Pairing> round = new ArrayList<Pairing>();
+        for (int i = 0; i < order.length; i++) {
+            if (paired[order[i]])
+                continue;
+            for (int j = i + 1; j < order.length; j++) {
+                if (paired[order[j]])
+                    continue;
+                Pairing p = pairing(order[i], order[j]);
+                if (p.hasMatches() && !isSettled(p)) {
+                    paired[order[i]] = paired[order[j]] = true;
+                    round.add(p);
+                    break;
+                }
+            }
+        }
+        return round;
+    }
+
+    private Pairing pairing(int a, int b) {
+        int lo = Math.min(a, b), hi = Math.max(a, b);
+        // Pairings are created in order: (0,1), (0,2), ..., (1,2), ...
+        int index = lo * (2 * agents.length - lo - 1) / 2 + (hi - lo - 1);
+        return pairings.get(index);
+    }
+
+    /**
+     * Updates the ratings with the result of a match.
+     * @param m match played.
+     */
+    private void record(Match m) {
+        Pairing p = m.pairing;
+        p.running--;
+        p.played++;
+        played++;
+
+        int seatA = m.swapped ? 1 : 0;
+        double scoreA = outcome(m.result, seatA);
+        p.scoreA += scoreA;
+        Rating.update(ratings[p.a], ratings[p.b], scoreA);
+
+        if (verbose) {
+            String first = ratings[m.swapped ? p.b : p.a].name, second = ratings[m.swapped ? p.a : p.b].name;
+            System.out.println(String.format("%s vs %s, %s level %d seed %d: %s | %s %s, %s %s",
+                    first, second, games[m.game][1], m.level, m.seed,
+                    scoreA == 0.5 ? "draw" : ratings[scoreA > 0.5 ? p.a : p.b].name + " wins",
+                    ratings[p.a].name, ratings[p.a].toString(z), ratings[p.b].name, ratings[p.b].toString(z)));
+        }
+    }
+
+    /**
+     * Returns the result of a match for a player: the winner of the game wins the match, and
+     * the score breaks the tie if both or none of the players won.
+     * @param result full result of the game (see Game.getFullResult()).
+     * @param seat player ID.
+     * @return 1 if the player won the match, 0.5 for a draw and 0 if it lost.
+     */
+    public static double outcome(double[] result, int seat) {
+        int other = 1 - seat;
+        boolean win = result[seat * 3] == Types.WINNER.PLAYER_WINS.key();
+        boolean otherWin = result[other * 3] == Types.WINNER.PLAYER_WINS.key();
+        if (win != otherWin)
+            return win ? 1 : 0;
+        double score = result[seat * 3 + 1], otherScore = result[other * 3 + 1];
+        return score > otherScore ? 1 : score < otherScore ? 0 : 0.5;
+    }
+
+    /**
+     * Plays a match, without graphics.
+     * @param m the match.
+     * @return the full result of the game (see Game.getFullResult()).
+     */
+    private double[] playMatch(Match m) {
+        Pairing p = m.pairing;
+        String game = games[m.game][0], name = games[m.game][1];
+        String level = game.replace(name, name + "_lvl" + m.level);
+        String[] names = m.swapped ? new String[]{agents[p.b], agents[p.a]}
+                : new String[]{agents[p.a], agents[p.b]};
+        return playMatch(game, level, names, m.seed);
+    }
+
+    /**
+     * Plays a game between two agents, without graphics. Unlike ArcadeMachine.runOneGame, games
+     * can be played this way from several threads at the same time: the game is parsed and built
+     * holding the lock of the sprite registry, and all the sprites created while playing are
+     * copied from templates built with the level.
+     * @param game_file game description file.
+     * @param level_file file with the level to be played.
+     * @param names class names of the agents, in the order of their player IDs.
+     * @param randomSeed seed of the game.
+     * @return the full result of the game (see Game.getFullResult()).
+     */
+    public static double[] playMatch(String game_file, String level_file, String[] names, int randomSeed) {
+        Game toPlay;
+        VGDLRegistry registry = VGDLRegistry.GetInstance();
+        synchronized (registry) {
+            // The classes of the factory are registered once, as games being played may use them.
+            if (!factoryReady) {
+                VGDLFactory.GetInstance().init();
+                factoryReady = true;
+            }
+            registry.init();
+            toPlay = new VGDLParser().parseGame(game_file);
+            toPlay.buildLevel(level_file, randomSeed);
+            toPlay.buildTemplateSprites();
+        }
+        if (toPlay.no_players != names.length)
+            throw new IllegalArgumentException("Tournament: " + game_file + " is not a " + names.length + " player game.");
+
+        ArcadeMachine.warmUp(toPlay, CompetitionParameters.WARMUP_TIME);
+
+        AbstractMultiPlayer[] players = new AbstractMultiPlayer[names.length];
+        for (int i = 0; i < names.length; i++) {
+            players[i] = ArcadeMachine.createMultiPlayer(names[i], null, toPlay.getObservationMulti(i),
+                    randomSeed, i, false);
+            if (players[i] == null) {
+                // The controller could not be created: disqualified.
+                toPlay.getAvatars()[i].disqualify(true);
+                toPlay.handleResult();
+                return toPlay.getFullResult();
+            }
+        }
+
+        toPlay.runGame(players, randomSeed);
+        ArcadeMachine.tearPlayerDown(toPlay, players, null, randomSeed, false);
+        toPlay.handleResult();
+        return toPlay.getFullResult();
+    }
+
+    /**
+     * Name of an agent in the results: its package, numbered if two agents have the same one.
+     */
+    private String label(int i) {
+        String[] parts = agents[i].split("\\.");
+        String name = parts.length > 1 ? parts[parts.length - 2] : agents[i];
+        for (int j = 0; j < agents.length; j++)
+            if (j != i && agents[j].equals(agents[i]))
+                return name + "#" + i;
+        return name;
+    }
+
+    /**
+     * Prints the standings of the tournament.
+     * @param standings ratings of the agents, best first.
+     */
+    public void printStandings(Rating[] standings) {
+        System.out.println("*** Standings: " + played + " matches played, " + skipped + " skipped ***");
+        for (int i = 0; i < standings.length; i++) {
+            Rating r = standings[i];
+            System.out.println(String.format("%2d. %-24s %s  (%d W, %d D, %d L)",
+                    i + 1, r.name, r.toString(z), r.wins, r.draws, r.losses));
+        }
+        for (Pairing p : pairings) {
+            if (p.played > 0)
+                System.out.println(String.format("    %s - %s: %.1f - %.1f in %d matches%s",
+                        ratings[p.a].name, ratings[p.b].name, p.scoreA, p.played - p.scoreA, p.played,
+                        Rating.settled(ratings[p.a], ratings[p.b], z) ? " (settled)" : ""));
+        }
+    }
+
+    public static void main(String[] args) {
+        String gamesFile = "examples/all_games_2p.csv";
+        int format = ROUND_ROBIN, rounds = 5, numLevels = 5, numSeeds = 1;
+        int workers = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> agents = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-swiss": format = SWISS; rounds = Integer.parseInt(args[++i]); break;
+                case "-workers": workers = Integer.parseInt(args[++i]); break;
+                case "-levels": numLevels = Integer.parseInt(args[++i]); break;
+                case "-seeds": numSeeds = Integer.parseInt(args[++i]); break;
+                case "-games": gamesFile = args[++i]; break;
+                default: agents.add(args[i]);
+            }
+        }
+        if (agents.isEmpty()) {
+            agents.add("tracks.multiPlayer.advanced.sampleMCTS.Agent");
+            agents.add("tracks.multiPlayer.advanced.sampleRHEA.Agent");
+            agents.add("tracks.multiPlayer.advanced.sampleRS.Agent");
+        }
+
+        int[] levels = new int[numLevels];
+        for (int i = 0; i < numLevels; i++)
+            levels[i] = i;
+        Random rnd = new Random();
+        int[] seeds = new int[numSeeds];
+        for (int i = 0; i < numSeeds; i++)
+            seeds[i] = rnd.nextInt();
+
+        Tournament t = new Tournament(agents.toArray(new String[0]), Utils.readGames(gamesFile), levels, seeds);
+        t.format = format;
+        t.rounds = rounds;
+        t.workers = workers;
+        t.printStandings(t.run(rnd.nextInt()));
+    }
+}
@@ -104,7 +104,7 @@ public abstract class Comm extends Thread {
         try {
 
             //First thing we recieve: ACK from client about connection. We don't care about that, skip.
-            if(!CompetitionParameters.USE_SOCKETS)
+            if(expectsAck())
                 commRecv();
 
             commSend("START");
@@ -152,6 +152,16 @@ public abstract class Comm extends Thread {
         return false;
     }
 
+    /**
+     * Indicates if the client sends an ACK when it connects, before the START message. Clients
+     * connected by pipes do.
+     *
+     * @return true if startComm() must skip a message first.
+     */
+    protected boolean expectsAck() {
+        return !CompetitionParameters.USE_SOCKETS;
+    }
+
     /**
      * Creates the buffers for communication.
      */
@@ -0,0 +1,567 @@
+package tracks.singleLearning.utils;
+
+import core.competition.CompetitionParameters;
+import ontology.Types.LEARNING_SSO_TYPE;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Server that hosts many learning sessions in one process. Each client (a socket connection, or the
+ * pipes of a client process) is a session, served by its own handler (one game per session), that talks
+ * to its client through a Comm, so the handlers use the same protocol as LearningPlayer and
+ * LearningMachine.
+ *
+ * All sockets are handled by a single thread with a Selector, that only wakes up when there is
+ * something to accept, read or write. The handlers run in their own threads and never touch the
+ * sockets: commSend() queues the message and commRecv() waits for a complete line. Each session may
+ * have up to CompetitionParameters.COMM_BUFFER_LIMIT bytes queued in each direction; over that, its
+ * handler waits in commSend() (or the server stops reading from its client) until the client catches
+ * up, so a slow client only slows down its own session. A client that sends a longer line than that
+ * is disconnected, as its handler could never read it.
+ *
+ * The pipes of a process can't be registered in a Selector, so pipe sessions read their client in a
+ * thread of their own, blocked while there is nothing to read.
+ */
+public class CommServer implements Runnable {
+
+    /**
+     * Serves a session.
+     */
+    public interface SessionHandler {
+        /**
+         * Plays with the client of a session, until it is done. The session is closed afterwards.
+         *
+         * @param comm communication with the client.
+         * @param sessionId number of the session, in order of arrival (from 0).
+         */
+        void serve(Comm comm, int sessionId) throws IOException;
+    }
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private SessionHandler handler;
+    private ExecutorService handlers;
+
+    /**
+     * Sessions whose interest in reading or writing changed, to be updated by the selector thread.
+     */
+    private ConcurrentLinkedQueue<SocketSession> changed = new ConcurrentLinkedQueue<SocketSession>();
+
+    /**
+     * Maximum number of sessions at the same time, sessions open, and sessions started so far.
+     */
+    private int maxSessions;
+    private int openSessions;
+    private int numSessions;
+
+    private volatile boolean running;
+
+    /**
+     * Set when a session ends, so the selector thread accepts again if it was full.
+     */
+    private volatile boolean sessionsChanged;
+
+    /**
+     * Creates a server that accepts socket sessions on a port. Nothing is accepted until run() is called.
+     *
+     * @param port port to listen to (0 for any free port, see getPort()).
+     * @param maxSessions maximum number of sessions served at the same time. Further clients wait to
+     *                    be accepted until a session ends.
+     * @param handler handler of the sessions.
+     */
+    public CommServer(int port, int maxSessions, SessionHandler handler) throws IOException {
+        this.maxSessions = Math.max(1, maxSessions);
+        this.handler = handler;
+        this.handlers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "CommServer-session");
+            t.setDaemon(true);
+            return t;
+        });
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+    }
+
+    /**
+     * Returns the port the server listens to.
+     * @return the port.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Adds a session with a client process, through its pipes.
+     * @param client process of the client.
+     */
+    public void addPipe(Process client) {
+        PipeSession session = new PipeSession(client);
+        synchronized (this) {
+            openSessions++;
+        }
+        session.reader.start();
+        startSession(session);
+    }
+
+    /**
+     * Returns the number of sessions open.
+     * @return the number of sessions.
+     */
+    public synchronized int getOpenSessions() {
+        return openSessions;
+    }
+
+    /**
+     * Runs the selector loop, until close() is called.
+     */
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                if (sessionsChanged) {
+                    sessionsChanged = false;
+                    synchronized (this) {
+                        if (openSessions < maxSessions)
+                            serverChannel.keyFor(selector).interestOps(SelectionKey.OP_ACCEPT);
+                    }
+                }
+                SocketSession session;
+                while ((session = changed.poll()) != null)
+                    session.updateInterest();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    session = (SocketSession) key.attachment();
+                    if (key.isReadable())
+                        session.read();
+                    if (key.isValid() && key.isWritable())
+                        session.write();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("CommServer: " + e);
+        } finally {
+            try {
+                serverChannel.close();
+                for (SelectionKey key : selector.keys())
+                    if (key.attachment() instanceof SocketSession)
+                        ((SocketSession) key.attachment()).close();
+                selector.close();
+            } catch (IOException e) {
+                System.out.println("CommServer: " + e);
+            }
+            handlers.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops the server: run() closes all the sessions and returns.
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SocketSession session = new SocketSession(channel);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+        synchronized (this) {
+            if (++openSessions >= maxSessions)
+                serverChannel.keyFor(selector).interestOps(0);
+        }
+        startSession(session);
+    }
+
+    private void startSession(final Session session) {
+        final int id;
+        synchronized (this) {
+            id = numSessions++;
+        }
+        handlers.execute(() -> {
+            try {
+                handler.serve(session, id);
+            } catch (Exception e) {
+                System.out.println("CommServer: session " + id + " failed: " + e);
+            } finally {
+                session.close();
+                sessionEnded();
+            }
+        });
+    }
+
+    private void sessionEnded() {
+        synchronized (this) {
+            openSessions--;
+        }
+        sessionsChanged = true;
+        selector.wakeup();
+    }
+
+    /**
+     * A session: messages received from the client, as complete lines, waiting to be read by commRecv().
+     */
+    abstract static class Session extends Comm {
+
+        private ArrayDeque<String> lines = new ArrayDeque<String>();
+        private long pendingIn;
+        private long partialIn;
+        protected boolean open = true;
+
+        /**
+         * Sets the length of the line being received, not complete yet. It counts as pending input.
+         */
+        protected synchronized void receiving(long length) {
+            pendingIn += length - partialIn;
+            partialIn = length;
+        }
+
+        /**
+         * Adds a line received from the client.
+         */
+        protected synchronized void received(String line) {
+            lines.add(line);
+            pendingIn += line.length();
+            notifyAll();
+        }
+
+        protected synchronized boolean inputFull() {
+            return pendingIn > CompetitionParameters.COMM_BUFFER_LIMIT;
+        }
+
+        /**
+         * Called when commRecv() took a line.
+         */
+        protected void consumed() {
+        }
+
+        @Override
+        public void initBuffers() {
+        }
+
+        /**
+         * Receives a message from the client.
+         *
+         * @return the response got from the client, or null if no response was received after due time
+         * or the client is gone.
+         */
+        public String commRecv() {
+            long deadline = System.currentTimeMillis() + CompetitionParameters.COMM_RECV_TIMEOUT;
+            while (true) {
+                String line;
+                synchronized (this) {
+                    long wait = deadline - System.currentTimeMillis();
+                    while (lines.isEmpty() && open && wait > 0) {
+                        try {
+                            wait(wait);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return null;
+                        }
+                        wait = deadline - System.currentTimeMillis();
+                    }
+                    line = lines.poll();
+                    if (line == null) {
+                        System.err.println("CommServer: commRecv: No message received. Time threshold exceeded.");
+                        return null;
+                    }
+                    pendingIn -= line.length();
+                }
+                consumed();
+
+                if (line.trim().length() == 0)
+                    continue;
+                String messageParts[] = line.split(TOKEN_SEP);
+                if (messageParts.length < 2) {
+                    System.err.println("CommServer: commRecv(): received message incomplete.");
+                    continue;
+                }
+                long receivedID = Long.parseLong(messageParts[0].trim());
+                if (messageParts.length >= 3) {
+                    switch (messageParts[2].trim()) {
+                        case "JSON":
+                            this.lastSsoType = LEARNING_SSO_TYPE.JSON;
+                            break;
+                        case "IMAGE":
+                            this.lastSsoType = LEARNING_SSO_TYPE.IMAGE;
+                            break;
+                        case "BOTH":
+                            this.lastSsoType = LEARNING_SSO_TYPE.BOTH;
+                            break;
+                    }
+                }
+
+                if (receivedID == (messageId - 1)) {
+                    return messageParts[1].trim();
+                } else if (receivedID > (messageId - 1)) {
+                    //A message from the future? Ignore and return null;
+                    System.err.println("CommServer: commRecv: Communication Error! A message from the future!");
+                    return null;
+                }
+                //Previous message, ignore and keep waiting.
+            }
+        }
+
+        /**
+         * Closes the session: the client is gone, or the handler is done.
+         */
+        public void close() {
+            synchronized (this) {
+                open = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A session with a socket client, read and written by the selector thread.
+     */
+    class SocketSession extends Session {
+
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+        private ByteArrayOutputStream partial = new ByteArrayOutputStream();
+        private ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+        private long pendingOut;
+
+        SocketSession(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        protected boolean expectsAck() {
+            return false;
+        }
+
+        /**
+         * Sends a message to the client. Waits while the client has too much data waiting.
+         *
+         * @param msg message to send.
+         */
+        public void commSend(String msg) throws IOException {
+            ByteBuffer data = ByteBuffer.wrap((messageId + TOKEN_SEP + msg + lineSep).getBytes(StandardCharsets.UTF_8));
+            synchronized (this) {
+                while (open && pendingOut > CompetitionParameters.COMM_BUFFER_LIMIT) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("interrupted");
+                    }
+                }
+                if (!open)
+                    throw new IOException("session closed");
+                out.add(data);
+                pendingOut += data.remaining();
+            }
+            messageId++;
+            changed.add(this);
+            selector.wakeup();
+        }
+
+        @Override
+        protected void consumed() {
+            if (key != null && (key.interestOps() & SelectionKey.OP_READ) == 0) {
+                changed.add(this);
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Sets what the selector waits for, from the state of the session. Selector thread only.
+         */
+        void updateInterest() {
+            if (!key.isValid())
+                return;
+            int ops = inputFull() ? 0 : SelectionKey.OP_READ;
+            synchronized (this) {
+                if (!out.isEmpty())
+                    ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        /**
+         * Reads what the client sent, splitting it into lines. Selector thread only.
+         */
+        void read() {
+            int n;
+            try {
+                n = channel.read(readBuffer);
+            } catch (IOException e) {
+                n = -1;
+            }
+            if (n < 0) {
+                closeChannel();
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    receiving(0);
+                    received(new String(partial.toByteArray(), StandardCharsets.UTF_8));
+                    partial.reset();
+                } else if (b != '\r') {
+                    partial.write(b);
+                }
+            }
+            readBuffer.clear();
+            receiving(partial.size());
+            if (partial.size() > CompetitionParameters.COMM_BUFFER_LIMIT) {
+                System.err.println("CommServer: client line over the buffer limit. Closing the session.");
+                closeChannel();
+                return;
+            }
+            if (inputFull())
+                updateInterest();
+        }
+
+        /**
+         * Writes as much of the queued data as the socket takes. Selector thread only.
+         */
+        void write() {
+            try {
+                synchronized (this) {
+                    while (!out.isEmpty()) {
+                        ByteBuffer data = out.peek();
+                        int n = channel.write(data);
+                        pendingOut -= n;
+                        if (data.hasRemaining())
+                            break;
+                        out.poll();
+                    }
+                    notifyAll();
+                    if (!open && out.isEmpty()) {
+                        closeChannel();
+                        return;
+                    }
+                }
+                updateInterest();
+            } catch (IOException e) {
+                closeChannel();
+            }
+        }
+
+        /**
+         * Closes the session. The messages already sent are still delivered before closing the socket.
+         */
+        @Override
+        public void close() {
+            super.close();
+            synchronized (this) {
+                if (!out.isEmpty())
+                    return;
+            }
+            closeChannel();
+        }
+
+        private void closeChannel() {
+            super.close();
+            if (key != null)
+                key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //Already closed.
+            }
+        }
+    }
+
+    /**
+     * A session with a client process, through its pipes.
+     */
+    static class PipeSession extends Session {
+
+        private Process client;
+        private OutputStream output;
+        private Thread reader;
+
+        PipeSession(Process client) {
+            this.client = client;
+            this.output = client.getOutputStream();
+            this.reader = new Thread(() -> {
+                try {
+                    BufferedReader input = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                            StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = input.readLine()) != null) {
+                        //Backpressure: stop reading the pipe while the handler is behind.
+                        synchronized (this) {
+                            while (open && inputFull())
+                                wait();
+                        }
+                        received(line);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    //The session is over.
+                }
+                close();
+            }, "CommServer-pipe");
+            reader.setDaemon(true);
+        }
+
+        @Override
+        protected boolean expectsAck() {
+            return true;
+        }
+
+        @Override
+        protected synchronized void consumed() {
+            notifyAll();
+        }
+
+        /**
+         * Sends a message to the client. Blocks this session only while the pipe is full.
+         *
+         * @param msg message to send.
+         */
+        public void commSend(String msg) throws IOException {
+            output.write((messageId + TOKEN_SEP + msg + lineSep).getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            messageId++;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            try {
+                output.close();
+            } catch (IOException e) {
+                //Already closed.
+            }
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static core.competition.CompetitionParameters.IMG_PATH;
 
@@ -127,6 +128,14 @@ public class JavaServer {
         for (int i = 0; i <= 4; i++){
             level_files[i] = gamesPath + games[gameIdx] + "_lvl" + i +".txt";
         }
+        // Hosts many clients at once, each one with its own environment of this game (first level).
+        if (params.containsKey("sessions")) {
+            int sessions = Integer.parseInt(params.get("sessions").get(0));
+            LearningMachine.serveVecEnvSessions(new String[]{game}, new String[]{level_files[0]},
+                CompetitionParameters.SOCKET_PORT, sessions, new Random().nextInt());
+            return;
+        }
+
         // This plays a training round for a specified game.
         System.out.println("[GAME] Game idx:" + gameIdx + " game name " + games[gameIdx]);
         LearningMachine.runMultipleGames(game, level_files, cmd, new String[]{null}, visuals);
@@ -11,12 +11,12 @@ public class PipeComm extends Comm {
     /**
      * Reader of the player. Will read actions from the client.
      */
-    public static BufferedReader input;
+    public BufferedReader input;
 
     /**
      * Writer of the player. Used to pass the client the state view information.
      */
-    public static BufferedWriter output;
+    public BufferedWriter output;
 
     /**
      * Client process
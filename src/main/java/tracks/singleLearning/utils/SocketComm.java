@@ -20,7 +20,6 @@ public class SocketComm extends Comm {
     private Scanner in;
     private PrintStream out;
     private boolean end;
-    private static int THRESHOLD = 60000;
 
     /**
      * Public constructor of the player.
@@ -39,9 +38,13 @@ public class SocketComm extends Comm {
     public void initBuffers() {
         try{
             //Accepting the socket connection.
-            while (socket == null) {
+            if (socket == null) {
                 ServerSocket serverSocket = new ServerSocket(port);
-                socket = serverSocket.accept();
+                try {
+                    socket = serverSocket.accept();
+                } finally {
+                    serverSocket.close();
+                }
             }
 
 
@@ -65,9 +68,10 @@ public class SocketComm extends Comm {
         try {
             initBuffers();
 
-            while(!end)
-            {
-
+            //Wait (without spinning) until the communication is over.
+            synchronized (this) {
+                while (!end)
+                    wait();
             }
             //out.format("Sending back: " + received);
 
@@ -80,6 +84,14 @@ public class SocketComm extends Comm {
         }
     }
 
+    /**
+     * Ends the communication: start() closes the socket and returns.
+     */
+    public synchronized void close() {
+        end = true;
+        notifyAll();
+    }
+
     /**
      * Sends a message through the pipe.
      *
@@ -153,14 +165,14 @@ public class SocketComm extends Comm {
      * @return the response got from the client, or null if no response was received after due time.
      */
     public String commRecv() {
-        float timeout = 0;
+        //hasNextLine() blocks until a line arrives, and is false once the client is gone.
         String response = null;
-        while (timeout < THRESHOLD && response == null)
+        while (response == null && in.hasNextLine())
         {
             response = processCommRecv();
         }
         if (response == null){
-            System.err.println("SocketComm: commRecv: No message received. Time threshold exceeded.");
+            System.err.println("SocketComm: commRecv: No message received. The connection is closed.");
         }
         return response;
     }
@@ -0,0 +1,399 @@
+package tracks.singleLearning.utils;
+
+import core.competition.CompetitionParameters;
+import core.game.Game;
+import core.game.Observation;
+import core.game.StateObservation;
+import core.vgdl.VGDLFactory;
+import core.vgdl.VGDLParser;
+import core.vgdl.VGDLRegistry;
+import ontology.Types;
+import ontology.avatar.MovingAvatar;
+import tools.KeyInput;
+import tools.KeyPulse;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Vectorized environment for reinforcement learning. It owns N games (that can
+ * be different games and levels), advances all of them in lockstep on a pool of
+ * worker threads and returns rewards, end flags and observations of all
+ * environments packed in a single VecStep.
+ *
+ * Each environment is stepped through its forward model. Finished episodes are
+ * reset automatically: the observation returned for an environment that has just
+ * finished is the first observation of its next episode.
+ */
+public class VecEnv {
+
+    /**
+     * Games of each environment.
+     */
+    private Game[] games;
+
+    /**
+     * Level file played in each environment.
+     */
+    private String[] levelFiles;
+
+    /**
+     * Sprite registry of the game of each environment, installed when its level is built.
+     */
+    private TreeMap<String, Integer>[] spriteMappings;
+
+    /**
+     * Current state of each environment.
+     */
+    private StateObservation[] states;
+
+    /**
+     * Score of each environment in its previous step, to compute rewards.
+     */
+    private double[] lastScores;
+
+    /**
+     * For each environment, draw rank of each sprite type (higher is drawn on top).
+     */
+    private int[][] drawRanks;
+
+    /**
+     * Actions available in each environment, indexed by the int actions received in step().
+     */
+    private ArrayList<Types.ACTIONS>[] actions;
+
+    /**
+     * Random generator for the seeds of each episode.
+     */
+    private Random seeds;
+
+    /**
+     * Indicates if observations are sent as occupancy tensors instead of grids of sprite types.
+     */
+    private boolean tensorObservations;
+
+    /**
+     * Worker pool that steps the environments.
+     */
+    private ExecutorService workers;
+
+    /**
+     * Number of worker threads (and chunks of environments stepped in parallel).
+     */
+    private int numThreads;
+
+    /**
+     * Result of a reset or a step of all environments. Arrays are indexed by environment,
+     * except observations, which packs the grids of all environments one after the other.
+     */
+    public static class VecStep {
+        public int numEnvs;
+        public double[] rewards;
+        public boolean[] dones;
+        public double[] scores;
+        public int[] gameTicks;
+        public Types.WINNER[] winners;
+
+        /**
+         * Observation grids, flattened. Cell (x,y) of environment i is at
+         * obsOffsets[i] + y * gridWidths[i] + x, and holds the type of the sprite drawn on
+         * top in that cell, or -1 if the cell is empty.
+         */
+        public int[] observations;
+        public int[] obsOffsets;
+        public int[] gridWidths;
+        public int[] gridHeights;
+
+        /**
+         * Occupancy tensors (see StateObservation.getObservationTensor()), flattened, only when
+         * the environments use tensor observations (observations is null then). The tensor of
+         * environment i starts at tensorOffsets[i] and has numSpriteTypes[i] values per cell.
+         */
+        public byte[] tensors;
+        public int[] tensorOffsets;
+        public int[] numSpriteTypes;
+
+        public VecStep(int numEnvs) {
+            this.numEnvs = numEnvs;
+            rewards = new double[numEnvs];
+            dones = new boolean[numEnvs];
+            scores = new double[numEnvs];
+            gameTicks = new int[numEnvs];
+            winners = new Types.WINNER[numEnvs];
+            obsOffsets = new int[numEnvs];
+            gridWidths = new int[numEnvs];
+            gridHeights = new int[numEnvs];
+        }
+    }
+
+    /**
+     * Creates the environments. game_files and level_files must have the same length, one entry
+     * per environment. Only single player games are supported.
+     * @param game_files game description file of each environment.
+     * @param level_files level file of each environment.
+     * @param numThreads number of worker threads used to step the environments.
+     * @param randomSeed seed for the random generator that seeds every episode.
+     */
+    @SuppressWarnings("unchecked")
+    public VecEnv(String[] game_files, String[] level_files, int numThreads, int randomSeed) {
+        if (game_files.length != level_files.length)
+            throw new IllegalArgumentException("VecEnv: one level file per game file is required.");
+
+        int numEnvs = game_files.length;
+        this.numThreads = Math.max(1, Math.min(numThreads, numEnvs));
+        this.levelFiles = level_files;
+        this.seeds = new Random(randomSeed);
+
+        games = new Game[numEnvs];
+        spriteMappings = (TreeMap<String, Integer>[]) new TreeMap<?, ?>[numEnvs];
+        states = new StateObservation[numEnvs];
+        lastScores = new double[numEnvs];
+        drawRanks = new int[numEnvs][];
+        actions = (ArrayList<Types.ACTIONS>[]) new ArrayList<?>[numEnvs];
+
+        VGDLRegistry registry = VGDLRegistry.GetInstance();
+        synchronized (registry) {
+            for (int i = 0; i < numEnvs; i++) {
+                VGDLFactory.GetInstance().init();
+                registry.init();
+                games[i] = new VGDLParser().parseGame(game_files[i]);
+                spriteMappings[i] = registry.getSpriteMapping();
+
+                if (games[i].getNoPlayers() > 1)
+                    throw new IllegalArgumentException("VecEnv: multi player game " + game_files[i] + " not supported.");
+
+                int[] spriteOrder = games[i].getSpriteOrder();
+                drawRanks[i] = new int[spriteMappings[i].size()];
+                for (int r = 0; r < spriteOrder.length; r++)
+                    drawRanks[i][spriteOrder[r]] = r;
+            }
+        }
+
+        workers = Executors.newFixedThreadPool(this.numThreads, r -> {
+            Thread t = new Thread(r, "VecEnv-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Makes all environments observe through the occupancy tensors of their states, which are
+     * maintained incrementally by the forward models. VecStep then carries the tensors instead of
+     * the grids of sprite types.
+     */
+    public void enableObservationTensors() {
+        tensorObservations = true;
+        for (StateObservation so : states) {
+            if (so != null)
+                so.enableObservationTensor();
+        }
+    }
+
+    /**
+     * Returns the number of environments.
+     * @return the number of environments.
+     */
+    public int getNumEnvs() {
+        return games.length;
+    }
+
+    /**
+     * Returns the actions available in an environment. The int actions passed to step()
+     * are indexes in this list. Includes ACTION_NIL.
+     * @param env index of the environment.
+     * @return the actions available.
+     */
+    public ArrayList<Types.ACTIONS> getAvailableActions(int env) {
+        return actions[env];
+    }
+
+    /**
+     * Returns the current state of an environment. It must not be advanced by the caller.
+     * @param env index of the environment.
+     * @return the current state.
+     */
+    public StateObservation getObservation(int env) {
+        return states[env];
+    }
+
+    /**
+     * Starts a new episode in all environments.
+     * @return the first observation of every environment, with zero rewards.
+     */
+    public VecStep reset() {
+        final VecStep step = new VecStep(games.length);
+        for (int i = 0; i < games.length; i++)
+            resetEnv(i);
+        pack(step);
+        return step;
+    }
+
+    /**
+     * Advances all environments one step. Finished environments are reset.
+     * @param envActions one action per environment, as an index in getAvailableActions(env).
+     *                   Out of range indexes are played as ACTION_NIL.
+     * @return rewards, end flags and observations of all environments.
+     */
+    public VecStep step(final int[] envActions) {
+        if (envActions.length != games.length)
+            throw new IllegalArgumentException("VecEnv: expected " + games.length + " actions, got " + envActions.length);
+
+        final VecStep step = new VecStep(games.length);
+        ArrayList<Callable<Void>> tasks = new ArrayList<>();
+        int chunk = (games.length + numThreads - 1) / numThreads;
+        for (int start = 0; start < games.length; start += chunk) {
+            final int from = start;
+            final int to = Math.min(games.length, start + chunk);
+            tasks.add(() -> {
+                for (int i = from; i < to; i++)
+                    stepEnv(i, envActions[i], step);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> f : workers.invokeAll(tasks))
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        pack(step);
+        return step;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Advances one environment, filling its entries in the step results.
+     * @param i index of the environment.
+     * @param actionIdx action to apply, as an index in the available actions.
+     * @param step results to fill.
+     */
+    private void stepEnv(int i, int actionIdx, VecStep step) {
+        StateObservation so = states[i];
+        Types.ACTIONS action = Types.ACTIONS.ACTION_NIL;
+        if (actionIdx >= 0 && actionIdx < actions[i].size())
+            action = actions[i].get(actionIdx);
+
+        so.advance(action);
+
+        double score = so.getGameScore();
+        step.rewards[i] = score - lastScores[i];
+        step.scores[i] = score;
+        step.gameTicks[i] = so.getGameTick();
+        step.winners[i] = so.getGameWinner();
+        step.dones[i] = so.isGameOver();
+        lastScores[i] = score;
+
+        if (step.dones[i])
+            resetEnv(i);
+    }
+
+    /**
+     * Starts a new episode in one environment: the level is built again and a new
+     * forward model, with its own key handler and seed, is taken from the game.
+     * @param i index of the environment.
+     */
+    private void resetEnv(int i) {
+        Game game = games[i];
+        int seed;
+        VGDLRegistry registry = VGDLRegistry.GetInstance();
+        synchronized (registry) {
+            seed = seeds.nextInt();
+            registry.setSpriteMapping(spriteMappings[i]);
+            game.reset();
+            game.buildLevel(levelFiles[i], seed);
+            game.buildTemplateSprites();
+        }
+
+        // Avatars of different environments must not share the static key handler of Game.
+        for (MovingAvatar avatar : game.getAvatars()) {
+            if (avatar != null)
+                avatar.setKeyHandler(CompetitionParameters.KEY_HANDLER == CompetitionParameters.KEY_INPUT ?
+                        new KeyInput() : new KeyPulse(game.getNoPlayers()));
+        }
+        game.initForwardModel();
+
+        states[i] = game.getObservation();
+        states[i].setNewSeed(seed);
+        if (tensorObservations)
+            states[i].enableObservationTensor();
+        actions[i] = states[i].getAvailableActions(true);
+        lastScores[i] = states[i].getGameScore();
+    }
+
+    /**
+     * Packs the observation grids of all environments in the step results.
+     * @param step results to fill.
+     */
+    private void pack(VecStep step) {
+        int total = 0;
+        for (int i = 0; i < games.length; i++) {
+            ArrayList<Observation>[][] grid = states[i].getObservationGrid();
+            step.gridWidths[i] = grid.length;
+            step.gridHeights[i] = grid.length > 0 ? grid[0].length : 0;
+            step.obsOffsets[i] = total;
+            total += step.gridWidths[i] * step.gridHeights[i];
+        }
+
+        if (tensorObservations) {
+            packTensors(step);
+            return;
+        }
+
+        step.observations = new int[total];
+        for (int i = 0; i < games.length; i++) {
+            ArrayList<Observation>[][] grid = states[i].getObservationGrid();
+            int width = step.gridWidths[i];
+            int[] ranks = drawRanks[i];
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < step.gridHeights[i]; y++) {
+                    int top = -1;
+                    for (Observation obs : grid[x][y]) {
+                        if (top == -1 || ranks[obs.itype] > ranks[top])
+                            top = obs.itype;
+                    }
+                    step.observations[step.obsOffsets[i] + y * width + x] = top;
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs the occupancy tensors of all environments in the step results.
+     * @param step results to fill, with the grid dimensions already set.
+     */
+    private void packTensors(VecStep step) {
+        step.tensorOffsets = new int[games.length];
+        step.numSpriteTypes = new int[games.length];
+        int total = 0;
+        for (int i = 0; i < games.length; i++) {
+            step.tensorOffsets[i] = total;
+            int cells = step.gridWidths[i] * step.gridHeights[i];
+            int length = states[i].getObservationTensor().length;
+            step.numSpriteTypes[i] = cells > 0 ? length / cells : 0;
+            total += length;
+        }
+
+        step.tensors = new byte[total];
+        for (int i = 0; i < games.length; i++) {
+            byte[] tensor = states[i].getObservationTensor();
+            System.arraycopy(tensor, 0, step.tensors, step.tensorOffsets[i], tensor.length);
+        }
+    }
+}
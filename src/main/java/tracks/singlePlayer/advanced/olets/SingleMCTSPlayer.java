@@ -7,6 +7,7 @@ import tools.ElapsedCpuTimer;
 import java.util.Random;
 
 import tools.Vector2d;
+import tools.rollout.NodeStateCache;
 
 /**
  * Code written by Adrien Couetoux, acouetoux@ulg.ac.be.
@@ -57,6 +58,18 @@ public class SingleMCTSPlayer {
      */
     private Agent agent;
 
+    /**
+     * Maximum depth of the nodes whose states are cached, and maximum number of states cached (0 to not use the
+     * cache). The cache is only used in deterministic games.
+     */
+    public int stateCacheDepth = 10;
+    public int stateCacheSize = 200;
+
+    /**
+     * States of the nodes of the tree, or null if iterations are simulated from the root (in stochastic games).
+     */
+    private NodeStateCache<SingleTreeNode> stateCache;
+
     /**
      * Public constructor with a sampleRandom generator object.
      *
@@ -97,6 +110,14 @@ public class SingleMCTSPlayer {
             }
         }
 
+        //Iterations can start from the states of the nodes only if the game is deterministic.
+        if (stateCacheSize > 0 && !gameState.isStochastic()) {
+            if (stateCache == null)
+                stateCache = new NodeStateCache<>(stateCacheDepth, stateCacheSize);
+            stateCache.clear();
+        } else {
+            stateCache = null;
+        }
     }
 
     /**
@@ -131,11 +152,22 @@ public class SingleMCTSPlayer {
 
         int remainingLimit = 5;
         while (remaining > 2 * avgTimeTaken && remaining > remainingLimit) {
-            tempState = rootObservation.copy();
             ElapsedCpuTimer elapsedTimerIteration = new ElapsedCpuTimer();
 
+            // start from the deepest node of the path whose state is cached, if any
+            SingleTreeNode start = stateCache == null ? rootNode : deepestCachedNode();
+            StateObservation startState = start == rootNode ? rootObservation : stateCache.get(start);
+            SingleTreeNode selectedChild = null;
+            if (startState == null) {
+                // the child selected from the deepest cached node: the tree policy continues from it
+                selectedChild = start;
+                start = start.parent;
+                startState = start == rootNode ? rootObservation : stateCache.get(start);
+            }
+            tempState = startState.copy();
+
             // treepolicy: navigate from the root node until either we add a new node or we reach a final state
-            SingleTreeNode selected = treePolicy(tempState);
+            SingleTreeNode selected = treePolicy(start, selectedChild, tempState);
 
             double delta = value(tempState, selected.getNodeDepth());
 //            double delta = rollOut(tempState);
@@ -151,14 +183,38 @@ public class SingleMCTSPlayer {
         }
     }
 
+    /**
+     * Navigates the tree as the tree policy does, while the nodes selected have their state cached.
+     * @return  the last node selected: the deepest node reached whose state is cached (the root node if none),
+     * or the child selected from it whose state is not cached, that the tree policy must continue from
+     */
+    private SingleTreeNode deepestCachedNode() {
+        SingleTreeNode currentNode = rootNode;
+        while (!currentNode.notFullyExpanded()) {
+            SingleTreeNode next = currentNode.selectChild();
+            StateObservation state = stateCache.get(next);
+            if (state == null) {
+                return next;
+            }
+            currentNode = next;
+            if (state.isGameOver()) {
+                break;
+            }
+        }
+        return currentNode;
+    }
+
     /**
      * The policy that navigates through the tree.
-     * @param currentObservation    the initial state observation, used as the root node
+     * @param startNode    the node the navigation starts from (the root node, or a node whose state is cached)
+     * @param selectedChild    the child of the start node already selected by deepestCachedNode(), or null
+     * @param currentObservation    the state observation of the start node
      * @return  the tree node where the tree navigation has ended (it can be a final node/state, or just the node where the policy exited the tree.
      */
-    private SingleTreeNode treePolicy(StateObservation currentObservation) {
-        SingleTreeNode currentNode = rootNode;
-        int localDepth = 0;
+    private SingleTreeNode treePolicy(SingleTreeNode startNode, SingleTreeNode selectedChild,
+                                      StateObservation currentObservation) {
+        SingleTreeNode currentNode = startNode;
+        int localDepth = startNode.getNodeDepth();
         double _tabooBias;
         int i;
         boolean stateFound;
@@ -168,10 +224,15 @@ public class SingleMCTSPlayer {
             if (currentNode.notFullyExpanded()) {
                 return expand(currentNode, currentObservation);
             } else {
-                SingleTreeNode next = currentNode.selectChild();
+                SingleTreeNode next = selectedChild != null ? selectedChild : currentNode.selectChild();
+                selectedChild = null;
                 currentObservation.advance(agent.actions[next.getActionIndex()]);
 
                 currentNode = next;
+                // nodes visited often are likely to be traversed again: copying their state pays off
+                if (stateCache != null && currentNode.getNbGenerated() >= agent.NUM_ACTIONS) {
+                    stateCache.put(currentNode, currentNode.getNodeDepth(), currentObservation);
+                }
                 if (currentNode.getNbGenerated() == 0) {
                     _tabooBias = 0.0;
                     i = 0;
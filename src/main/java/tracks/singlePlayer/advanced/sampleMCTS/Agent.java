@@ -57,11 +57,14 @@ public class Agent extends AbstractPlayer {
      */
     public Types.ACTIONS act(StateObservation stateObs, ElapsedCpuTimer elapsedTimer) {
 
+        //The elapsed timer counts CPU time only: the wall-clock deadline is taken now.
+        long wallDeadline = System.currentTimeMillis() + elapsedTimer.remainingTimeMillis();
+
         //Set the state observation object as the new root of the tree.
         mctsPlayer.init(stateObs);
 
         //Determine the action using MCTS...
-        int action = mctsPlayer.run(elapsedTimer);
+        int action = mctsPlayer.run(elapsedTimer, wallDeadline);
 
         //... and return it.
         return actions[action];
@@ -5,6 +5,7 @@ import java.util.Random;
 import core.game.StateObservation;
 import ontology.Types;
 import tools.ElapsedCpuTimer;
+import tools.rollout.NodeStateCache;
 
 /**
  * Created with IntelliJ IDEA.
@@ -29,6 +30,18 @@ public class SingleMCTSPlayer
     public int num_actions;
     public Types.ACTIONS[] actions;
 
+    /**
+     * Maximum depth of the nodes whose states are cached, and maximum number of states cached
+     * (0 to not use the cache). The cache is only used in deterministic games.
+     */
+    public int STATE_CACHE_DEPTH = 10;
+    public int STATE_CACHE_SIZE = 200;
+
+    /**
+     * States of the nodes of the tree.
+     */
+    private NodeStateCache<SingleTreeNode> stateCache;
+
     public SingleMCTSPlayer(Random a_rnd, int num_actions, Types.ACTIONS[] actions)
     {
         this.num_actions = num_actions;
@@ -46,17 +59,27 @@ public class SingleMCTSPlayer
         //System.out.println("learning_style = " + learning_style);
         m_root = new SingleTreeNode(m_rnd, num_actions, actions);
         m_root.rootState = a_gameState;
+
+        //Iterations can start from the states of the nodes only if the game is deterministic.
+        if (STATE_CACHE_SIZE > 0 && !a_gameState.isStochastic()) {
+            if (stateCache == null)
+                stateCache = new NodeStateCache<>(STATE_CACHE_DEPTH, STATE_CACHE_SIZE);
+            stateCache.clear();
+            m_root.stateCache = stateCache;
+        }
     }
 
     /**
      * Runs MCTS to decide the action to take. It does not reset the tree.
      * @param elapsedTimer Timer when the action returned is due.
+     * @param wallDeadline Wall-clock time when the action returned is due (bounds the time spent
+     *                     waiting for rollout workers).
      * @return the action to execute in the game.
      */
-    public int run(ElapsedCpuTimer elapsedTimer)
+    public int run(ElapsedCpuTimer elapsedTimer, long wallDeadline)
     {
         //Do the search within the available time.
-        m_root.mctsSearch(elapsedTimer);
+        m_root.mctsSearch(elapsedTimer, wallDeadline);
 
         //Determine the best action to take and return it.
         int action = m_root.mostVisitedAction();
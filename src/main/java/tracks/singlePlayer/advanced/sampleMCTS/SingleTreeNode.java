@@ -6,6 +6,8 @@ import core.game.StateObservation;
 import ontology.Types;
 import tools.ElapsedCpuTimer;
 import tools.Utils;
+import tools.rollout.NodeStateCache;
+import tools.rollout.RolloutCoordinator;
 
 public class SingleTreeNode
 {
@@ -29,6 +31,12 @@ public class SingleTreeNode
 
     public StateObservation rootState;
 
+    /**
+     * States of the nodes of the tree, shared by all of them, or null to simulate every
+     * iteration from the root state (open loop).
+     */
+    public NodeStateCache<SingleTreeNode> stateCache;
+
     public SingleTreeNode(Random rnd, int num_actions, Types.ACTIONS[] actions) {
         this(null, -1, rnd, num_actions, actions);
     }
@@ -41,28 +49,56 @@ public class SingleTreeNode
         children = new SingleTreeNode[num_actions];
         totValue = 0.0;
         this.childIdx = childIdx;
-        if(parent != null)
+        if(parent != null) {
             m_depth = parent.m_depth+1;
+            stateCache = parent.stateCache;
+        }
         else
             m_depth = 0;
     }
 
 
-    public void mctsSearch(ElapsedCpuTimer elapsedTimer) {
+    /**
+     * Runs MCTS iterations from this node while there is time left.
+     * @param elapsedTimer Timer when the action is due (CPU time).
+     * @param wallDeadline Wall-clock time (System.currentTimeMillis()) when the action is due. It
+     *                     only applies when rollout workers are used, as waiting for them takes no
+     *                     CPU time.
+     */
+    public void mctsSearch(ElapsedCpuTimer elapsedTimer, long wallDeadline) {
 
         double avgTimeTaken = 0;
         double acumTimeTaken = 0;
-        long remaining = elapsedTimer.remainingTimeMillis();
+        RolloutCoordinator coordinator = parent == null ? RolloutCoordinator.getDefault() : null;
+        if (coordinator == null)
+            wallDeadline = Long.MAX_VALUE;
+        long remaining = remainingTime(elapsedTimer, wallDeadline);
         int numIters = 0;
 
         int remainingLimit = 5;
+        if (coordinator != null)
+        {
+            remoteRollouts(coordinator, remaining / 2);
+            remaining = remainingTime(elapsedTimer, wallDeadline);
+        }
+
         while(remaining > 2*avgTimeTaken && remaining > remainingLimit){
         //while(numIters < Agent.MCTS_ITERATIONS){
 
-            StateObservation state = rootState.copy();
-
             ElapsedCpuTimer elapsedTimerIteration = new ElapsedCpuTimer();
-            SingleTreeNode selected = treePolicy(state);
+
+            SingleTreeNode start = stateCache == null ? this : deepestCachedNode();
+            StateObservation startState = start == this ? rootState : stateCache.get(start);
+            SingleTreeNode selectedChild = null;
+            if (startState == null)
+            {
+                //The child selected from the deepest cached node: the tree policy continues from it.
+                selectedChild = start;
+                start = start.parent;
+                startState = start == this ? rootState : stateCache.get(start);
+            }
+            StateObservation state = startState.copy();
+            SingleTreeNode selected = start.treePolicy(selectedChild, state);
             double delta = selected.rollOut(state);
             backUp(selected, delta);
 
@@ -70,11 +106,86 @@ public class SingleTreeNode
             acumTimeTaken += (elapsedTimerIteration.elapsedMillis()) ;
             //System.out.println(elapsedTimerIteration.elapsedMillis() + " --> " + acumTimeTaken + " (" + remaining + ")");
             avgTimeTaken  = acumTimeTaken/numIters;
-            remaining = elapsedTimer.remainingTimeMillis();
+            remaining = remainingTime(elapsedTimer, wallDeadline);
         }
     }
 
-    public SingleTreeNode treePolicy(StateObservation state) {
+    /**
+     * Milliseconds left: CPU time, bounded by a wall-clock deadline.
+     */
+    private static long remainingTime(ElapsedCpuTimer elapsedTimer, long wallDeadline)
+    {
+        return Math.min(elapsedTimer.remainingTimeMillis(), wallDeadline - System.currentTimeMillis());
+    }
+
+    /**
+     * Runs rollouts from each child of the root in the workers of a RolloutCoordinator, and adds
+     * their results to the children (created if needed) and to the root, as if they had been run
+     * here. The search then continues locally from these statistics.
+     * @param coordinator coordinator of the workers.
+     * @param budget time for the rollouts, in milliseconds.
+     */
+    public void remoteRollouts(RolloutCoordinator coordinator, long budget)
+    {
+        int rollouts = coordinator.maxRollouts(budget, num_actions, ROLLOUT_DEPTH);
+        if (rollouts < 1)
+            return;
+
+        Types.ACTIONS[][] prefixes = new Types.ACTIONS[num_actions][];
+        for (int i = 0; i < num_actions; i++)
+            prefixes[i] = new Types.ACTIONS[]{actions[i]};
+        RolloutCoordinator.Spec spec = new RolloutCoordinator.Spec(ROLLOUT_DEPTH - 1, rollouts,
+                HUGE_POSITIVE, HUGE_NEGATIVE, false);
+        RolloutCoordinator.Stats[] results = coordinator.evaluate(rootState, 0, prefixes, spec, budget);
+
+        for (int i = 0; i < num_actions; i++)
+        {
+            RolloutCoordinator.Stats st = results[i];
+            if (st == null || st.n == 0)
+                continue;
+            if (children[i] == null)
+                children[i] = new SingleTreeNode(this, i, this.m_rnd, num_actions, actions);
+            for (SingleTreeNode n = children[i]; n != null; n = n.parent)
+            {
+                n.nVisits += st.n;
+                n.totValue += st.mean * st.n;
+                n.bounds[0] = Math.min(n.bounds[0], st.min);
+                n.bounds[1] = Math.max(n.bounds[1], st.max);
+            }
+        }
+    }
+
+    /**
+     * Descends the tree as the tree policy does, while the nodes selected have their state cached.
+     * @return the last node selected: the deepest node reached whose state is cached (this one if
+     * none has it), or the child selected from it whose state is not cached, that the tree policy
+     * must continue from.
+     */
+    private SingleTreeNode deepestCachedNode() {
+
+        SingleTreeNode cur = this;
+
+        while (cur.m_depth < ROLLOUT_DEPTH && !cur.notFullyExpanded())
+        {
+            SingleTreeNode next = cur.uctSelect();
+            StateObservation state = stateCache.get(next);
+            if (state == null)
+                return next;
+            cur = next;
+            if (state.isGameOver())
+                break;
+        }
+
+        return cur;
+    }
+
+    /**
+     * Descends the tree from this node, selecting children with UCT, until it expands a node.
+     * @param selectedChild child of this node already selected by deepestCachedNode(), or null.
+     * @param state state of this node, advanced along the path.
+     * @return the node reached.
+     */
+    public SingleTreeNode treePolicy(SingleTreeNode selectedChild, StateObservation state) {
 
         SingleTreeNode cur = this;
 
@@ -84,8 +195,19 @@ public class SingleTreeNode
                 return cur.expand(state);
 
             } else {
-                SingleTreeNode next = cur.uct(state);
+                SingleTreeNode next;
+                if (selectedChild != null) {
+                    next = selectedChild;
+                    selectedChild = null;
+                    state.advance(actions[next.childIdx]);
+                } else {
+                    next = cur.uct(state);
+                }
                 cur = next;
+
+                //Nodes visited often are likely to be traversed again: copying their state pays off.
+                if (stateCache != null && cur.nVisits >= num_actions)
+                    stateCache.put(cur, cur.m_depth, state);
             }
         }
 
@@ -116,6 +238,16 @@ public class SingleTreeNode
 
     public SingleTreeNode uct(StateObservation state) {
 
+        SingleTreeNode selected = uctSelect();
+
+        //Roll the state:
+        state.advance(actions[selected.childIdx]);
+
+        return selected;
+    }
+
+    private SingleTreeNode uctSelect() {
+
         SingleTreeNode selected = null;
         double bestValue = -Double.MAX_VALUE;
         for (SingleTreeNode child : this.children)
@@ -143,9 +275,6 @@ public class SingleTreeNode
             + bounds[0] + " " + bounds[1]);
         }
 
-        //Roll the state:
-        state.advance(actions[selected.childIdx]);
-
         return selected;
     }
 
@@ -4,6 +4,8 @@ import core.game.StateObservation;
 import core.player.AbstractPlayer;
 import ontology.Types;
 import tools.ElapsedCpuTimer;
+import tools.rollout.PrefixStateCache;
+import tools.rollout.RolloutCoordinator;
 import tracks.singlePlayer.tools.Heuristics.StateHeuristic;
 import tracks.singlePlayer.tools.Heuristics.WinScoreHeuristic;
 
@@ -20,6 +22,8 @@ public class Agent extends AbstractPlayer {
     private int MUTATION = 1;
     private int TOURNAMENT_SIZE = 2;
     private int ELITISM = 1;
+    private int CHECKPOINT_INTERVAL = 2;
+    private int MAX_CHECKPOINTS = 100;
     private StateHeuristic heuristic;
 
     // Constants
@@ -34,9 +38,12 @@ public class Agent extends AbstractPlayer {
     private int N_ACTIONS;
     private HashMap<Integer, Types.ACTIONS> action_mapping;
     private Random randomGenerator;
+    private PrefixStateCache stateCache = new PrefixStateCache(CHECKPOINT_INTERVAL, SIMULATION_DEPTH - 1, MAX_CHECKPOINTS);
+    private boolean useStateCache;
 
     // Budgets
     private ElapsedCpuTimer timer;
+    private long wallDeadline;
     private double acumTimeTakenEval = 0,avgTimeTakenEval = 0, avgTimeTaken = 0, acumTimeTaken = 0;
     private int numEvals = 0, numIters = 0;
     private boolean keepIterating = true;
@@ -62,7 +69,9 @@ public class Agent extends AbstractPlayer {
         numEvals = 0;
         acumTimeTakenEval = 0;
         numIters = 0;
-        remaining = timer.remainingTimeMillis();
+        // waiting for rollout workers takes no CPU time: with them, the budget is kept in wall-clock time too
+        wallDeadline = remoteCoordinator() == null ? Long.MAX_VALUE : System.currentTimeMillis() + timer.remainingTimeMillis();
+        remaining = remainingTime();
         NUM_INDIVIDUALS = 0;
         keepIterating = true;
 
@@ -70,10 +79,10 @@ public class Agent extends AbstractPlayer {
         init_pop(stateObs);
 
         // RUN EVOLUTION
-        remaining = timer.remainingTimeMillis();
+        remaining = remainingTime();
         while (remaining > avgTimeTaken && remaining > BREAK_MS && keepIterating) {
             runIteration(stateObs);
-            remaining = timer.remainingTimeMillis();
+            remaining = remainingTime();
         }
 
         // RETURN ACTION
@@ -106,7 +115,7 @@ public class Agent extends AbstractPlayer {
                     // evaluate new individual, insert into population
                     add_individual(newind, nextPop, i, stateObs);
 
-                    remaining = timer.remainingTimeMillis();
+                    remaining = remainingTime();
                 } else {
                     keepIterating = false;
                     break;
@@ -152,17 +161,22 @@ public class Agent extends AbstractPlayer {
 
         ElapsedCpuTimer elapsedTimerIterationEval = new ElapsedCpuTimer();
 
-        StateObservation st = state.copy();
-        int i;
-        double acum = 0, avg;
-        for (i = 0; i < SIMULATION_DEPTH; i++) {
+        StateObservation st;
+        int i, first = 0;
+        if (useStateCache) {
+            st = stateCache.resume(individual.actions, SIMULATION_DEPTH);
+            first = stateCache.resumedDepth();
+        } else {
+            st = state.copy();
+        }
+        for (i = first; i < SIMULATION_DEPTH; i++) {
             if (! st.isGameOver()) {
-                ElapsedCpuTimer elapsedTimerIteration = new ElapsedCpuTimer();
                 st.advance(action_mapping.get(individual.actions[i]));
+                if (useStateCache)
+                    stateCache.played(individual.actions, i+1, st);
 
-                acum += elapsedTimerIteration.elapsedMillis();
-                avg = acum / (i+1);
-                remaining = timer.remainingTimeMillis();
+                double avg = elapsedTimerIterationEval.elapsedMillis() / (double) (i+1-first);
+                remaining = remainingTime();
                 if (remaining < 2*avg || remaining < BREAK_MS) break;
             } else {
                 break;
@@ -174,11 +188,63 @@ public class Agent extends AbstractPlayer {
         numEvals++;
         acumTimeTakenEval += (elapsedTimerIterationEval.elapsedMillis());
         avgTimeTakenEval = acumTimeTakenEval / numEvals;
-        remaining = timer.remainingTimeMillis();
+        remaining = remainingTime();
 
         return individual.value;
     }
 
+    /**
+     * @return - milliseconds left to act: CPU time, bounded by the wall-clock deadline
+     */
+    private long remainingTime() {
+        return Math.min(timer.remainingTimeMillis(), wallDeadline - System.currentTimeMillis());
+    }
+
+    /**
+     * @return - the default rollout coordinator, if its workers can evaluate the individuals (they
+     * apply the win-score heuristic only); null otherwise
+     */
+    private RolloutCoordinator remoteCoordinator() {
+        RolloutCoordinator coordinator = RolloutCoordinator.getDefault();
+        if (coordinator == null || coordinator.numWorkers() == 0 || heuristic.getClass() != WinScoreHeuristic.class)
+            return null;
+        return coordinator;
+    }
+
+    /**
+     * Evaluates individuals in the workers of a rollout coordinator, with the same value
+     * WinScoreHeuristic gives to the last state reached, using up to half of the time left.
+     * It is done once per action, for the initial population.
+     * @param coordinator - coordinator of the workers
+     * @param inds - individuals to be valued
+     * @param state - current state, root of rollouts
+     * @return - for each individual, whether it was evaluated (if not, its value is unchanged)
+     */
+    private boolean[] remoteEvaluate(RolloutCoordinator coordinator, Individual[] inds, StateObservation state) {
+        boolean[] evaluated = new boolean[inds.length];
+        long budget = remainingTime() / 2;
+        int count = Math.min(inds.length, coordinator.maxPrefixes(budget, new RolloutCoordinator.Spec(0, 1, 0, 0, true), SIMULATION_DEPTH));
+        if (count < 1)
+            return evaluated;
+
+        Types.ACTIONS[][] prefixes = new Types.ACTIONS[count][SIMULATION_DEPTH];
+        for (int i = 0; i < count; i++)
+            for (int j = 0; j < SIMULATION_DEPTH; j++)
+                prefixes[i][j] = action_mapping.get(inds[i].actions[j]);
+        RolloutCoordinator.Spec spec = new RolloutCoordinator.Spec(0, 1, 1000.0, -1000.0, true);
+        RolloutCoordinator.Stats[] results = coordinator.evaluate(state, 0, prefixes, spec, budget);
+
+        // the time of local evaluations is estimated from local evaluations only
+        for (int i = 0; i < count; i++) {
+            if (results[i] != null) {
+                inds[i].value = results[i].mean;
+                evaluated[i] = true;
+            }
+        }
+        remaining = remainingTime();
+        return evaluated;
+    }
+
     /**
      * @return - the individual resulting from crossover applied to the specified population
      */
@@ -225,7 +291,7 @@ public class Agent extends AbstractPlayer {
      */
     private void init_pop(StateObservation stateObs) {
 
-        double remaining = timer.remainingTimeMillis();
+        double remaining = remainingTime();
 
         N_ACTIONS = stateObs.getAvailableActions().size() + 1;
         action_mapping = new HashMap<>();
@@ -236,13 +302,34 @@ public class Agent extends AbstractPlayer {
         }
         action_mapping.put(k, Types.ACTIONS.ACTION_NIL);
 
+        // individuals share prefixes: in deterministic games, their evaluations resume from shared states
+        useStateCache = !stateObs.isStochastic();
+        if (useStateCache)
+            stateCache.reset(stateObs, N_ACTIONS);
+
         population = new Individual[POPULATION_SIZE];
         nextPop = new Individual[POPULATION_SIZE];
+
+        // with rollout workers, the population is created and evaluated there first
+        Individual[] initial = null;
+        boolean[] evaluated = null;
+        RolloutCoordinator coordinator = remoteCoordinator();
+        if (coordinator != null) {
+            initial = new Individual[POPULATION_SIZE];
+            for (int i = 0; i < POPULATION_SIZE; i++)
+                initial[i] = new Individual(SIMULATION_DEPTH, N_ACTIONS, randomGenerator);
+            evaluated = remoteEvaluate(coordinator, initial, stateObs);
+            remaining = remainingTime();
+        }
+
         for (int i = 0; i < POPULATION_SIZE; i++) {
-            if (i == 0 || remaining > avgTimeTakenEval && remaining > BREAK_MS) {
-                population[i] = new Individual(SIMULATION_DEPTH, N_ACTIONS, randomGenerator);
+            if (evaluated != null && evaluated[i]) {
+                population[i] = initial[i];
+                NUM_INDIVIDUALS = i+1;
+            } else if (i == 0 || remaining > avgTimeTakenEval && remaining > BREAK_MS) {
+                population[i] = initial != null ? initial[i] : new Individual(SIMULATION_DEPTH, N_ACTIONS, randomGenerator);
                 evaluate(population[i], heuristic, stateObs);
-                remaining = timer.remainingTimeMillis();
+                remaining = remainingTime();
                 NUM_INDIVIDUALS = i+1;
             } else {break;}
         }
@@ -4,6 +4,7 @@ import core.game.StateObservation;
 import core.player.AbstractPlayer;
 import ontology.Types;
 import tools.ElapsedCpuTimer;
+import tools.rollout.PrefixStateCache;
 import tracks.singlePlayer.tools.Heuristics.StateHeuristic;
 import tracks.singlePlayer.tools.Heuristics.WinScoreHeuristic;
 
@@ -13,6 +14,9 @@ public class Agent extends AbstractPlayer {
 
     // Parameters
     private int SIMULATION_DEPTH = 10;
+    private int CHECKPOINT_INTERVAL = 1;
+    private int CHECKPOINT_DEPTH = 2;
+    private int MAX_CHECKPOINTS = 100;
     private StateHeuristic heuristic;
 
     // Constants
@@ -24,6 +28,8 @@ public class Agent extends AbstractPlayer {
     private int NUM_INDIVIDUALS;
     private HashMap<Integer, Types.ACTIONS> action_mapping;
     private Random randomGenerator;
+    private PrefixStateCache stateCache = new PrefixStateCache(CHECKPOINT_INTERVAL, CHECKPOINT_DEPTH, MAX_CHECKPOINTS);
+    private boolean useStateCache;
 
     // Budget
     private ElapsedCpuTimer timer;
@@ -74,16 +80,21 @@ public class Agent extends AbstractPlayer {
 
         ElapsedCpuTimer elapsedTimerIterationEval = new ElapsedCpuTimer();
 
-        StateObservation st = state.copy();
-        int i;
-        for (i = 0; i < SIMULATION_DEPTH; i++) {
-            double acum = 0, avg;
+        StateObservation st;
+        int i, first = 0;
+        if (useStateCache) {
+            st = stateCache.resume(individual.actions, SIMULATION_DEPTH);
+            first = stateCache.resumedDepth();
+        } else {
+            st = state.copy();
+        }
+        for (i = first; i < SIMULATION_DEPTH; i++) {
             if (! st.isGameOver()) {
-                ElapsedCpuTimer elapsedTimerIteration = new ElapsedCpuTimer();
                 st.advance(action_mapping.get(individual.actions[i]));
+                if (useStateCache)
+                    stateCache.played(individual.actions, i+1, st);
 
-                acum += elapsedTimerIteration.elapsedMillis();
-                avg = acum / (i+1);
+                double avg = elapsedTimerIterationEval.elapsedMillis() / (double) (i+1-first);
                 remaining = timer.remainingTimeMillis();
                 if (remaining < 2*avg || remaining < BREAK_MS) break;
             } else {
@@ -118,6 +129,11 @@ public class Agent extends AbstractPlayer {
         }
         action_mapping.put(k, Types.ACTIONS.ACTION_NIL);
 
+        // random individuals share short prefixes: in deterministic games, their evaluations resume from shared states
+        useStateCache = !stateObs.isStochastic();
+        if (useStateCache)
+            stateCache.reset(stateObs, n_ACTIONS);
+
         NUM_INDIVIDUALS = 0;
 
         population = new ArrayList<>();